@@ -0,0 +1,369 @@
+package client;
+
+import common.BinaryProtocol;
+import common.Capabilities;
+import common.Logger;
+import common.Protocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batching UDP Client
+ * Coalesces the operations issued within a short window into one batch datagram
+ * (see BinaryProtocol.OP_BATCH), so many small requests cost one packet and one
+ * round trip instead of one each
+ *
+ * An operation joins the open batch and the batch is sent when
+ * - the linger window that started with its first operation has passed,
+ * - the next operation would make it larger than BinaryProtocol.MAX_DATAGRAM_SIZE, or
+ * - it holds as many operations as the server accepts in one batch (from HELLO).
+ * A batch of one operation goes out as a plain request, and against a server without
+ * batch support every operation does; against a text-only server as a text line.
+ *
+ * Batches are sent and answered one at a time by a single sender thread, and the
+ * responses are matched to the operations by their order in the batch. Every binary
+ * datagram carries a request ID of its own (BinaryProtocol.FLAG_REQUEST_ID on the batch
+ * header or the single frame), and an answer with another ID, a late one to a batch that
+ * already timed out, is skipped instead of being taken for the current batch's answer.
+ *
+ * Usage:
+ *   try (BatchingUDPClient client = new BatchingUDPClient("localhost", 9090)) {
+ *       CompletableFuture<String> a = client.send(Protocol.PUT, "a", "1");
+ *       CompletableFuture<String> b = client.send(Protocol.GET, "b", null);
+ *       System.out.println(a.join() + " / " + b.join());
+ *   }
+ */
+public class BatchingUDPClient implements AutoCloseable {
+    // How long the first operation of a batch waits for others to join it
+    public static final long DEFAULT_LINGER_MICROS = 200;
+
+    // How long a batch waits for its answer
+    public static final int TIMEOUT_MILLIS = 2000;
+
+    // What this client offers in the HELLO handshake
+    public static final Capabilities CLIENT_CAPABILITIES = new Capabilities(Capabilities.VERSION, true,
+            1, new String[]{Capabilities.COMPRESSION_NONE}, BinaryProtocol.MAX_BATCH);
+
+    private final DatagramSocket socket;
+    private final InetAddress address;
+    private final int port;
+    private final long lingerMicros;
+    private final Logger logger;
+    private final Capabilities negotiated;
+    private final int maxBatch;
+    private final ScheduledExecutorService sender;
+
+    // Only the sender thread receives, so one response buffer is enough
+    private final byte[] receiveData = new byte[64 * 1024];
+
+    // The open batch, guarded by this
+    private List<Operation> batch = new ArrayList<>();
+    private int batchBytes;
+    // Counts batches, so a linger timer only flushes the batch it was started for
+    private long batchNumber;
+    private boolean closed;
+    // Request ID of the next datagram; used by the sender thread only
+    private int nextRequestId;
+
+    /**
+     * One operation waiting in a batch
+     */
+    private static final class Operation {
+        final String request;
+        final byte opcode;
+        final byte[] frame;
+        final CompletableFuture<String> future = new CompletableFuture<>();
+
+        Operation(String request, byte opcode, byte[] frame) {
+            this.request = request;
+            this.opcode = opcode;
+            this.frame = frame;
+        }
+    }
+
+    /**
+     * @param serverAddress The IP address or hostname of the server
+     * @param port The port number the server is listening on
+     * @throws IOException if the server cannot be resolved or the socket cannot be opened
+     */
+    public BatchingUDPClient(String serverAddress, int port) throws IOException {
+        this(serverAddress, port, DEFAULT_LINGER_MICROS);
+    }
+
+    /**
+     * @param serverAddress The IP address or hostname of the server
+     * @param port The port number the server is listening on
+     * @param lingerMicros How long a batch stays open for more operations
+     * @throws IOException if the server cannot be resolved or the socket cannot be opened
+     */
+    public BatchingUDPClient(String serverAddress, int port, long lingerMicros) throws IOException {
+        this.logger = new Logger(BatchingUDPClient.class);
+        this.address = InetAddress.getByName(serverAddress);
+        this.port = port;
+        this.lingerMicros = lingerMicros;
+        this.socket = new DatagramSocket();
+        this.negotiated = negotiate();
+        this.maxBatch = negotiated.isBinary() ? Math.min(negotiated.getMaxBatch(), BinaryProtocol.MAX_BATCH) : 1;
+        this.sender = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "udp-batch-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * HELLO handshake, like UDPClient.negotiate(); no answer means a text-only server
+     */
+    private Capabilities negotiate() throws IOException {
+        byte[] hello = Protocol.createHelloRequest(CLIENT_CAPABILITIES).getBytes(StandardCharsets.US_ASCII);
+        DatagramPacket response = exchange(hello, -1);
+        Capabilities result = Protocol.parseHelloResponse(response == null ? null
+                : new String(response.getData(), 0, response.getLength(), StandardCharsets.US_ASCII));
+        logger.log("Negotiated: " + result);
+        return result;
+    }
+
+    /**
+     * Adds an operation to the open batch without waiting for the response
+     *
+     * @param operation PUT, GET or DELETE
+     * @param key The key to operate on
+     * @param value The value for PUT, null otherwise
+     * @return A future completed with the response text (as UDPClient would log it), or
+     *         completed exceptionally if the request is invalid or gets no answer
+     */
+    public CompletableFuture<String> send(String operation, String key, String value) {
+        String request = Protocol.createRequest(operation, key, value);
+        byte opcode = (request != null) ? BinaryProtocol.opcodeFor(operation) : 0;
+        // SCAN pages are too large to share a datagram, UDPClient.sendRequest covers it
+        if (opcode == 0 || opcode == BinaryProtocol.OP_SCAN) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException(
+                    "Invalid request: operation=" + operation + ", key=" + key));
+        }
+        byte[] valueBytes = (Protocol.PUT.equalsIgnoreCase(operation) && value != null)
+                ? value.getBytes(StandardCharsets.UTF_8) : null;
+        Operation op = new Operation(request, opcode, BinaryProtocol.encodeRequest(opcode, key, valueBytes));
+
+        List<Operation> ready = null;
+        List<Operation> full = null;
+        synchronized (this) {
+            if (closed) {
+                return CompletableFuture.failedFuture(new IOException("Client is closed"));
+            }
+            // The largest request ID is added when the batch is sent
+            if (!batch.isEmpty() && BinaryProtocol.encodedBatchSize(batch.size() + 1, batchBytes + op.frame.length)
+                    + BinaryProtocol.varintSize(Integer.MAX_VALUE) > BinaryProtocol.MAX_DATAGRAM_SIZE) {
+                ready = takeBatch();
+            }
+            batch.add(op);
+            batchBytes += op.frame.length;
+            if (batch.size() >= maxBatch) {
+                full = takeBatch();
+            } else if (batch.size() == 1) {
+                long number = batchNumber;
+                sender.schedule(() -> flush(number), lingerMicros, TimeUnit.MICROSECONDS);
+            }
+        }
+        submit(ready);
+        submit(full);
+        return op.future;
+    }
+
+    /**
+     * Sends the open batch now instead of waiting for the linger window to pass
+     */
+    public void flush() {
+        List<Operation> ready;
+        synchronized (this) {
+            ready = takeBatch();
+        }
+        submit(ready);
+    }
+
+    /**
+     * Linger timer: sends the batch it was started for, unless that one already left
+     */
+    private void flush(long number) {
+        List<Operation> ready = null;
+        synchronized (this) {
+            if (batchNumber == number) {
+                ready = takeBatch();
+            }
+        }
+        if (ready != null) {
+            sendBatch(ready);
+        }
+    }
+
+    /** Closes the open batch and starts a new one; caller holds the lock */
+    private List<Operation> takeBatch() {
+        if (batch.isEmpty()) {
+            return null;
+        }
+        List<Operation> taken = batch;
+        batch = new ArrayList<>();
+        batchBytes = 0;
+        batchNumber++;
+        return taken;
+    }
+
+    private void submit(List<Operation> ready) {
+        if (ready != null) {
+            sender.execute(() -> sendBatch(ready));
+        }
+    }
+
+    /**
+     * Sends one batch and completes its futures; runs on the sender thread only
+     */
+    private void sendBatch(List<Operation> ops) {
+        int requestId = negotiated.isBinary() ? nextRequestId() : -1;
+        try {
+            DatagramPacket response = exchange(encode(ops, requestId), requestId);
+            if (response == null) {
+                throw new SocketTimeoutException("Timeout for batch of " + ops.size());
+            }
+            ByteArrayInputStream in = new ByteArrayInputStream(response.getData(), 0, response.getLength());
+            if (!negotiated.isBinary()) {
+                ops.get(0).future.complete(new String(response.getData(), 0, response.getLength(), StandardCharsets.UTF_8));
+            } else if (ops.size() == 1) {
+                ops.get(0).future.complete(BinaryProtocol.readResponse(in).toText(ops.get(0).opcode));
+            } else {
+                List<BinaryProtocol.Response> responses = BinaryProtocol.readBatchResponse(in);
+                if (responses.size() != ops.size()) {
+                    throw new IOException("Batch of " + ops.size() + " answered with " + responses.size());
+                }
+                for (int i = 0; i < ops.size(); i++) {
+                    ops.get(i).future.complete(responses.get(i).toText(ops.get(i).opcode));
+                }
+            }
+            logger.log("Batch of " + ops.size() + " sent in one datagram");
+        } catch (IOException e) {
+            logger.log("Error: " + e.getMessage());
+            for (Operation op : ops) {
+                op.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private byte[] encode(List<Operation> ops, int requestId) {
+        if (!negotiated.isBinary()) {
+            return ops.get(0).request.getBytes(StandardCharsets.UTF_8);
+        }
+        if (ops.size() == 1) {
+            return BinaryProtocol.withRequestId(ops.get(0).frame, requestId);
+        }
+        List<byte[]> frames = new ArrayList<>(ops.size());
+        for (Operation op : ops) {
+            frames.add(op.frame);
+        }
+        return BinaryProtocol.encodeBatch(requestId, frames);
+    }
+
+    private int nextRequestId() {
+        int id = nextRequestId;
+        nextRequestId = (nextRequestId + 1) & Integer.MAX_VALUE;
+        return id;
+    }
+
+    /**
+     * Sends one datagram to the server and waits up to TIMEOUT_MILLIS for its answer
+     *
+     * Answers carrying another request ID are late answers to earlier datagrams and are
+     * skipped, and so is any other untagged answer (a late HELLO_OK, say) than an error
+     * frame: that is the server's error for a datagram it could not read.
+     *
+     * @param requestId The ID the datagram carries, -1 for text, which is not matched
+     * @return The response packet, or null on timeout
+     */
+    private DatagramPacket exchange(byte[] sendData, int requestId) throws IOException {
+        socket.send(new DatagramPacket(sendData, sendData.length, address, port));
+        DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+        try {
+            while (true) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    return null;
+                }
+                socket.setSoTimeout((int) remaining);
+                receivePacket.setLength(receiveData.length);
+                socket.receive(receivePacket);
+                if (answers(receivePacket, requestId)) {
+                    return receivePacket;
+                }
+                logger.log("Skipped a late answer while waiting for #" + requestId);
+            }
+        } catch (SocketTimeoutException e) {
+            return null;
+        }
+    }
+
+    private static boolean answers(DatagramPacket response, int requestId) {
+        if (requestId < 0) {
+            return true;
+        }
+        int responseId = BinaryProtocol.responseId(ByteBuffer.wrap(response.getData(), 0, response.getLength()));
+        return responseId == requestId
+                || (responseId < 0 && response.getLength() > 0 && BinaryProtocol.isUntaggedError(response.getData()[0]));
+    }
+
+    /** @return The capabilities agreed with the server */
+    public Capabilities getNegotiated() {
+        return negotiated;
+    }
+
+    /**
+     * Sends what is still batched, waits for its answers and closes the socket
+     */
+    @Override
+    public void close() {
+        List<Operation> ready;
+        synchronized (this) {
+            closed = true;
+            ready = takeBatch();
+        }
+        submit(ready);
+        sender.shutdown();
+        try {
+            sender.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        socket.close();
+    }
+
+    /**
+     * Demonstrates batching: issues a burst of PUTs and GETs and waits for all of them
+     * Usage: java BatchingUDPClient <host> <port>
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Usage: java BatchingUDPClient <host> <port>");
+            return;
+        }
+        try (BatchingUDPClient client = new BatchingUDPClient(args[0], Integer.parseInt(args[1]))) {
+            List<CompletableFuture<String>> responses = new ArrayList<>();
+            for (int i = 1; i <= 5; i++) {
+                responses.add(client.send(Protocol.PUT, "key" + i, "value" + i));
+                responses.add(client.send(Protocol.GET, "key" + i, null));
+            }
+            for (CompletableFuture<String> response : responses) {
+                System.out.println(response.join());
+            }
+        }
+    }
+}
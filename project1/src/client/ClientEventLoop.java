@@ -0,0 +1,170 @@
+package client;
+
+import common.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Selector thread shared by the asynchronous APIs of TCPClient and UDPClient
+ *
+ * Channels are non-blocking and registered here; the thread waits for all of them at
+ * once, so any number of requests can be in flight from any number of clients without
+ * a thread per request or per connection. Other threads hand work to the loop with
+ * execute(), which wakes the selector at most once per batch of tasks.
+ *
+ * Retransmission needs timers: schedule() runs an action on the loop thread after a
+ * delay, and the selector waits no longer than until the earliest one is due.
+ *
+ * Futures completed by the handlers run their dependent stages on this thread, so
+ * those must not block; the *Async variants of CompletableFuture move them elsewhere.
+ */
+final class ClientEventLoop implements Runnable {
+    /**
+     * Reacts to a registered channel becoming ready; called on the loop thread
+     */
+    interface Handler {
+        void ready(SelectionKey key);
+    }
+
+    /**
+     * An action scheduled on the loop; cancelled ones are skipped when due
+     */
+    static final class Timer {
+        private final long deadline;
+        private final Runnable action;
+        private volatile boolean cancelled;
+
+        private Timer(long deadline, Runnable action) {
+            this.deadline = deadline;
+            this.action = action;
+        }
+
+        void cancel() {
+            cancelled = true;
+        }
+    }
+
+    private static final ClientEventLoop SHARED = new ClientEventLoop();
+
+    private final Selector selector;
+    private final Thread thread;
+    private final Logger logger;
+    // Work handed over by other threads
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    // Set while a wakeup is on its way, so a burst of execute() calls wakes the selector once
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    // Only touched by the loop thread
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>(Comparator.comparingLong(timer -> timer.deadline));
+
+    private ClientEventLoop() {
+        try {
+            this.selector = Selector.open();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.logger = new Logger(ClientEventLoop.class);
+        this.thread = new Thread(this, "client-event-loop");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** @return The loop every asynchronous client shares */
+    static ClientEventLoop shared() {
+        return SHARED;
+    }
+
+    boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Runs a task on the loop thread, soon
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (!inLoop() && wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Registers a non-blocking channel; loop thread only
+     */
+    SelectionKey register(SelectableChannel channel, int ops, Handler handler) throws ClosedChannelException {
+        return channel.register(selector, ops, handler);
+    }
+
+    /**
+     * Runs an action on the loop thread after a delay; loop thread only
+     */
+    Timer schedule(long delayNanos, Runnable action) {
+        Timer timer = new Timer(System.nanoTime() + delayNanos, action);
+        timers.add(timer);
+        return timer;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                wakeupPending.set(false);
+                long wait = runTimers();
+                if (!tasks.isEmpty()) {
+                    selector.selectNow();
+                } else if (wait < 0) {
+                    selector.select();
+                } else {
+                    selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait + 999_999)));
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid()) {
+                        ((Handler) key.attachment()).ready(key);
+                    }
+                }
+
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+            } catch (IOException | RuntimeException e) {
+                // A failing handler must not stop the loop the other clients depend on
+                logger.log("Client event loop error: " + e);
+            }
+        }
+    }
+
+    /**
+     * Runs the timers that are due
+     * @return Nanoseconds until the next one, -1 if none is scheduled
+     */
+    private long runTimers() {
+        Timer timer;
+        while ((timer = timers.peek()) != null) {
+            long remaining = timer.deadline - System.nanoTime();
+            if (remaining > 0) {
+                return remaining;
+            }
+            timers.poll();
+            if (!timer.cancelled) {
+                timer.action.run();
+            }
+        }
+        return -1;
+    }
+}
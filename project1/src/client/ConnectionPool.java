@@ -0,0 +1,450 @@
+package client;
+
+import common.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of open connections to one server, for TCPClient
+ *
+ * Opening a connection per request costs a TCP handshake (and the server a new
+ * connection) for every GET; on loopback that is most of the round trip. The pool keeps
+ * connections open between requests and lends them out one request at a time.
+ *
+ * - Size: minSize connections are opened up front and kept open; at most maxSize are
+ *   open at once. A borrower that finds all of them lent out waits, in arrival order
+ *   (a fair semaphore), for up to the checkout timeout.
+ * - Reuse: idle connections are kept most recently used first, so a steady load keeps
+ *   reusing the same few and the rest age out.
+ * - Idle eviction: connections above minSize that were idle for maxIdleMillis are closed
+ *   by a background task. Keep maxIdleMillis below the server's idle timeout, so the
+ *   pool closes its connections before the server does.
+ * - Health checks: a connection idle for VALIDATE_AFTER_MILLIS or more is checked before
+ *   it is lent out, and by the background task, with a non-blocking read. A connection
+ *   the server closed reads end-of-stream; one with unexpected bytes waiting is out of
+ *   step with the protocol. Either is closed instead of being used.
+ *
+ * Each connection serves one request at a time, so a server has to serve connections
+ * concurrently for a pool of more than one to help: TCPServer in nio or virtual mode.
+ * The default TCPServer serves one connection at a time and would leave the others
+ * waiting for as long as a pooled connection stays open.
+ *
+ * Thread safe.
+ */
+public class ConnectionPool implements Closeable {
+    public static final long DEFAULT_MAX_IDLE_MILLIS = 30_000;
+    public static final long DEFAULT_CHECKOUT_TIMEOUT_MILLIS = 5_000;
+    // Connections idle for less than this are lent out without a check
+    public static final long VALIDATE_AFTER_MILLIS = 1_000;
+
+    // One daemon thread does the eviction for all pools
+    private static final ScheduledExecutorService MAINTENANCE = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "connection-pool-maintenance");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String host;
+    private final int port;
+    private final int minSize;
+    private final int maxSize;
+    private final long maxIdleNanos;
+    private final long checkoutTimeoutMillis;
+    private final Logger logger;
+
+    // Idle connections, most recently used first
+    private final BlockingDeque<Connection> idle = new LinkedBlockingDeque<>();
+    // One permit per connection that may be lent out; fair, so waiters are served in order
+    private final Semaphore permits;
+    private final ScheduledFuture<?> maintenance;
+    private volatile boolean closed;
+
+    private final AtomicInteger open = new AtomicInteger();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong broken = new AtomicLong();
+    private final AtomicLong waited = new AtomicLong();
+
+    /**
+     * One pooled connection; the stream methods are for TCPClient
+     */
+    public static final class Connection implements Closeable {
+        private final SocketChannel channel;
+        final OutputStream out;
+        final InputStream in;
+        // Set once any response byte arrived, see received()
+        private boolean received;
+        private long lastUsed = System.nanoTime();
+        private int uses;
+
+        private Connection(String host, int port) throws IOException {
+            // Resolved for every connection, so a pool follows the server's name to a new address
+            InetSocketAddress address = new InetSocketAddress(host, port);
+            if (address.isUnresolved()) {
+                throw new UnknownHostException(host);
+            }
+            this.channel = SocketChannel.open(address);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            this.out = Channels.newOutputStream(channel);
+            this.in = new BufferedInputStream(new FilterInputStream(Channels.newInputStream(channel)) {
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    if (n > 0) {
+                        received = true;
+                    }
+                    return n;
+                }
+            });
+        }
+
+        /**
+         * Opens a connection that belongs to no pool
+         */
+        static Connection open(String host, int port) throws IOException {
+            return new Connection(host, port);
+        }
+
+        /**
+         * Reads one response line, without its line end
+         * @throws EOFException if the server closed the connection first
+         */
+        String readLine() throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b < 0) {
+                    throw new EOFException("Connection closed by server");
+                }
+                line.write(b);
+            }
+            int length = line.size();
+            byte[] bytes = line.toByteArray();
+            if (length > 0 && bytes[length - 1] == '\r') {
+                length--;
+            }
+            return new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+
+        /** @return Whether this connection served a request before the current one */
+        boolean wasReused() {
+            return uses > 0;
+        }
+
+        /**
+         * @return Whether the server sent anything during the current request; a request
+         *         that failed before that was not answered, and may be sent again
+         */
+        boolean received() {
+            return received;
+        }
+
+        /**
+         * Checks, without blocking, that the server has not closed the connection and
+         * sent nothing unasked
+         */
+        private boolean isHealthy() {
+            if (!channel.isOpen()) {
+                return false;
+            }
+            try {
+                if (in.available() > 0) {
+                    return false;
+                }
+                channel.configureBlocking(false);
+                try {
+                    return channel.read(ByteBuffer.allocate(1)) == 0;
+                } finally {
+                    channel.configureBlocking(true);
+                }
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        private long idleNanos(long now) {
+            return now - lastUsed;
+        }
+
+        @Override
+        public void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Nothing left to do with it
+            }
+        }
+    }
+
+    /**
+     * @param host The server's address or hostname
+     * @param port The server's port
+     * @param minSize Connections opened up front and kept open
+     * @param maxSize Connections open at most
+     */
+    public ConnectionPool(String host, int port, int minSize, int maxSize) {
+        this(host, port, minSize, maxSize, DEFAULT_MAX_IDLE_MILLIS, DEFAULT_CHECKOUT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param host The server's address or hostname
+     * @param port The server's port
+     * @param minSize Connections opened up front and kept open
+     * @param maxSize Connections open at most
+     * @param maxIdleMillis Idle time after which connections above minSize are closed
+     * @param checkoutTimeoutMillis How long borrow() waits for a connection to be returned
+     */
+    public ConnectionPool(String host, int port, int minSize, int maxSize, long maxIdleMillis,
+                          long checkoutTimeoutMillis) {
+        if (minSize < 0 || maxSize < 1 || minSize > maxSize || maxIdleMillis < 1 || checkoutTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Invalid connection pool: size " + minSize + "-" + maxSize
+                    + ", max idle " + maxIdleMillis + "ms, checkout timeout " + checkoutTimeoutMillis + "ms");
+        }
+        this.host = host;
+        this.port = port;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.maxIdleNanos = TimeUnit.MILLISECONDS.toNanos(maxIdleMillis);
+        this.checkoutTimeoutMillis = checkoutTimeoutMillis;
+        this.permits = new Semaphore(maxSize, true);
+        this.logger = new Logger(ConnectionPool.class);
+
+        fill();
+        long interval = Math.max(10, Math.min(maxIdleMillis / 2, 5_000));
+        this.maintenance = MAINTENANCE.scheduleWithFixedDelay(this::maintain, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Takes a connection, waiting in line if all maxSize are lent out
+     * Every borrowed connection must be given back with release() or discard().
+     *
+     * @throws IOException if no connection was free within the checkout timeout,
+     *                     or a new one could not be opened
+     */
+    public Connection borrow() throws IOException {
+        if (closed) {
+            throw new IOException("Connection pool is closed");
+        }
+        acquire();
+        try {
+            long now = System.nanoTime();
+            Connection connection;
+            while ((connection = idle.pollFirst()) != null) {
+                if (connection.idleNanos(now) < TimeUnit.MILLISECONDS.toNanos(VALIDATE_AFTER_MILLIS)
+                        || connection.isHealthy()) {
+                    reused.incrementAndGet();
+                    connection.received = false;
+                    return connection;
+                }
+                remove(connection, broken);
+            }
+            return connect();
+        } catch (IOException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Takes a new connection rather than an idle one, for a request that failed on a
+     * connection that had been idle
+     */
+    Connection borrowNew() throws IOException {
+        acquire();
+        try {
+            return connect();
+        } catch (IOException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private void acquire() throws IOException {
+        try {
+            // tryAcquire() without a timeout would jump the queue of a fair semaphore
+            if (!permits.tryAcquire(0, TimeUnit.MILLISECONDS)) {
+                waited.incrementAndGet();
+                if (!permits.tryAcquire(checkoutTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    throw new IOException("No connection to " + host + ":" + port + " free within "
+                            + checkoutTimeoutMillis + "ms (" + maxSize + " in use)");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a connection to " + host + ":" + port);
+        }
+    }
+
+    private Connection connect() throws IOException {
+        Connection connection = new Connection(host, port);
+        open.incrementAndGet();
+        created.incrementAndGet();
+        return connection;
+    }
+
+    /**
+     * Gives back a connection whose request completed, for reuse
+     */
+    public void release(Connection connection) {
+        connection.uses++;
+        connection.lastUsed = System.nanoTime();
+        if (closed || open.get() > maxSize) {
+            remove(connection, evicted);
+        } else {
+            idle.offerFirst(connection);
+        }
+        permits.release();
+    }
+
+    /**
+     * Gives back a connection that failed, or is in an unknown state; it is closed
+     */
+    public void discard(Connection connection) {
+        remove(connection, broken);
+        permits.release();
+    }
+
+    private void remove(Connection connection, AtomicLong reason) {
+        connection.close();
+        open.decrementAndGet();
+        reason.incrementAndGet();
+    }
+
+    /**
+     * Background task: closes connections idle too long (keeping minSize), checks the
+     * others that have been idle a while, and opens connections back up to minSize
+     */
+    private void maintain() {
+        if (closed) {
+            return;
+        }
+        long now = System.nanoTime();
+        // Oldest first, so the least recently used are the ones evicted
+        List<Connection> snapshot = new ArrayList<>(idle);
+        for (int i = snapshot.size() - 1; i >= 0; i--) {
+            Connection connection = snapshot.get(i);
+            long idleNanos = connection.idleNanos(now);
+            if (idleNanos < TimeUnit.MILLISECONDS.toNanos(VALIDATE_AFTER_MILLIS) && idleNanos < maxIdleNanos) {
+                continue;
+            }
+            // Taken out first, so a borrower can't get it while it is looked at
+            if (!idle.removeFirstOccurrence(connection)) {
+                continue;
+            }
+            if (idleNanos >= maxIdleNanos && open.get() > minSize) {
+                remove(connection, evicted);
+            } else if (!connection.isHealthy()) {
+                remove(connection, broken);
+            } else {
+                idle.offerLast(connection);
+            }
+        }
+        fill();
+    }
+
+    /**
+     * Opens connections until minSize are open; a server that cannot be reached is
+     * tried again on the next maintenance run
+     */
+    private void fill() {
+        int current;
+        while ((current = open.get()) < minSize && !closed) {
+            if (!open.compareAndSet(current, current + 1)) {
+                continue;
+            }
+            try {
+                idle.offerLast(new Connection(host, port));
+                created.incrementAndGet();
+            } catch (IOException e) {
+                open.decrementAndGet();
+                logger.log("Failed to open pooled connection to " + host + ":" + port + ": " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    /** @return Connections open, idle or lent out */
+    public int openConnections() {
+        return open.get();
+    }
+
+    /** @return Connections waiting in the pool */
+    public int idleConnections() {
+        return idle.size();
+    }
+
+    /** @return Connections opened so far */
+    public long createdConnections() {
+        return created.get();
+    }
+
+    /** @return Times an open connection was lent out again */
+    public long reusedConnections() {
+        return reused.get();
+    }
+
+    /** @return Connections closed for being idle too long or above maxSize */
+    public long evictedConnections() {
+        return evicted.get();
+    }
+
+    /** @return Connections closed because they failed or the server closed them */
+    public long brokenConnections() {
+        return broken.get();
+    }
+
+    /** @return Borrowers that found every connection lent out and had to wait */
+    public long waitedCheckouts() {
+        return waited.get();
+    }
+
+    /**
+     * Summarizes the gauges and counters
+     */
+    public String stats() {
+        return "open=" + openConnections() + " idle=" + idleConnections() + " (" + minSize + "-" + maxSize + ")"
+                + " created=" + createdConnections() + " reused=" + reusedConnections()
+                + " evicted=" + evictedConnections() + " broken=" + brokenConnections()
+                + " waited=" + waitedCheckouts();
+    }
+
+    /**
+     * Closes the idle connections; connections lent out are closed when they are given back
+     */
+    @Override
+    public void close() {
+        closed = true;
+        maintenance.cancel(false);
+        Connection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            remove(connection, evicted);
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package client;
+
+import common.BinaryProtocol;
+import common.Logger;
+import common.Protocol;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Multiplexed TCP Client
+ * Keeps one connection open and lets any number of threads send requests over it concurrently
+ *
+ * Every request is tagged with a request ID ("#42 GET key", see Protocol.REQUEST_ID_PREFIX),
+ * and the server may answer tagged requests out of order. A reader thread matches each
+ * response to its request by ID and completes the matching future, so one slow request
+ * doesn't hold up the ones behind it (no head-of-line blocking).
+ *
+ * In binary mode requests go out as binary frames with the ID after the opcode, and
+ * responses are read as binary frames; the futures still get the text form of the answer.
+ * Operations without a binary form (see BinaryProtocol.opcodeFor) fail in that mode.
+ *
+ * A response without an ID is an error for a request the server could not read. It cannot
+ * say which request that was, so it fails the oldest one still waiting. A request that is
+ * not answered within the timeout (DEFAULT_TIMEOUT_MILLIS unless set with timeout()) fails
+ * with a TimeoutException.
+ *
+ * Usage:
+ *   try (MultiplexedTCPClient client = new MultiplexedTCPClient("localhost", 8080)) {
+ *       CompletableFuture<String> a = client.send(Protocol.GET, "a", null);
+ *       CompletableFuture<String> b = client.send(Protocol.GET, "b", null);
+ *       System.out.println(a.join() + " / " + b.join());
+ *   }
+ */
+public class MultiplexedTCPClient implements AutoCloseable {
+    public static final long DEFAULT_TIMEOUT_MILLIS = 10_000;
+
+    /**
+     * A request waiting for its response
+     */
+    private static final class Pending {
+        // Increases with every request, unlike the ID, which wraps around
+        private final long sequence;
+        private final byte opcode;
+        private final CompletableFuture<String> future = new CompletableFuture<>();
+
+        private Pending(long sequence, byte opcode) {
+            this.sequence = sequence;
+            this.opcode = opcode;
+        }
+    }
+
+    private final Socket socket;
+    private final OutputStream out;
+    private final InputStream in;
+    private final boolean binary;
+    private final Logger logger;
+
+    // Requests waiting for their response, by request ID
+    private final Map<Integer, Pending> pending = new ConcurrentHashMap<>();
+    private final AtomicLong nextSequence = new AtomicLong();
+    private final Thread reader;
+    private volatile long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+    private volatile boolean closed;
+
+    /**
+     * Opens the connection and starts the response reader thread; requests are text lines
+     * @param serverAddress The IP address or hostname of the server
+     * @param port The port number the server is listening on
+     * @throws IOException if the server cannot be reached
+     */
+    public MultiplexedTCPClient(String serverAddress, int port) throws IOException {
+        this(serverAddress, port, false);
+    }
+
+    /**
+     * Opens the connection and starts the response reader thread
+     * @param serverAddress The IP address or hostname of the server
+     * @param port The port number the server is listening on
+     * @param binary Whether requests and responses are binary frames
+     * @throws IOException if the server cannot be reached
+     */
+    public MultiplexedTCPClient(String serverAddress, int port, boolean binary) throws IOException {
+        this.logger = new Logger(MultiplexedTCPClient.class);
+        this.binary = binary;
+        this.socket = new Socket(serverAddress, port);
+        socket.setTcpNoDelay(true);
+        this.out = socket.getOutputStream();
+        this.in = new BufferedInputStream(socket.getInputStream());
+        this.reader = new Thread(this::readResponses, "multiplexed-tcp-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Sets how long a request may wait for its response; applies to requests sent after
+     * @param timeoutMillis The timeout in milliseconds
+     * @return This client
+     */
+    public MultiplexedTCPClient timeout(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        return this;
+    }
+
+    /**
+     * Sends a request without waiting for the response
+     *
+     * @param operation PUT, GET, DELETE or SCAN
+     * @param key The key to operate on
+     * @param value The value for PUT, null otherwise
+     * @return A future completed with the response line (without its ID), or completed
+     *         exceptionally if the connection fails, the server could not read the request,
+     *         or no response arrives within the timeout
+     */
+    public CompletableFuture<String> send(String operation, String key, String value) {
+        byte opcode = binary ? BinaryProtocol.opcodeFor(operation) : 0;
+        if (binary && opcode == 0) {
+            // Its text answer could not be told apart from a binary frame
+            return CompletableFuture.failedFuture(
+                    new IllegalArgumentException("No binary form for operation " + operation));
+        }
+        long sequence = nextSequence.getAndIncrement();
+        // IDs wrap around after 2^31 requests; by then the old ones are long answered
+        int requestId = (int) sequence & Integer.MAX_VALUE;
+        Pending request = new Pending(sequence, opcode);
+        CompletableFuture<String> future = request.future;
+        pending.put(requestId, request);
+        // Checked after registering, so a concurrent close() either sees the future or we see closed
+        if (closed) {
+            pending.remove(requestId);
+            future.completeExceptionally(new IOException("Client is closed"));
+            return future;
+        }
+        future.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+                .whenComplete((response, failure) -> pending.remove(requestId, request));
+
+        byte[] frame;
+        if (binary) {
+            byte[] valueBytes = (Protocol.PUT.equalsIgnoreCase(operation) && value != null)
+                    ? value.getBytes(StandardCharsets.UTF_8) : null;
+            frame = BinaryProtocol.encodeRequest(opcode, requestId, key, valueBytes);
+        } else {
+            frame = (Protocol.withRequestId(requestId, Protocol.createRequest(operation, key, value)) + "\n")
+                    .getBytes(StandardCharsets.UTF_8);
+        }
+        try {
+            // One write per request keeps lines from different threads from interleaving
+            synchronized (out) {
+                out.write(frame);
+                out.flush();
+            }
+        } catch (IOException e) {
+            pending.remove(requestId);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * @return Number of requests sent but not answered yet
+     */
+    public int pendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Reader thread: completes the future of each response as it arrives
+     */
+    private void readResponses() {
+        IOException failure = null;
+        try {
+            while (true) {
+                int requestId;
+                String response;
+                Pending request;
+                if (binary) {
+                    BinaryProtocol.Response frame = BinaryProtocol.readResponse(in);
+                    requestId = frame.getRequestId();
+                    request = (requestId >= 0) ? pending.remove(requestId) : oldest();
+                    response = frame.toText(request != null ? request.opcode : 0);
+                } else {
+                    String line = readLine();
+                    if (line == null) {
+                        break;
+                    }
+                    requestId = Protocol.parseRequestId(line);
+                    request = (requestId >= 0) ? pending.remove(requestId) : oldest();
+                    response = Protocol.stripRequestId(line);
+                }
+                if (request == null) {
+                    logger.log("Dropping response with unknown request ID: " + response);
+                } else if (requestId < 0) {
+                    request.future.completeExceptionally(new IOException("Server could not read a request: " + response));
+                } else {
+                    request.future.complete(response);
+                }
+            }
+        } catch (EOFException e) {
+            // Closed between two responses
+        } catch (IOException e) {
+            failure = e;
+        }
+        if (!closed) {
+            logger.log("Connection lost" + (failure != null ? ": " + failure.getMessage() : ""));
+            closed = true;
+        }
+        failPending(failure != null ? failure : new IOException("Connection closed by server"));
+    }
+
+    /**
+     * @return The next response line without its line ending, null at the end of the stream
+     */
+    private String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                return (line.size() > 0) ? line.toString(StandardCharsets.UTF_8) : null;
+            }
+            line.write(b);
+        }
+        byte[] bytes = line.toByteArray();
+        int length = (bytes.length > 0 && bytes[bytes.length - 1] == '\r') ? bytes.length - 1 : bytes.length;
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Takes the request that has waited longest out of pending
+     * @return It, or null if none is waiting
+     */
+    private Pending oldest() {
+        while (true) {
+            Map.Entry<Integer, Pending> oldest = null;
+            for (Map.Entry<Integer, Pending> entry : pending.entrySet()) {
+                if (oldest == null || entry.getValue().sequence < oldest.getValue().sequence) {
+                    oldest = entry;
+                }
+            }
+            if (oldest == null || pending.remove(oldest.getKey(), oldest.getValue())) {
+                return (oldest != null) ? oldest.getValue() : null;
+            }
+            // Answered or timed out meanwhile; look again
+        }
+    }
+
+    private void failPending(IOException cause) {
+        for (Integer requestId : pending.keySet()) {
+            Pending request = pending.remove(requestId);
+            if (request != null) {
+                request.future.completeExceptionally(cause);
+            }
+        }
+    }
+
+    /**
+     * Closes the connection; requests still waiting complete exceptionally
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        socket.close();
+        failPending(new IOException("Client is closed"));
+    }
+}
@@ -1,14 +1,31 @@
 package client;
 
 
+import common.BinaryProtocol;
+import common.Capabilities;
 import common.Logger;
 import common.Protocol;
 
-import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 
 /**
@@ -18,9 +35,15 @@ import java.net.Socket;
  * Key Concepts:
  * 1. Creates a Socket to connect to server (unlike ServerSocket in server)
  * 2. Uses PrintWriter for sending data and BufferedReader for receiving responses
- * 3. Each request creates a new connection (in this implementation)
+ * 3. Each request creates a new connection, unless the client is pooled(): then
+ *    connections stay open in a ConnectionPool and are reused
+ * 4. The first request negotiates capabilities (HELLO), and requests then use
+ *    binary framing if the server supports it, text lines otherwise
+ * 5. sendAsync() returns a CompletableFuture instead of waiting; those requests share
+ *    one non-blocking connection, so many can be in flight from a single thread
  */
-public class TCPClient {
+public class TCPClient implements AutoCloseable {
+    public static final long DEFAULT_ASYNC_TIMEOUT_MILLIS = 10_000;
 
     // Server's IP address or hostname(机器人构造）
     private final String serverAddress;
@@ -28,6 +51,24 @@ public class TCPClient {
 
     private final Logger logger;
 
+    // What this client offers in the HELLO handshake
+    public static final Capabilities CLIENT_CAPABILITIES = new Capabilities(Capabilities.VERSION, true,
+            1024, new String[]{Capabilities.COMPRESSION_NONE}, 1);
+    // Result of the handshake, null until the first request
+    private volatile Capabilities negotiated;
+    // Open connections to reuse, null for a new connection per request
+    private volatile ConnectionPool pool;
+    // The connection sendAsync() requests share, opened by the first; guarded by this
+    private AsyncConnection async;
+    // How long a sendAsync() request may wait for its response
+    private volatile long asyncTimeoutMillis = DEFAULT_ASYNC_TIMEOUT_MILLIS;
+
+    /**
+     * One request and its response over a connection
+     */
+    private interface Exchange<T> {
+        T over(ConnectionPool.Connection connection) throws IOException;
+    }
 
     //(机器人出生了）构造方法
     /**
@@ -41,42 +82,561 @@ public class TCPClient {
         this.logger = new Logger(TCPClient.class);
     }
 
+    /**
+     * Keeps connections open between requests, minSize to maxSize of them (see
+     * ConnectionPool); call before sending requests
+     * @return this client
+     */
+    public TCPClient pooled(int minSize, int maxSize) {
+        return pooled(new ConnectionPool(serverAddress, port, minSize, maxSize));
+    }
+
+    /**
+     * Sends requests over the connections of a pool configured by the caller
+     * @return this client
+     */
+    public TCPClient pooled(ConnectionPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    /** @return The connection pool, null if every request opens its own connection */
+    public ConnectionPool pool() {
+        return pool;
+    }
+
+    /**
+     * Sets how long a sendAsync() request may wait for its response (default
+     * DEFAULT_ASYNC_TIMEOUT_MILLIS); applies to requests sent after
+     * @return this client
+     */
+    public TCPClient asyncTimeout(long timeoutMillis) {
+        this.asyncTimeoutMillis = timeoutMillis;
+        return this;
+    }
+
+    /**
+     * Runs an exchange over a pooled connection, or over a new connection closed afterwards
+     *
+     * A pooled connection may have been closed by the server since its last request (its
+     * idle timeout, a restart). If an idempotent exchange fails on a reused connection
+     * before any response byte arrived, it is run once more on a new connection. Others
+     * are not: the server may have executed the request and died before answering, and
+     * running a PUT, DELETE or INCR again would apply it twice.
+     *
+     * @param idempotent Whether the exchange may safely run twice (see isIdempotent)
+     */
+    private <T> T exchange(boolean idempotent, Exchange<T> exchange) throws IOException {
+        ConnectionPool pool = this.pool;
+        if (pool == null) {
+            try (ConnectionPool.Connection connection = ConnectionPool.Connection.open(serverAddress, port)) {
+                return exchange.over(connection);
+            }
+        }
+        ConnectionPool.Connection connection = pool.borrow();
+        try {
+            return attempt(pool, connection, exchange);
+        } catch (IOException e) {
+            if (!idempotent || !connection.wasReused() || connection.received()) {
+                throw e;
+            }
+            logger.log("Pooled connection failed (" + e.getMessage() + "), retrying on a new connection");
+            return attempt(pool, pool.borrowNew(), exchange);
+        }
+    }
+
+    private static <T> T attempt(ConnectionPool pool, ConnectionPool.Connection connection, Exchange<T> exchange)
+            throws IOException {
+        boolean completed = false;
+        try {
+            T result = exchange.over(connection);
+            completed = true;
+            return result;
+        } finally {
+            if (completed) {
+                pool.release(connection);
+            } else {
+                pool.discard(connection);
+            }
+        }
+    }
+
+    /**
+     * @return Whether running the operation twice has the same effect as running it once
+     */
+    private static boolean isIdempotent(String operation) {
+        return Protocol.GET.equalsIgnoreCase(operation) || Protocol.SCAN.equalsIgnoreCase(operation)
+                || Protocol.HELLO.equalsIgnoreCase(operation);
+    }
+
+    /**
+     * @return Whether every request line is idempotent (see isIdempotent)
+     */
+    private static boolean allIdempotent(List<String> requests) {
+        for (String request : requests) {
+            int end = request.indexOf(' ');
+            if (!isIdempotent(end < 0 ? request : request.substring(0, end))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sends one text request line and reads its response line
+     */
+    private static String requestLine(ConnectionPool.Connection connection, String request) throws IOException {
+        connection.out.write((request + "\n").getBytes(StandardCharsets.UTF_8));
+        return connection.readLine();
+    }
+
     /**
      * Sends a single request to the server and receives the response
-     * 1. Creates a new socket connection
-     * 2. Sets up input/output streams
-     * 3. Sends request and reads response
-     * 4. Closes connection when done
+     * 1. Creates a new socket connection, or borrows one from the pool
+     * 2. Sends request and reads response
+     * 3. Closes connection when done, or returns it to the pool
      *
-     * Note: This implementation creates a new connection for each request.
-     * In a production environment, you might want to maintain a persistent connection
-     * for better performance.
+     * Note: Without pooled() this creates a new connection for each request, which
+     * costs a TCP handshake per request.
      *
      */
     public void sendRequest(String operation, String key, String value) {
+        // Use binary framing when the server supports it; text otherwise
+        if (negotiate().isBinary() && BinaryProtocol.opcodeFor(operation) != 0) {
+            try {
+                byte[] bytes = (value != null) ? value.getBytes(StandardCharsets.UTF_8) : null;
+                sendBinaryRequest(operation, key, Protocol.PUT.equalsIgnoreCase(operation) ? bytes : null);
+            } catch (IOException e) {
+                logger.log("Error: " + e.getMessage());
+            }
+            return;
+        }
         String request = Protocol.createRequest(operation, key, value);
-        try (
-                Socket socket = new Socket(serverAddress, port);
-                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))
-        ) {
-            out.println(request);
-            String response = in.readLine();
+        try {
+            String response = exchange(isIdempotent(operation), connection -> requestLine(connection, request));
             logger.log("Request: " + request + " | Response: " + response);
         } catch (IOException e) {
             logger.log("Error: " + e.getMessage());
         }
     }
 
+    /**
+     * Sends a request without waiting for its response
+     *
+     * Requests from all threads share one non-blocking connection, driven by the client
+     * event loop (see ClientEventLoop). Each carries a request ID, so the server may
+     * answer them in any order, and requests queued while the connection was busy go
+     * out in one write. A connection that fails is replaced by the next call.
+     *
+     * The server must serve connections concurrently (TCPServer in nio or virtual mode)
+     * for other clients to get through while this connection is open.
+     *
+     * A response without an ID is an error for a request the server could not read; it
+     * fails the oldest request still waiting. A request not answered within the timeout
+     * (see asyncTimeout) fails with a TimeoutException.
+     *
+     *   CompletableFuture<String> a = client.sendAsync(Protocol.GET, "a", null);
+     *   CompletableFuture<String> b = client.sendAsync(Protocol.GET, "b", null);
+     *   a.thenCombine(b, (x, y) -> x + " / " + y).thenAccept(System.out::println);
+     *
+     * @param operation PUT, GET or DELETE
+     * @param key The key to operate on
+     * @param value The value for PUT, null otherwise
+     * @return A future completed with the response line (without its ID), or exceptionally
+     *         if the connection fails first, the server could not read the request, or no
+     *         response arrives within the timeout. It completes on the event loop thread, so
+     *         stages that block belong in the *Async variants.
+     */
+    public CompletableFuture<String> sendAsync(String operation, String key, String value) {
+        return asyncConnection().send(Protocol.createRequest(operation, key, value));
+    }
+
+    private synchronized AsyncConnection asyncConnection() {
+        if (async == null || async.closed) {
+            async = new AsyncConnection();
+        }
+        return async;
+    }
+
+    /**
+     * A sendAsync() request waiting for its response
+     */
+    private static final class AsyncRequest {
+        // Increases with every request, unlike the ID, which wraps around
+        private final long sequence;
+        private final CompletableFuture<String> future = new CompletableFuture<>();
+
+        private AsyncRequest(long sequence) {
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * The non-blocking connection behind sendAsync()
+     * Futures and the write queue are shared with the calling threads; the channel and
+     * its buffers belong to the event loop thread.
+     */
+    private final class AsyncConnection implements ClientEventLoop.Handler {
+        private final ClientEventLoop loop = ClientEventLoop.shared();
+        private final InetSocketAddress address = new InetSocketAddress(serverAddress, port);
+        // Requests waiting for their response, by request ID
+        private final Map<Integer, AsyncRequest> pending = new ConcurrentHashMap<>();
+        private final AtomicLong nextSequence = new AtomicLong();
+        // Encoded requests waiting for the loop to write them
+        private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean flushScheduled = new AtomicBoolean();
+        private volatile boolean closed;
+
+        private SocketChannel channel;
+        private SelectionKey key;
+        // Requests taken from outbound that the socket has not accepted all of yet
+        private final List<ByteBuffer> writing = new ArrayList<>();
+        private ByteBuffer input = ByteBuffer.allocate(8192);
+
+        AsyncConnection() {
+            loop.execute(this::connect);
+        }
+
+        CompletableFuture<String> send(String request) {
+            long sequence = nextSequence.getAndIncrement();
+            // IDs wrap around after 2^31 requests; by then the old ones are long answered
+            int requestId = (int) sequence & Integer.MAX_VALUE;
+            AsyncRequest pendingRequest = new AsyncRequest(sequence);
+            CompletableFuture<String> future = pendingRequest.future;
+            pending.put(requestId, pendingRequest);
+            // Checked after registering, so a concurrent fail() either sees the future or we see closed
+            if (closed) {
+                pending.remove(requestId);
+                future.completeExceptionally(new IOException("Connection closed"));
+                return future;
+            }
+            future.orTimeout(asyncTimeoutMillis, TimeUnit.MILLISECONDS)
+                    .whenComplete((response, failure) -> pending.remove(requestId, pendingRequest));
+            outbound.add(ByteBuffer.wrap((Protocol.withRequestId(requestId, request) + "\n")
+                    .getBytes(StandardCharsets.UTF_8)));
+            if (flushScheduled.compareAndSet(false, true)) {
+                loop.execute(this::flush);
+            }
+            return future;
+        }
+
+        private void connect() {
+            try {
+                if (address.isUnresolved()) {
+                    throw new UnknownHostException(serverAddress);
+                }
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                boolean connected = channel.connect(address);
+                key = loop.register(channel, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, this);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        @Override
+        public void ready(SelectionKey key) {
+            try {
+                if (key.isConnectable()) {
+                    channel.finishConnect();
+                    key.interestOps(SelectionKey.OP_READ);
+                    flush();
+                    return;
+                }
+                if (key.isWritable()) {
+                    flush();
+                }
+                if (key.isReadable()) {
+                    read();
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * Writes every queued request with one gathering write; what the socket does not
+         * take now waits for OP_WRITE
+         */
+        private void flush() {
+            flushScheduled.set(false);
+            if (closed || channel == null || !channel.isConnected()) {
+                // Written once connected
+                return;
+            }
+            ByteBuffer request;
+            while ((request = outbound.poll()) != null) {
+                writing.add(request);
+            }
+            if (writing.isEmpty()) {
+                return;
+            }
+            try {
+                channel.write(writing.toArray(new ByteBuffer[0]));
+                writing.removeIf(buffer -> !buffer.hasRemaining());
+                key.interestOps(writing.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * Reads what arrived and completes the future of every whole response line
+         */
+        private void read() throws IOException {
+            if (channel.read(input) < 0) {
+                throw new EOFException("Connection closed by server");
+            }
+            input.flip();
+            int start = input.position();
+            for (int i = start; i < input.limit(); i++) {
+                if (input.get(i) == '\n') {
+                    int end = (i > start && input.get(i - 1) == '\r') ? i - 1 : i;
+                    complete(new String(input.array(), start, end - start, StandardCharsets.UTF_8));
+                    start = i + 1;
+                }
+            }
+            input.position(start);
+            input.compact();
+            if (!input.hasRemaining()) {
+                // A response longer than the buffer
+                ByteBuffer larger = ByteBuffer.allocate(2 * input.capacity());
+                input.flip();
+                input = larger.put(input);
+            }
+        }
+
+        private void complete(String line) {
+            int requestId = Protocol.parseRequestId(line);
+            AsyncRequest request = (requestId >= 0) ? pending.remove(requestId) : oldest();
+            if (request == null) {
+                logger.log("Dropping response with unknown request ID: " + line);
+            } else if (requestId < 0) {
+                request.future.completeExceptionally(new IOException("Server could not read a request: " + line));
+            } else {
+                request.future.complete(Protocol.stripRequestId(line));
+            }
+        }
+
+        /**
+         * Takes the request that has waited longest out of pending
+         * @return It, or null if none is waiting
+         */
+        private AsyncRequest oldest() {
+            while (true) {
+                Map.Entry<Integer, AsyncRequest> oldest = null;
+                for (Map.Entry<Integer, AsyncRequest> entry : pending.entrySet()) {
+                    if (oldest == null || entry.getValue().sequence < oldest.getValue().sequence) {
+                        oldest = entry;
+                    }
+                }
+                if (oldest == null || pending.remove(oldest.getKey(), oldest.getValue())) {
+                    return (oldest != null) ? oldest.getValue() : null;
+                }
+                // Answered or timed out meanwhile; look again
+            }
+        }
+
+        /**
+         * Closes the connection and fails the requests still waiting; loop thread only
+         */
+        private void fail(IOException cause) {
+            if (!closed) {
+                closed = true;
+                logger.log("Async connection closed: " + cause.getMessage());
+            }
+            if (key != null) {
+                key.cancel();
+            }
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // Closing anyway
+                }
+            }
+            for (Integer requestId : pending.keySet()) {
+                AsyncRequest request = pending.remove(requestId);
+                if (request != null) {
+                    request.future.completeExceptionally(cause);
+                }
+            }
+        }
+    }
+
+    /**
+     * Negotiates capabilities with the server (HELLO handshake), once per client
+     * A server without HELLO support answers with an error or closes the connection,
+     * and the client then sticks to the text protocol (Capabilities.TEXT_ONLY)
+     *
+     * @return The capabilities both ends support
+     */
+    public Capabilities negotiate() {
+        Capabilities result = negotiated;
+        if (result != null) {
+            return result;
+        }
+        String response;
+        try {
+            response = exchange(true, connection -> requestLine(connection, Protocol.createHelloRequest(CLIENT_CAPABILITIES)));
+        } catch (EOFException e) {
+            // Closed without an answer: a server that doesn't know HELLO
+            response = null;
+        } catch (IOException e) {
+            // Not cached: the server may be reachable by the next request
+            logger.log("HELLO failed: " + e.getMessage());
+            return Capabilities.TEXT_ONLY;
+        }
+        result = Protocol.parseHelloResponse(response);
+        negotiated = result;
+        logger.log("Negotiated: " + result);
+        return result;
+    }
+
+    /**
+     * Sends many requests over one connection without waiting for each answer (pipelining)
+     *
+     * Up to depth requests are written with a single flush, then their responses are
+     * read back in order, and so on until all requests are done. With a round trip
+     * time of RTT, N requests take about N / depth round trips instead of N.
+     * The window keeps both socket buffers from filling up, which could otherwise
+     * deadlock a very long pipeline where neither side reads.
+     *
+     * @param requests Request lines, e.g. built with Protocol.createRequest
+     * @param depth Maximum number of requests in flight (1 = no pipelining),
+     *              capped at the depth negotiated with the server
+     * @return The responses, in the same order as the requests
+     * @throws IOException if the connection fails or closes early
+     */
+    public List<String> sendPipelined(List<String> requests, int depth) throws IOException {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Pipeline depth must be at least 1");
+        }
+        // Never more in flight than the server said it wants
+        int window = Math.min(depth, negotiate().getPipelineDepth());
+        List<String> responses = exchange(allIdempotent(requests), connection -> {
+            List<String> result = new ArrayList<>(requests.size());
+            int sent = 0;
+            while (sent < requests.size()) {
+                // Send a window of requests with a single write
+                int windowEnd = Math.min(sent + window, requests.size());
+                StringBuilder batch = new StringBuilder();
+                for (int i = sent; i < windowEnd; i++) {
+                    batch.append(requests.get(i)).append('\n');
+                }
+                connection.out.write(batch.toString().getBytes(StandardCharsets.UTF_8));
+
+                // Then collect their responses in order
+                for (int i = sent; i < windowEnd; i++) {
+                    try {
+                        result.add(connection.readLine());
+                    } catch (EOFException e) {
+                        throw new EOFException("Connection closed after " + result.size() + " responses");
+                    }
+                }
+                sent = windowEnd;
+            }
+            return result;
+        });
+        logger.log("Pipelined " + requests.size() + " requests with depth " + window);
+        return responses;
+    }
+
+    /**
+     * Sends a single request using the binary protocol (see BinaryProtocol)
+     * The server detects the framing from the first byte, so no configuration is needed.
+     * Unlike the text protocol, values may contain spaces, newlines or arbitrary bytes.
+     *
+     * @param operation PUT, GET, DELETE or SCAN
+     * @param key The key to operate on
+     * @param value The value bytes for PUT, null otherwise
+     * @return The decoded response (for GET the payload is the stored value)
+     * @throws IOException if the server cannot be reached or the response is malformed
+     */
+    public BinaryProtocol.Response sendBinaryRequest(String operation, String key, byte[] value) throws IOException {
+        byte opcode = BinaryProtocol.opcodeFor(operation);
+        if (opcode == 0) {
+            throw new IllegalArgumentException("Operation has no binary form: " + operation);
+        }
+        byte[] frame = BinaryProtocol.encodeRequest(opcode, key, value);
+        BinaryProtocol.Response response = exchange(isIdempotent(operation), connection -> {
+            connection.out.write(frame);
+            return BinaryProtocol.readResponse(connection.in);
+        });
+        logger.log("Binary request: " + operation + " " + key + " | Response: " + response.toText(opcode));
+        return response;
+    }
+
+    /**
+     * Fetches one page of a SCAN walk over the server's keyspace
+     * Keys are handed to the consumer as they are parsed, so walking a huge keyspace
+     * only ever holds one page in memory:
+     *
+     *   long cursor = 0;
+     *   do {
+     *       cursor = client.scan(cursor, 100, key -> ...);
+     *   } while (cursor != 0);
+     *
+     * @param cursor 0 to start a walk, otherwise the cursor returned by the previous call
+     * @param count Number of keys wanted in this page
+     * @param keys Receives each key of the page
+     * @return The cursor for the next page, 0 when the walk is complete
+     * @throws IOException if the server cannot be reached or rejects the request
+     */
+    public long scan(long cursor, int count, Consumer<String> keys) throws IOException {
+        String request = Protocol.createScanRequest(cursor, count);
+        String response = exchange(true, connection -> requestLine(connection, request));
+        if (response == null || !response.startsWith(Protocol.SCAN_RESULT + " ")) {
+            throw new IOException("Unexpected SCAN response: " + response);
+        }
+
+        // Response format: SCAN_RESULT nextCursor key1 key2 ...
+        int start = Protocol.SCAN_RESULT.length() + 1;
+        int end = response.indexOf(' ', start);
+        long next = Long.parseLong(end < 0 ? response.substring(start) : response.substring(start, end));
+        while (end >= 0) {
+            start = end + 1;
+            end = response.indexOf(' ', start);
+            keys.accept(end < 0 ? response.substring(start) : response.substring(start, end));
+        }
+        return next;
+    }
+
+    /**
+     * Closes the pooled connections and the asynchronous connection, if any; requests
+     * still waiting for an asynchronous response complete exceptionally
+     */
+    @Override
+    public void close() {
+        ConnectionPool pool = this.pool;
+        if (pool != null) {
+            pool.close();
+        }
+        AsyncConnection connection;
+        synchronized (this) {
+            connection = async;
+        }
+        if (connection != null) {
+            connection.closed = true;
+            connection.loop.execute(() -> connection.fail(new IOException("Client is closed")));
+        }
+    }
+
     public static void main(String[] args) {
-        if (args.length != 2) {
-            System.out.println("Usage: java TCPClient <host> <port>");
+        if (args.length != 2 && !(args.length == 3 && args[2].equals("pooled"))) {
+            System.out.println("Usage: java TCPClient <host> <port> [pooled]");
             return;
         }
 
         String host = args[0];
         int port = Integer.parseInt(args[1]);
         TCPClient client = new TCPClient(host, port);
+        if (args.length == 3) {
+            // One connection for all requests; the server must be in nio or virtual mode
+            // to serve other clients meanwhile
+            client.pooled(1, 1);
+        }
 
         // Test 5 PUT, GET, DELETE operations
         for (int i = 1; i <= 5; i++) {
@@ -84,6 +644,7 @@ public class TCPClient {
             client.sendRequest(Protocol.GET, "key" + i, null);
             client.sendRequest(Protocol.DELETE, "key" + i, null);
         }
+        client.close();
     }
 
 
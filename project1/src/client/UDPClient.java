@@ -1,13 +1,34 @@
 package client;
 
+import common.BinaryProtocol;
+import common.Capabilities;
 import common.Logger;
 import common.Protocol;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.nio.charset.StandardCharsets;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 
 /**
@@ -15,26 +36,84 @@ import java.net.SocketException;
  * Demonstrates how to send and receive datagrams using UDP protocol
  *
  * Key Differences from TCP Client:
- * 1. Uses DatagramSocket instead of Socket
+ * 1. Uses a DatagramChannel instead of a Socket, connected to the server so the kernel
+ *    looks up the route once instead of for every datagram
  * 2. Sends/receives packets instead of using streams
- * 3. Includes timeout handling
+ * 3. Includes timeout handling, resending requests with exponential backoff
  * 4. No connection establishment needed
+ * 5. The first request negotiates capabilities (HELLO); requests then use binary
+ *    frames if the server supports them, text otherwise
+ * 6. Requests carry a request ID, so the server can answer a resent request from its
+ *    retry cache instead of executing it twice
+ * 7. sendAsync() returns a CompletableFuture instead of waiting; many requests can be
+ *    in flight at once on one non-blocking channel, matched to answers by request ID
+ * 8. get() reads a value into a caller's buffer without allocating, for hot loops
  */
-public class UDPClient {
+public class UDPClient implements AutoCloseable {
 
     //构造变量
     private final String serverAddress;
     private final int port;
-    private final DatagramSocket socket;
+    // Non-blocking, so waiting for an answer can time out in selector.select()
+    private final DatagramChannel channel;
+    private final Selector selector;
     private final Logger logger;
 
+    // Largest datagram the buffers hold
+    private static final int MAX_DATAGRAM = 64 * 1024;
+    // How long a resolved server address is used before the name is looked up again
+    public static final long ADDRESS_REFRESH_MILLIS = 60_000;
+    // The address the channel is connected to, and when it was resolved; guarded by channel
+    private InetSocketAddress resolved;
+    private long resolvedAt;
+    // Reused by every exchange; guarded by channel
+    private final ByteBuffer sendBuffer = ByteBuffer.allocate(MAX_DATAGRAM);
+    private final byte[] receiveData = new byte[MAX_DATAGRAM];
+    private final ByteBuffer receiveBuffer = ByteBuffer.wrap(receiveData);
+    private static final Consumer<SelectionKey> READY = key -> { };
+    private static final byte[] GET_PREFIX = (Protocol.GET + " ").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] GET_RESULT_PREFIX = (Protocol.GET_RESULT + " ").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] GET_ERROR_PREFIX = Protocol.GET_ERROR.getBytes(StandardCharsets.US_ASCII);
+    // What the server answers a text request it could not read with, untagged
+    private static final byte[] ERROR_PREFIX = "ERROR ".getBytes(StandardCharsets.US_ASCII);
+
+    // What this client offers in the HELLO handshake
+    public static final Capabilities CLIENT_CAPABILITIES = new Capabilities(Capabilities.VERSION, true,
+            1, new String[]{Capabilities.COMPRESSION_NONE}, 1);
+    // Result of the handshake, null until the server answered a HELLO; guarded by this
+    private Capabilities negotiated;
+    // How long the client speaks text after a HELLO went unanswered, before it tries again
+    public static final long HELLO_RETRY_MILLIS = 10_000;
+    // System.nanoTime() of the next HELLO after one went unanswered, 0 if none did; guarded by this
+    private long helloRetryAt;
+
+    // Retransmission: the first attempt waits this long, every further one twice as long
+    // as the one before (250, 500, 1000, 2000 ms), so a request gives up after 3.75s
+    public static final int MAX_ATTEMPTS = 4;
+    public static final long INITIAL_TIMEOUT_MILLIS = 250;
+    private static final int NO_REQUEST_ID = -1;
+    // Starts at a random point so a restarted client on a reused port does not hit
+    // the server's cached responses to its predecessor's requests; guarded by channel
+    private int nextRequestId = ThreadLocalRandom.current().nextInt() & Integer.MAX_VALUE;
+    // The channel sendAsync() requests share, opened by the first; guarded by this
+    private AsyncSocket async;
+
     //创建对象
+    // The server's name is resolved by the first request, not here
     public UDPClient(String serverAddress, int port) throws SocketException {
         this.serverAddress = serverAddress;
         this.port = port;
-        this.socket = new DatagramSocket();
-        //time out handling
-        this.socket.setSoTimeout(2000);  // 2-second timeout
+        try {
+            this.channel = DatagramChannel.open();
+            this.selector = Selector.open();
+            //time out handling: per attempt, see exchange()
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+        } catch (SocketException e) {
+            throw e;
+        } catch (IOException e) {
+            throw (SocketException) new SocketException("Failed to open UDP channel: " + e.getMessage()).initCause(e);
+        }
         this.logger = new Logger(UDPClient.class);
     }
 
@@ -47,65 +126,642 @@ public class UDPClient {
             return;
         }
 
+        // Binary frames when the server supports them, the text line otherwise
+        Capabilities capabilities = negotiate();
+        byte opcode = BinaryProtocol.opcodeFor(operation);
+        boolean binary = capabilities.isBinary() && opcode != 0;
+        // A server that speaks HELLO caches the responses to tagged requests, so any request
+        // can be resent safely. An older one would apply a resent DELETE twice, so there
+        // only reads are retried.
+        boolean tagged = capabilities.getVersion() >= Capabilities.VERSION;
+        int attempts = (tagged || isIdempotent(operation)) ? MAX_ATTEMPTS : 1;
+        int requestId = tagged ? nextRequestId() : NO_REQUEST_ID;
+        byte[] sendData;
+        if (binary) {
+            byte[] valueBytes = (Protocol.PUT.equalsIgnoreCase(operation) && value != null)
+                    ? value.getBytes(StandardCharsets.UTF_8) : null;
+            sendData = tagged ? BinaryProtocol.encodeRequest(opcode, requestId, key, valueBytes)
+                    : BinaryProtocol.encodeRequest(opcode, key, valueBytes);
+        } else {
+            sendData = (tagged ? Protocol.withRequestId(requestId, request) : request).getBytes();
+        }
+
         try {
-            // Resolve server address
-            InetAddress address = InetAddress.getByName(serverAddress);
+            String response;
+            synchronized (channel) {
+                int length = exchange(ByteBuffer.wrap(sendData), requestId, binary, attempts);
+                if (length < 0) {
+                    // Handle timeout case
+                    logger.log("Timeout for request: " + request + " after " + attempts + " attempt(s)");
+                    return;
+                }
+
+                //convert received data to string (only for actual data length)
+                if (binary) {
+                    response = BinaryProtocol.readResponse(new ByteArrayInputStream(receiveData, 0, length))
+                            .toText(opcode);
+                } else {
+                    response = Protocol.stripRequestId(new String(receiveData, 0, length, StandardCharsets.UTF_8));
+                }
+            }
+            validateResponse(request, response);
+            logger.log("Request: " + request + " | Response: " + response);
+        } catch (IOException e) {
+            logger.log("Error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Sends a request without waiting for its response
+     *
+     * Requests from all threads share one non-blocking DatagramChannel, driven by the
+     * client event loop (see ClientEventLoop), so many can be in flight without a thread
+     * each. Every request carries a request ID; answers are matched to requests by it, and
+     * a request left unanswered is resent with the same backoff as sendRequest() (the
+     * server answers a resent request from its retry cache). This needs a server that
+     * takes request IDs, as all servers in this project do.
+     *
+     * @param operation PUT, GET, DELETE or SCAN
+     * @param key The key to operate on
+     * @param value The value for PUT, null otherwise
+     * @return A future completed with the response line (without its ID), or exceptionally
+     *         with a SocketTimeoutException once every attempt went unanswered. It completes
+     *         on the event loop thread, so stages that block belong in the *Async variants.
+     */
+    public CompletableFuture<String> sendAsync(String operation, String key, String value) {
+        String request = Protocol.createRequest(operation, key, value);
+        return asyncSocket().send(request, nextRequestId());
+    }
+
+    private synchronized AsyncSocket asyncSocket() {
+        if (async == null || async.closed) {
+            async = new AsyncSocket();
+        }
+        return async;
+    }
 
-            // Prepare data to send
-            byte[] sendData = request.getBytes();
+    /**
+     * The non-blocking channel behind sendAsync()
+     * Futures and the send queue are shared with the calling threads; the channel, its
+     * buffer and the retransmission timers belong to the event loop thread.
+     */
+    private final class AsyncSocket implements ClientEventLoop.Handler {
+        private final ClientEventLoop loop = ClientEventLoop.shared();
+        private final InetSocketAddress address = new InetSocketAddress(serverAddress, port);
+        // Requests waiting for their response, by request ID
+        private final Map<Integer, Request> pending = new ConcurrentHashMap<>();
+        // Requests waiting for their first send
+        private final Queue<Request> outbound = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean flushScheduled = new AtomicBoolean();
+        private volatile boolean closed;
+
+        private DatagramChannel channel;
+        private SelectionKey key;
+        private final ByteBuffer input = ByteBuffer.allocate(64 * 1024);
 
-            // Create packet with data, server address, and port
-            DatagramPacket sendPacket = new DatagramPacket(
-                    sendData,       // Data to send
-                    sendData.length, // Length of data
-                    address,        // Server's address
-                    port           // Server's port
-            );
+        /**
+         * One request in flight
+         */
+        private final class Request {
+            final String text;
+            final int requestId;
+            final ByteBuffer datagram;
+            final CompletableFuture<String> future = new CompletableFuture<>();
+            // Loop thread only
+            int attempt;
+            long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(INITIAL_TIMEOUT_MILLIS);
+            ClientEventLoop.Timer timer;
 
-            // Send the packet
-            socket.send(sendPacket);
+            Request(String text, int requestId) {
+                this.text = text;
+                this.requestId = requestId;
+                this.datagram = ByteBuffer.wrap(Protocol.withRequestId(requestId, text).getBytes(StandardCharsets.UTF_8));
+            }
+        }
 
-            //prepare buffer for response
-            byte[] receiveData = new byte[1024];
-            DatagramPacket receivePacket = new DatagramPacket(receiveData,receiveData.length);
+        AsyncSocket() {
+            loop.execute(this::open);
+        }
 
+        CompletableFuture<String> send(String text, int requestId) {
+            Request request = new Request(text, requestId);
+            pending.put(requestId, request);
+            // Checked after registering, so a concurrent fail() either sees the request or we see closed
+            if (closed) {
+                pending.remove(requestId);
+                request.future.completeExceptionally(new IOException("Channel closed"));
+                return request.future;
+            }
+            outbound.add(request);
+            if (flushScheduled.compareAndSet(false, true)) {
+                loop.execute(this::flush);
+            }
+            return request.future;
+        }
+
+        private void open() {
             try {
-                // Wait for response (will timeout after 2 seconds)
-                socket.receive(receivePacket);
+                if (address.isUnresolved()) {
+                    throw new UnknownHostException(serverAddress);
+                }
+                channel = DatagramChannel.open();
+                channel.configureBlocking(false);
+                key = loop.register(channel, SelectionKey.OP_READ, this);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
 
-                //convert received data to string (only for actual data length)
-                String response = new String(receivePacket.getData(), 0 ,receivePacket.getLength());
-                validateResponse(request, response);
-                logger.log("Request: " + request + " | Response: " + response);
+        private void flush() {
+            flushScheduled.set(false);
+            Request request;
+            while ((request = outbound.poll()) != null) {
+                transmit(request);
+            }
+        }
 
-            } catch (SocketException e) {
-                // Handle timeout case
-                logger.log("Timeout for request: " + request);
+        /**
+         * Sends a request, and schedules its retransmission or timeout
+         * A datagram the socket buffer has no room for is not sent; the timer resends it
+         * like a lost one.
+         */
+        private void transmit(Request request) {
+            if (closed || request.future.isDone()) {
+                return;
+            }
+            request.attempt++;
+            if (request.attempt > 1) {
+                logger.log("Retry " + (request.attempt - 1) + " of request #" + request.requestId);
             }
+            try {
+                channel.send(request.datagram.duplicate(), address);
+            } catch (IOException e) {
+                fail(e);
+                return;
+            }
+            request.timer = loop.schedule(request.timeoutNanos, () -> expire(request));
+        }
 
-        }catch (IOException e) {
-            logger.log("Error: " + e.getMessage());
+        private void expire(Request request) {
+            if (request.future.isDone()) {
+                return;
+            }
+            if (request.attempt >= MAX_ATTEMPTS) {
+                pending.remove(request.requestId);
+                request.future.completeExceptionally(new SocketTimeoutException("Timeout for request: "
+                        + request.text + " after " + request.attempt + " attempt(s)"));
+                return;
+            }
+            request.timeoutNanos *= 2;
+            transmit(request);
+        }
+
+        /**
+         * Completes the requests whose answers arrived
+         */
+        @Override
+        public void ready(SelectionKey key) {
+            try {
+                while (channel.receive(input) != null) {
+                    input.flip();
+                    String response = new String(input.array(), 0, input.limit(), StandardCharsets.UTF_8);
+                    input.clear();
+                    Request request = pending.remove(Protocol.parseRequestId(response));
+                    if (request == null) {
+                        // A late answer to an earlier attempt, or one that cannot be matched
+                        continue;
+                    }
+                    request.timer.cancel();
+                    response = Protocol.stripRequestId(response);
+                    validateResponse(request.text, response);
+                    request.future.complete(response);
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * Closes the channel and fails the requests still waiting; loop thread only
+         */
+        private void fail(IOException cause) {
+            if (!closed) {
+                closed = true;
+                logger.log("Async channel closed: " + cause.getMessage());
+            }
+            if (key != null) {
+                key.cancel();
+            }
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // Closing anyway
+                }
+            }
+            for (Integer requestId : pending.keySet()) {
+                Request request = pending.remove(requestId);
+                if (request != null) {
+                    request.future.completeExceptionally(cause);
+                }
+            }
         }
     }
 
-    private void validateResponse(String request, String response) {
-        String[] requestParts = request.split(" ");
-        if (requestParts.length < 1) {
-            logger.log("Invalid request format: " + request);
+    /**
+     * Negotiates capabilities with the server (HELLO handshake), once per client
+     * A server without HELLO support answers with an error, and the client then sticks
+     * to the text protocol. A HELLO without any answer may just have been lost, so the
+     * client then uses text until it tries again, HELLO_RETRY_MILLIS later.
+     *
+     * @return The capabilities both ends support
+     */
+    public synchronized Capabilities negotiate() {
+        if (negotiated != null) {
+            return negotiated;
+        }
+        if (helloRetryAt != 0 && System.nanoTime() - helloRetryAt < 0) {
+            return Capabilities.TEXT_ONLY;
+        }
+        String response = null;
+        try {
+            synchronized (channel) {
+                // HELLO changes nothing on the server, so it can be resent without an ID
+                int length = exchange(ByteBuffer.wrap(
+                        Protocol.createHelloRequest(CLIENT_CAPABILITIES).getBytes(StandardCharsets.US_ASCII)),
+                        NO_REQUEST_ID, false, MAX_ATTEMPTS);
+                if (length >= 0) {
+                    response = new String(receiveData, 0, length, StandardCharsets.US_ASCII);
+                }
+            }
+        } catch (IOException e) {
+            logger.log("HELLO failed: " + e.getMessage());
+        }
+        if (response == null) {
+            // Not cached: only an answer tells whether the server knows HELLO
+            helloRetryAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(HELLO_RETRY_MILLIS);
+            return Capabilities.TEXT_ONLY;
+        }
+        negotiated = Protocol.parseHelloResponse(response);
+        logger.log("Negotiated: " + negotiated);
+        return negotiated;
+    }
+
+    private static boolean isIdempotent(String operation) {
+        return Protocol.GET.equalsIgnoreCase(operation) || Protocol.SCAN.equalsIgnoreCase(operation);
+    }
+
+    private int nextRequestId() {
+        synchronized (channel) {
+            // IDs wrap around after 2^31 requests; the server forgets old ones long before
+            int id = nextRequestId;
+            nextRequestId = (nextRequestId + 1) & Integer.MAX_VALUE;
+            return id;
+        }
+    }
+
+    /**
+     * Reads a key's value into a buffer: the allocation-free path for GET loops
+     *
+     * Unlike sendRequest() nothing is logged and no String is made for the request or
+     * the response. The request is encoded into a reused buffer and the answer received
+     * into another, then the value is copied into the caller's buffer. With ASCII keys a
+     * loop of get() calls allocates nothing once the client is warmed up.
+     *
+     * @param key The key to read
+     * @param value Receives the value's bytes (UTF-8 for the text protocol), from its position on
+     * @return The value's length, or -1 if the key does not exist
+     * @throws SocketTimeoutException if no answer came after every attempt
+     * @throws IOException if the server answered with an error or something that is not a GET answer
+     * @throws BufferOverflowException if the value does not fit
+     */
+    public int get(String key, ByteBuffer value) throws IOException {
+        Capabilities capabilities = negotiate();
+        boolean binary = capabilities.isBinary();
+        // A GET can be resent to any server, tagged or not
+        int requestId = (capabilities.getVersion() >= Capabilities.VERSION) ? nextRequestId() : NO_REQUEST_ID;
+        synchronized (channel) {
+            sendBuffer.clear();
+            if (binary) {
+                putBinaryGet(requestId, key);
+            } else {
+                putTextGet(requestId, key);
+            }
+            sendBuffer.flip();
+            int length = exchange(sendBuffer, requestId, binary, MAX_ATTEMPTS);
+            if (length < 0) {
+                throw new SocketTimeoutException("Timeout for request: GET " + key
+                        + " after " + MAX_ATTEMPTS + " attempt(s)");
+            }
+            return binary ? binaryValue(length, value) : textValue(length, value);
+        }
+    }
+
+    /**
+     * Encodes [opcode][varint id][varint key length][key][varint 0] into the send buffer
+     */
+    private void putBinaryGet(int requestId, String key) {
+        byte[] utf8 = isAscii(key) ? null : key.getBytes(StandardCharsets.UTF_8);
+        if (requestId != NO_REQUEST_ID) {
+            sendBuffer.put((byte) (BinaryProtocol.OP_GET | BinaryProtocol.FLAG_REQUEST_ID));
+            BinaryProtocol.writeVarint(sendBuffer, requestId);
+        } else {
+            sendBuffer.put(BinaryProtocol.OP_GET);
+        }
+        BinaryProtocol.writeVarint(sendBuffer, (utf8 != null) ? utf8.length : key.length());
+        putKey(key, utf8);
+        BinaryProtocol.writeVarint(sendBuffer, 0);
+    }
+
+    /**
+     * Encodes "#id GET key" (or "GET key" untagged) into the send buffer
+     */
+    private void putTextGet(int requestId, String key) {
+        if (requestId != NO_REQUEST_ID) {
+            sendBuffer.put((byte) Protocol.REQUEST_ID_PREFIX);
+            // Digits from the last, then reversed in place
+            int start = sendBuffer.position();
+            int id = requestId;
+            do {
+                sendBuffer.put((byte) ('0' + id % 10));
+                id /= 10;
+            } while (id > 0);
+            for (int i = start, j = sendBuffer.position() - 1; i < j; i++, j--) {
+                byte digit = sendBuffer.get(i);
+                sendBuffer.put(i, sendBuffer.get(j));
+                sendBuffer.put(j, digit);
+            }
+            sendBuffer.put((byte) ' ');
+        }
+        sendBuffer.put(GET_PREFIX);
+        putKey(key, isAscii(key) ? null : key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void putKey(String key, byte[] utf8) {
+        if (utf8 != null) {
+            sendBuffer.put(utf8);
             return;
         }
+        for (int i = 0; i < key.length(); i++) {
+            sendBuffer.put((byte) key.charAt(i));
+        }
+    }
+
+    private static boolean isAscii(String key) {
+        for (int i = 0; i < key.length(); i++) {
+            if (key.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies the value out of a binary answer in the receive buffer
+     */
+    private int binaryValue(int length, ByteBuffer value) throws IOException {
+        receiveBuffer.limit(length).position(0);
+        try {
+            int status = receiveBuffer.get();
+            if ((status & BinaryProtocol.FLAG_REQUEST_ID) != 0) {
+                BinaryProtocol.readVarint(receiveBuffer);
+                status &= ~BinaryProtocol.FLAG_REQUEST_ID;
+            }
+            if (status == BinaryProtocol.STATUS_NOT_FOUND) {
+                return -1;
+            }
+            if (status != BinaryProtocol.STATUS_OK) {
+                throw new IOException("GET failed: " + BinaryProtocol.readResponse(
+                        new ByteArrayInputStream(receiveData, 0, length)).toText(BinaryProtocol.OP_GET));
+            }
+            int valueLength = BinaryProtocol.readVarint(receiveBuffer);
+            if (valueLength > receiveBuffer.remaining()) {
+                throw new IOException("Truncated GET answer");
+            }
+            value.put(receiveData, receiveBuffer.position(), valueLength);
+            return valueLength;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Malformed GET answer", e);
+        }
+    }
+
+    /**
+     * Copies the value out of a "[#id ]GET_RESULT value" answer in the receive buffer
+     */
+    private int textValue(int length, ByteBuffer value) throws IOException {
+        int start = 0;
+        if (length > 0 && receiveData[0] == Protocol.REQUEST_ID_PREFIX) {
+            while (start < length && receiveData[start] != ' ') {
+                start++;
+            }
+            start++;
+        }
+        if (startsWith(start, length, GET_RESULT_PREFIX)) {
+            int valueLength = length - start - GET_RESULT_PREFIX.length;
+            value.put(receiveData, start + GET_RESULT_PREFIX.length, valueLength);
+            return valueLength;
+        }
+        if (startsWith(start, length, GET_ERROR_PREFIX)) {
+            return -1;
+        }
+        throw new IOException("Unsolicited response: " + new String(receiveData, 0, length, StandardCharsets.UTF_8)
+                + " for request: GET");
+    }
+
+    private boolean startsWith(int start, int length, byte[] prefix) {
+        if (length - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (receiveData[start + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Resolves the server's name on first use and again every ADDRESS_REFRESH_MILLIS, and
+     * keeps the channel connected to the current address; caller holds the channel lock
+     * A failed refresh keeps the last address, so a DNS hiccup does not stop the client.
+     */
+    private void connect() throws IOException {
+        long now = System.nanoTime();
+        if (resolved != null && now - resolvedAt < TimeUnit.MILLISECONDS.toNanos(ADDRESS_REFRESH_MILLIS)) {
+            return;
+        }
+        InetSocketAddress address;
+        try {
+            address = new InetSocketAddress(InetAddress.getByName(serverAddress), port);
+        } catch (UnknownHostException e) {
+            if (resolved == null) {
+                throw e;
+            }
+            logger.log("Failed to refresh server address, keeping " + resolved + ": " + e.getMessage());
+            resolvedAt = now;
+            return;
+        }
+        resolvedAt = now;
+        if (address.equals(resolved)) {
+            return;
+        }
+        if (channel.isConnected()) {
+            channel.disconnect();
+            logger.log("Server address changed to " + address);
+        }
+        channel.connect(address);
+        resolved = address;
+    }
 
-        String expectedPrefix = requestParts[0].toUpperCase() + "_";
-        if (!response.startsWith(expectedPrefix)) {
+    /**
+     * Sends one datagram to the server and waits for the answer, resending it with
+     * exponential backoff (INITIAL_TIMEOUT_MILLIS, twice that, ...) while none arrives
+     *
+     * Answers carrying another request ID are late answers to earlier attempts or requests
+     * and are skipped. An untagged answer is what was asked for if requestId is NO_REQUEST_ID.
+     * For a tagged request only an untagged error is accepted, the server's answer to a
+     * request it could not read; anything else untagged, such as a late duplicate HELLO_OK,
+     * is skipped.
+     * The caller holds the channel lock for as long as it uses the answer, so concurrent
+     * callers take turns instead of receiving each other's answers.
+     *
+     * @param request The datagram, from position 0 to its limit
+     * @param requestId The ID the request carries, NO_REQUEST_ID if none
+     * @param binary Whether the answer is a binary frame
+     * @param attempts How often the request may be sent
+     * @return The length of the answer in receiveData, or -1 if every attempt timed out
+     */
+    private int exchange(ByteBuffer request, int requestId, boolean binary, int attempts) throws IOException {
+        connect();
+        long timeout = INITIAL_TIMEOUT_MILLIS;
+        for (int attempt = 1; attempt <= attempts; attempt++, timeout *= 2) {
+            // Send the packet; one the socket buffer has no room for is resent like a lost one
+            request.rewind();
+            try {
+                channel.write(request);
+            } catch (PortUnreachableException e) {
+                // An earlier datagram was refused; nobody may be listening yet
+            }
+            if (attempt > 1) {
+                logger.log("Retry " + (attempt - 1) + " of request #" + requestId);
+            }
+
+            long deadline = System.nanoTime() + timeout * 1_000_000;
+            int length;
+            while ((length = receive(deadline)) >= 0) {
+                int responseId = responseId(length, binary);
+                if (responseId == requestId
+                        || (responseId == NO_REQUEST_ID && (requestId == NO_REQUEST_ID || isUntaggedError(length, binary)))) {
+                    return length;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Receives one datagram into receiveData, waiting until the deadline at most
+     * @return Its length, or -1 if none arrived in time
+     */
+    private int receive(long deadline) throws IOException {
+        while (true) {
+            receiveBuffer.clear();
+            int length;
+            try {
+                length = channel.read(receiveBuffer);
+            } catch (PortUnreachableException e) {
+                // Treated like no answer, as an unconnected socket would
+                length = 0;
+            }
+            // 0 is no datagram waiting; an empty one is no answer either
+            if (length > 0) {
+                return length;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return -1;
+            }
+            // The action form leaves the selected-key set alone, which would allocate a node per wakeup
+            selector.select(READY, Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+        }
+    }
+
+    /**
+     * @return The request ID the answer in receiveData carries, NO_REQUEST_ID if it has none
+     */
+    private int responseId(int length, boolean binary) {
+        if (!binary) {
+            if (receiveData[0] != Protocol.REQUEST_ID_PREFIX) {
+                return NO_REQUEST_ID;
+            }
+            // "#digits " without making a String
+            long id = 0;
+            int i = 1;
+            for (; i < length && receiveData[i] != ' '; i++) {
+                int digit = receiveData[i] - '0';
+                if (digit < 0 || digit > 9 || (id = id * 10 + digit) > Integer.MAX_VALUE) {
+                    return NO_REQUEST_ID;
+                }
+            }
+            return (i > 1) ? (int) id : NO_REQUEST_ID;
+        }
+        receiveBuffer.limit(length).position(0);
+        return BinaryProtocol.responseId(receiveBuffer);
+    }
+
+    /**
+     * @return Whether the untagged answer in receiveData is an error, in the request's framing
+     */
+    private boolean isUntaggedError(int length, boolean binary) {
+        if (binary) {
+            return BinaryProtocol.isUntaggedError(receiveData[0]);
+        }
+        return startsWith(0, length, ERROR_PREFIX);
+    }
+
+    /**
+     * Checks that a response answers the request's operation, without splitting either:
+     * its name followed by '_' (PUT_OK, GET_RESULT, ...), and a GET_RESULT has a value
+     */
+    private void validateResponse(String request, String response) {
+        int operationLength = request.indexOf(' ');
+        if (operationLength < 0) {
+            operationLength = request.length();
+        }
+        boolean matches = response.length() > operationLength && response.charAt(operationLength) == '_';
+        for (int i = 0; matches && i < operationLength; i++) {
+            matches = Character.toUpperCase(request.charAt(i)) == response.charAt(i);
+        }
+        if (!matches) {
             logger.log("Unsolicited response: " + response + " for request: " + request);
         }
 
         // Additional validation for GET responses
-        if (requestParts[0].equalsIgnoreCase(Protocol.GET) && response.startsWith(Protocol.GET_RESULT)) {
-            String[] responseParts = response.split(" ", 2);
-            if (responseParts.length < 2) {
-                logger.log("Malformed GET response: " + response);
-            }
+        if (operationLength == Protocol.GET.length() && request.regionMatches(true, 0, Protocol.GET, 0, operationLength)
+                && response.startsWith(Protocol.GET_RESULT) && response.indexOf(' ') < 0) {
+            logger.log("Malformed GET response: " + response);
+        }
+    }
+
+    /**
+     * Closes the socket and the asynchronous channel, if any; requests still waiting for
+     * an asynchronous response complete exceptionally
+     */
+    @Override
+    public void close() {
+        try {
+            selector.close();
+            channel.close();
+        } catch (IOException e) {
+            logger.log("Failed to close UDP channel: " + e.getMessage());
+        }
+        AsyncSocket channel;
+        synchronized (this) {
+            channel = async;
+        }
+        if (channel != null) {
+            channel.closed = true;
+            channel.loop.execute(() -> channel.fail(new IOException("Client is closed")));
         }
     }
 
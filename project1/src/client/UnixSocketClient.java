@@ -0,0 +1,143 @@
+package client;
+
+import common.Logger;
+import common.Protocol;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unix Domain Socket Client
+ * For clients on the same host as the server: talks to TCPServer's Unix domain socket
+ * listener (see TCPServer.startUnix) instead of going through the loopback TCP stack
+ *
+ * The protocol is the text protocol of TCPClient, but the connection stays open for
+ * the life of the client: setting up a connection per request would eat much of what
+ * the shorter path saves. Requests are sent one at a time; concurrent callers take
+ * turns on the connection.
+ *
+ * Usage:
+ *   try (UnixSocketClient client = new UnixSocketClient(Path.of("/tmp/kvstore.sock"))) {
+ *       client.send(Protocol.PUT, "a", "1");
+ *       System.out.println(client.send(Protocol.GET, "a", null));
+ *   }
+ */
+public class UnixSocketClient implements AutoCloseable {
+    private final SocketChannel channel;
+    private final BufferedReader in;
+    private final Logger logger;
+
+    /**
+     * Connects to the server's socket file
+     * @param path The path the server listens on
+     * @throws IOException if nothing listens there
+     */
+    public UnixSocketClient(Path path) throws IOException {
+        this.logger = new Logger(UnixSocketClient.class);
+        this.channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            channel.connect(UnixDomainSocketAddress.of(path));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        this.in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Sends a single request and waits for its response
+     *
+     * @param operation PUT, GET, DELETE or SCAN
+     * @param key The key to operate on
+     * @param value The value for PUT, null otherwise
+     * @return The response line
+     * @throws IOException if the connection fails or the server closes it
+     */
+    public synchronized String send(String operation, String key, String value) throws IOException {
+        String request = Protocol.createRequest(operation, key, value);
+        write(request + "\n");
+        String response = readResponse();
+        logger.log("Request: " + request + " | Response: " + response);
+        return response;
+    }
+
+    /**
+     * Sends many requests without waiting for each answer (pipelining), like
+     * TCPClient.sendPipelined but over this client's connection
+     *
+     * @param requests Request lines, e.g. built with Protocol.createRequest
+     * @param depth Maximum number of requests in flight (1 = no pipelining)
+     * @return The responses, in the same order as the requests
+     * @throws IOException if the connection fails or closes early
+     */
+    public synchronized List<String> sendPipelined(List<String> requests, int depth) throws IOException {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Pipeline depth must be at least 1");
+        }
+        List<String> responses = new ArrayList<>(requests.size());
+        StringBuilder window = new StringBuilder();
+        int sent = 0;
+        while (sent < requests.size()) {
+            // Send a window of requests with a single write
+            int windowEnd = Math.min(sent + depth, requests.size());
+            window.setLength(0);
+            for (int i = sent; i < windowEnd; i++) {
+                window.append(requests.get(i)).append('\n');
+            }
+            write(window.toString());
+
+            // Then collect their responses in order
+            for (int i = sent; i < windowEnd; i++) {
+                responses.add(readResponse());
+            }
+            sent = windowEnd;
+        }
+        return responses;
+    }
+
+    private void write(String requests) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(requests.getBytes(StandardCharsets.UTF_8));
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    private String readResponse() throws IOException {
+        String response = in.readLine();
+        if (response == null) {
+            throw new IOException("Connection closed by server");
+        }
+        return response;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.out.println("Usage: java UnixSocketClient <path>");
+            return;
+        }
+
+        try (UnixSocketClient client = new UnixSocketClient(Path.of(args[0]))) {
+            // Test 5 PUT, GET, DELETE operations
+            for (int i = 1; i <= 5; i++) {
+                client.send(Protocol.PUT, "key" + i, "value" + i);
+                client.send(Protocol.GET, "key" + i, null);
+                client.send(Protocol.DELETE, "key" + i, null);
+            }
+        }
+    }
+}
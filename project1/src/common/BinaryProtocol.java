@@ -0,0 +1,529 @@
+package common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * BinaryProtocol defines the compact length-prefixed framing that can be used
+ * instead of the text lines described in Protocol
+ *
+ * Request frame:  [opcode][varint keyLength][key bytes][varint valueLength][value bytes]
+ * Response frame: [status][varint payloadLength][payload bytes]
+ *
+ * Every opcode has its high bit set, while a text request always starts with an
+ * ASCII letter, so a server can tell the two apart from the very first byte of a
+ * connection (TCP) or datagram (UDP) and serve both on the same port.
+ *
+ * Lengths are unsigned LEB128 varints (7 bits per byte, high bit = "more bytes"),
+ * so keys and values shorter than 128 bytes cost a single length byte.
+ * Keys are UTF-8, values are raw bytes and may contain spaces, newlines or anything else.
+ *
+ * SCAN carries its cursor and count as decimal text in the key and value fields, and
+ * its payload is [varint nextCursor] followed by [varint keyLength][key bytes] per key.
+ *
+ * Batches (UDP only): a datagram starting with OP_BATCH carries several request frames,
+ *   [OP_BATCH][varint count][request frame]...
+ * and is answered by one datagram with a response frame per request, in the same order,
+ *   [OP_BATCH][varint count][response frame]...
+ * Batches should fit MAX_DATAGRAM_SIZE so they are never fragmented. A batch can be
+ * tagged like a single request (see below): its header is then
+ *   [OP_BATCH | FLAG_REQUEST_ID][varint requestId][varint count]
+ * and the response header carries the same ID, so a late answer to an earlier batch
+ * cannot be taken for this one's.
+ *
+ * Request IDs: setting FLAG_REQUEST_ID in the opcode adds [varint requestId] right after
+ * it, and the response then carries the same flag on its status byte followed by the ID.
+ * Tagged requests may be answered out of order.
+ */
+public class BinaryProtocol {
+    // Request opcodes (high bit set marks a binary frame)
+    public static final byte OP_PUT = (byte) 0x81;
+    public static final byte OP_GET = (byte) 0x82;
+    public static final byte OP_DELETE = (byte) 0x83;
+    public static final byte OP_SCAN = (byte) 0x84;
+
+    // First byte of a batch datagram, request or response (see above)
+    public static final byte OP_BATCH = (byte) 0x8F;
+
+    // Opcode/status bit announcing a varint request ID after the first byte
+    public static final byte FLAG_REQUEST_ID = 0x40;
+
+    // Response status codes
+    public static final byte STATUS_OK = 0x00;        // PUT/DELETE done, GET/SCAN payload follows
+    public static final byte STATUS_NOT_FOUND = 0x01; // GET/DELETE on a missing key
+    public static final byte STATUS_ERROR = 0x02;     // Payload holds a UTF-8 error message
+    public static final byte STATUS_BUSY = 0x03;      // Server overloaded, request not executed; retry later
+    public static final byte STATUS_THROTTLED = 0x04; // Client over its rate limit, request not executed
+
+    // Upper bound for a single key or value, protects servers from bogus length prefixes
+    public static final int MAX_FIELD_LENGTH = 16 * 1024 * 1024;
+
+    // Largest datagram that fits a 1500 byte Ethernet MTU (minus IP and UDP headers)
+    public static final int MAX_DATAGRAM_SIZE = 1472;
+    // Most requests a server accepts in one batch datagram
+    public static final int MAX_BATCH = 64;
+
+    /**
+     * Checks whether the first byte of a connection or datagram starts a binary frame
+     *
+     * @param firstByte The first byte as returned by InputStream.read() or a byte value
+     * @return true for binary framing, false for the text protocol
+     */
+    public static boolean isBinary(int firstByte) {
+        return (firstByte & 0x80) != 0;
+    }
+
+    /**
+     * Maps a text operation name (PUT, GET, ...) to its binary opcode
+     *
+     * @param operation The operation name, case-insensitive
+     * @return The opcode, or 0 if the operation has no binary form
+     */
+    public static byte opcodeFor(String operation) {
+        switch (operation.toUpperCase()) {
+            case Protocol.PUT:
+                return OP_PUT;
+            case Protocol.GET:
+                return OP_GET;
+            case Protocol.DELETE:
+                return OP_DELETE;
+            case Protocol.SCAN:
+                return OP_SCAN;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Encodes a request frame
+     *
+     * @param opcode One of the OP_ constants
+     * @param key The key (UTF-8 encoded on the wire)
+     * @param value The value bytes, null for operations without a value
+     * @return The complete frame
+     */
+    public static byte[] encodeRequest(byte opcode, String key, byte[] value) {
+        return encodeRequest(opcode, -1, key, value);
+    }
+
+    /**
+     * Encodes a request frame tagged with a request ID
+     *
+     * @param opcode One of the OP_ constants
+     * @param requestId Non-negative request ID, or -1 for an untagged request
+     * @param key The key (UTF-8 encoded on the wire)
+     * @param value The value bytes, null for operations without a value
+     * @return The complete frame
+     */
+    public static byte[] encodeRequest(byte opcode, int requestId, String key, byte[] value) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int valueLength = (value != null) ? value.length : 0;
+        int idLength = (requestId >= 0) ? varintSize(requestId) : 0;
+        ByteBuffer frame = ByteBuffer.allocate(1 + idLength + varintSize(keyBytes.length) + keyBytes.length
+                + varintSize(valueLength) + valueLength);
+        if (requestId >= 0) {
+            frame.put((byte) (opcode | FLAG_REQUEST_ID));
+            writeVarint(frame, requestId);
+        } else {
+            frame.put(opcode);
+        }
+        writeVarint(frame, keyBytes.length);
+        frame.put(keyBytes);
+        writeVarint(frame, valueLength);
+        if (value != null) {
+            frame.put(value);
+        }
+        return frame.array();
+    }
+
+    /**
+     * Tags an untagged request frame with a request ID
+     *
+     * @param frame A frame from encodeRequest(opcode, key, value)
+     * @param requestId Non-negative request ID
+     * @return A new frame, as encodeRequest(opcode, requestId, key, value) would build it
+     */
+    public static byte[] withRequestId(byte[] frame, int requestId) {
+        ByteBuffer tagged = ByteBuffer.allocate(frame.length + varintSize(requestId));
+        tagged.put((byte) (frame[0] | FLAG_REQUEST_ID));
+        writeVarint(tagged, requestId);
+        tagged.put(frame, 1, frame.length - 1);
+        return tagged.array();
+    }
+
+    /**
+     * Checks whether the first byte of a datagram starts a batch, tagged or not
+     */
+    public static boolean isBatch(byte firstByte) {
+        return (byte) (firstByte & ~FLAG_REQUEST_ID) == OP_BATCH;
+    }
+
+    /**
+     * Combines request frames into one batch datagram
+     *
+     * @param frames Frames from encodeRequest, at most MAX_BATCH
+     * @return [OP_BATCH][varint count] followed by the frames
+     */
+    public static byte[] encodeBatch(List<byte[]> frames) {
+        return encodeBatch(-1, frames);
+    }
+
+    /**
+     * Combines request frames into one batch datagram tagged with a request ID
+     *
+     * @param requestId Non-negative request ID, or -1 for an untagged batch
+     * @param frames Frames from encodeRequest, at most MAX_BATCH
+     * @return The batch header followed by the frames
+     */
+    public static byte[] encodeBatch(int requestId, List<byte[]> frames) {
+        int size = 1 + varintSize(frames.size()) + ((requestId >= 0) ? varintSize(requestId) : 0);
+        for (byte[] frame : frames) {
+            size += frame.length;
+        }
+        ByteBuffer batch = ByteBuffer.allocate(size);
+        if (requestId >= 0) {
+            batch.put((byte) (OP_BATCH | FLAG_REQUEST_ID));
+            writeVarint(batch, requestId);
+        } else {
+            batch.put(OP_BATCH);
+        }
+        writeVarint(batch, frames.size());
+        for (byte[] frame : frames) {
+            batch.put(frame);
+        }
+        return batch.array();
+    }
+
+    /**
+     * @return The size of a batch datagram with this many frames of this total size
+     */
+    public static int encodedBatchSize(int count, int framesSize) {
+        return 1 + varintSize(count) + framesSize;
+    }
+
+    /**
+     * Reads a batch response datagram, skipping the request ID of a tagged one
+     *
+     * @param in The datagram contents
+     * @return The responses, in request order
+     * @throws IOException if the datagram is not a complete batch response
+     */
+    public static List<Response> readBatchResponse(InputStream in) throws IOException {
+        int header = in.read();
+        if (header < 0 || !isBatch((byte) header)) {
+            throw new IOException("Not a batch response");
+        }
+        if ((header & FLAG_REQUEST_ID) != 0) {
+            readVarint(in);
+        }
+        int count = readVarint(in);
+        if (count > MAX_BATCH) {
+            throw new IOException("Batch too large: " + count);
+        }
+        List<Response> responses = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            responses.add(readResponse(in));
+        }
+        return responses;
+    }
+
+    /**
+     * Encodes a response frame into a buffer
+     *
+     * @param out Destination buffer, must have room for encodedResponseSize(payload) bytes
+     * @param status One of the STATUS_ constants
+     * @param payload The payload bytes, null for none
+     */
+    public static void writeResponse(ByteBuffer out, byte status, byte[] payload) {
+        int length = (payload != null) ? payload.length : 0;
+        out.put(status);
+        writeVarint(out, length);
+        if (payload != null) {
+            out.put(payload);
+        }
+    }
+
+    /**
+     * @return The number of bytes writeResponse needs for this payload
+     */
+    public static int encodedResponseSize(byte[] payload) {
+        int length = (payload != null) ? payload.length : 0;
+        return 1 + varintSize(length) + length;
+    }
+
+    /**
+     * Reads one response frame from a stream
+     *
+     * @param in The stream to read from
+     * @return The decoded response
+     * @throws IOException on I/O errors or if the stream ends mid-frame
+     */
+    public static Response readResponse(InputStream in) throws IOException {
+        int status = in.read();
+        if (status < 0) {
+            throw new EOFException("Connection closed before response");
+        }
+        int requestId = -1;
+        if ((status & FLAG_REQUEST_ID) != 0) {
+            requestId = readVarint(in);
+            status &= ~FLAG_REQUEST_ID;
+        }
+        byte[] payload = readField(in);
+        return new Response((byte) status, payload, requestId);
+    }
+
+    /**
+     * Reads one length-prefixed field (varint length followed by that many bytes)
+     *
+     * @param in The stream to read from
+     * @return The field bytes
+     * @throws IOException on I/O errors, a truncated field or an oversized length
+     */
+    public static byte[] readField(InputStream in) throws IOException {
+        int length = readVarint(in);
+        if (length > MAX_FIELD_LENGTH) {
+            throw new IOException("Field too large: " + length);
+        }
+        byte[] field = in.readNBytes(length);
+        if (field.length != length) {
+            throw new EOFException("Connection closed mid-frame");
+        }
+        return field;
+    }
+
+    /**
+     * Reads one length-prefixed field from a buffer
+     *
+     * @param in The buffer positioned at the varint length
+     * @return The field bytes
+     * @throws BufferUnderflowException if the buffer ends mid-field
+     * @throws IllegalArgumentException for a malformed or oversized length
+     */
+    public static byte[] readField(ByteBuffer in) {
+        int length = readVarint(in);
+        if (length > MAX_FIELD_LENGTH) {
+            throw new IllegalArgumentException("Field too large: " + length);
+        }
+        byte[] field = new byte[length];
+        in.get(field);
+        return field;
+    }
+
+    /**
+     * Writes an unsigned varint (LEB128)
+     */
+    public static void writeVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    /**
+     * Writes an unsigned varint (LEB128) to a byte stream
+     */
+    public static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * @return The number of bytes writeVarint uses for this value
+     */
+    public static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Reads the request ID of a response or batch response datagram
+     * A datagram whose first byte is neither a status nor the batch header (a text line
+     * such as HELLO_OK) counts as untagged, even if that byte has FLAG_REQUEST_ID set
+     *
+     * @param datagram The datagram, from its position to its limit; the position moves
+     * @return The request ID, or -1 if the datagram is untagged or too short to hold one
+     */
+    public static int responseId(ByteBuffer datagram) {
+        if (!datagram.hasRemaining()) {
+            return -1;
+        }
+        byte header = datagram.get();
+        if ((header & FLAG_REQUEST_ID) == 0) {
+            return -1;
+        }
+        byte untagged = (byte) (header & ~FLAG_REQUEST_ID);
+        if (untagged != OP_BATCH && (untagged < STATUS_OK || untagged > STATUS_THROTTLED)) {
+            return -1;
+        }
+        try {
+            return readVarint(datagram);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return Whether a response datagram starting with this byte is an untagged error,
+     *         the server's answer to a datagram it could not read far enough to tag
+     */
+    public static boolean isUntaggedError(byte firstByte) {
+        return firstByte == STATUS_ERROR;
+    }
+
+    /**
+     * Reads an unsigned varint from a buffer
+     *
+     * @throws BufferUnderflowException if the buffer ends mid-varint
+     * @throws IllegalArgumentException if the varint is longer than 5 bytes
+     */
+    public static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new IllegalArgumentException("Varint out of range");
+                }
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    /**
+     * Reads a SCAN cursor, an unsigned 32 bit varint, from a SCAN payload
+     *
+     * @throws BufferUnderflowException if the buffer ends mid-varint
+     */
+    public static long readCursor(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value & 0xFFFFFFFFL;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    /**
+     * Reads an unsigned varint from a stream
+     *
+     * @throws IOException on I/O errors, end of stream or a malformed varint
+     */
+    public static int readVarint(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Connection closed mid-frame");
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new IOException("Varint out of range");
+                }
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * A decoded response frame
+     */
+    public static class Response {
+        private final byte status;
+        private final byte[] payload;
+        private final int requestId;
+
+        public Response(byte status, byte[] payload) {
+            this(status, payload, -1);
+        }
+
+        public Response(byte status, byte[] payload, int requestId) {
+            this.status = status;
+            this.payload = payload;
+            this.requestId = requestId;
+        }
+
+        public byte getStatus() {
+            return status;
+        }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+
+        /** @return The request ID the server echoed, or -1 for an untagged response */
+        public int getRequestId() {
+            return requestId;
+        }
+
+        public boolean isOk() {
+            return status == STATUS_OK;
+        }
+
+        /**
+         * Renders the response the way the text protocol would have answered,
+         * e.g. "GET_RESULT value" or "DELETE_ERROR" (handy for logging)
+         *
+         * @param opcode The opcode of the request this response belongs to
+         */
+        public String toText(byte opcode) {
+            String operation;
+            switch (opcode) {
+                case OP_PUT:
+                    operation = Protocol.PUT;
+                    break;
+                case OP_GET:
+                    operation = Protocol.GET;
+                    break;
+                case OP_DELETE:
+                    operation = Protocol.DELETE;
+                    break;
+                case OP_SCAN:
+                    operation = Protocol.SCAN;
+                    break;
+                default:
+                    operation = "UNKNOWN";
+            }
+            if (status == STATUS_ERROR) {
+                return "ERROR " + new String(payload, StandardCharsets.UTF_8);
+            }
+            if (status == STATUS_BUSY) {
+                return Protocol.BUSY;
+            }
+            if (status == STATUS_THROTTLED) {
+                return Protocol.THROTTLED;
+            }
+            if (status == STATUS_NOT_FOUND) {
+                return operation + "_ERROR";
+            }
+            if (opcode == OP_GET) {
+                return Protocol.GET_RESULT + " " + new String(payload, StandardCharsets.UTF_8);
+            }
+            if (opcode == OP_SCAN) {
+                return Protocol.SCAN_RESULT + " (" + payload.length + " bytes)";
+            }
+            return operation + "_OK";
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package common;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of direct ByteBuffers of one size
+ *
+ * Direct buffers are what the socket channels read into and write from without a copy,
+ * but they are expensive to allocate and are only freed by the garbage collector, so they
+ * are taken from here once and used for as long as the socket or connection lives.
+ * A buffer given back is reused by the next acquire(); beyond maxPooled free buffers,
+ * returned ones are left to the garbage collector.
+ *
+ * Thread safe.
+ */
+public class BufferPool {
+    private final int bufferSize;
+    private final int maxPooled;
+    private final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger freeCount = new AtomicInteger();
+
+    /**
+     * @param bufferSize Capacity of every buffer
+     * @param maxPooled Most free buffers kept for reuse
+     */
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * @return A cleared direct buffer of bufferSize bytes, pooled or new
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        freeCount.decrementAndGet();
+        return buffer.clear();
+    }
+
+    /**
+     * Gives a buffer back; the caller must not use it afterwards
+     * Buffers that are not from a pool of this size (e.g. grown by
+     * RequestProcessor.ensureCapacity) are simply dropped
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || buffer.capacity() != bufferSize) {
+            return;
+        }
+        if (freeCount.incrementAndGet() > maxPooled) {
+            freeCount.decrementAndGet();
+            return;
+        }
+        free.add(buffer);
+    }
+
+    /** @return Free buffers waiting to be reused */
+    public int pooled() {
+        return freeCount.get();
+    }
+
+    public int bufferSize() {
+        return bufferSize;
+    }
+}
@@ -0,0 +1,163 @@
+package common;
+
+import java.util.Arrays;
+
+/**
+ * Capabilities exchanged in the HELLO handshake
+ *
+ * A client that wants more than the plain text protocol starts with
+ *   HELLO 2 binary=1 pipeline=64 compression=none batch=16
+ * and the server answers with what both ends support:
+ *   HELLO_OK 2 binary=1 pipeline=64 compression=none batch=16
+ * A server from before HELLO answers "ERROR Invalid operation", and a client from before
+ * HELLO never sends it, so either way the connection just keeps using text lines (version 1).
+ *
+ * Unknown keys are ignored, so later versions can add capabilities without breaking
+ * older peers; a missing key means the peer lacks that feature.
+ */
+public class Capabilities {
+    // The text protocol as it was before HELLO existed
+    public static final int TEXT_VERSION = 1;
+    // Current protocol version: HELLO, binary framing, request IDs
+    public static final int VERSION = 2;
+
+    public static final String COMPRESSION_NONE = "none";
+
+    // What a peer that does not speak HELLO supports
+    public static final Capabilities TEXT_ONLY = new Capabilities(TEXT_VERSION, false, 1, new String[]{COMPRESSION_NONE}, 1);
+
+    private final int version;
+    private final boolean binary;
+    private final int pipelineDepth;
+    // Supported compression methods, most preferred first
+    private final String[] compression;
+    private final int maxBatch;
+
+    /**
+     * @param version Protocol version
+     * @param binary Whether BinaryProtocol frames are understood
+     * @param pipelineDepth Most requests worth having in flight on one connection
+     * @param compression Supported compression methods, most preferred first
+     * @param maxBatch Most operations one request may carry (see UDP batching)
+     */
+    public Capabilities(int version, boolean binary, int pipelineDepth, String[] compression, int maxBatch) {
+        this.version = version;
+        this.binary = binary;
+        this.pipelineDepth = pipelineDepth;
+        this.compression = compression.clone();
+        this.maxBatch = maxBatch;
+    }
+
+    /**
+     * Combines our capabilities with the peer's: the lower version and limits,
+     * binary only if both have it, and our most preferred compression the peer also lists
+     */
+    public Capabilities negotiate(Capabilities peer) {
+        String agreed = COMPRESSION_NONE;
+        for (String method : compression) {
+            if (Arrays.asList(peer.compression).contains(method)) {
+                agreed = method;
+                break;
+            }
+        }
+        return new Capabilities(
+                Math.min(version, peer.version),
+                binary && peer.binary,
+                Math.max(1, Math.min(pipelineDepth, peer.pipelineDepth)),
+                new String[]{agreed},
+                Math.max(1, Math.min(maxBatch, peer.maxBatch)));
+    }
+
+    /**
+     * @return The capabilities as sent after HELLO / HELLO_OK,
+     *         e.g. "2 binary=1 pipeline=64 compression=none batch=16"
+     */
+    public String encode() {
+        return version + " binary=" + (binary ? 1 : 0) + " pipeline=" + pipelineDepth
+                + " compression=" + String.join(",", compression) + " batch=" + maxBatch;
+    }
+
+    /**
+     * Parses the part after HELLO / HELLO_OK
+     *
+     * @param text e.g. "2 binary=1 pipeline=64 compression=none batch=16"
+     * @return The parsed capabilities; absent keys default to the text protocol's
+     * @throws IllegalArgumentException if the version or a number is not valid
+     */
+    public static Capabilities parse(String text) {
+        String[] parts = text.trim().split(" +");
+        int version;
+        try {
+            version = Integer.parseInt(parts[0]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid protocol version: " + parts[0]);
+        }
+        boolean binary = TEXT_ONLY.binary;
+        int pipelineDepth = TEXT_ONLY.pipelineDepth;
+        String[] compression = TEXT_ONLY.compression;
+        int maxBatch = TEXT_ONLY.maxBatch;
+        for (int i = 1; i < parts.length; i++) {
+            int eq = parts[i].indexOf('=');
+            if (eq < 0) {
+                continue;
+            }
+            String name = parts[i].substring(0, eq);
+            String value = parts[i].substring(eq + 1);
+            switch (name) {
+                case "binary":
+                    binary = value.equals("1");
+                    break;
+                case "pipeline":
+                    pipelineDepth = parsePositive(name, value);
+                    break;
+                case "compression":
+                    compression = value.split(",");
+                    break;
+                case "batch":
+                    maxBatch = parsePositive(name, value);
+                    break;
+                default:
+                    // A capability from a newer version, not ours to judge
+            }
+        }
+        return new Capabilities(version, binary, pipelineDepth, compression, maxBatch);
+    }
+
+    private static int parsePositive(String name, String value) {
+        try {
+            int number = Integer.parseInt(value);
+            if (number >= 1) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Invalid " + name + ": " + value);
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    public int getPipelineDepth() {
+        return pipelineDepth;
+    }
+
+    /** @return The agreed compression method (the first listed) */
+    public String getCompression() {
+        return compression[0];
+    }
+
+    public int getMaxBatch() {
+        return maxBatch;
+    }
+
+    @Override
+    public String toString() {
+        return encode();
+    }
+}
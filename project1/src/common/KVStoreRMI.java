@@ -0,0 +1,34 @@
+package common;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Remote interface of the RMI key-value servers (project2 RMIServer, and the
+ * replicated servers of project3/4)
+ *
+ * Only the operations every variant exports are declared here. RMI matches methods
+ * by name and signature, so this subset is enough to call any of those servers.
+ */
+public interface KVStoreRMI extends Remote {
+    /**
+     * Store a key-value pair
+     * @return "PUT_OK" on success
+     * @throws RemoteException if a remote error occurs
+     */
+    String put(String key, String value) throws RemoteException;
+
+    /**
+     * Retrieve a value by its key
+     * @return "GET_RESULT value", or an error response if the key is not found
+     * @throws RemoteException if a remote error occurs
+     */
+    String get(String key) throws RemoteException;
+
+    /**
+     * Delete a key-value pair
+     * @return "DELETE_OK" if the key was removed, an error response otherwise
+     * @throws RemoteException if a remote error occurs
+     */
+    String delete(String key) throws RemoteException;
+}
@@ -18,6 +18,9 @@ public class Logger {
     // Using just the simple name (without package) for cleaner output
     private final String className;
 
+    // Off with -Dkvstore.log=false; per-request log lines check it before they are built
+    private static volatile boolean enabled = !"false".equals(System.getProperty("kvstore.log"));
+
     /**
      * Constructor that takes a Class object to identify the source of log messages
      * Uses Java's reflection (Class<?>) to get the class name
@@ -29,6 +32,24 @@ public class Logger {
         this.className = clazz.getSimpleName();
     }
 
+    /**
+     * Turns logging on or off for every Logger
+     *
+     * @param on Whether log() prints anything
+     */
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    /**
+     * Lets a caller skip building a message nobody will see
+     *
+     * @return Whether log() prints anything
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
     /**
      * Logs a message with the current timestamp and class name
      * Format: [timestamp] [className] message
@@ -36,6 +57,9 @@ public class Logger {
      * @param message The message to be logged
      */
     public void log(String message) {
+        if (!enabled) {
+            return;
+        }
         // Create date formatter for timestamp
         // Pattern: yyyy-MM-dd HH:mm:ss.SSS
         // Example: 2025-01-31 12:34:56.789
@@ -15,6 +15,8 @@ public class Protocol {
     public static final String PUT = "PUT";       // Store a key-value pair
     public static final String GET = "GET";       // Retrieve a value by key
     public static final String DELETE = "DELETE"; // Remove a key-value pair
+    public static final String SCAN = "SCAN";     // Walk the keyspace page by page
+    public static final String HELLO = "HELLO";   // Negotiate capabilities (see Capabilities)
 
     // Server response types for PUT operations
     public static final String PUT_OK = "PUT_OK";         // Successful storage
@@ -28,6 +30,22 @@ public class Protocol {
     public static final String DELETE_OK = "DELETE_OK";       // Successful deletion
     public static final String DELETE_ERROR = "DELETE_ERROR"; // Failed to delete/key not found
 
+    // Server response type for HELLO: "HELLO_OK <negotiated capabilities>"
+    public static final String HELLO_OK = "HELLO_OK";
+
+    // Optional request ID prefix: "#42 GET key" is answered with "#42 GET_RESULT value"
+    // Tagged requests may be answered out of order, untagged ones are answered in order
+    public static final char REQUEST_ID_PREFIX = '#';
+
+    // Server response types for SCAN operations
+    public static final String SCAN_RESULT = "SCAN_RESULT"; // Next cursor followed by a page of keys
+    public static final String SCAN_ERROR = "SCAN_ERROR";   // Invalid cursor or count
+
+    // Any request: the server is overloaded and did not execute it, retry later (see AdmissionControl)
+    public static final String BUSY = "BUSY";
+    // Any request: this client is over its rate limit and the request was not executed (see RateLimiter)
+    public static final String THROTTLED = "THROTTLED";
+
     /**
      * Creates a properly formatted request string based on the operation type
      *
@@ -46,7 +64,7 @@ public class Protocol {
      */
     public static String createRequest(String operation, String key, String value) {
         // For PUT operations, include the value
-        if (operation.equals(PUT)) {
+        if (operation.equalsIgnoreCase(PUT)) {
             return operation + " " + key + " " + value;
         }
         // For GET and DELETE operations, only include the key
@@ -55,6 +73,93 @@ public class Protocol {
         }
     }
 
+    /**
+     * Creates a SCAN request for one page of a keyspace walk
+     *
+     * Format: "SCAN cursor count"
+     *
+     * @param cursor 0 to start a walk, otherwise the cursor from the previous SCAN_RESULT
+     * @param count Number of keys wanted in this page
+     * @return Formatted request string
+     *
+     * Example: createScanRequest(0, 100) -> "SCAN 0 100"
+     */
+    public static String createScanRequest(long cursor, int count) {
+        return SCAN + " " + cursor + " " + count;
+    }
+
+    /**
+     * Creates the HELLO request offering the given capabilities
+     *
+     * Example: createHelloRequest(caps) -> "HELLO 2 binary=1 pipeline=64 compression=none batch=16"
+     */
+    public static String createHelloRequest(Capabilities offer) {
+        return HELLO + " " + offer.encode();
+    }
+
+    /**
+     * Reads the server's answer to HELLO
+     *
+     * @param response The response line, null if the server closed the connection instead
+     * @return The negotiated capabilities; Capabilities.TEXT_ONLY for a server
+     *         that does not know HELLO (any other response)
+     */
+    public static Capabilities parseHelloResponse(String response) {
+        if (response == null || !response.startsWith(HELLO_OK + " ")) {
+            return Capabilities.TEXT_ONLY;
+        }
+        try {
+            return Capabilities.parse(response.substring(HELLO_OK.length() + 1));
+        } catch (IllegalArgumentException e) {
+            return Capabilities.TEXT_ONLY;
+        }
+    }
+
+    /**
+     * Tags a request line with a request ID
+     *
+     * @param requestId Non-negative ID, unique among the requests in flight on a connection
+     * @param request The request line, e.g. from createRequest
+     * @return The tagged request, e.g. "#42 GET name"
+     */
+    public static String withRequestId(int requestId, String request) {
+        return REQUEST_ID_PREFIX + Integer.toString(requestId) + " " + request;
+    }
+
+    /**
+     * Reads the request ID of a tagged response
+     *
+     * @param response A response line
+     * @return The ID, or -1 if the response is not tagged
+     *
+     * Example: parseRequestId("#42 GET_RESULT John") -> 42
+     */
+    public static int parseRequestId(String response) {
+        if (response.isEmpty() || response.charAt(0) != REQUEST_ID_PREFIX) {
+            return -1;
+        }
+        int end = response.indexOf(' ');
+        try {
+            return Integer.parseInt(end < 0 ? response.substring(1) : response.substring(1, end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Removes the request ID from a tagged response
+     *
+     * @param response A response line, tagged or not
+     * @return The response without its "#id " prefix
+     */
+    public static String stripRequestId(String response) {
+        if (response.isEmpty() || response.charAt(0) != REQUEST_ID_PREFIX) {
+            return response;
+        }
+        int end = response.indexOf(' ');
+        return end < 0 ? "" : response.substring(end + 1);
+    }
+
     /**
      * Parses a server response string into its components
      * Splits the response into status and optional value
@@ -0,0 +1,36 @@
+package kvstore;
+
+import java.io.IOException;
+
+/**
+ * The storage operations a protocol front end needs, independent of where the data lives
+ *
+ * LocalBackend runs them on the in-process KVStore, RMIBackend forwards them to
+ * an RMI key-value server, so a listener such as RespServer can serve either one.
+ */
+public interface KVBackend {
+    /**
+     * @return The value bytes, or null if the key is not found
+     */
+    byte[] get(String key) throws IOException;
+
+    /**
+     * Stores a value, replacing any previous one
+     */
+    void put(String key, byte[] value) throws IOException;
+
+    /**
+     * @return true if the key existed and was removed
+     */
+    boolean delete(String key) throws IOException;
+
+    /**
+     * Adds delta to the decimal integer stored under key, a missing key counts as 0
+     *
+     * @return The new value
+     * @throws NumberFormatException if the stored value is not a 64 bit decimal integer
+     * @throws ArithmeticException if the result overflows a long
+     * @throws UnsupportedOperationException if the backend cannot do this atomically
+     */
+    long increment(String key, long delta) throws IOException;
+}
@@ -1,7 +1,15 @@
 package kvstore;
 
-import java.util.HashMap;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
 
 /**
  * KVStore (Key-Value Store) Implementation
@@ -9,13 +17,47 @@ import java.util.Map;
  * (without the Update operation, which is handled as a Put)
  *
  * This class serves as the core data storage component for the client-server application,
- * providing thread-safe operations through HashMap's implementation
+ * providing thread-safe operations through ConcurrentHashMap's implementation
+ *
+ * Besides point operations the store supports SCAN, a Redis style cursor walk over
+ * the whole keyspace that never locks or copies the store (see scan below)
  */
 public class KVStore {
-    // The actual storage container using Java's HashMap
-    // Key and Value are both Strings for simplicity
-    // HashMap provides O(1) average case complexity for all operations
-    private static final Map<String, String> store = new HashMap<>();
+    // Default and maximum number of keys returned by one SCAN call
+    public static final int DEFAULT_SCAN_COUNT = 10;
+    public static final int MAX_SCAN_COUNT = 1000;
+
+    // Results of compareAndSwap
+    public static final int CAS_STORED = 0;
+    public static final int CAS_EXISTS = 1;
+    public static final int CAS_NOT_FOUND = 2;
+
+    /**
+     * A stored value and its version, replaced as a whole by every write
+     * The version is the CAS unique of memcached's gets/cas: it comes from one counter for
+     * the whole store, so it changes on every write, even one storing the same bytes, and
+     * never comes back, even after the key was deleted and stored again.
+     *
+     * @param value The value bytes; must not be modified
+     * @param version Number of the write that stored this value
+     */
+    public record Versioned(byte[] value, long version) {
+    }
+
+    // The actual storage container using Java's ConcurrentHashMap
+    // Keys are Strings, values are kept as raw bytes so the binary protocol can store
+    // anything; the text API below reads and writes them as UTF-8
+    // ConcurrentHashMap provides O(1) average case complexity for all operations
+    private static final Map<String, Versioned> store = new ConcurrentHashMap<>();
+    // Last version handed out
+    private static final AtomicLong versions = new AtomicLong();
+
+    // Secondary index holding every key in SCAN order: unsigned hash -> keys with that hash
+    // The unsigned hash is what a SCAN cursor points at, and a skip list never rehashes,
+    // so a cursor stays valid no matter how many keys are inserted or removed between calls.
+    // Keys with the same hash share a ConcurrentHashMap bin, so the compute() calls below
+    // already serialize every update of one index entry
+    private static final ConcurrentNavigableMap<Long, String[]> scanIndex = new ConcurrentSkipListMap<>();
 
     /**
      * Stores a key-value pair in the store
@@ -25,12 +67,38 @@ public class KVStore {
      * @param value The value to be stored
      * @return "PUT_OK" to indicate successful storage
      *
-     * Time Complexity: O(1) average case
-     * Thread Safety: put() is thread-safe in HashMap
+     * Time Complexity: O(1) average case, O(log n) when the key is new
+     * Thread Safety: compute() locks only the bin of this key
      */
     public static String put(String key, String value) {
-        store.put(key, value);
-        return "PUT_OK";
+        byte[] bytes = (value != null) ? value.getBytes(StandardCharsets.UTF_8) : null;
+        return putBytes(key, bytes) ? "PUT_OK" : "PUT_ERROR";
+    }
+
+    /**
+     * Stores raw value bytes under a key (used by the binary protocol)
+     * The array is kept as is, so callers must not modify it afterwards
+     *
+     * @param key The key under which to store the value
+     * @param value The value bytes, null behaves like a key that is not there
+     * @return true if stored, false for a null key
+     */
+    public static boolean putBytes(String key, byte[] value) {
+        if (key == null) {
+            return false;
+        }
+        if (value == null) {
+            remove(key);
+            return true;
+        }
+        // compute() keeps the map and the scan index in step for this key
+        store.compute(key, (k, old) -> {
+            if (old == null) {
+                scanIndex.merge(scanPosition(k), new String[]{k}, KVStore::appendKeys);
+            }
+            return versioned(value);
+        });
+        return true;
     }
 
     /**
@@ -40,15 +108,138 @@ public class KVStore {
      * @return "GET_RESULT value" if key exists, "GET_ERROR" if key not found
      *
      * Time Complexity: O(1) average case
-     * Thread Safety: get() is thread-safe in HashMap
+     * Thread Safety: get() is lock-free in ConcurrentHashMap
      *
      * Example returns:
      * - Key exists: "GET_RESULT someValue"
      * - Key doesn't exist: "GET_ERROR"
      */
     public static String get(String key) {
-        String value = store.get(key);
-        return value != null ? "GET_RESULT " + value : "GET_ERROR";
+        byte[] value = getBytes(key);
+        return value != null ? "GET_RESULT " + new String(value, StandardCharsets.UTF_8) : "GET_ERROR";
+    }
+
+    /**
+     * Retrieves the raw value bytes of a key (used by the binary protocol)
+     * The returned array is the stored one and must not be modified
+     *
+     * @param key The key whose value should be retrieved
+     * @return The value bytes, or null if the key is not found
+     */
+    public static byte[] getBytes(String key) {
+        Versioned versioned = getVersioned(key);
+        return versioned != null ? versioned.value() : null;
+    }
+
+    /**
+     * Retrieves a value together with its version (memcached "gets")
+     * Both come from the same write, so the version is a valid compareAndSwap token for
+     * exactly this value
+     *
+     * @param key The key whose value should be retrieved
+     * @return The stored entry, or null if the key is not found
+     */
+    public static Versioned getVersioned(String key) {
+        return key != null ? store.get(key) : null;
+    }
+
+    /**
+     * Atomically adds delta to the decimal integer stored under a key (Redis INCR)
+     * A missing key counts as 0
+     *
+     * @param key The key holding the counter
+     * @param delta The amount to add
+     * @return The new value
+     * @throws NumberFormatException if the stored value is not a 64 bit decimal integer
+     * @throws ArithmeticException if the result overflows a long
+     *
+     * Thread Safety: the read, add and write happen inside one compute() call
+     */
+    public static long increment(String key, long delta) {
+        long[] result = new long[1];
+        // An exception thrown inside compute() leaves the old value in place
+        store.compute(key, (k, old) -> {
+            long current = (old != null) ? Long.parseLong(new String(old.value(), StandardCharsets.US_ASCII)) : 0;
+            result[0] = Math.addExact(current, delta);
+            if (old == null) {
+                scanIndex.merge(scanPosition(k), new String[]{k}, KVStore::appendKeys);
+            }
+            return versioned(Long.toString(result[0]).getBytes(StandardCharsets.US_ASCII));
+        });
+        return result[0];
+    }
+
+    /**
+     * Stores a value only if the key is not there yet (memcached "add")
+     *
+     * @return true if stored, false if the key already exists
+     */
+    public static boolean putIfAbsent(String key, byte[] value) {
+        boolean[] stored = new boolean[1];
+        store.compute(key, (k, old) -> {
+            if (old != null) {
+                return old;
+            }
+            scanIndex.merge(scanPosition(k), new String[]{k}, KVStore::appendKeys);
+            stored[0] = true;
+            return versioned(value);
+        });
+        return stored[0];
+    }
+
+    /**
+     * Stores a value only if the key already exists (memcached "replace")
+     *
+     * @return true if stored, false if the key is not found
+     */
+    public static boolean replace(String key, byte[] value) {
+        return store.computeIfPresent(key, (k, old) -> versioned(value)) != null;
+    }
+
+    /**
+     * Atomically replaces the value of an existing key with a function of its old value
+     *
+     * @param key The key to update
+     * @param update Maps the old value to the new one; must not return null.
+     *               An exception it throws leaves the old value in place
+     * @return The new value, or null if the key is not found
+     */
+    public static byte[] update(String key, UnaryOperator<byte[]> update) {
+        // Returning null from computeIfPresent() would remove the key behind the scan index's back
+        Versioned updated = store.computeIfPresent(key,
+                (k, old) -> versioned(Objects.requireNonNull(update.apply(old.value()))));
+        return updated != null ? updated.value() : null;
+    }
+
+    /**
+     * Compare-and-swap against a version from getVersioned (memcached "cas")
+     * Every write gives the key a new version, so the swap succeeds exactly when nothing
+     * was written to the key since the caller read it, even if the same value was
+     * written back in between
+     *
+     * @param key The key to update
+     * @param version The version of the value the caller based its update on
+     * @param value The new value
+     * @return CAS_STORED, CAS_EXISTS if the key was written since, or CAS_NOT_FOUND
+     */
+    public static int compareAndSwap(String key, long version, byte[] value) {
+        int[] result = {CAS_NOT_FOUND};
+        store.computeIfPresent(key, (k, old) -> {
+            if (old.version() != version) {
+                result[0] = CAS_EXISTS;
+                return old;
+            }
+            result[0] = CAS_STORED;
+            return versioned(value);
+        });
+        return result[0];
+    }
+
+    /**
+     * Wraps a value about to be stored with the next version
+     */
+    private static Versioned versioned(byte[] value) {
+        return new Versioned(value, versions.incrementAndGet());
     }
 
     /**
@@ -57,10 +248,113 @@ public class KVStore {
      * @param key The key to be removed
      * @return "DELETE_OK" if key was found and removed, "DELETE_ERROR" if key not found
      *
-     * Time Complexity: O(1) average case
-     * Thread Safety: remove() is thread-safe in HashMap
+     * Time Complexity: O(1) average case plus O(log n) for the scan index
+     * Thread Safety: computeIfPresent() locks only the bin of this key
      */
     public static String delete(String key) {
-        return store.remove(key) != null ? "DELETE_OK" : "DELETE_ERROR";
+        return remove(key) ? "DELETE_OK" : "DELETE_ERROR";
+    }
+
+    /**
+     * Removes a key-value pair from the store
+     *
+     * @param key The key to be removed
+     * @return true if the key was found and removed
+     */
+    public static boolean remove(String key) {
+        if (key == null) {
+            return false;
+        }
+        boolean[] removed = new boolean[1];
+        store.computeIfPresent(key, (k, old) -> {
+            scanIndex.computeIfPresent(scanPosition(k), (position, keys) -> removeKey(keys, k));
+            removed[0] = true;
+            return null;
+        });
+        return removed[0];
+    }
+
+    /**
+     * Returns the next page of keys of a SCAN walk
+     *
+     * @param cursor 0 to start a new walk, otherwise the cursor returned by the previous call
+     * @param count Number of keys wanted (a hint, clamped to 1..MAX_SCAN_COUNT)
+     * @return "SCAN_RESULT nextCursor key1 key2 ..." where nextCursor is 0 once the walk is done
+     *
+     * Example returns:
+     * - More keys left: "SCAN_RESULT 1753829 key4 key9"
+     * - Walk finished: "SCAN_RESULT 0 key1"
+     */
+    public static String scan(long cursor, int count) {
+        StringBuilder response = new StringBuilder("SCAN_RESULT ");
+        int cursorPos = response.length();
+        long next = scan(cursor, count, key -> response.append(' ').append(key));
+        response.insert(cursorPos, next);
+        return response.toString();
+    }
+
+    /**
+     * Streams the next page of keys of a SCAN walk to a consumer
+     *
+     * The cursor is simply the unsigned 32 bit hash position at which the walk resumes.
+     * Keys are visited in hash order, so a key that is present for the whole walk is
+     * returned exactly once, keys added or removed during the walk may or may not show up,
+     * and neither side keeps any state between calls.
+     * Keys sharing a hash are always returned in the same page, so a page can hold
+     * slightly more than count keys.
+     *
+     * @param cursor 0 to start a new walk, otherwise the cursor returned by the previous call
+     * @param count Number of keys wanted (a hint, clamped to 1..MAX_SCAN_COUNT)
+     * @param keys Receives each key of this page
+     * @return The cursor for the next call, 0 when the walk is complete
+     */
+    public static long scan(long cursor, int count, Consumer<String> keys) {
+        if (cursor < 0 || cursor > 0xFFFFFFFFL) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        int limit = count <= 0 ? DEFAULT_SCAN_COUNT : Math.min(count, MAX_SCAN_COUNT);
+
+        int returned = 0;
+        // tailMap() jumps straight to the cursor, and its iterator is weakly consistent,
+        // which is all SCAN promises under concurrent updates
+        for (Map.Entry<Long, String[]> entry : scanIndex.tailMap(cursor).entrySet()) {
+            if (returned >= limit) {
+                return entry.getKey();
+            }
+            for (String key : entry.getValue()) {
+                keys.accept(key);
+                returned++;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Position of a key in SCAN order: its hash read as an unsigned number
+     */
+    private static long scanPosition(String key) {
+        return Integer.toUnsignedLong(key.hashCode());
+    }
+
+    // Copy-on-write helpers for the scan index entries (hash collisions are rare,
+    // so these arrays almost always hold a single key)
+    private static String[] appendKeys(String[] keys, String[] added) {
+        String[] merged = Arrays.copyOf(keys, keys.length + added.length);
+        System.arraycopy(added, 0, merged, keys.length, added.length);
+        return merged;
+    }
+
+    private static String[] removeKey(String[] keys, String key) {
+        String[] remaining = new String[keys.length - 1];
+        int i = 0;
+        for (String k : keys) {
+            if (!k.equals(key)) {
+                if (i == remaining.length) {
+                    return keys; // key was not indexed, nothing to remove
+                }
+                remaining[i++] = k;
+            }
+        }
+        return remaining.length == 0 ? null : remaining;
     }
-}
\ No newline at end of file
+}
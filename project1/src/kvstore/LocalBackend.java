@@ -0,0 +1,27 @@
+package kvstore;
+
+/**
+ * KVBackend on the in-process KVStore
+ * Stored arrays are shared with the store, so callers must not modify them
+ */
+public class LocalBackend implements KVBackend {
+    @Override
+    public byte[] get(String key) {
+        return KVStore.getBytes(key);
+    }
+
+    @Override
+    public void put(String key, byte[] value) {
+        KVStore.putBytes(key, value);
+    }
+
+    @Override
+    public boolean delete(String key) {
+        return KVStore.remove(key);
+    }
+
+    @Override
+    public long increment(String key, long delta) {
+        return KVStore.increment(key, delta);
+    }
+}
@@ -0,0 +1,77 @@
+package kvstore;
+
+import common.KVStoreRMI;
+import common.Protocol;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.rmi.NotBoundException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+
+/**
+ * KVBackend that forwards every operation to an RMI key-value server
+ * (RMIServer binds "KVStoreService", a replica of ReplicatedRMIServer binds "KVStore<id>")
+ *
+ * RMIServer answers writes with PUT_OK/DELETE_OK while the replicated servers answer
+ * with a plain "OK" once every replica has committed; both count as success here.
+ *
+ * The remote interface is String based, so values travel as UTF-8 text. It has no
+ * atomic read-modify-write either, and a get followed by a put would lose updates when
+ * two clients increment the same key at once, so increment is not supported.
+ */
+public class RMIBackend implements KVBackend {
+    // Success response of the replicated (2PC and Paxos) servers
+    private static final String REPLICATED_OK = "OK";
+
+    private final KVStoreRMI remote;
+
+    /**
+     * Looks up the remote store in the RMI registry
+     *
+     * @param host Registry host
+     * @param port Registry port
+     * @param serviceName Name the store is bound under
+     * @throws IOException if the registry cannot be reached or the name is not bound
+     */
+    public RMIBackend(String host, int port, String serviceName) throws IOException {
+        try {
+            Registry registry = LocateRegistry.getRegistry(host, port);
+            this.remote = (KVStoreRMI) registry.lookup(serviceName);
+        } catch (NotBoundException e) {
+            throw new IOException("No store bound as " + serviceName, e);
+        }
+    }
+
+    @Override
+    public byte[] get(String key) throws IOException {
+        String response = remote.get(key);
+        String prefix = Protocol.GET_RESULT + " ";
+        if (response == null || !response.startsWith(prefix)) {
+            return null;
+        }
+        return response.substring(prefix.length()).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void put(String key, byte[] value) throws IOException {
+        String response = remote.put(key, new String(value, StandardCharsets.UTF_8));
+        if (!Protocol.PUT_OK.equals(response) && !REPLICATED_OK.equals(response)) {
+            throw new IOException("PUT failed: " + response);
+        }
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        String response = remote.delete(key);
+        return Protocol.DELETE_OK.equals(response) || REPLICATED_OK.equals(response);
+    }
+
+    /**
+     * @throws UnsupportedOperationException always: the RMI servers cannot increment atomically
+     */
+    @Override
+    public long increment(String key, long delta) {
+        throw new UnsupportedOperationException("INCR is not supported on an RMI backend");
+    }
+}
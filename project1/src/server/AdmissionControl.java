@@ -0,0 +1,157 @@
+package server;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission control for a server: how many connections and requests it takes on,
+ * and when it sheds load instead of queueing it
+ *
+ * Without limits a traffic spike just grows the worker queue, every request waits behind
+ * all the others and latency climbs to seconds before anything fails. Rejecting work the
+ * server cannot get to soon with a BUSY response costs the client one fast round trip
+ * and tells it to back off or retry, while the requests that are admitted stay fast.
+ *
+ * Three checks, each with its own shed counter:
+ * 1. Connections: at most maxConnections open at once; one more is answered BUSY and closed.
+ * 2. In-flight requests: at most maxInFlight admitted and not yet answered, server wide.
+ * 3. Queue delay (CoDel): how long a request waited in the queue before a worker took it.
+ *    A queue that is merely busy drains now and then, so some request gets through quickly.
+ *    When even the fastest request of a whole interval waited longer than the target,
+ *    the queue is standing and the server is overloaded: until that changes, requests that
+ *    waited more than twice the target are shed when they reach the front. The check
+ *    happens at dequeue, so the ones shed are those whose clients have waited longest.
+ *
+ * Thread safe.
+ */
+public class AdmissionControl {
+    public static final int DEFAULT_MAX_CONNECTIONS = 10_000;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 1024;
+    // CoDel's usual numbers: a queue delay above 5ms that lasts for 100ms means overload
+    public static final long DEFAULT_TARGET_DELAY_MILLIS = 5;
+    public static final long DEFAULT_INTERVAL_MILLIS = 100;
+
+    private final int maxConnections;
+    private final int maxInFlight;
+    private final Semaphore connections;
+    private final Semaphore inFlight;
+    private final long targetNanos;
+    private final long intervalNanos;
+
+    // CoDel state, guarded by this
+    private long intervalEnd = System.nanoTime();
+    private long minDelay = Long.MAX_VALUE;
+    private boolean overloaded;
+
+    private final AtomicLong shedConnections = new AtomicLong();
+    private final AtomicLong shedInFlight = new AtomicLong();
+    private final AtomicLong shedQueueDelay = new AtomicLong();
+
+    public AdmissionControl() {
+        this(DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_IN_FLIGHT, DEFAULT_TARGET_DELAY_MILLIS, DEFAULT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param maxConnections Most connections open at once
+     * @param maxInFlight Most requests admitted and not answered yet, over all connections
+     * @param targetDelayMillis Queue delay the server aims to stay below
+     * @param intervalMillis How long the delay must stay above the target to count as overload
+     */
+    public AdmissionControl(int maxConnections, int maxInFlight, long targetDelayMillis, long intervalMillis) {
+        if (maxConnections < 1 || maxInFlight < 1 || targetDelayMillis < 0 || intervalMillis < 1) {
+            throw new IllegalArgumentException("Invalid admission limits");
+        }
+        this.maxConnections = maxConnections;
+        this.maxInFlight = maxInFlight;
+        this.connections = new Semaphore(maxConnections);
+        this.inFlight = new Semaphore(maxInFlight);
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(targetDelayMillis);
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+    }
+
+    /**
+     * @return true if the connection may be served; it must then be given back with connectionClosed()
+     */
+    public boolean admitConnection() {
+        if (connections.tryAcquire()) {
+            return true;
+        }
+        shedConnections.incrementAndGet();
+        return false;
+    }
+
+    public void connectionClosed() {
+        connections.release();
+    }
+
+    /**
+     * @return true if the request may be executed; it must then be given back with requestDone()
+     */
+    public boolean admitRequest() {
+        if (inFlight.tryAcquire()) {
+            return true;
+        }
+        shedInFlight.incrementAndGet();
+        return false;
+    }
+
+    public void requestDone() {
+        inFlight.release();
+    }
+
+    /**
+     * Called when a worker takes a queued request
+     *
+     * @param enqueued System.nanoTime() when the request was queued
+     * @return true if the request is to be answered BUSY instead of executed
+     */
+    public boolean shedOnDequeue(long enqueued) {
+        long now = System.nanoTime();
+        long delay = now - enqueued;
+        boolean shed;
+        synchronized (this) {
+            if (now - intervalEnd >= 0) {
+                // One interval over: overloaded if not a single request got through in time
+                // (no requests at all, as at the start, is no overload)
+                overloaded = minDelay != Long.MAX_VALUE && minDelay > targetNanos;
+                minDelay = delay;
+                intervalEnd = now + intervalNanos;
+            } else if (delay < minDelay) {
+                minDelay = delay;
+            }
+            shed = overloaded && delay > 2 * targetNanos;
+        }
+        if (shed) {
+            shedQueueDelay.incrementAndGet();
+        }
+        return shed;
+    }
+
+    /** @return Connections turned away because maxConnections were open */
+    public long shedConnections() {
+        return shedConnections.get();
+    }
+
+    /** @return Requests turned away because maxInFlight were executing or queued */
+    public long shedInFlight() {
+        return shedInFlight.get();
+    }
+
+    /** @return Requests shed for waiting too long in an overloaded queue */
+    public long shedQueueDelay() {
+        return shedQueueDelay.get();
+    }
+
+    /** @return Requests shed for either reason */
+    public long shedRequests() {
+        return shedInFlight.get() + shedQueueDelay.get();
+    }
+
+    public String stats() {
+        return "connections=" + (maxConnections - connections.availablePermits()) + "/" + maxConnections
+                + " inFlight=" + (maxInFlight - inFlight.availablePermits()) + "/" + maxInFlight
+                + " shed: connections=" + shedConnections() + " inFlight=" + shedInFlight()
+                + " queueDelay=" + shedQueueDelay();
+    }
+}
@@ -0,0 +1,101 @@
+package server;
+
+import common.BinaryProtocol;
+import common.Protocol;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Interceptor that counts and times the requests a CommandDispatcher executes, per operation
+ *
+ * The time covers the rest of the chain: the handler and any interceptor added after
+ * this one, but not parsing or socket I/O. Counters are LongAdders, so threads executing
+ * requests at once do not contend on them.
+ *
+ *   CommandMetrics metrics = new CommandMetrics();
+ *   server.dispatcher().addInterceptor(metrics);
+ *   ...
+ *   logger.log(metrics.stats());
+ */
+public class CommandMetrics implements CommandDispatcher.Interceptor {
+    private static final String[] NAMES = {Protocol.PUT, Protocol.GET, Protocol.DELETE, Protocol.SCAN, "HELLO", "OTHER"};
+
+    private final LongAdder[] counts = new LongAdder[NAMES.length];
+    private final LongAdder[] totalNanos = new LongAdder[NAMES.length];
+    private final LongAccumulator[] maxNanos = new LongAccumulator[NAMES.length];
+
+    public CommandMetrics() {
+        for (int i = 0; i < NAMES.length; i++) {
+            counts[i] = new LongAdder();
+            totalNanos[i] = new LongAdder();
+            maxNanos[i] = new LongAccumulator(Math::max, 0);
+        }
+    }
+
+    @Override
+    public ByteBuffer intercept(Object client, RequestParser request, ByteBuffer in, ByteBuffer out,
+                                CommandDispatcher.Chain next) {
+        long start = System.nanoTime();
+        try {
+            return next.proceed(client, request, in, out);
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            int index = index(request.opcode());
+            counts[index].increment();
+            totalNanos[index].add(elapsed);
+            maxNanos[index].accumulate(elapsed);
+        }
+    }
+
+    private static int index(byte opcode) {
+        switch (opcode) {
+            case BinaryProtocol.OP_PUT:
+                return 0;
+            case BinaryProtocol.OP_GET:
+                return 1;
+            case BinaryProtocol.OP_DELETE:
+                return 2;
+            case BinaryProtocol.OP_SCAN:
+                return 3;
+            case RequestParser.OP_HELLO:
+                return 4;
+            default:
+                return 5;
+        }
+    }
+
+    /** @return Requests of the operation executed so far */
+    public long count(byte opcode) {
+        return counts[index(opcode)].sum();
+    }
+
+    /** @return Mean execution time of the operation in microseconds, 0 if it never ran */
+    public double meanMicros(byte opcode) {
+        int index = index(opcode);
+        long count = counts[index].sum();
+        return (count == 0) ? 0 : totalNanos[index].sum() / 1000.0 / count;
+    }
+
+    /** @return Longest execution time of the operation in microseconds */
+    public double maxMicros(byte opcode) {
+        return maxNanos[index(opcode)].get() / 1000.0;
+    }
+
+    /**
+     * Summarizes count, mean and maximum time of every operation that ran
+     */
+    public String stats() {
+        StringBuilder sb = new StringBuilder("Commands:");
+        for (int i = 0; i < NAMES.length; i++) {
+            long count = counts[i].sum();
+            if (count == 0) {
+                continue;
+            }
+            sb.append(String.format(" %s n=%d mean=%.1fus max=%.1fus;",
+                    NAMES[i], count, totalNanos[i].sum() / 1000.0 / count, maxNanos[i].get() / 1000.0));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,176 @@
+package server;
+
+import common.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Thread-per-connection listener for the protocol adapters (RespServer, MemcachedServer)
+ *
+ * Each connection reads into one reusable buffer that its Handler parses in place. The
+ * replies of everything one read brought in collect in one output buffer, which is
+ * written once the input drains or it reaches FLUSH_THRESHOLD. Load generators open
+ * many connections at once, so every connection gets its own thread instead of being
+ * served one after the other. Commands are not logged one by one: at the rates load
+ * tools run, a log line per command would cost more than the command itself.
+ */
+abstract class ConnectionServer {
+    // Initial size of the per-connection input and output buffers
+    static final int BUFFER_SIZE = 16 * 1024;
+    // Pending replies are written out once they reach this size, even mid-pipeline
+    static final int FLUSH_THRESHOLD = 64 * 1024;
+
+    /**
+     * Runs the commands of one connection; created per connection, so it may keep a parser
+     */
+    interface Handler {
+        /**
+         * Parses and executes every complete command in the input, appending the replies
+         * to connection.output
+         *
+         * @param input Buffer in read mode; the bytes of an incomplete command are left in it
+         * @return false to close the connection after the replies so far are sent
+         */
+        boolean handle(ByteBuffer input, Connection connection) throws IOException;
+    }
+
+    /**
+     * The output side of a connection
+     */
+    static final class Connection {
+        final String client;
+        // Replies not written yet (write mode); replaced when it has to grow
+        ByteBuffer output = ByteBuffer.allocate(BUFFER_SIZE);
+        private final OutputStream out;
+
+        private Connection(String client, OutputStream out) {
+            this.client = client;
+            this.out = out;
+        }
+
+        /**
+         * Writes the collected replies if they reached FLUSH_THRESHOLD
+         */
+        void flushIfFull() throws IOException {
+            if (output.position() >= FLUSH_THRESHOLD) {
+                flush();
+            }
+        }
+
+        /**
+         * Writes the collected replies in one go and empties the output buffer
+         */
+        void flush() throws IOException {
+            if (output.position() > 0) {
+                out.write(output.array(), output.arrayOffset(), output.position());
+                output.clear();
+            }
+        }
+    }
+
+    private final String name;
+    private final int port;
+    private final int maxRequestSize;
+    protected final Logger logger;
+    private final ExecutorService connections = Executors.newCachedThreadPool();
+
+    /**
+     * @param name Protocol name for the log, e.g. "RESP"
+     * @param port The port to listen on
+     * @param maxRequestSize Largest single command a connection may send
+     */
+    ConnectionServer(String name, int port, int maxRequestSize) {
+        this.name = name;
+        this.port = port;
+        this.maxRequestSize = maxRequestSize;
+        this.logger = new Logger(getClass());
+    }
+
+    /**
+     * @return A handler for a new connection
+     */
+    abstract Handler newHandler();
+
+    /**
+     * Accepts connections and serves each one on its own thread
+     */
+    public void start() {
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            logger.log(name + " server started on port " + port);
+            while (true) {
+                Socket clientSocket = serverSocket.accept();
+                connections.execute(() -> handleClient(clientSocket));
+            }
+        } catch (IOException e) {
+            logger.log("Server error: " + e.getMessage());
+        } finally {
+            connections.shutdownNow();
+        }
+    }
+
+    /**
+     * Serves one connection until the client disconnects or the handler closes it
+     * Same read → parse all → reply → flush loop as TCPServer.handleClient.
+     */
+    private void handleClient(Socket clientSocket) {
+        String client = clientSocket.getInetAddress() + ":" + clientSocket.getPort();
+        logger.log("Client connected " + client);
+        try (
+                Socket socket = clientSocket;
+                InputStream in = socket.getInputStream();
+                OutputStream out = socket.getOutputStream()
+        ) {
+            socket.setTcpNoDelay(true);
+            Handler handler = newHandler();
+            Connection connection = new Connection(client, out);
+            ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE);
+
+            boolean open = true;
+            while (open) {
+                int read = in.read(input.array(), input.arrayOffset() + input.position(), input.remaining());
+                if (read < 0) {
+                    break;
+                }
+                input.position(input.position() + read);
+
+                input.flip();
+                open = handler.handle(input, connection);
+                input.compact();
+
+                if (!open || in.available() == 0) {
+                    connection.flush();
+                }
+
+                if (open && !input.hasRemaining()) {
+                    if (input.capacity() >= maxRequestSize) {
+                        logger.log("Request too large from " + client);
+                        open = false;
+                    } else {
+                        input = RequestProcessor.ensureCapacity(input, input.capacity());
+                    }
+                }
+            }
+            connection.flush();
+        } catch (IOException e) {
+            logger.log("Client handling error: " + e.getMessage());
+        }
+        logger.log("Client disconnected " + client);
+    }
+
+    static ByteBuffer raw(ByteBuffer out, byte[] reply) {
+        out = RequestProcessor.ensureCapacity(out, reply.length);
+        return out.put(reply);
+    }
+
+    static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,268 @@
+package server;
+
+import common.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Closes connections that have been idle longer than a timeout, driven by a timer wheel
+ *
+ * A client that connects and then goes quiet keeps its thread (TCPServer) or its buffers
+ * (NioTCPServer) for as long as it holds the socket. The reaper closes it once it has
+ * sent nothing for the idle timeout.
+ *
+ * Checking every connection on every tick would cost O(connections) per tick. Instead
+ * each connection sits in the slot of a hashed timer wheel for the tick its timeout could
+ * expire at, and a tick only looks at the one slot that is due. Activity does not move a
+ * connection in the wheel: touch() just records the time (a write of the reaper's coarse
+ * clock, skipped if it has not ticked since). When the connection's slot comes up, a
+ * connection that was active meanwhile is put back for its new deadline, one that was
+ * not is closed. A connection is therefore looked at about once per timeout, not once
+ * per request or per tick, which keeps 100k mostly idle connections cheap.
+ *
+ * A deadline more than one turn of the wheel away waits for its tick in its slot, so the
+ * wheel size only bounds the work per tick, not the timeout.
+ *
+ * Thread safe; register() and touch() may be called from any thread.
+ */
+public class IdleReaper {
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+    // Connections quiet for this long count as idle in the gauge, even before the timeout
+    public static final long IDLE_GAUGE_MILLIS = 1000;
+
+    private final long timeoutNanos;
+    private final long tickNanos;
+    // Slots of handles whose deadline falls on tick index (mod wheel size); guarded by this
+    private final List<Handle>[] wheel;
+    private final long startNanos = System.nanoTime();
+    private final Logger logger;
+
+    // Coarse clock for touch(), advanced by every tick
+    private volatile long now = startNanos;
+    // Last tick processed; only the ticking thread moves it, under this
+    private long currentTick;
+    private ScheduledExecutorService ticker;
+
+    private final AtomicLong open = new AtomicLong();
+    private final AtomicLong reaped = new AtomicLong();
+
+    /**
+     * One registered connection
+     */
+    public final class Handle {
+        private final Closeable connection;
+        private volatile long lastActive = now;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile boolean reapedIdle;
+        // Tick whose slot holds this handle; guarded by the reaper
+        private long deadlineTick;
+
+        private Handle(Closeable connection) {
+            this.connection = connection;
+        }
+
+        /**
+         * Records activity on the connection; a single volatile write at most
+         */
+        public void touch() {
+            long current = now;
+            if (lastActive != current) {
+                lastActive = current;
+            }
+        }
+
+        /**
+         * Unregisters a connection that was closed for another reason; the wheel drops it
+         * when its slot comes up
+         */
+        public void cancel() {
+            close();
+        }
+
+        /**
+         * Marks the handle closed; the reaper and the connection's handler may race here
+         * @return true for the one caller that closed it
+         */
+        private boolean close() {
+            if (!closed.compareAndSet(false, true)) {
+                return false;
+            }
+            open.decrementAndGet();
+            return true;
+        }
+
+        /** @return Whether the reaper closed the connection for being idle */
+        public boolean wasReaped() {
+            return reapedIdle;
+        }
+    }
+
+    /**
+     * @param idleTimeoutMillis How long a connection may be quiet before it is closed
+     */
+    public IdleReaper(long idleTimeoutMillis) {
+        this(idleTimeoutMillis, Math.max(10, idleTimeoutMillis / 64), DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * @param idleTimeoutMillis How long a connection may be quiet before it is closed
+     * @param tickMillis Resolution of the wheel; a connection is closed up to one tick late
+     * @param wheelSize Number of slots
+     */
+    @SuppressWarnings("unchecked")
+    public IdleReaper(long idleTimeoutMillis, long tickMillis, int wheelSize) {
+        if (idleTimeoutMillis < 1 || tickMillis < 1 || wheelSize < 1) {
+            throw new IllegalArgumentException("Invalid idle reaper: timeout " + idleTimeoutMillis
+                    + "ms, tick " + tickMillis + "ms, " + wheelSize + " slots");
+        }
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.wheel = (List<Handle>[]) new List<?>[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            wheel[i] = new ArrayList<>();
+        }
+        this.logger = new Logger(IdleReaper.class);
+    }
+
+    /**
+     * Starts ticking on a daemon thread; does nothing if already started
+     */
+    public synchronized void start() {
+        if (ticker != null) {
+            return;
+        }
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "idle-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long tickMillis = TimeUnit.NANOSECONDS.toMillis(tickNanos);
+        ticker.scheduleAtFixedRate(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+            ticker = null;
+        }
+    }
+
+    /**
+     * Starts watching a connection, as active now
+     *
+     * @param connection Closed by the reaper once idle; closing it must make its handler stop
+     * @return The handle to touch() on activity and cancel() when the connection closes
+     */
+    public Handle register(Closeable connection) {
+        Handle handle = new Handle(connection);
+        open.incrementAndGet();
+        synchronized (this) {
+            schedule(handle, handle.lastActive + timeoutNanos);
+        }
+        return handle;
+    }
+
+    /**
+     * Puts a handle in the slot of the first tick at or after the deadline; caller holds the lock
+     */
+    private void schedule(Handle handle, long deadline) {
+        long tick = Math.max(currentTick + 1, Math.floorDiv(deadline - startNanos + tickNanos - 1, tickNanos));
+        handle.deadlineTick = tick;
+        wheel[(int) (tick % wheel.length)].add(handle);
+    }
+
+    /**
+     * Advances the clock and processes every slot that came due since the last tick
+     * Public so that tests and benchmarks can drive the wheel without the thread
+     */
+    public void tick() {
+        long time = System.nanoTime();
+        now = time;
+        long targetTick = (time - startNanos) / tickNanos;
+        List<Handle> idle = new ArrayList<>();
+        synchronized (this) {
+            while (currentTick < targetTick) {
+                currentTick++;
+                List<Handle> slot = wheel[(int) (currentTick % wheel.length)];
+                List<Handle> due = new ArrayList<>(slot);
+                slot.clear();
+                for (Handle handle : due) {
+                    if (handle.closed.get()) {
+                        continue;
+                    }
+                    if (handle.deadlineTick > currentTick) {
+                        // A later turn of the wheel
+                        slot.add(handle);
+                    } else if (time - handle.lastActive >= timeoutNanos) {
+                        idle.add(handle);
+                    } else {
+                        schedule(handle, handle.lastActive + timeoutNanos);
+                    }
+                }
+            }
+        }
+        // Closed outside the lock: closing may block, or call back into cancel()
+        for (Handle handle : idle) {
+            reap(handle);
+        }
+    }
+
+    private void reap(Handle handle) {
+        if (!handle.close()) {
+            return;
+        }
+        handle.reapedIdle = true;
+        reaped.incrementAndGet();
+        try {
+            handle.connection.close();
+        } catch (IOException e) {
+            logger.log("Failed to close idle connection: " + e.getMessage());
+        }
+    }
+
+    /** @return Connections registered and not closed */
+    public long openConnections() {
+        return open.get();
+    }
+
+    /**
+     * Counts the open connections quiet for IDLE_GAUGE_MILLIS or longer (or the timeout, if
+     * shorter); walks the whole wheel, so it is meant for stats, not for every request
+     */
+    public long idleConnections() {
+        long threshold = Math.min(timeoutNanos, TimeUnit.MILLISECONDS.toNanos(IDLE_GAUGE_MILLIS));
+        long time = System.nanoTime();
+        long count = 0;
+        synchronized (this) {
+            for (List<Handle> slot : wheel) {
+                for (Handle handle : slot) {
+                    if (!handle.closed.get() && time - handle.lastActive >= threshold) {
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /** @return Connections closed for being idle so far */
+    public long reapedConnections() {
+        return reaped.get();
+    }
+
+    /**
+     * Summarizes the gauges: open, idle and reaped connections
+     */
+    public String stats() {
+        return "open=" + openConnections() + " idle=" + idleConnections() + " reaped=" + reapedConnections()
+                + " (timeout " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + "ms)";
+    }
+}
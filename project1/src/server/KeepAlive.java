@@ -0,0 +1,69 @@
+package server;
+
+import jdk.net.ExtendedSocketOptions;
+
+import java.io.IOException;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.NetworkChannel;
+
+/**
+ * TCP keepalive settings for accepted connections
+ *
+ * The idle reaper only notices a client that is quiet; a client whose host crashed or
+ * whose network went away is quiet too, but with a long idle timeout its connection
+ * would linger until then. Keepalive has the kernel probe a connection that has been
+ * silent for idleSeconds, every intervalSeconds, and reset it after probes unanswered
+ * probes, so the blocked read fails and the connection is cleaned up.
+ *
+ * The three timings are Linux and macOS socket options (TCP_KEEPIDLE, TCP_KEEPINTVL,
+ * TCP_KEEPCNT); where they are missing only SO_KEEPALIVE is set, with the system's
+ * defaults. Unix domain sockets have no keepalive and are left alone.
+ */
+public final class KeepAlive {
+    // First probe after a minute of silence, reset after another minute of unanswered probes
+    public static final KeepAlive DEFAULT = new KeepAlive(60, 10, 6);
+
+    private final int idleSeconds;
+    private final int intervalSeconds;
+    private final int probes;
+
+    /**
+     * @param idleSeconds Silence before the first probe
+     * @param intervalSeconds Time between probes
+     * @param probes Unanswered probes before the connection is reset
+     */
+    public KeepAlive(int idleSeconds, int intervalSeconds, int probes) {
+        if (idleSeconds < 1 || intervalSeconds < 1 || probes < 1) {
+            throw new IllegalArgumentException("Invalid keepalive: idle " + idleSeconds + "s, interval "
+                    + intervalSeconds + "s, " + probes + " probes");
+        }
+        this.idleSeconds = idleSeconds;
+        this.intervalSeconds = intervalSeconds;
+        this.probes = probes;
+    }
+
+    /**
+     * Enables keepalive on a connection, as far as its kind and the platform support it
+     */
+    public void apply(NetworkChannel channel) throws IOException {
+        if (!channel.supportedOptions().contains(StandardSocketOptions.SO_KEEPALIVE)) {
+            return;
+        }
+        channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+        set(channel, ExtendedSocketOptions.TCP_KEEPIDLE, idleSeconds);
+        set(channel, ExtendedSocketOptions.TCP_KEEPINTERVAL, intervalSeconds);
+        set(channel, ExtendedSocketOptions.TCP_KEEPCOUNT, probes);
+    }
+
+    private static void set(NetworkChannel channel, SocketOption<Integer> option, int value) throws IOException {
+        if (channel.supportedOptions().contains(option)) {
+            channel.setOption(option, value);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "keepalive idle " + idleSeconds + "s, interval " + intervalSeconds + "s, " + probes + " probes";
+    }
+}
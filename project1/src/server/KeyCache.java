@@ -0,0 +1,96 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Small cache from key bytes to the key String
+ *
+ * The store is keyed by String, so every request has to turn its key slice into one,
+ * and that String is the last allocation left on the GET path. Clients tend to ask for
+ * the same keys over and over, so this remembers the Strings of recently seen keys: a
+ * repeated key is found by hashing and comparing its bytes in the buffer, without
+ * copying them. A miss decodes the key and keeps it.
+ *
+ * The table is two-way set associative: a key can sit in either slot of its set, the
+ * one hit last first. Two keys sharing a set both stay cached, where a direct-mapped
+ * table would have them evict each other on every request.
+ *
+ * Not thread safe: it belongs to one RequestParser (see RequestParser.useKeyCache),
+ * which is only used by one thread at a time.
+ */
+final class KeyCache {
+    // Longer keys are decoded every time rather than kept
+    static final int MAX_KEY_LENGTH = 128;
+
+    // Slots 2 * set and 2 * set + 1 form a set, the most recently used one first
+    private final byte[][] bytes;
+    private final String[] keys;
+    private final int setBits;
+
+    /**
+     * @param slots Number of keys remembered, rounded up to a power of two (at least 2)
+     */
+    KeyCache(int slots) {
+        int size = Math.max(2, Integer.highestOneBit(Math.max(1, slots - 1)) << 1);
+        this.bytes = new byte[size][];
+        this.keys = new String[size];
+        this.setBits = Integer.numberOfTrailingZeros(size / 2);
+    }
+
+    /**
+     * @return The key String for the slice in..[start, end)
+     */
+    String key(ByteBuffer in, int start, int end) {
+        int length = end - start;
+        if (length > MAX_KEY_LENGTH) {
+            return RequestParser.slice(in, start, end);
+        }
+        int hash = 1;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + in.get(i);
+        }
+        // Fibonacci hashing: the top bits of the product are well mixed
+        int first = setBits == 0 ? 0 : ((hash * 0x9E3779B9) >>> (32 - setBits)) << 1;
+        if (matches(in, start, length, bytes[first])) {
+            return keys[first];
+        }
+        int second = first + 1;
+        if (matches(in, start, length, bytes[second])) {
+            String key = keys[second];
+            swap(first, second);
+            return key;
+        }
+
+        byte[] copy = new byte[length];
+        in.get(start, copy);
+        String key = new String(copy, StandardCharsets.UTF_8);
+        // The least recently used key of the set is dropped
+        bytes[second] = bytes[first];
+        keys[second] = keys[first];
+        bytes[first] = copy;
+        keys[first] = key;
+        return key;
+    }
+
+    private void swap(int a, int b) {
+        byte[] bytesA = bytes[a];
+        String keyA = keys[a];
+        bytes[a] = bytes[b];
+        keys[a] = keys[b];
+        bytes[b] = bytesA;
+        keys[b] = keyA;
+    }
+
+    private static boolean matches(ByteBuffer in, int start, int length, byte[] cached) {
+        if (cached == null || cached.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (in.get(start + i) != cached[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,378 @@
+package server;
+
+import common.BinaryProtocol;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Parser for the memcached text protocol, working in place on a ByteBuffer
+ *
+ * A command is one line of space separated tokens ending in "\r\n":
+ *   get <key>*
+ *   gets <key>*
+ *   set|add|replace <key> <flags> <exptime> <bytes> [noreply]
+ *   cas <key> <flags> <exptime> <bytes> <cas unique> [noreply]
+ *   delete <key> [noreply]
+ *   incr|decr <key> <value> [noreply]
+ *   version
+ *   quit
+ * Storage commands are followed by a data block of exactly <bytes> bytes and "\r\n".
+ *
+ * Like RequestParser and RespParser it only records offsets, and a command whose line
+ * or data block is not complete yet leaves the buffer untouched and returns NEED_MORE.
+ */
+public class MemcachedParser {
+    // Results of parse()
+    public static final int REQUEST = 0;    // A complete command was parsed
+    public static final int NEED_MORE = 1;  // The buffer ends mid-command
+    public static final int ERROR = 2;      // Bad command, answer errorMessage() and go on
+    public static final int FATAL = 3;      // Cannot find the next command, answer and close
+
+    // Commands recognized by command()
+    public static final int CMD_UNKNOWN = 0;
+    public static final int CMD_GET = 1;
+    public static final int CMD_GETS = 2;
+    public static final int CMD_SET = 3;
+    public static final int CMD_ADD = 4;
+    public static final int CMD_REPLACE = 5;
+    public static final int CMD_CAS = 6;
+    public static final int CMD_DELETE = 7;
+    public static final int CMD_INCR = 8;
+    public static final int CMD_DECR = 9;
+    public static final int CMD_VERSION = 10;
+    public static final int CMD_QUIT = 11;
+
+    // memcached's own limits
+    public static final int MAX_KEY_LENGTH = 250;
+    public static final int MAX_LINE_LENGTH = 64 * 1024;
+    public static final int MAX_DATA_LENGTH = BinaryProtocol.MAX_FIELD_LENGTH;
+
+    // Returned by parseUnsigned() for anything but a non-negative decimal number
+    private static final long INVALID = -1;
+
+    private static final String BAD_FORMAT = "CLIENT_ERROR bad command line format";
+
+    private static final byte[] GET = ascii("get");
+    private static final byte[] GETS = ascii("gets");
+    private static final byte[] SET = ascii("set");
+    private static final byte[] ADD = ascii("add");
+    private static final byte[] REPLACE = ascii("replace");
+    private static final byte[] CAS = ascii("cas");
+    private static final byte[] DELETE = ascii("delete");
+    private static final byte[] INCR = ascii("incr");
+    private static final byte[] DECR = ascii("decr");
+    private static final byte[] VERSION = ascii("version");
+    private static final byte[] QUIT = ascii("quit");
+    private static final byte[] NOREPLY = ascii("noreply");
+
+    private int command;
+    private int tokenCount;
+    private int[] tokenStart = new int[8];
+    private int[] tokenEnd = new int[8];
+    private boolean noreply;
+    private long flags;
+    private long casUnique;
+    private long delta;
+    private int dataStart;
+    private int dataEnd;
+    private String errorMessage;
+
+    /**
+     * Parses the next command starting at the buffer's position
+     * On REQUEST and ERROR the buffer is positioned after the command,
+     * on NEED_MORE it is unchanged
+     *
+     * @param buffer Buffer in read mode (position..limit holds unparsed bytes)
+     * @return REQUEST, NEED_MORE, ERROR or FATAL
+     */
+    public int parse(ByteBuffer buffer) {
+        int start = buffer.position();
+        int limit = buffer.limit();
+        int newline = -1;
+        for (int i = start; i < limit; i++) {
+            if (buffer.get(i) == '\n') {
+                newline = i;
+                break;
+            }
+        }
+        if (newline < 0) {
+            return (limit - start > MAX_LINE_LENGTH) ? fatal("CLIENT_ERROR line too long") : NEED_MORE;
+        }
+        int end = (newline > start && buffer.get(newline - 1) == '\r') ? newline - 1 : newline;
+        tokenize(buffer, start, end);
+        int lineEnd = newline + 1;
+
+        noreply = tokenCount > 1 && equalsToken(buffer, tokenCount - 1, NOREPLY);
+        command = (tokenCount > 0) ? matchCommand(buffer, tokenStart[0], tokenEnd[0]) : CMD_UNKNOWN;
+        switch (command) {
+            case CMD_SET:
+            case CMD_ADD:
+            case CMD_REPLACE:
+            case CMD_CAS:
+                return parseStorage(buffer, lineEnd);
+            case CMD_GET:
+            case CMD_GETS:
+                // Retrievals always reply, "noreply" would just be another key
+                noreply = false;
+                buffer.position(lineEnd);
+                if (tokenCount < 2) {
+                    return error("ERROR");
+                }
+                return checkKeys(1, tokenCount) ? REQUEST : error(BAD_FORMAT);
+            case CMD_DELETE:
+                buffer.position(lineEnd);
+                if (tokenCount != (noreply ? 3 : 2) || !checkKeys(1, 2)) {
+                    return error(BAD_FORMAT);
+                }
+                return REQUEST;
+            case CMD_INCR:
+            case CMD_DECR:
+                buffer.position(lineEnd);
+                if (tokenCount != (noreply ? 4 : 3) || !checkKeys(1, 2)) {
+                    return error(BAD_FORMAT);
+                }
+                delta = parseUnsigned(buffer, tokenStart[2], tokenEnd[2]);
+                if (delta == INVALID) {
+                    return error("CLIENT_ERROR invalid numeric delta argument");
+                }
+                return REQUEST;
+            case CMD_VERSION:
+            case CMD_QUIT:
+                buffer.position(lineEnd);
+                return REQUEST;
+            default:
+                buffer.position(lineEnd);
+                return error("ERROR");
+        }
+    }
+
+    private int parseStorage(ByteBuffer buffer, int lineEnd) {
+        boolean cas = command == CMD_CAS;
+        int expected = (cas ? 6 : 5) + (noreply ? 1 : 0);
+        long bytes = (tokenCount == expected) ? parseUnsigned(buffer, tokenStart[4], tokenEnd[4]) : INVALID;
+        flags = (tokenCount == expected) ? parseUnsigned(buffer, tokenStart[2], tokenEnd[2]) : INVALID;
+        casUnique = cas && tokenCount == expected ? parseUnsigned(buffer, tokenStart[5], tokenEnd[5]) : 0;
+        if (bytes == INVALID || flags == INVALID || flags > 0xFFFFFFFFL || casUnique == INVALID
+                || !isNumber(buffer, tokenStart[3], tokenEnd[3]) || !checkKeys(1, 2)) {
+            // Without a valid length the data block cannot be skipped
+            buffer.position(lineEnd);
+            return fatal(BAD_FORMAT);
+        }
+        if (bytes > MAX_DATA_LENGTH) {
+            buffer.position(lineEnd);
+            return fatal("SERVER_ERROR object too large for cache");
+        }
+        int blockEnd = lineEnd + (int) bytes;
+        if (blockEnd + 2 > buffer.limit()) {
+            return NEED_MORE;
+        }
+        if (buffer.get(blockEnd) != '\r' || buffer.get(blockEnd + 1) != '\n') {
+            buffer.position(blockEnd);
+            return fatal("CLIENT_ERROR bad data chunk");
+        }
+        dataStart = lineEnd;
+        dataEnd = blockEnd;
+        buffer.position(blockEnd + 2);
+        return REQUEST;
+    }
+
+    private void tokenize(ByteBuffer buffer, int start, int end) {
+        tokenCount = 0;
+        int i = start;
+        while (i < end) {
+            while (i < end && buffer.get(i) == ' ') {
+                i++;
+            }
+            int wordStart = i;
+            while (i < end && buffer.get(i) != ' ') {
+                i++;
+            }
+            if (i > wordStart) {
+                if (tokenCount == tokenStart.length) {
+                    tokenStart = Arrays.copyOf(tokenStart, tokenCount * 2);
+                    tokenEnd = Arrays.copyOf(tokenEnd, tokenCount * 2);
+                }
+                tokenStart[tokenCount] = wordStart;
+                tokenEnd[tokenCount] = i;
+                tokenCount++;
+            }
+        }
+    }
+
+    /**
+     * @return true if the tokens from..to-1 are valid keys (at most MAX_KEY_LENGTH bytes)
+     */
+    private boolean checkKeys(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (tokenEnd[i] - tokenStart[i] > MAX_KEY_LENGTH) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean equalsToken(ByteBuffer buffer, int index, byte[] word) {
+        if (tokenEnd[index] - tokenStart[index] != word.length) {
+            return false;
+        }
+        for (int i = 0; i < word.length; i++) {
+            if (buffer.get(tokenStart[index] + i) != word[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses an unsigned decimal number that fits in 63 bits without creating a String
+     * (memcached allows 64 bits; values above 2^63-1 are rejected here)
+     */
+    private static long parseUnsigned(ByteBuffer buffer, int start, int end) {
+        if (start >= end || end - start > 19) {
+            return INVALID;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return INVALID;
+            }
+            value = value * 10 + digit;
+        }
+        return value >= 0 ? value : INVALID;
+    }
+
+    /**
+     * @return true for an optionally negative decimal number (exptime may be negative)
+     */
+    private static boolean isNumber(ByteBuffer buffer, int start, int end) {
+        if (start < end && buffer.get(start) == '-') {
+            start++;
+        }
+        return parseUnsigned(buffer, start, end) != INVALID;
+    }
+
+    private int error(String message) {
+        errorMessage = message;
+        return ERROR;
+    }
+
+    private int fatal(String message) {
+        errorMessage = message;
+        return FATAL;
+    }
+
+    private static int matchCommand(ByteBuffer buffer, int start, int end) {
+        switch (end - start) {
+            case 3:
+                if (matches(buffer, start, GET)) {
+                    return CMD_GET;
+                }
+                if (matches(buffer, start, SET)) {
+                    return CMD_SET;
+                }
+                if (matches(buffer, start, ADD)) {
+                    return CMD_ADD;
+                }
+                return matches(buffer, start, CAS) ? CMD_CAS : CMD_UNKNOWN;
+            case 4:
+                if (matches(buffer, start, GETS)) {
+                    return CMD_GETS;
+                }
+                if (matches(buffer, start, INCR)) {
+                    return CMD_INCR;
+                }
+                if (matches(buffer, start, DECR)) {
+                    return CMD_DECR;
+                }
+                return matches(buffer, start, QUIT) ? CMD_QUIT : CMD_UNKNOWN;
+            case 6:
+                return matches(buffer, start, DELETE) ? CMD_DELETE : CMD_UNKNOWN;
+            case 7:
+                if (matches(buffer, start, REPLACE)) {
+                    return CMD_REPLACE;
+                }
+                return matches(buffer, start, VERSION) ? CMD_VERSION : CMD_UNKNOWN;
+            default:
+                return CMD_UNKNOWN;
+        }
+    }
+
+    /**
+     * Exact comparison: memcached command names are lower case
+     */
+    private static boolean matches(ByteBuffer buffer, int start, byte[] name) {
+        for (int i = 0; i < name.length; i++) {
+            if (buffer.get(start + i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /** @return One of the CMD_ constants */
+    public int command() {
+        return command;
+    }
+
+    /** @return Number of tokens on the command line, including the command name */
+    public int tokenCount() {
+        return tokenCount;
+    }
+
+    public int tokenStart(int index) {
+        return tokenStart[index];
+    }
+
+    public int tokenEnd(int index) {
+        return tokenEnd[index];
+    }
+
+    /** @return The token decoded as UTF-8 (allocates, used for keys) */
+    public String token(ByteBuffer buffer, int index) {
+        return RequestParser.slice(buffer, tokenStart[index], tokenEnd[index]);
+    }
+
+    /** @return Number of key tokens of a get/gets (the keys are tokens 1..keyCount) */
+    public int keyCount() {
+        return tokenCount - 1;
+    }
+
+    /** @return true if the client asked for no reply */
+    public boolean noreply() {
+        return noreply;
+    }
+
+    /** @return The flags of a storage command */
+    public long flags() {
+        return flags;
+    }
+
+    /** @return The cas unique of a cas command */
+    public long casUnique() {
+        return casUnique;
+    }
+
+    /** @return The amount of an incr/decr command */
+    public long delta() {
+        return delta;
+    }
+
+    /** @return A copy of the data block of a storage command */
+    public byte[] data(ByteBuffer buffer) {
+        byte[] bytes = new byte[dataEnd - dataStart];
+        buffer.get(dataStart, bytes);
+        return bytes;
+    }
+
+    /** @return The response line for the last ERROR or FATAL result */
+    public String errorMessage() {
+        return errorMessage;
+    }
+}
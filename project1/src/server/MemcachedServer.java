@@ -0,0 +1,186 @@
+package server;
+
+import kvstore.KVStore;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Memcached Server Implementation
+ * Speaks the memcached text protocol on top of the same KVStore that TCPServer uses,
+ * so memcached clients and the native protocols see the same data
+ *
+ * Supported commands: get, gets, set, add, replace, cas, delete, incr, decr, version
+ * and quit, with noreply on every command that modifies data.
+ *
+ * Differences from a real memcached:
+ * - flags are accepted but not stored, items are always returned with flags 0
+ * - exptime is accepted but ignored, nothing expires or gets evicted
+ * - the cas unique is the version of the key's value (see KVStore.Versioned); like
+ *   memcached's it comes from one counter, so every write changes it
+ *
+ * Connections are served by ConnectionServer like RespServer's: one thread each,
+ * parsing in place and collecting every reply of a read, including all VALUE lines of
+ * a multi-key get, into one write.
+ */
+public class MemcachedServer extends ConnectionServer {
+    // Largest single command a connection may send
+    static final int MAX_REQUEST_SIZE = MemcachedParser.MAX_DATA_LENGTH + MemcachedParser.MAX_LINE_LENGTH;
+
+    private static final byte[] STORED = ascii("STORED\r\n");
+    private static final byte[] NOT_STORED = ascii("NOT_STORED\r\n");
+    private static final byte[] EXISTS = ascii("EXISTS\r\n");
+    private static final byte[] NOT_FOUND = ascii("NOT_FOUND\r\n");
+    private static final byte[] DELETED = ascii("DELETED\r\n");
+    private static final byte[] END = ascii("END\r\n");
+    private static final byte[] VALUE = ascii("VALUE ");
+    private static final byte[] NO_FLAGS = ascii(" 0 ");
+    private static final byte[] CRLF = ascii("\r\n");
+    private static final byte[] VERSION = ascii("VERSION 1.6.0-kvstore\r\n");
+    private static final byte[] ERROR_NON_NUMERIC =
+            ascii("CLIENT_ERROR cannot increment or decrement non-numeric value\r\n");
+    private static final byte[] ERROR_INTERNAL = ascii("SERVER_ERROR internal server error\r\n");
+
+    /**
+     * @param port The port to listen on (memcached uses 11211)
+     */
+    public MemcachedServer(int port) {
+        super("Memcached", port, MAX_REQUEST_SIZE);
+    }
+
+    @Override
+    Handler newHandler() {
+        MemcachedParser parser = new MemcachedParser();
+        return (input, connection) -> {
+            int result;
+            while ((result = parser.parse(input)) != MemcachedParser.NEED_MORE) {
+                if (result == MemcachedParser.REQUEST) {
+                    if (parser.command() == MemcachedParser.CMD_QUIT) {
+                        return false;
+                    }
+                    connection.output = execute(parser, input, connection.output);
+                } else {
+                    connection.output = line(connection.output, parser.errorMessage());
+                    if (result == MemcachedParser.FATAL) {
+                        // The next command cannot be found, so like memcached drop the connection
+                        logger.log("Client " + connection.client + " | " + parser.errorMessage());
+                        return false;
+                    }
+                }
+                connection.flushIfFull();
+            }
+            return true;
+        };
+    }
+
+    /**
+     * Executes one parsed command and appends its reply to out (nothing for noreply)
+     *
+     * @return The buffer holding the reply: out, or a larger copy if out was too small
+     */
+    static ByteBuffer execute(MemcachedParser request, ByteBuffer in, ByteBuffer out) {
+        byte[] reply;
+        try {
+            switch (request.command()) {
+                case MemcachedParser.CMD_GET:
+                case MemcachedParser.CMD_GETS:
+                    return retrieve(request, in, out);
+                case MemcachedParser.CMD_SET:
+                    KVStore.putBytes(request.token(in, 1), request.data(in));
+                    reply = STORED;
+                    break;
+                case MemcachedParser.CMD_ADD:
+                    reply = KVStore.putIfAbsent(request.token(in, 1), request.data(in)) ? STORED : NOT_STORED;
+                    break;
+                case MemcachedParser.CMD_REPLACE:
+                    reply = KVStore.replace(request.token(in, 1), request.data(in)) ? STORED : NOT_STORED;
+                    break;
+                case MemcachedParser.CMD_CAS:
+                    int cas = KVStore.compareAndSwap(request.token(in, 1), request.casUnique(), request.data(in));
+                    reply = (cas == KVStore.CAS_STORED) ? STORED : (cas == KVStore.CAS_EXISTS) ? EXISTS : NOT_FOUND;
+                    break;
+                case MemcachedParser.CMD_DELETE:
+                    reply = KVStore.remove(request.token(in, 1)) ? DELETED : NOT_FOUND;
+                    break;
+                case MemcachedParser.CMD_INCR:
+                case MemcachedParser.CMD_DECR:
+                    boolean incr = request.command() == MemcachedParser.CMD_INCR;
+                    long delta = request.delta();
+                    byte[] value = KVStore.update(request.token(in, 1), old -> {
+                        long current = Long.parseUnsignedLong(new String(old, StandardCharsets.US_ASCII));
+                        // incr wraps around at 2^64, decr stops at 0
+                        long next = incr ? current + delta
+                                : (Long.compareUnsigned(current, delta) < 0 ? 0 : current - delta);
+                        return Long.toUnsignedString(next).getBytes(StandardCharsets.US_ASCII);
+                    });
+                    if (request.noreply()) {
+                        return out;
+                    }
+                    if (value == null) {
+                        return raw(out, NOT_FOUND);
+                    }
+                    out = RequestProcessor.ensureCapacity(out, value.length + 2);
+                    return out.put(value).put(CRLF);
+                case MemcachedParser.CMD_VERSION:
+                    return raw(out, VERSION);
+                default:
+                    return line(out, "ERROR");
+            }
+        } catch (NumberFormatException e) {
+            reply = ERROR_NON_NUMERIC;
+        } catch (RuntimeException e) {
+            reply = ERROR_INTERNAL;
+        }
+        return request.noreply() ? out : raw(out, reply);
+    }
+
+    /**
+     * get/gets: one VALUE block per key found, then END, all in the same output buffer
+     */
+    private static ByteBuffer retrieve(MemcachedParser request, ByteBuffer in, ByteBuffer out) {
+        boolean withCas = request.command() == MemcachedParser.CMD_GETS;
+        for (int i = 1; i <= request.keyCount(); i++) {
+            KVStore.Versioned versioned = KVStore.getVersioned(request.token(in, i));
+            if (versioned == null) {
+                continue;
+            }
+            byte[] value = versioned.value();
+            int keyStart = request.tokenStart(i);
+            int keyLength = request.tokenEnd(i) - keyStart;
+            // "VALUE <key> 0 <bytes>[ <cas>]\r\n<data>\r\n"
+            out = RequestProcessor.ensureCapacity(out, VALUE.length + keyLength + NO_FLAGS.length
+                    + 20 + (withCas ? 21 : 0) + 2 + value.length + 2);
+            out.put(VALUE);
+            // The key is copied straight from the request bytes
+            out.put(out.position(), in, keyStart, keyLength);
+            out.position(out.position() + keyLength);
+            out.put(NO_FLAGS);
+            RequestProcessor.putDecimal(out, value.length);
+            if (withCas) {
+                out.put((byte) ' ');
+                RequestProcessor.putDecimal(out, versioned.version());
+            }
+            out.put(CRLF).put(value).put(CRLF);
+        }
+        return raw(out, END);
+    }
+
+    private static ByteBuffer line(ByteBuffer out, String message) {
+        byte[] bytes = message.getBytes(StandardCharsets.US_ASCII);
+        out = RequestProcessor.ensureCapacity(out, bytes.length + 2);
+        return out.put(bytes).put(CRLF);
+    }
+
+    /**
+     * Entry point of the program
+     * Usage: java MemcachedServer <port>
+     */
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.out.println("Usage: java MemcachedServer <port>");
+            return;
+        }
+        int port = Integer.parseInt(args[0]);
+        new MemcachedServer(port).start();
+    }
+}
@@ -0,0 +1,373 @@
+package server;
+
+import common.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking TCP Server
+ * Speaks exactly the protocol of TCPServer (text lines, binary frames, pipelining,
+ * request IDs, HELLO), but serves thousands of connections from a few threads
+ *
+ * TCPServer handles one connection at a time, so a single client that stays connected
+ * keeps every other client waiting. Here each event loop thread watches many connections
+ * with its own Selector and only touches those that have bytes to read or room to write,
+ * so mostly idle connections cost a few buffers each instead of a thread each.
+ *
+ * Multi-reactor: one acceptor thread accepts connections and hands each one to the
+ * event loop with the fewest connections. A single loop saturates one core, so by
+ * default there is one loop per available processor. Loops share nothing but the
+ * KVStore (sharding it per loop would hide a key written on one connection from the
+ * others), and a connection stays on its loop for its lifetime.
+ *
+ * Every connection has its own input and output buffer and its own RequestParser.
+ * A read parses all complete requests in place and executes them in order; the
+ * responses are written in one go. If the socket does not take them all, the
+ * connection stops reading until its output has drained (backpressure), so a client
+ * that does not read its answers cannot make the server buffer without bound.
+ * Tagged requests are executed in order as well, which the protocol allows.
+ *
+ * Requests are not logged one by one, for the same reason as in RespServer:
+ * with thousands of connections the log line would cost more than the request.
+ *
+ * With idleTimeout() an IdleReaper watches every connection; a connection it finds idle
+ * is handed back to its event loop, which closes it, as only the loop touches its keys.
+ */
+public class NioTCPServer {
+    private final int port;
+    private final int loopCount;
+    private final Logger logger;
+    private final CommandDispatcher dispatcher = new CommandDispatcher();
+    // Closes idle connections, or null to keep them open
+    private IdleReaper idleReaper;
+    // Applied to every accepted connection, or null for the system default (off)
+    private KeepAlive keepAlive;
+
+    /**
+     * @param port The port to listen on
+     */
+    public NioTCPServer(int port) {
+        this(port, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param port The port to listen on
+     * @param loopCount Number of event loop threads
+     */
+    public NioTCPServer(int port, int loopCount) {
+        if (loopCount < 1) {
+            throw new IllegalArgumentException("At least one event loop is needed: " + loopCount);
+        }
+        this.port = port;
+        this.loopCount = loopCount;
+        this.logger = new Logger(NioTCPServer.class);
+    }
+
+    /**
+     * @return The dispatcher every request is executed through, to add interceptors to;
+     *         interceptors see a connection's address (a String) as its client
+     */
+    public CommandDispatcher dispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Closes connections that sent nothing for the timeout; must be called before start()
+     *
+     * @param millis How long a connection may stay quiet
+     * @return this, to start it
+     */
+    public NioTCPServer idleTimeout(long millis) {
+        idleReaper = new IdleReaper(millis);
+        return this;
+    }
+
+    /**
+     * Enables TCP keepalive on accepted connections; must be called before start()
+     *
+     * @return this, to start it
+     */
+    public NioTCPServer keepAlive(KeepAlive keepAlive) {
+        this.keepAlive = keepAlive;
+        return this;
+    }
+
+    /** @return The idle reaper, for its open/idle/reaped gauges; null without an idle timeout */
+    public IdleReaper idleReaper() {
+        return idleReaper;
+    }
+
+    /**
+     * Per-connection state, attached to the connection's SelectionKey
+     */
+    private static final class Connection {
+        final SocketChannel channel;
+        final String client;
+        final RequestParser parser = new RequestParser();
+        ByteBuffer input = ByteBuffer.allocate(TCPServer.BUFFER_SIZE);
+        // Write mode: position..0 holds responses not written yet
+        ByteBuffer output = ByteBuffer.allocate(TCPServer.BUFFER_SIZE);
+        // Set after a corrupt frame or end of input: close once the output is written
+        boolean closing;
+        // Registration with the idle reaper, or null without an idle timeout
+        IdleReaper.Handle idle;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+            this.client = String.valueOf(channel.socket().getRemoteSocketAddress());
+        }
+    }
+
+    /**
+     * Starts the event loops, then accepts connections on the calling thread
+     */
+    public void start() {
+        EventLoop[] loops = new EventLoop[loopCount];
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            for (int i = 0; i < loopCount; i++) {
+                loops[i] = new EventLoop(i);
+            }
+            serverChannel.bind(new InetSocketAddress(port), 1024);
+            logger.log("NIO server started on port " + port + " with " + loopCount + " event loop(s)");
+            if (idleReaper != null) {
+                idleReaper.start();
+            }
+
+            while (true) {
+                // Blocking accept: the acceptor has nothing else to do
+                SocketChannel channel = serverChannel.accept();
+                leastLoaded(loops).register(channel);
+            }
+        } catch (IOException e) {
+            logger.log("Server error: " + e.getMessage());
+        } finally {
+            if (idleReaper != null) {
+                idleReaper.stop();
+            }
+            for (EventLoop loop : loops) {
+                if (loop != null) {
+                    loop.shutdown();
+                }
+            }
+        }
+    }
+
+    private static EventLoop leastLoaded(EventLoop[] loops) {
+        EventLoop best = loops[0];
+        for (EventLoop loop : loops) {
+            if (loop.connectionCount.get() < best.connectionCount.get()) {
+                best = loop;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * One reactor: a thread running a Selector over the connections handed to it
+     */
+    private final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Thread thread;
+        // Connections accepted for this loop but not registered with its selector yet
+        private final Queue<SocketChannel> incoming = new ConcurrentLinkedQueue<>();
+        // Connections the idle reaper found idle, to be closed by this loop
+        private final Queue<Connection> idle = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger connectionCount = new AtomicInteger();
+
+        EventLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "nio-loop-" + index);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * Hands a connection to this loop; called by the acceptor thread
+         * Only the loop thread touches its selector's keys, so the channel is queued and
+         * the selector woken up to register it
+         */
+        void register(SocketChannel channel) {
+            connectionCount.incrementAndGet();
+            incoming.add(channel);
+            selector.wakeup();
+        }
+
+        /**
+         * Hands an idle connection back to this loop to be closed; called by the idle reaper
+         */
+        void reap(Connection connection) {
+            idle.add(connection);
+            selector.wakeup();
+        }
+
+        void shutdown() {
+            thread.interrupt();
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    selector.select();
+                    registerIncoming();
+                    closeIdle();
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isReadable()) {
+                                read(key, connection);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                write(key, connection);
+                            }
+                        } catch (IOException e) {
+                            logger.log("Client handling error: " + e.getMessage());
+                            close(key, connection);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                logger.log("Event loop error: " + e.getMessage());
+            } finally {
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    logger.log("Failed to close selector: " + e.getMessage());
+                }
+            }
+        }
+
+        private void registerIncoming() {
+            SocketChannel channel;
+            while ((channel = incoming.poll()) != null) {
+                try {
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                    if (keepAlive != null) {
+                        keepAlive.apply(channel);
+                    }
+                    Connection connection = new Connection(channel);
+                    channel.register(selector, SelectionKey.OP_READ, connection);
+                    if (idleReaper != null) {
+                        connection.idle = idleReaper.register(() -> reap(connection));
+                    }
+                    logger.log("Client connected " + connection.client + " on " + thread.getName());
+                } catch (IOException e) {
+                    logger.log("Failed to register connection: " + e.getMessage());
+                    connectionCount.decrementAndGet();
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                        // already failing
+                    }
+                }
+            }
+        }
+
+        private void closeIdle() {
+            Connection connection;
+            while ((connection = idle.poll()) != null) {
+                SelectionKey key = connection.channel.keyFor(selector);
+                if (key != null && key.isValid()) {
+                    logger.log("Client " + connection.client + " | Closed after idle timeout");
+                    close(key, connection);
+                }
+            }
+        }
+
+        /**
+         * Reads what arrived, executes every complete request and writes the responses
+         * Same parse loop as TCPServer.handleClient, minus the blocking reads
+         */
+        private void read(SelectionKey key, Connection connection) throws IOException {
+            int read = connection.channel.read(connection.input);
+            boolean endOfInput = read < 0;
+            if (connection.idle != null) {
+                connection.idle.touch();
+            }
+
+            ByteBuffer input = connection.input;
+            input.flip();
+            int result;
+            while ((result = connection.parser.parse(input, endOfInput)) != RequestParser.NEED_MORE) {
+                if (result == RequestParser.REQUEST) {
+                    connection.output = dispatcher.dispatch(connection.client, connection.parser, input, connection.output);
+                } else {
+                    connection.output = RequestProcessor.malformed(connection.parser, connection.output);
+                }
+                if (result == RequestParser.INVALID_FRAME) {
+                    // A corrupt binary frame leaves no way to find the next request
+                    logger.log("Client " + connection.client + " | Invalid frame, closing");
+                    connection.closing = true;
+                    break;
+                }
+            }
+            input.compact();
+
+            if (endOfInput) {
+                connection.closing = true;
+            } else if (!input.hasRemaining()) {
+                // A single request is larger than the buffer
+                if (input.capacity() >= TCPServer.MAX_REQUEST_SIZE) {
+                    logger.log("Request too large from " + connection.client);
+                    connection.closing = true;
+                } else {
+                    connection.input = RequestProcessor.ensureCapacity(input, input.capacity());
+                }
+            }
+            write(key, connection);
+        }
+
+        /**
+         * Writes as much pending output as the socket takes
+         * Leftover output switches the connection to waiting for OP_WRITE (and stops reading);
+         * once everything is written it goes back to reading, or is closed if it was closing
+         */
+        private void write(SelectionKey key, Connection connection) throws IOException {
+            ByteBuffer output = connection.output;
+            output.flip();
+            connection.channel.write(output);
+            boolean drained = !output.hasRemaining();
+            output.compact();
+
+            if (!drained) {
+                key.interestOps(SelectionKey.OP_WRITE);
+            } else if (connection.closing) {
+                close(key, connection);
+            } else {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        private void close(SelectionKey key, Connection connection) {
+            key.cancel();
+            if (connection.idle != null) {
+                connection.idle.cancel();
+            }
+            connectionCount.decrementAndGet();
+            try {
+                connection.channel.close();
+            } catch (IOException e) {
+                logger.log("Failed to close connection: " + e.getMessage());
+            }
+            logger.log("Client disconnected " + connection.client);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package server;
+
+import common.BinaryProtocol;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-client rate limits: a token bucket for every client and operation type
+ *
+ * Admission control protects the server as a whole, but a single client sending as
+ * fast as it can still gets most of what the server has to give, and everyone else
+ * waits behind its requests. With a rate limit each client gets at most rate requests
+ * per second of each operation type, plus bursts of up to burst requests; what is
+ * beyond that is answered THROTTLED right away, without being executed.
+ *
+ * Each bucket is a single long, the time at which it will be full again (GCRA, the
+ * generic cell rate algorithm, which behaves exactly like a token bucket). Taking a
+ * token moves that time on by one interval (1 / rate) and is refused if it would end
+ * up more than burst intervals ahead of now. Refilling needs no timer and no lock:
+ * time passing is the refill, and an update is a single compare-and-set.
+ *
+ * A client is anything with equals/hashCode: its address and port for UDP, its host
+ * for RMI. A bucket that is full again is no different from a new one, so such clients
+ * are dropped whenever the table has doubled since the last sweep; a client that
+ * stays within its rate therefore costs nothing for long.
+ *
+ * Operation types are the RequestParser opcodes. UDPServer checks the limiter itself,
+ * ahead of its retry cache; added to a TCP server's CommandDispatcher as an interceptor
+ * it limits each connection's address the same way. The limits are set before the limiter is handed to a server; everything else is
+ * thread safe.
+ */
+public class RateLimiter implements CommandDispatcher.Interceptor {
+    // Opcodes are told apart by their low nibble (OP_PUT 0x81 ... OP_SCAN 0x84, OP_HELLO 0x05)
+    private static final int SLOTS = 16;
+    // The table is not swept while it is smaller than this
+    private static final int MIN_SWEEP_SIZE = 1024;
+    // Clients listed by stats()
+    private static final int TOP_CLIENTS = 3;
+
+    // Per slot: nanoseconds one request uses up, and how far ahead of now a bucket may get
+    private final long[] intervalNanos = new long[SLOTS];
+    private final long[] burstNanos = new long[SLOTS];
+
+    private final Map<Object, Client> clients = new ConcurrentHashMap<>();
+    private volatile int sweepSize = MIN_SWEEP_SIZE;
+
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder[] throttled = new LongAdder[SLOTS];
+
+    /**
+     * One client's buckets: the time each will be full again, per operation type
+     */
+    private static final class Client {
+        final AtomicLongArray full = new AtomicLongArray(SLOTS);
+        final LongAdder throttled = new LongAdder();
+
+        Client(long now) {
+            for (int i = 0; i < SLOTS; i++) {
+                full.set(i, now);
+            }
+        }
+    }
+
+    /**
+     * Every operation type gets the same limit
+     *
+     * @param requestsPerSecond Sustained rate allowed per client and operation type
+     * @param burst Requests a client may send at once after being quiet
+     */
+    public RateLimiter(double requestsPerSecond, int burst) {
+        for (int i = 0; i < SLOTS; i++) {
+            throttled[i] = new LongAdder();
+            set(i, requestsPerSecond, burst);
+        }
+    }
+
+    /**
+     * Sets the limit for one operation type, e.g. a lower one for SCAN
+     *
+     * @param opcode A BinaryProtocol or RequestParser opcode
+     * @param requestsPerSecond Sustained rate allowed per client
+     * @param burst Requests a client may send at once after being quiet
+     * @return this, so limits can be chained
+     */
+    public RateLimiter limit(byte opcode, double requestsPerSecond, int burst) {
+        set(slot(opcode), requestsPerSecond, burst);
+        return this;
+    }
+
+    private void set(int slot, double requestsPerSecond, int burst) {
+        if (!(requestsPerSecond > 0) || burst < 1) {
+            throw new IllegalArgumentException("Invalid rate limit: " + requestsPerSecond + "/s, burst " + burst);
+        }
+        long interval = Math.max(1, (long) (1_000_000_000L / requestsPerSecond));
+        intervalNanos[slot] = interval;
+        burstNanos[slot] = interval * burst;
+    }
+
+    private static int slot(byte opcode) {
+        return opcode & (SLOTS - 1);
+    }
+
+    /**
+     * Takes a token from the client's bucket for the operation
+     *
+     * @param client Identifies the client (address and port, host, client ID)
+     * @param opcode The request's opcode
+     * @param now System.nanoTime()
+     * @return true if the request may be executed, false if it must be answered THROTTLED
+     */
+    public boolean tryAcquire(Object client, byte opcode, long now) {
+        Client state = clients.get(client);
+        if (state == null) {
+            state = register(client, now);
+        }
+        int slot = slot(opcode);
+        long interval = intervalNanos[slot];
+        long limit = now + burstNanos[slot];
+        while (true) {
+            long full = state.full.get(slot);
+            long next = Math.max(full, now) + interval;
+            if (next > limit) {
+                state.throttled.increment();
+                throttled[slot].increment();
+                return false;
+            }
+            if (state.full.compareAndSet(slot, full, next)) {
+                allowed.increment();
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public ByteBuffer intercept(Object client, RequestParser request, ByteBuffer in, ByteBuffer out,
+                                CommandDispatcher.Chain next) {
+        if (!tryAcquire(client, request.opcode(), System.nanoTime())) {
+            return RequestProcessor.throttled(request, out);
+        }
+        return next.proceed(client, request, in, out);
+    }
+
+    private Client register(Object client, long now) {
+        if (clients.size() >= sweepSize) {
+            sweep(now);
+        }
+        return clients.computeIfAbsent(client, c -> new Client(now));
+    }
+
+    /**
+     * Drops clients whose buckets are all full again; they would start over with a new one
+     * anyway. Several threads sweeping at once only repeat each other's work.
+     */
+    private void sweep(long now) {
+        clients.values().removeIf(state -> {
+            for (int i = 0; i < SLOTS; i++) {
+                if (state.full.get(i) > now) {
+                    return false;
+                }
+            }
+            return true;
+        });
+        sweepSize = Math.max(MIN_SWEEP_SIZE, 2 * clients.size());
+    }
+
+    /** @return Requests allowed so far */
+    public long allowed() {
+        return allowed.sum();
+    }
+
+    /** @return Requests throttled so far, over all operation types */
+    public long throttled() {
+        long total = 0;
+        for (LongAdder count : throttled) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    /** @return Requests of one operation type throttled so far */
+    public long throttled(byte opcode) {
+        return throttled[slot(opcode)].sum();
+    }
+
+    /** @return Clients currently tracked */
+    public int clientCount() {
+        return clients.size();
+    }
+
+    /**
+     * Summarizes the counters, with the throttled requests per operation type and the
+     * clients throttled most (among those still tracked)
+     */
+    public String stats() {
+        StringBuilder sb = new StringBuilder()
+                .append("allowed=").append(allowed())
+                .append(" throttled=").append(throttled())
+                .append(" (PUT=").append(throttled(BinaryProtocol.OP_PUT))
+                .append(" GET=").append(throttled(BinaryProtocol.OP_GET))
+                .append(" DELETE=").append(throttled(BinaryProtocol.OP_DELETE))
+                .append(" SCAN=").append(throttled(BinaryProtocol.OP_SCAN))
+                .append(") clients=").append(clientCount());
+        List<Map.Entry<Object, Client>> top = new ArrayList<>();
+        for (Map.Entry<Object, Client> entry : clients.entrySet()) {
+            if (entry.getValue().throttled.sum() > 0) {
+                top.add(entry);
+            }
+        }
+        if (!top.isEmpty()) {
+            top.sort((a, b) -> Long.compare(b.getValue().throttled.sum(), a.getValue().throttled.sum()));
+            sb.append(" top throttled:");
+            for (Map.Entry<Object, Client> entry : top.subList(0, Math.min(TOP_CLIENTS, top.size()))) {
+                sb.append(' ').append(entry.getKey()).append('=').append(entry.getValue().throttled.sum());
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,413 @@
+package server;
+
+import common.BinaryProtocol;
+import common.Protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Zero-allocation request parser working directly on a ByteBuffer
+ *
+ * One parser instance is reused for every request of a connection (or of a UDP socket).
+ * Parsing only moves the buffer position and records where the opcode, key and value
+ * are; no Strings, arrays or substrings are created. The key and value stay in the
+ * buffer as slices until the RequestProcessor hands them to the store.
+ *
+ * Both framings are understood, picked per request from the first byte:
+ * - Text:   "OPERATION key [value...]\n" (value is the rest of the line, may contain spaces)
+ * - Binary: [opcode][varint keyLength][key][varint valueLength][value] (see BinaryProtocol)
+ *
+ * Text operations are matched case-insensitively against byte constants, so there is
+ * no toUpperCase() and no split(). Both framings produce the same BinaryProtocol.OP_ codes.
+ *
+ * Either framing may carry an optional request ID ("#42 GET key" in text, the
+ * FLAG_REQUEST_ID opcode bit plus a varint in binary). Tagged requests may be answered
+ * out of order, and the response repeats the ID so the client can match it up.
+ *
+ * Usage:
+ *   while ((result = parser.parse(buffer, endOfInput)) != RequestParser.NEED_MORE) { ... }
+ */
+public class RequestParser {
+    // parse() results
+    public static final int REQUEST = 0;        // A request was parsed, accessors are valid
+    public static final int NEED_MORE = 1;      // Buffer holds only part of a request, nothing consumed
+    public static final int MALFORMED = 2;      // Text line without key, the line was consumed
+    public static final int INVALID_FRAME = 3;  // Corrupt binary frame, the stream cannot be resynchronized
+
+    // Unknown text operations parse fine and get this opcode, so the server can answer
+    // "ERROR Invalid operation" just like before
+    public static final byte OP_UNKNOWN = 0;
+    // HELLO handshake; text only, so it has no BinaryProtocol opcode
+    public static final byte OP_HELLO = 0x05;
+
+    // requestId() of a request that carries no ID
+    public static final int NO_REQUEST_ID = -1;
+
+    // Operation names in lower case; request bytes are folded with | 0x20 before comparing
+    private static final byte[] PUT = ascii("put");
+    private static final byte[] GET = ascii("get");
+    private static final byte[] DELETE = ascii("delete");
+    private static final byte[] SCAN = ascii("scan");
+    private static final byte[] HELLO = ascii("hello");
+
+    private byte opcode;
+    private int requestId;
+    private boolean binary;
+    private boolean lineTerminated;
+    private int requestStart;
+    private int requestEnd;
+    private int keyStart;
+    private int keyEnd;
+    private int valueStart;
+    private int valueEnd;
+    // Optional, see useKeyCache
+    private KeyCache keyCache;
+
+    /**
+     * Parses the next request starting at the buffer's position
+     *
+     * @param buffer Buffer in read mode (position..limit holds unparsed bytes)
+     * @param endOfInput true if no more bytes will follow (a UDP datagram), so a final
+     *                   text line without '\n' is still a complete request
+     * @return REQUEST, NEED_MORE, MALFORMED or INVALID_FRAME
+     */
+    public int parse(ByteBuffer buffer, boolean endOfInput) {
+        if (!buffer.hasRemaining()) {
+            return NEED_MORE;
+        }
+        if (BinaryProtocol.isBinary(buffer.get(buffer.position()))) {
+            return parseBinary(buffer);
+        }
+        return parseText(buffer, endOfInput);
+    }
+
+    /**
+     * Parses a request from a buffer holding a whole datagram
+     * Unlike parse(), there is nothing more to wait for: an empty datagram is MALFORMED
+     * (text) and a truncated binary frame is INVALID_FRAME
+     *
+     * @param buffer Buffer in read mode positioned at the request
+     * @return REQUEST, MALFORMED or INVALID_FRAME
+     */
+    public int parseDatagram(ByteBuffer buffer) {
+        if (!buffer.hasRemaining()) {
+            binary = false;
+            lineTerminated = false;
+            requestId = NO_REQUEST_ID;
+            requestStart = requestEnd = buffer.position();
+            return MALFORMED;
+        }
+        int result = parse(buffer, true);
+        // Only a binary frame can still be incomplete at the end of the input
+        return (result == NEED_MORE) ? invalid(buffer) : result;
+    }
+
+    private int parseText(ByteBuffer buffer, boolean endOfInput) {
+        int start = buffer.position();
+        int limit = buffer.limit();
+
+        // Find the end of the line
+        int newline = -1;
+        for (int i = start; i < limit; i++) {
+            if (buffer.get(i) == '\n') {
+                newline = i;
+                break;
+            }
+        }
+        if (newline < 0 && !endOfInput) {
+            return NEED_MORE;
+        }
+        lineTerminated = newline >= 0;
+        int end = lineTerminated ? newline : limit;
+        buffer.position(lineTerminated ? newline + 1 : limit);
+        // Tolerate "\r\n" line endings
+        if (end > start && buffer.get(end - 1) == '\r') {
+            end--;
+        }
+
+        binary = false;
+        requestId = NO_REQUEST_ID;
+        requestStart = start;
+        requestEnd = end;
+
+        // Optional request ID: "#<digits> " in front of the operation
+        int opStart = start;
+        if (start < end && buffer.get(start) == Protocol.REQUEST_ID_PREFIX) {
+            int idEnd = indexOf(buffer, ' ', start + 1, end);
+            long id = (idEnd < 0) ? -1 : parseId(buffer, start + 1, idEnd);
+            if (id < 0) {
+                return MALFORMED;
+            }
+            requestId = (int) id;
+            opStart = idEnd + 1;
+        }
+
+        // Operation: up to the first space
+        int opEnd = indexOf(buffer, ' ', opStart, end);
+        if (opEnd < 0) {
+            return MALFORMED;
+        }
+        // Key: up to the next space or the end of the line
+        keyStart = opEnd + 1;
+        int keyLimit = indexOf(buffer, ' ', keyStart, end);
+        keyEnd = (keyLimit < 0) ? end : keyLimit;
+        // Value: everything after that space
+        if (keyLimit < 0) {
+            valueStart = -1;
+            valueEnd = -1;
+        } else {
+            valueStart = keyLimit + 1;
+            valueEnd = end;
+        }
+
+        opcode = matchOperation(buffer, opStart, opEnd);
+        return REQUEST;
+    }
+
+    private int parseBinary(ByteBuffer buffer) {
+        int start = buffer.position();
+        int limit = buffer.limit();
+        int pos = start + 1;
+
+        // Reset so an INVALID_FRAME result still answers (and logs) as binary
+        byte first = buffer.get(start);
+        binary = true;
+        lineTerminated = false;
+        opcode = (byte) (first & ~BinaryProtocol.FLAG_REQUEST_ID);
+        requestId = NO_REQUEST_ID;
+        requestStart = start;
+        requestEnd = start;
+        keyStart = keyEnd = valueStart = valueEnd = start;
+
+        // Optional request ID right after the opcode
+        int id = NO_REQUEST_ID;
+        if ((first & BinaryProtocol.FLAG_REQUEST_ID) != 0) {
+            long value = peekVarint(buffer, pos, limit);
+            if (value == -1) {
+                return NEED_MORE;
+            }
+            if (value < 0 || value > Integer.MAX_VALUE) {
+                return invalid(buffer);
+            }
+            id = (int) value;
+            pos += BinaryProtocol.varintSize(id);
+        }
+
+        // Key length and bytes
+        long keyLength = peekVarint(buffer, pos, limit);
+        if (keyLength == -1) {
+            return NEED_MORE;
+        }
+        if (keyLength < 0 || keyLength > BinaryProtocol.MAX_FIELD_LENGTH) {
+            return invalid(buffer);
+        }
+        pos += BinaryProtocol.varintSize((int) keyLength);
+        int kStart = pos;
+        pos += (int) keyLength;
+        if (pos > limit) {
+            return NEED_MORE;
+        }
+
+        // Value length and bytes
+        long valueLength = peekVarint(buffer, pos, limit);
+        if (valueLength == -1) {
+            return NEED_MORE;
+        }
+        if (valueLength < 0 || valueLength > BinaryProtocol.MAX_FIELD_LENGTH) {
+            return invalid(buffer);
+        }
+        pos += BinaryProtocol.varintSize((int) valueLength);
+        int vStart = pos;
+        if ((long) pos + valueLength > limit) {
+            return NEED_MORE;
+        }
+        pos += (int) valueLength;
+
+        requestId = id;
+        requestEnd = pos;
+        keyStart = kStart;
+        keyEnd = kStart + (int) keyLength;
+        valueStart = vStart;
+        valueEnd = pos;
+        buffer.position(pos);
+        return REQUEST;
+    }
+
+    /**
+     * Reads a varint without moving the buffer
+     * @return The value, -1 if the buffer ends first, -2 if malformed or above 2^31-1
+     */
+    private static long peekVarint(ByteBuffer buffer, int pos, int limit) {
+        long value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (pos >= limit) {
+                return -1;
+            }
+            byte b = buffer.get(pos++);
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value <= Integer.MAX_VALUE ? value : -2;
+            }
+        }
+        return -2;
+    }
+
+    /**
+     * Parses a text request ID (1 to 10 digits, at most 2^31-1) without creating a String
+     * @return The ID, or -1 if the slice is not a valid ID
+     */
+    private static long parseId(ByteBuffer buffer, int start, int end) {
+        if (start >= end || end - start > 10) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value <= Integer.MAX_VALUE ? value : -1;
+    }
+
+    private static int invalid(ByteBuffer buffer) {
+        buffer.position(buffer.limit());
+        return INVALID_FRAME;
+    }
+
+    private static byte matchOperation(ByteBuffer buffer, int start, int end) {
+        switch (end - start) {
+            case 3:
+                if (matches(buffer, start, GET)) {
+                    return BinaryProtocol.OP_GET;
+                }
+                if (matches(buffer, start, PUT)) {
+                    return BinaryProtocol.OP_PUT;
+                }
+                return OP_UNKNOWN;
+            case 4:
+                return matches(buffer, start, SCAN) ? BinaryProtocol.OP_SCAN : OP_UNKNOWN;
+            case 5:
+                return matches(buffer, start, HELLO) ? OP_HELLO : OP_UNKNOWN;
+            case 6:
+                return matches(buffer, start, DELETE) ? BinaryProtocol.OP_DELETE : OP_UNKNOWN;
+            default:
+                return OP_UNKNOWN;
+        }
+    }
+
+    /**
+     * Case-insensitive comparison against a lower case ASCII name
+     * Setting bit 0x20 turns 'A'..'Z' into 'a'..'z'; no other byte folds onto a letter
+     */
+    private static boolean matches(ByteBuffer buffer, int start, byte[] lowerName) {
+        for (int i = 0; i < lowerName.length; i++) {
+            if ((buffer.get(start + i) | 0x20) != lowerName[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(ByteBuffer buffer, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /** @return The BinaryProtocol.OP_ code of the request, OP_HELLO, or OP_UNKNOWN for unknown text operations */
+    public byte opcode() {
+        return opcode;
+    }
+
+    /** @return true if the request carries a request ID (the response must repeat it) */
+    public boolean hasRequestId() {
+        return requestId != NO_REQUEST_ID;
+    }
+
+    /** @return The request ID, or NO_REQUEST_ID */
+    public int requestId() {
+        return requestId;
+    }
+
+    /** @return Buffer position where the last request (including any ID prefix) starts */
+    public int requestStart() {
+        return requestStart;
+    }
+
+    /** @return true if the request used binary framing (the response must too) */
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /** @return true if the text request line ended with '\n' (the response should too) */
+    public boolean isLineTerminated() {
+        return lineTerminated;
+    }
+
+    public int keyStart() {
+        return keyStart;
+    }
+
+    public int keyEnd() {
+        return keyEnd;
+    }
+
+    /** @return true if the request carries a value (text requests may omit it) */
+    public boolean hasValue() {
+        return valueStart >= 0;
+    }
+
+    public int valueStart() {
+        return valueStart;
+    }
+
+    public int valueEnd() {
+        return valueEnd;
+    }
+
+    /**
+     * Lets RequestProcessor reuse the key Strings of recently seen keys (see KeyCache)
+     * Worth it where one parser serves many requests, like a UDP socket; a parser per
+     * TCP connection would hold a table per connection
+     *
+     * @param slots Number of keys remembered
+     */
+    public void useKeyCache(int slots) {
+        keyCache = new KeyCache(slots);
+    }
+
+    /** @return The key cache, or null if useKeyCache was not called */
+    KeyCache keyCache() {
+        return keyCache;
+    }
+
+    /**
+     * Renders the last request as text, for logging only (this one does allocate)
+     *
+     * @param buffer The buffer the request was parsed from, unchanged since
+     */
+    public String describe(ByteBuffer buffer) {
+        if (!binary) {
+            return slice(buffer, requestStart, requestEnd);
+        }
+        return "[binary" + (hasRequestId() ? " id=" + requestId : "")
+                + " opcode=0x" + Integer.toHexString(opcode & 0xFF) + " key="
+                + slice(buffer, keyStart, keyEnd) + " valueLength=" + (valueEnd - valueStart) + "]";
+    }
+
+    static String slice(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,379 @@
+package server;
+
+import common.BinaryProtocol;
+import common.Capabilities;
+import common.Protocol;
+import kvstore.KVStore;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Executes requests parsed by RequestParser against the KVStore
+ * and writes the response straight into an output ByteBuffer
+ *
+ * The operations are the handlers in CommandDispatcher's opcode table, which every
+ * transport executes requests through; process() runs them without interceptors.
+ * The response uses the framing of the request: a text line for text requests
+ * (ending with '\n' only if the request line did) and a status frame for binary ones.
+ *
+ * A request that carries a request ID gets the same ID on its response ("#id " in front
+ * of a text line, FLAG_REQUEST_ID plus the varint ID in a binary frame).
+ *
+ * Response texts are pre-encoded byte constants and GET copies the stored value bytes
+ * directly, so apart from the key String needed for the map lookup (and the value copy
+ * a PUT has to store) nothing is allocated per request. With a key cache on the parser
+ * a repeated key costs no String either.
+ */
+public class RequestProcessor {
+    private static final byte[] PUT_OK = ascii("PUT_OK");
+    private static final byte[] PUT_ERROR = ascii("PUT_ERROR");
+    private static final byte[] GET_RESULT = ascii("GET_RESULT ");
+    private static final byte[] GET_ERROR = ascii("GET_ERROR");
+    private static final byte[] DELETE_OK = ascii("DELETE_OK");
+    private static final byte[] DELETE_ERROR = ascii("DELETE_ERROR");
+    private static final byte[] SCAN_RESULT = ascii("SCAN_RESULT ");
+    private static final byte[] SCAN_ERROR = ascii("SCAN_ERROR ");
+    private static final byte[] ERROR_MALFORMED = ascii("ERROR Malformed request");
+    private static final byte[] ERROR_INVALID = ascii("ERROR Invalid operation");
+    private static final byte[] ERROR_INTERNAL = ascii("ERROR Internal server error");
+    private static final byte[] ERROR_TOO_LARGE = ascii("ERROR Response too large");
+    // ERROR_MALFORMED without "ERROR ", as binary error frames carry it
+    private static final byte[] MALFORMED_PAYLOAD = Arrays.copyOfRange(ERROR_MALFORMED, 6, ERROR_MALFORMED.length);
+
+    private static final byte[] HELLO_OK = ascii("HELLO_OK ");
+    private static final byte[] BUSY = ascii(Protocol.BUSY);
+    private static final byte[] THROTTLED = ascii(Protocol.THROTTLED);
+
+    private static final byte[] EMPTY = new byte[0];
+
+    // What TCPServer and UDPServer offer in the HELLO handshake (batches are UDP only)
+    public static final Capabilities SERVER_CAPABILITIES = new Capabilities(Capabilities.VERSION, true,
+            TCPServer.MAX_IN_FLIGHT, new String[]{Capabilities.COMPRESSION_NONE}, BinaryProtocol.MAX_BATCH);
+
+    private RequestProcessor() {
+    }
+
+    /**
+     * Executes the request the parser just returned REQUEST for
+     *
+     * @param request The parser holding the request
+     * @param in The buffer the request was parsed from
+     * @param out The buffer to append the response to (write mode)
+     * @return The buffer holding the response: out, or a larger copy if out was too small
+     */
+    public static ByteBuffer process(RequestParser request, ByteBuffer in, ByteBuffer out) {
+        try {
+            return CommandDispatcher.execute(request, in, out);
+        } catch (RuntimeException e) {
+            return internalError(request, out);
+        }
+    }
+
+    /**
+     * Answers a request whose execution failed with an unexpected exception
+     */
+    static ByteBuffer internalError(RequestParser request, ByteBuffer out) {
+        return error(request, out, ERROR_INTERNAL);
+    }
+
+    /**
+     * Answers an opcode no handler is registered for
+     */
+    static ByteBuffer invalid(RequestParser request, ByteBuffer in, ByteBuffer out) {
+        return error(request, out, ERROR_INVALID);
+    }
+
+    /**
+     * Writes the error response for a request the parser rejected (MALFORMED or INVALID_FRAME)
+     *
+     * @param request The parser that rejected the request
+     * @param out The buffer to append the response to (write mode)
+     * @return The buffer holding the response
+     */
+    public static ByteBuffer malformed(RequestParser request, ByteBuffer out) {
+        return error(request, out, ERROR_MALFORMED);
+    }
+
+    /**
+     * Answers a request that admission control shed: BUSY in the request's framing
+     * The request was not executed, so the client may safely send it again later
+     *
+     * @param request The parser holding the request
+     * @param out The buffer to append the response to (write mode)
+     * @return The buffer holding the response
+     */
+    public static ByteBuffer busy(RequestParser request, ByteBuffer out) {
+        if (request.isBinary()) {
+            return binary(request, out, BinaryProtocol.STATUS_BUSY, null);
+        }
+        return text(request, out, BUSY, null);
+    }
+
+    /**
+     * Answers a request over its client's rate limit (see RateLimiter): THROTTLED in the
+     * request's framing, without executing it
+     *
+     * @param request The parser holding the request
+     * @param out The buffer to append the response to (write mode)
+     * @return The buffer holding the response
+     */
+    public static ByteBuffer throttled(RequestParser request, ByteBuffer out) {
+        if (request.isBinary()) {
+            return binary(request, out, BinaryProtocol.STATUS_THROTTLED, null);
+        }
+        return text(request, out, THROTTLED, null);
+    }
+
+    /**
+     * Answers a request whose response does not fit the datagram it has to go out in
+     *
+     * @param request The parser holding the request
+     * @param out The buffer to append the response to (write mode)
+     * @return The buffer holding the response
+     */
+    public static ByteBuffer tooLarge(RequestParser request, ByteBuffer out) {
+        return error(request, out, ERROR_TOO_LARGE);
+    }
+
+    /**
+     * Answers a batch entry that is not a valid binary frame
+     * Batch responses are always binary, whatever the entry looked like
+     */
+    public static ByteBuffer malformedFrame(ByteBuffer out) {
+        out = ensureCapacity(out, BinaryProtocol.encodedResponseSize(MALFORMED_PAYLOAD));
+        BinaryProtocol.writeResponse(out, BinaryProtocol.STATUS_ERROR, MALFORMED_PAYLOAD);
+        return out;
+    }
+
+    static ByteBuffer put(RequestParser request, ByteBuffer in, ByteBuffer out) {
+        byte[] value = null;
+        if (request.hasValue()) {
+            // The store keeps the array, so this copy is the one allocation PUT cannot avoid
+            value = new byte[request.valueEnd() - request.valueStart()];
+            in.get(request.valueStart(), value);
+        }
+        boolean stored = KVStore.putBytes(key(request, in), value);
+        return status(request, out, stored, PUT_OK, PUT_ERROR);
+    }
+
+    static ByteBuffer get(RequestParser request, ByteBuffer in, ByteBuffer out) {
+        byte[] value = KVStore.getBytes(key(request, in));
+        if (request.isBinary()) {
+            byte status = (value != null) ? BinaryProtocol.STATUS_OK : BinaryProtocol.STATUS_NOT_FOUND;
+            return binary(request, out, status, value);
+        }
+        if (value == null) {
+            return text(request, out, GET_ERROR, null);
+        }
+        return text(request, out, GET_RESULT, value);
+    }
+
+    static ByteBuffer delete(RequestParser request, ByteBuffer in, ByteBuffer out) {
+        boolean removed = KVStore.remove(key(request, in));
+        return status(request, out, removed, DELETE_OK, DELETE_ERROR);
+    }
+
+    static ByteBuffer scan(RequestParser request, ByteBuffer in, ByteBuffer out) {
+        long cursor = parseNumber(in, request.keyStart(), request.keyEnd());
+        long count = request.hasValue() && request.valueEnd() > request.valueStart()
+                ? parseNumber(in, request.valueStart(), request.valueEnd())
+                : KVStore.DEFAULT_SCAN_COUNT;
+        if (cursor < 0 || count < 0) {
+            byte[] message = ascii("Invalid cursor or count");
+            return request.isBinary()
+                    ? binary(request, out, BinaryProtocol.STATUS_ERROR, message)
+                    : text(request, out, SCAN_ERROR, message);
+        }
+        int limit = (int) Math.min(count, KVStore.MAX_SCAN_COUNT);
+
+        // SCAN is not a hot path, so the page is collected before it is copied out
+        ByteArrayOutputStream keys = new ByteArrayOutputStream();
+        boolean binary = request.isBinary();
+        long next = KVStore.scan(cursor, limit, key -> {
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            if (binary) {
+                BinaryProtocol.writeVarint(keys, keyBytes.length);
+            } else {
+                keys.write(' ');
+            }
+            keys.writeBytes(keyBytes);
+        });
+
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        if (binary) {
+            // Unsigned 32 bit varint, see BinaryProtocol.readCursor
+            BinaryProtocol.writeVarint(payload, (int) next);
+        } else {
+            payload.writeBytes(ascii(Long.toString(next)));
+        }
+        payload.writeBytes(keys.toByteArray());
+        return binary
+                ? binary(request, out, BinaryProtocol.STATUS_OK, payload.toByteArray())
+                : text(request, out, SCAN_RESULT, payload.toByteArray());
+    }
+
+    /**
+     * HELLO <version> [name=value ...]: answers with the capabilities both ends support
+     * A handshake happens once per connection, so plain Strings are fine here
+     */
+    static ByteBuffer hello(RequestParser request, ByteBuffer in, ByteBuffer out) {
+        String offer = RequestParser.slice(in, request.keyStart(), request.hasValue() ? request.valueEnd() : request.keyEnd());
+        Capabilities client;
+        try {
+            client = Capabilities.parse(offer);
+        } catch (IllegalArgumentException e) {
+            return error(request, out, ERROR_MALFORMED);
+        }
+        byte[] agreed = ascii(SERVER_CAPABILITIES.negotiate(client).encode());
+        return text(request, out, HELLO_OK, agreed);
+    }
+
+    private static ByteBuffer status(RequestParser request, ByteBuffer out, boolean ok, byte[] okText, byte[] errorText) {
+        if (request.isBinary()) {
+            return binary(request, out, ok ? BinaryProtocol.STATUS_OK : BinaryProtocol.STATUS_NOT_FOUND, null);
+        }
+        return text(request, out, ok ? okText : errorText, null);
+    }
+
+    private static ByteBuffer error(RequestParser request, ByteBuffer out, byte[] message) {
+        if (request.isBinary()) {
+            // Binary clients get the message without the "ERROR " prefix
+            byte[] payload = new byte[message.length - 6];
+            System.arraycopy(message, 6, payload, 0, payload.length);
+            return binary(request, out, BinaryProtocol.STATUS_ERROR, payload);
+        }
+        return text(request, out, message, null);
+    }
+
+    private static ByteBuffer text(RequestParser request, ByteBuffer out, byte[] head, byte[] tail) {
+        int tailLength = (tail != null) ? tail.length : 0;
+        // "#" + up to 10 digits + ' ' for a tagged request
+        out = ensureCapacity(out, head.length + tailLength + 1 + (request.hasRequestId() ? 12 : 0));
+        if (request.hasRequestId()) {
+            out.put((byte) Protocol.REQUEST_ID_PREFIX);
+            putDecimal(out, request.requestId());
+            out.put((byte) ' ');
+        }
+        out.put(head);
+        if (tail != null) {
+            out.put(tail);
+        }
+        if (request.isLineTerminated()) {
+            out.put((byte) '\n');
+        }
+        return out;
+    }
+
+    private static ByteBuffer binary(RequestParser request, ByteBuffer out, byte status, byte[] payload) {
+        if (!request.hasRequestId()) {
+            out = ensureCapacity(out, BinaryProtocol.encodedResponseSize(payload));
+            BinaryProtocol.writeResponse(out, status, payload != null ? payload : EMPTY);
+            return out;
+        }
+        int idLength = BinaryProtocol.varintSize(request.requestId());
+        out = ensureCapacity(out, BinaryProtocol.encodedResponseSize(payload) + idLength);
+        out.put((byte) (status | BinaryProtocol.FLAG_REQUEST_ID));
+        BinaryProtocol.writeVarint(out, request.requestId());
+        int length = (payload != null) ? payload.length : 0;
+        BinaryProtocol.writeVarint(out, length);
+        if (payload != null) {
+            out.put(payload);
+        }
+        return out;
+    }
+
+    /**
+     * Writes a number as decimal digits without going through a String
+     * Shared with the RESP and memcached front ends; the caller makes room for 20 bytes
+     */
+    static void putDecimal(ByteBuffer out, long value) {
+        if (value < 0) {
+            out.put((byte) '-');
+        }
+        long divisor = 1;
+        while (Math.abs(value / divisor) >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            out.put((byte) ('0' + Math.abs((value / divisor) % 10)));
+        }
+    }
+
+    /**
+     * Renders a response written by this class as text, for logging only (this one does allocate)
+     *
+     * @param request The request the response belongs to
+     * @param out The buffer the response was written to (write mode)
+     * @param start Position in out where the response starts
+     */
+    public static String describeResponse(RequestParser request, ByteBuffer out, int start) {
+        if (request.isBinary()) {
+            return "[binary status=" + (out.get(start) & ~BinaryProtocol.FLAG_REQUEST_ID) + "]";
+        }
+        int end = out.position();
+        if (end > start && out.get(end - 1) == '\n') {
+            end--;
+        }
+        return RequestParser.slice(out, start, end);
+    }
+
+    /**
+     * Makes sure out has room for the given number of bytes
+     * A larger buffer is only allocated when a response outgrows the current one,
+     * and the caller keeps using it afterwards, so the steady state does not allocate
+     *
+     * @return out itself, or a larger buffer holding out's content
+     */
+    public static ByteBuffer ensureCapacity(ByteBuffer out, int needed) {
+        if (out.remaining() >= needed) {
+            return out;
+        }
+        int capacity = Math.max(out.capacity() * 2, out.position() + needed);
+        ByteBuffer larger = out.isDirect() ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        out.flip();
+        larger.put(out);
+        return larger;
+    }
+
+    /**
+     * Decodes the key slice; the store is keyed by String, so this is the one
+     * object every request needs, unless the parser's key cache already has it
+     */
+    private static String key(RequestParser request, ByteBuffer in) {
+        KeyCache keyCache = request.keyCache();
+        if (keyCache != null) {
+            return keyCache.key(in, request.keyStart(), request.keyEnd());
+        }
+        int length = request.keyEnd() - request.keyStart();
+        if (in.hasArray()) {
+            return new String(in.array(), in.arrayOffset() + request.keyStart(), length, StandardCharsets.UTF_8);
+        }
+        return RequestParser.slice(in, request.keyStart(), request.keyEnd());
+    }
+
+    /**
+     * Parses a non-negative decimal number from a slice without creating a String
+     * @return The number, or -1 if the slice is empty, not a number or above 2^32-1
+     */
+    private static long parseNumber(ByteBuffer in, int start, int end) {
+        if (start >= end || end - start > 10) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = in.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value <= 0xFFFFFFFFL ? value : -1;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
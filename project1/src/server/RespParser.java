@@ -0,0 +1,284 @@
+package server;
+
+import common.BinaryProtocol;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Parser for RESP2, the Redis serialization protocol, working in place on a ByteBuffer
+ *
+ * Clients send a command as an array of bulk strings:
+ *   *3\r\n$3\r\nSET\r\n$3\r\nkey\r\n$5\r\nvalue\r\n
+ * or, from telnet and redis-cli scripts, as an inline line of space separated words:
+ *   SET key value\r\n
+ *
+ * Like RequestParser it records the offsets of every argument instead of copying
+ * them, so parsing allocates nothing once the offset arrays have grown to the widest
+ * command seen on the connection. A command that is not complete yet leaves the buffer
+ * untouched and returns NEED_MORE, which is all pipelining needs.
+ *
+ * Usage:
+ *   while ((result = parser.parse(buffer)) == RespParser.REQUEST) { ... }
+ */
+public class RespParser {
+    // Results of parse()
+    public static final int REQUEST = 0;        // A complete command was parsed
+    public static final int NEED_MORE = 1;      // The buffer ends mid-command
+    public static final int PROTOCOL_ERROR = 2; // Unparseable input, see errorMessage()
+
+    // Commands recognized by command()
+    public static final int CMD_UNKNOWN = 0;
+    public static final int CMD_PING = 1;
+    public static final int CMD_GET = 2;
+    public static final int CMD_SET = 3;
+    public static final int CMD_DEL = 4;
+    public static final int CMD_MGET = 5;
+    public static final int CMD_MSET = 6;
+    public static final int CMD_INCR = 7;
+
+    // Limits protecting the server from bogus length prefixes
+    public static final int MAX_ARGS = 1024 * 1024;
+    public static final int MAX_BULK_LENGTH = BinaryProtocol.MAX_FIELD_LENGTH;
+    public static final int MAX_INLINE_LENGTH = 64 * 1024;
+
+    // Returned by readNumber() instead of a value
+    private static final long INCOMPLETE = Long.MIN_VALUE;
+    private static final long INVALID = Long.MIN_VALUE + 1;
+
+    private static final byte[] PING = ascii("ping");
+    private static final byte[] GET = ascii("get");
+    private static final byte[] SET = ascii("set");
+    private static final byte[] DEL = ascii("del");
+    private static final byte[] MGET = ascii("mget");
+    private static final byte[] MSET = ascii("mset");
+    private static final byte[] INCR = ascii("incr");
+
+    private int command;
+    private int argCount;
+    private int[] argStart = new int[8];
+    private int[] argEnd = new int[8];
+    private String errorMessage;
+    // Position right after the number read by readNumber()
+    private int numberEnd;
+
+    /**
+     * Parses the next command starting at the buffer's position
+     * On REQUEST the buffer is positioned after the command; an incomplete command
+     * is left in the buffer so it can be parsed again once more bytes arrived
+     *
+     * @param buffer Buffer in read mode (position..limit holds unparsed bytes)
+     * @return REQUEST, NEED_MORE or PROTOCOL_ERROR
+     */
+    public int parse(ByteBuffer buffer) {
+        // Empty lines and zero length arrays are no-ops, skip them
+        while (buffer.hasRemaining()) {
+            int start = buffer.position();
+            int result = (buffer.get(start) == '*') ? parseArray(buffer, start) : parseInline(buffer, start);
+            if (result != REQUEST || argCount > 0) {
+                return result;
+            }
+        }
+        return NEED_MORE;
+    }
+
+    private int parseArray(ByteBuffer buffer, int start) {
+        int limit = buffer.limit();
+        long count = readNumber(buffer, start + 1, limit);
+        if (count == INCOMPLETE) {
+            return NEED_MORE;
+        }
+        if (count == INVALID || count > MAX_ARGS) {
+            return error("Protocol error: invalid multibulk length");
+        }
+        int pos = numberEnd;
+        argCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (pos >= limit) {
+                return NEED_MORE;
+            }
+            if (buffer.get(pos) != '$') {
+                return error("Protocol error: expected '$', got '" + (char) buffer.get(pos) + "'");
+            }
+            long length = readNumber(buffer, pos + 1, limit);
+            if (length == INCOMPLETE) {
+                return NEED_MORE;
+            }
+            if (length < 0 || length > MAX_BULK_LENGTH) {
+                return error("Protocol error: invalid bulk length");
+            }
+            int dataStart = numberEnd;
+            int dataEnd = dataStart + (int) length;
+            if (dataEnd + 2 > limit) {
+                return NEED_MORE;
+            }
+            if (buffer.get(dataEnd) != '\r' || buffer.get(dataEnd + 1) != '\n') {
+                return error("Protocol error: bulk string not terminated by CRLF");
+            }
+            addArg(dataStart, dataEnd);
+            pos = dataEnd + 2;
+        }
+        buffer.position(pos);
+        command = (argCount > 0) ? matchCommand(buffer, argStart[0], argEnd[0]) : CMD_UNKNOWN;
+        return REQUEST;
+    }
+
+    private int parseInline(ByteBuffer buffer, int start) {
+        int limit = buffer.limit();
+        int newline = -1;
+        for (int i = start; i < limit; i++) {
+            if (buffer.get(i) == '\n') {
+                newline = i;
+                break;
+            }
+        }
+        if (newline < 0) {
+            return (limit - start > MAX_INLINE_LENGTH) ? error("Protocol error: too big inline request") : NEED_MORE;
+        }
+        int end = (newline > start && buffer.get(newline - 1) == '\r') ? newline - 1 : newline;
+
+        // Split on spaces; runs of spaces count as one separator
+        argCount = 0;
+        int i = start;
+        while (i < end) {
+            while (i < end && buffer.get(i) == ' ') {
+                i++;
+            }
+            int wordStart = i;
+            while (i < end && buffer.get(i) != ' ') {
+                i++;
+            }
+            if (i > wordStart) {
+                addArg(wordStart, i);
+            }
+        }
+        buffer.position(newline + 1);
+        command = (argCount > 0) ? matchCommand(buffer, argStart[0], argEnd[0]) : CMD_UNKNOWN;
+        return REQUEST;
+    }
+
+    /**
+     * Reads a decimal number terminated by CRLF, e.g. the "3" of "*3\r\n"
+     * @return The number (numberEnd is then right after the CRLF), INCOMPLETE or INVALID
+     */
+    private long readNumber(ByteBuffer buffer, int pos, int limit) {
+        boolean negative = pos < limit && buffer.get(pos) == '-';
+        if (negative) {
+            pos++;
+        }
+        long value = 0;
+        int digits = 0;
+        while (pos < limit) {
+            byte b = buffer.get(pos);
+            if (b == '\r') {
+                if (pos + 1 >= limit) {
+                    return INCOMPLETE;
+                }
+                if (buffer.get(pos + 1) != '\n' || digits == 0) {
+                    return INVALID;
+                }
+                numberEnd = pos + 2;
+                return negative ? -value : value;
+            }
+            if (b < '0' || b > '9' || ++digits > 10) {
+                return INVALID;
+            }
+            value = value * 10 + (b - '0');
+            pos++;
+        }
+        return INCOMPLETE;
+    }
+
+    private void addArg(int start, int end) {
+        if (argCount == argStart.length) {
+            argStart = Arrays.copyOf(argStart, argCount * 2);
+            argEnd = Arrays.copyOf(argEnd, argCount * 2);
+        }
+        argStart[argCount] = start;
+        argEnd[argCount] = end;
+        argCount++;
+    }
+
+    private int error(String message) {
+        errorMessage = message;
+        return PROTOCOL_ERROR;
+    }
+
+    private static int matchCommand(ByteBuffer buffer, int start, int end) {
+        switch (end - start) {
+            case 3:
+                if (matches(buffer, start, GET)) {
+                    return CMD_GET;
+                }
+                if (matches(buffer, start, SET)) {
+                    return CMD_SET;
+                }
+                return matches(buffer, start, DEL) ? CMD_DEL : CMD_UNKNOWN;
+            case 4:
+                if (matches(buffer, start, PING)) {
+                    return CMD_PING;
+                }
+                if (matches(buffer, start, MGET)) {
+                    return CMD_MGET;
+                }
+                if (matches(buffer, start, MSET)) {
+                    return CMD_MSET;
+                }
+                return matches(buffer, start, INCR) ? CMD_INCR : CMD_UNKNOWN;
+            default:
+                return CMD_UNKNOWN;
+        }
+    }
+
+    /**
+     * Case-insensitive comparison against a lower case ASCII name (see RequestParser)
+     */
+    private static boolean matches(ByteBuffer buffer, int start, byte[] lowerName) {
+        for (int i = 0; i < lowerName.length; i++) {
+            if ((buffer.get(start + i) | 0x20) != lowerName[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /** @return One of the CMD_ constants, CMD_UNKNOWN for commands this server does not support */
+    public int command() {
+        return command;
+    }
+
+    /** @return Number of arguments, including the command name itself */
+    public int argCount() {
+        return argCount;
+    }
+
+    public int argStart(int index) {
+        return argStart[index];
+    }
+
+    public int argEnd(int index) {
+        return argEnd[index];
+    }
+
+    /** @return The argument decoded as UTF-8 (allocates, used for keys) */
+    public String argString(ByteBuffer buffer, int index) {
+        return RequestParser.slice(buffer, argStart[index], argEnd[index]);
+    }
+
+    /** @return A copy of the argument bytes (used for values the store keeps) */
+    public byte[] argBytes(ByteBuffer buffer, int index) {
+        byte[] bytes = new byte[argEnd[index] - argStart[index]];
+        buffer.get(argStart[index], bytes);
+        return bytes;
+    }
+
+    /** @return Description of the last PROTOCOL_ERROR */
+    public String errorMessage() {
+        return errorMessage;
+    }
+}
@@ -0,0 +1,221 @@
+package server;
+
+import kvstore.KVBackend;
+import kvstore.LocalBackend;
+import kvstore.RMIBackend;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * RESP Server Implementation
+ * Speaks RESP2, the Redis protocol, so redis-cli, redis-benchmark and Redis client
+ * libraries can drive the key-value store unchanged
+ *
+ * Supported commands: PING, GET, SET, DEL, MGET, MSET and INCR. They run on a KVBackend,
+ * either the in-process KVStore that TCPServer and UDPServer use or one of the RMI servers.
+ * INCR needs an atomic read-modify-write, which the RMI servers do not offer, so there it
+ * is answered with an error instead of losing concurrent increments.
+ *
+ * Connections are served by ConnectionServer, parsed in place by RespParser. Like
+ * TCPServer it answers pipelined commands in order and collects their replies into a
+ * single write.
+ */
+public class RespServer extends ConnectionServer {
+    // Largest single command a connection may send
+    static final int MAX_REQUEST_SIZE = 2 * RespParser.MAX_BULK_LENGTH + 1024;
+
+    private static final byte[] OK = ascii("+OK\r\n");
+    private static final byte[] PONG = ascii("+PONG\r\n");
+    private static final byte[] NULL_BULK = ascii("$-1\r\n");
+    private static final byte[] CRLF = ascii("\r\n");
+    private static final byte[] ERROR_NOT_INTEGER = ascii("-ERR value is not an integer or out of range\r\n");
+    private static final byte[] ERROR_SYNTAX = ascii("-ERR syntax error\r\n");
+
+    private final KVBackend backend;
+
+    /**
+     * @param port The port to listen on (Redis uses 6379)
+     * @param backend Where the commands are executed
+     */
+    public RespServer(int port, KVBackend backend) {
+        super("RESP", port, MAX_REQUEST_SIZE);
+        this.backend = backend;
+    }
+
+    @Override
+    Handler newHandler() {
+        RespParser parser = new RespParser();
+        return (input, connection) -> {
+            int result;
+            while ((result = parser.parse(input)) == RespParser.REQUEST) {
+                connection.output = execute(parser, input, connection.output);
+                connection.flushIfFull();
+            }
+            if (result == RespParser.PROTOCOL_ERROR) {
+                // Like Redis: report the error, then drop the connection
+                connection.output = error(connection.output, parser.errorMessage());
+                logger.log("Client " + connection.client + " | " + parser.errorMessage());
+                return false;
+            }
+            return true;
+        };
+    }
+
+    /**
+     * Executes one parsed command and appends its reply to out
+     *
+     * @return The buffer holding the reply: out, or a larger copy if out was too small
+     */
+    ByteBuffer execute(RespParser request, ByteBuffer in, ByteBuffer out) {
+        int argc = request.argCount();
+        int start = out.position();
+        try {
+            switch (request.command()) {
+                case RespParser.CMD_PING:
+                    if (argc == 1) {
+                        return raw(out, PONG);
+                    }
+                    if (argc == 2) {
+                        return bulk(out, in, request.argStart(1), request.argEnd(1));
+                    }
+                    return wrongArguments(request, in, out);
+                case RespParser.CMD_GET:
+                    if (argc != 2) {
+                        return wrongArguments(request, in, out);
+                    }
+                    return bulk(out, backend.get(request.argString(in, 1)));
+                case RespParser.CMD_SET:
+                    if (argc < 3) {
+                        return wrongArguments(request, in, out);
+                    }
+                    if (argc > 3) {
+                        // Expiry and NX/XX options are not supported
+                        return raw(out, ERROR_SYNTAX);
+                    }
+                    backend.put(request.argString(in, 1), request.argBytes(in, 2));
+                    return raw(out, OK);
+                case RespParser.CMD_DEL:
+                    if (argc < 2) {
+                        return wrongArguments(request, in, out);
+                    }
+                    long removed = 0;
+                    for (int i = 1; i < argc; i++) {
+                        if (backend.delete(request.argString(in, i))) {
+                            removed++;
+                        }
+                    }
+                    return integer(out, removed);
+                case RespParser.CMD_MGET:
+                    if (argc < 2) {
+                        return wrongArguments(request, in, out);
+                    }
+                    out = header(out, '*', argc - 1);
+                    for (int i = 1; i < argc; i++) {
+                        out = bulk(out, backend.get(request.argString(in, i)));
+                    }
+                    return out;
+                case RespParser.CMD_MSET:
+                    if (argc < 3 || argc % 2 == 0) {
+                        return wrongArguments(request, in, out);
+                    }
+                    for (int i = 1; i < argc; i += 2) {
+                        backend.put(request.argString(in, i), request.argBytes(in, i + 1));
+                    }
+                    return raw(out, OK);
+                case RespParser.CMD_INCR:
+                    if (argc != 2) {
+                        return wrongArguments(request, in, out);
+                    }
+                    return integer(out, backend.increment(request.argString(in, 1), 1));
+                default:
+                    String name = (argc > 0) ? request.argString(in, 0) : "";
+                    return error(out, "ERR unknown command '" + name + "'");
+            }
+        } catch (NumberFormatException | ArithmeticException e) {
+            return raw(out.position(start), ERROR_NOT_INTEGER);
+        } catch (UnsupportedOperationException e) {
+            return error(out.position(start), "ERR " + e.getMessage());
+        } catch (IOException e) {
+            // Drop whatever part of an MGET reply was already written
+            return error(out.position(start), "ERR backend error: " + e.getMessage());
+        } catch (RuntimeException e) {
+            return error(out.position(start), "ERR internal server error");
+        }
+    }
+
+    private static ByteBuffer wrongArguments(RespParser request, ByteBuffer in, ByteBuffer out) {
+        return error(out, "ERR wrong number of arguments for '" + request.argString(in, 0).toLowerCase() + "' command");
+    }
+
+    private static ByteBuffer error(ByteBuffer out, String message) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        out = RequestProcessor.ensureCapacity(out, bytes.length + 3);
+        out.put((byte) '-').put(bytes).put(CRLF);
+        return out;
+    }
+
+    private static ByteBuffer integer(ByteBuffer out, long value) {
+        return header(out, ':', value);
+    }
+
+    private static ByteBuffer bulk(ByteBuffer out, byte[] value) {
+        if (value == null) {
+            return raw(out, NULL_BULK);
+        }
+        out = header(out, '$', value.length);
+        out = RequestProcessor.ensureCapacity(out, value.length + 2);
+        out.put(value).put(CRLF);
+        return out;
+    }
+
+    /**
+     * Writes a bulk string straight from a slice of the input buffer (PING message)
+     */
+    private static ByteBuffer bulk(ByteBuffer out, ByteBuffer in, int start, int end) {
+        out = header(out, '$', end - start);
+        out = RequestProcessor.ensureCapacity(out, end - start + 2);
+        out.put(out.position(), in, start, end - start);
+        out.position(out.position() + end - start);
+        out.put(CRLF);
+        return out;
+    }
+
+    /**
+     * Writes a type byte, a decimal number and CRLF, e.g. "$5\r\n" or ":42\r\n"
+     * The digits are written directly, without going through a String
+     */
+    private static ByteBuffer header(ByteBuffer out, char type, long value) {
+        // Type byte, sign, 19 digits and CRLF
+        out = RequestProcessor.ensureCapacity(out, 23);
+        out.put((byte) type);
+        RequestProcessor.putDecimal(out, value);
+        out.put(CRLF);
+        return out;
+    }
+
+    /**
+     * Entry point of the program
+     * Usage: java RespServer <port> [rmiHost rmiPort [serviceName]]
+     *
+     * Without RMI arguments the commands run on the in-process KVStore. With them they are
+     * forwarded to an RMI server, e.g. "localhost 1099" for RMIServer or
+     * "localhost 1099 KVStore0" for replica 0 of ReplicatedRMIServer.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1 && args.length != 3 && args.length != 4) {
+            System.out.println("Usage: java RespServer <port> [rmiHost rmiPort [serviceName]]");
+            return;
+        }
+        int port = Integer.parseInt(args[0]);
+        KVBackend backend;
+        if (args.length == 1) {
+            backend = new LocalBackend();
+        } else {
+            String serviceName = (args.length == 4) ? args[3] : "KVStoreService";
+            backend = new RMIBackend(args[1], Integer.parseInt(args[2]), serviceName);
+        }
+        new RespServer(port, backend).start();
+    }
+}
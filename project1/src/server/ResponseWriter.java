@@ -0,0 +1,134 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Writes the responses of one TCPServer connection, coalescing them into as few
+ * write system calls as possible
+ *
+ * Two kinds of writers share a connection: its reader, which collects the answers to a
+ * whole burst of untagged requests in its output buffer and flushes them once its input
+ * drains, and the workers answering tagged requests one by one. A worker does not write
+ * its response itself: it queues it and, unless one is pending already, schedules a flush
+ * task on the worker executor. That task runs behind the requests queued before it, so by
+ * then their responses are queued too, and it sends them all with one gathering write
+ * (GatheringByteChannel.write(ByteBuffer[])) without copying them together. The reader's
+ * flush takes whatever is queued along with its own output.
+ *
+ * A slow request does not hold anything back: the flush task only waits for the requests
+ * ahead of it to start, not for them to finish.
+ *
+ * The lock is a ReentrantLock, not a monitor: a virtual thread blocked in write() while
+ * holding a monitor would pin its carrier thread.
+ */
+final class ResponseWriter {
+    // Most queued responses sent with one gathering write (the OS limits iovecs anyway)
+    static final int MAX_GATHER = 64;
+
+    private final GatheringByteChannel channel;
+    private final Executor flusher;
+    private final LongAdder writes;
+    private final Lock lock = new ReentrantLock();
+    // Finished tagged responses in read mode, waiting for the socket
+    private final Queue<ByteBuffer> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    // Reused for every gathering write, only touched while holding the lock
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER + 1];
+
+    /**
+     * @param channel The connection, in blocking mode
+     * @param flusher Runs the flush tasks; the executor the tagged requests run on
+     * @param writes Counts every write system call
+     */
+    ResponseWriter(GatheringByteChannel channel, Executor flusher, LongAdder writes) {
+        this.channel = channel;
+        this.flusher = flusher;
+        this.writes = writes;
+    }
+
+    /**
+     * Sends the reader's collected responses, plus any queued ones, and empties output
+     * Waits for the socket if a flush task is writing
+     *
+     * @param output Responses in write mode (0..position)
+     */
+    void flush(ByteBuffer output) throws IOException {
+        if (output.position() == 0 && pending.isEmpty()) {
+            return;
+        }
+        lock.lock();
+        try {
+            output.flip();
+            write(output);
+            output.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues a worker's response for the next flush
+     *
+     * @param response The response in read mode; the caller must not touch it afterwards
+     */
+    void send(ByteBuffer response) {
+        pending.add(response);
+        if (flushScheduled.compareAndSet(false, true)) {
+            flusher.execute(this::flushPending);
+        }
+    }
+
+    private void flushPending() {
+        // Cleared first: a response queued from here on schedules the next flush
+        flushScheduled.set(false);
+        lock.lock();
+        try {
+            write(null);
+        } catch (IOException e) {
+            // The reader sees the broken connection too and closes it
+            pending.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the queued responses and the given buffer with gathering writes until both are
+     * empty; only called while holding the lock
+     */
+    private void write(ByteBuffer output) throws IOException {
+        do {
+            int count = 0;
+            ByteBuffer next;
+            while (count < MAX_GATHER && (next = pending.poll()) != null) {
+                gather[count++] = next;
+            }
+            if (output != null && output.hasRemaining()) {
+                gather[count++] = output;
+                output = null;
+            }
+            if (count == 0) {
+                return;
+            }
+            try {
+                // A blocking channel may still write only part of a large gather
+                while (gather[count - 1].hasRemaining()) {
+                    channel.write(gather, 0, count);
+                    writes.increment();
+                }
+            } finally {
+                Arrays.fill(gather, 0, count, null);
+            }
+        } while (!pending.isEmpty());
+    }
+}
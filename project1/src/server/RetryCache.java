@@ -0,0 +1,117 @@
+package server;
+
+import java.net.InetAddress;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Responses to recent tagged UDP requests, so a request the client resends because
+ * the answer got lost is answered again instead of executed again
+ *
+ * Entries are keyed by client address, port and request ID. They expire after a fixed
+ * time, and beyond the capacity the oldest are dropped, so memory stays bounded no
+ * matter how many requests clients send. The time to live only has to outlast the
+ * client's retries (UDPClient gives up after a few seconds).
+ *
+ * Not thread safe: its only user is one UDPServer receive loop, or in staged mode one
+ * thread of the execute stage.
+ */
+class RetryCache {
+    static final int DEFAULT_CAPACITY = 10_000;
+    static final long DEFAULT_TTL_MILLIS = 30_000;
+
+    private final int capacity;
+    private final long ttlNanos;
+    // Insertion order is also expiry order, so expired entries are always at the head
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+            return size() > capacity;
+        }
+    };
+    private long hits;
+
+    RetryCache() {
+        this(DEFAULT_CAPACITY, DEFAULT_TTL_MILLIS);
+    }
+
+    /**
+     * @param capacity Most responses kept
+     * @param ttlMillis How long a response is kept
+     */
+    RetryCache(int capacity, long ttlMillis) {
+        this.capacity = capacity;
+        this.ttlNanos = ttlMillis * 1_000_000;
+    }
+
+    /**
+     * @param now System.nanoTime()
+     * @return The response sent for this request before, or null if it is new (or expired)
+     */
+    byte[] get(InetAddress address, int port, int requestId, long now) {
+        Entry entry = entries.get(new Key(address, port, requestId));
+        if (entry == null || now - entry.created > ttlNanos) {
+            return null;
+        }
+        hits++;
+        return entry.response;
+    }
+
+    /**
+     * Remembers the response to a request and drops the entries that expired
+     *
+     * @param now System.nanoTime()
+     */
+    void put(InetAddress address, int port, int requestId, byte[] response, long now) {
+        Iterator<Entry> oldest = entries.values().iterator();
+        while (oldest.hasNext() && now - oldest.next().created > ttlNanos) {
+            oldest.remove();
+        }
+        Key key = new Key(address, port, requestId);
+        // Removed first so a reused key moves to the tail, keeping the expiry order
+        entries.remove(key);
+        entries.put(key, new Entry(response, now));
+    }
+
+    /** @return Number of requests answered from the cache */
+    long hits() {
+        return hits;
+    }
+
+    private static final class Key {
+        private final InetAddress address;
+        private final int port;
+        private final int requestId;
+
+        Key(InetAddress address, int port, int requestId) {
+            this.address = address;
+            this.port = port;
+            this.requestId = requestId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return requestId == other.requestId && port == other.port && address.equals(other.address);
+        }
+
+        @Override
+        public int hashCode() {
+            return (address.hashCode() * 31 + port) * 31 + requestId;
+        }
+    }
+
+    private static final class Entry {
+        private final byte[] response;
+        private final long created;
+
+        Entry(byte[] response, long created) {
+            this.response = response;
+            this.created = created;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package server;
+
+import common.Logger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * One stage of a staged (SEDA) request pipeline: bounded queues and the threads that drain them
+ *
+ * A server split into stages (decode, execute, send, log) connects them with queues, so
+ * a stage that stalls, e.g. logging to a slow terminal, only backs up its own queue
+ * instead of adding its delay to every request. Each stage has its own thread count and
+ * measures itself: queue depth, time tasks waited in the queue, time the handler took and
+ * how busy its threads were. The stage whose queue grows and whose threads are busiest
+ * is the bottleneck, and is the one to give more threads.
+ *
+ * Every thread drains its own queue. put(task) spreads tasks round-robin; put(task, key)
+ * sends all tasks with the same key to the same thread, so they run one at a time and
+ * in order (UDPServer keys its execute stage by client, for its retry caches).
+ *
+ * put() blocks while the queue is full, which pushes back on the stage before; offer()
+ * drops the task instead, for work that may be skipped under load, like log lines.
+ *
+ * A handler that throws is counted as failed and the task goes to the stage's onFailure
+ * callback, so a task that belongs to a pool, like UDPServer's packets, is not lost.
+ */
+public final class Stage<T extends Stage.Task> {
+    /**
+     * Something passed from stage to stage; remembers when it was queued
+     */
+    public abstract static class Task {
+        long queuedAt;
+    }
+
+    /**
+     * What a stage does with each task; passes it on to the next stage when done
+     */
+    @FunctionalInterface
+    public interface Handler<T> {
+        /**
+         * @param task The task taken off the queue
+         * @param thread Index of the stage thread running it (0 .. threads - 1), for per-thread state
+         */
+        void handle(T task, int thread);
+    }
+
+    private final String name;
+    private final ArrayBlockingQueue<T>[] queues;
+    private final Handler<T> handler;
+    private final Consumer<? super T> onFailure;
+    private final Thread[] threads;
+    private final Logger logger;
+    private final AtomicInteger next = new AtomicInteger();
+
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder serviceNanos = new LongAdder();
+    private final LongAccumulator maxLatencyNanos = new LongAccumulator(Math::max, 0);
+    private final LongAccumulator maxDepth = new LongAccumulator(Math::max, 0);
+    private volatile long startedAt;
+
+    /**
+     * @param name Name of the stage, also of its threads
+     * @param threadCount Threads draining the stage
+     * @param capacity Tasks each thread's queue holds
+     * @param handler What the stage does with each task
+     */
+    public Stage(String name, int threadCount, int capacity, Handler<T> handler) {
+        this(name, threadCount, capacity, handler, task -> { });
+    }
+
+    /**
+     * @param name Name of the stage, also of its threads
+     * @param threadCount Threads draining the stage
+     * @param capacity Tasks each thread's queue holds
+     * @param handler What the stage does with each task
+     * @param onFailure Gets the task after the handler threw on it
+     */
+    @SuppressWarnings("unchecked")
+    public Stage(String name, int threadCount, int capacity, Handler<T> handler, Consumer<? super T> onFailure) {
+        if (threadCount < 1 || capacity < 1) {
+            throw new IllegalArgumentException("Invalid stage " + name + ": " + threadCount + " threads, capacity " + capacity);
+        }
+        this.name = name;
+        this.handler = handler;
+        this.onFailure = onFailure;
+        this.logger = new Logger(Stage.class);
+        this.queues = (ArrayBlockingQueue<T>[]) new ArrayBlockingQueue<?>[threadCount];
+        this.threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            int index = i;
+            queues[i] = new ArrayBlockingQueue<>(capacity);
+            threads[i] = new Thread(() -> run(index), name + "-" + i);
+            threads[i].setDaemon(true);
+        }
+    }
+
+    /**
+     * Starts the stage's threads
+     */
+    public void start() {
+        startedAt = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops the stage's threads; tasks still queued are not run
+     */
+    public void stop() {
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Queues a task for the next thread in turn, waiting while its queue is full
+     */
+    public void put(T task) throws InterruptedException {
+        put(task, next.getAndIncrement());
+    }
+
+    /**
+     * Queues a task for the thread the key maps to, waiting while its queue is full
+     * Tasks with the same key are run by the same thread, in the order they were queued
+     */
+    public void put(T task, int key) throws InterruptedException {
+        ArrayBlockingQueue<T> queue = queues[Math.floorMod(key, queues.length)];
+        task.queuedAt = System.nanoTime();
+        queue.put(task);
+        maxDepth.accumulate(queue.size());
+    }
+
+    /**
+     * Queues a task for the next thread in turn, unless its queue is full
+     *
+     * @return false if the task was dropped (counted as rejected)
+     */
+    public boolean offer(T task) {
+        ArrayBlockingQueue<T> queue = queues[Math.floorMod(next.getAndIncrement(), queues.length)];
+        task.queuedAt = System.nanoTime();
+        if (!queue.offer(task)) {
+            rejected.increment();
+            return false;
+        }
+        maxDepth.accumulate(queue.size());
+        return true;
+    }
+
+    private void run(int index) {
+        ArrayBlockingQueue<T> queue = queues[index];
+        try {
+            while (true) {
+                T task = queue.take();
+                long start = System.nanoTime();
+                long waited = start - task.queuedAt;
+                try {
+                    handler.handle(task, index);
+                } catch (RuntimeException e) {
+                    failed.increment();
+                    logger.log("Stage " + name + " failed on a task: " + e);
+                    onFailure.accept(task);
+                }
+                long service = System.nanoTime() - start;
+                processed.increment();
+                waitNanos.add(waited);
+                serviceNanos.add(service);
+                maxLatencyNanos.accumulate(waited + service);
+            }
+        } catch (InterruptedException e) {
+            // stop()
+        }
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /** @return Tasks queued right now, over all threads */
+    public int queueDepth() {
+        int depth = 0;
+        for (ArrayBlockingQueue<T> queue : queues) {
+            depth += queue.size();
+        }
+        return depth;
+    }
+
+    /** @return Most tasks one thread's queue has held at once */
+    public long maxQueueDepth() {
+        return maxDepth.get();
+    }
+
+    /** @return Tasks run so far */
+    public long processed() {
+        return processed.sum();
+    }
+
+    /** @return Tasks offer() dropped because the queue was full */
+    public long rejected() {
+        return rejected.sum();
+    }
+
+    /** @return Mean time a task waited in the queue, in microseconds */
+    public double meanWaitMicros() {
+        long count = processed.sum();
+        return (count == 0) ? 0 : waitNanos.sum() / 1000.0 / count;
+    }
+
+    /** @return Mean time the handler took per task, in microseconds */
+    public double meanServiceMicros() {
+        long count = processed.sum();
+        return (count == 0) ? 0 : serviceNanos.sum() / 1000.0 / count;
+    }
+
+    /** @return Longest time from queueing to done, in microseconds */
+    public double maxLatencyMicros() {
+        return maxLatencyNanos.get() / 1000.0;
+    }
+
+    /** @return Share of the stage threads' time spent in the handler since start(), 0 to 1 */
+    public double utilization() {
+        long elapsed = System.nanoTime() - startedAt;
+        return (startedAt == 0 || elapsed <= 0) ? 0 : serviceNanos.sum() / (double) elapsed / threads.length;
+    }
+
+    /**
+     * Summarizes the stage: threads, queue depth (now and most), tasks run, mean wait and
+     * service time, longest latency, busy share and dropped or failed tasks
+     */
+    public String stats() {
+        return String.format("%s: threads=%d depth=%d (max %d) n=%d wait=%.1fus service=%.1fus max=%.1fus busy=%.0f%%%s%s",
+                name, threads.length, queueDepth(), maxQueueDepth(), processed(),
+                meanWaitMicros(), meanServiceMicros(), maxLatencyMicros(), 100 * utilization(),
+                rejected() > 0 ? " rejected=" + rejected() : "",
+                failed.sum() > 0 ? " failed=" + failed.sum() : "");
+    }
+}
@@ -1,132 +1,575 @@
 package server; //
 
+import common.BinaryProtocol;
 import common.Logger;
 import common.Protocol;
-import kvstore.KVStore;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * TCP Server Implementation
  * A simple key-value store server that supports PUT, GET, and DELETE operations
  * This server demonstrates basic socket programming concepts for beginners
+ *
+ * By default connections are handled one after the other on the accept thread.
+ * In virtual thread mode every connection gets its own virtual thread instead, running
+ * the very same blocking code: a virtual thread blocked in a socket read gives its
+ * carrier thread back, so thousands of connections need only a few carrier threads.
+ * That only holds as long as nothing blocks while holding a monitor (which pins the
+ * carrier in Java 21), so socket writes are guarded by a ReentrantLock, not synchronized
+ * (see ResponseWriter, which also coalesces concurrent responses into one write).
+ * The store's ConcurrentHashMap only holds its bin monitors for the in-memory update
+ * itself, never across I/O, so those short pins are harmless.
+ *
+ * Admission control (see AdmissionControl) keeps a spike from queueing work without bound:
+ * a connection beyond the limit gets a BUSY line and is closed, a request beyond the
+ * server-wide in-flight limit is answered BUSY right away, and a tagged request that sat
+ * in the worker queue of an overloaded server too long is answered BUSY instead of run.
+ * Shed counts are logged every STATS_INTERVAL_SECONDS while the server is shedding.
+ *
+ * Clients on the same host can connect over a Unix domain socket instead (startUnix):
+ * same protocol, same handler and the same store, but no loopback TCP stack in between
+ * (no checksums, segmentation, acknowledgements or Nagle), so a round trip is cheaper.
+ *
+ * A connection holds its thread and buffers for as long as the client keeps it open, and
+ * in blocking mode an idle client even keeps everyone else out. With idleTimeout() an
+ * IdleReaper closes connections that sent nothing for that long, and keepAlive() has the
+ * kernel probe silent connections, so one whose client vanished is reset sooner.
  */
 public class TCPServer {
+    // Initial size of the per-connection input and output buffers
+    static final int BUFFER_SIZE = 8 * 1024;
+    // Largest single request a connection may send (two maximal fields plus framing)
+    static final int MAX_REQUEST_SIZE = 2 * BinaryProtocol.MAX_FIELD_LENGTH + 16;
+    // Pending responses are written out once they reach this size, even mid-pipeline
+    static final int FLUSH_THRESHOLD = 64 * 1024;
+    // Tagged requests a single connection may have executing at once; reading pauses beyond that
+    static final int MAX_IN_FLIGHT = 256;
+    // How often the admission counters are logged, if anything was shed meanwhile
+    static final long STATS_INTERVAL_SECONDS = 10;
+
+    // Sent to a connection refused for being over the connection limit
+    private static final byte[] BUSY_LINE = (Protocol.BUSY + "\n").getBytes(StandardCharsets.US_ASCII);
+
     // The port number that the server will listen on
     private final int port;
     // HashMap to store our key-value pairs in memory
     private final HashMap<String, String> store = new HashMap<>();
     private final Logger logger;
+    // Executes requests that carry a request ID, so a slow one doesn't hold up the rest
+    private final ExecutorService workers;
+    // One virtual thread per connection, or null to handle connections on the accept thread
+    private final ExecutorService connections;
+    private final AdmissionControl admission;
+    // Socket writes over all connections, to see how well responses are coalesced
+    private final LongAdder socketWrites = new LongAdder();
+    private final CommandDispatcher dispatcher = new CommandDispatcher();
+    // Closes idle connections, or null to keep them open
+    private IdleReaper idleReaper;
+    // Applied to every accepted TCP connection, or null for the system default (off)
+    private KeepAlive keepAlive;
 
     public TCPServer(int port) {
+        this(port, false);
+    }
+
+    /**
+     * @param port The port to listen on
+     * @param virtualThreads true to serve every connection (and tagged request) on its own virtual thread
+     */
+    public TCPServer(int port, boolean virtualThreads) {
+        this(port, virtualThreads, new AdmissionControl());
+    }
+
+    /**
+     * @param port The port to listen on
+     * @param virtualThreads true to serve every connection (and tagged request) on its own virtual thread
+     * @param admission Connection and request limits
+     */
+    public TCPServer(int port, boolean virtualThreads, AdmissionControl admission) {
         this.port = port;
+        this.admission = admission;
         this.logger = new Logger(TCPServer.class);
+        if (virtualThreads) {
+            this.connections = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("tcp-connection-", 0).factory());
+            this.workers = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("tcp-worker-", 0).factory());
+        } else {
+            this.connections = null;
+            this.workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+                Thread thread = new Thread(r, "tcp-worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /** @return The admission control, for its shed counters */
+    public AdmissionControl admission() {
+        return admission;
+    }
+
+    /**
+     * @return The dispatcher every request is executed through, to add interceptors to;
+     *         interceptors see a connection's address (a String) as its client
+     */
+    public CommandDispatcher dispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Closes connections that sent nothing for the timeout; must be called before start()
+     *
+     * @param millis How long a connection may stay quiet
+     * @return this, to start it
+     */
+    public TCPServer idleTimeout(long millis) {
+        idleReaper = new IdleReaper(millis);
+        return this;
+    }
+
+    /**
+     * Enables TCP keepalive on accepted connections; must be called before start()
+     *
+     * @return this, to start it
+     */
+    public TCPServer keepAlive(KeepAlive keepAlive) {
+        this.keepAlive = keepAlive;
+        return this;
+    }
+
+    /** @return The idle reaper, for its open/idle/reaped gauges; null without an idle timeout */
+    public IdleReaper idleReaper() {
+        return idleReaper;
+    }
+
+    /** @return Writes to client sockets so far; each is one write system call */
+    public long socketWrites() {
+        return socketWrites.sum();
     }
 
     /**
      * Main server method that starts the TCP server
-     * 1. Creates a ServerSocket to listen on the specified port
+     * 1. Creates a ServerSocketChannel to listen on the specified port (blocking mode:
+     *    the channels are only there for their gathering writes)
      * 2. Continuously accepts client connections in an infinite loop
      * 3. Handles each client connection in a separate method
      */
     public void start() {
-        // try-with-resources ensures ServerSocket is properly closed after use
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
+        ScheduledExecutorService statsLogger = startStatsLogger();
+        // try-with-resources ensures the server channel is properly closed after use
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            serverChannel.bind(new InetSocketAddress(port));
             logger.log("Server started on port " + port);
-            // Main server loop: continuously accept new client connections
-            while (true) {
-                // accept() blocks until a client connects
-                Socket clientSocket = serverSocket.accept();
-                // Handle the connected client
-                handleClient(clientSocket);
-            }
+            acceptLoop(serverChannel);
         } catch (IOException e) {
             logger.log("Server error: " + e.getMessage());
+        } finally {
+            statsLogger.shutdownNow();
+            if (idleReaper != null) {
+                idleReaper.stop();
+            }
         }
     }
 
     /**
-     * Handles an individual client connection
-     * 1. Sets up input/output streams for communication
-     * 2. Reads requests and sends responses in a loop
-     * 3. Continues until client disconnects or an error occurs
-     */
-    private void handleClient(Socket clientSocket) {
-        try (
-                // Create a BufferedReader to read data from the client
-                BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-                // Create a PrintWriter to send data to the client (autoFlush=true)
-                PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true)
-        ) {
-            String request;
-            // Keep reading client requests until the connection is closed
-            while ((request = in.readLine()) != null) {
-                // Process the request and get the response
-                String response = processRequest(request);
-                // Send the response back to the client
-                out.println(response);
-                // Log the interaction for debugging/monitoring
-                logger.log("Client " + clientSocket.getInetAddress() + ":" + clientSocket.getPort() +
-                        " | Request: " + request + " | Response: " + response);
+     * Serves clients on the same host over a Unix domain socket at path
+     * Runs the accept loop on the calling thread, like start(); call both from two threads
+     * to serve TCP and local clients from one store. A socket file left behind by a
+     * server that did not shut down cleanly is replaced, and the file is removed on exit.
+     * Anything else at the path, or a socket a server still listens on, is left alone
+     * and the listener does not start.
+     *
+     * @param path Where to create the socket file
+     */
+    public void startUnix(Path path) {
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            deleteStaleSocket(path);
+            serverChannel.bind(UnixDomainSocketAddress.of(path));
+            logger.log("Server started on Unix socket " + path);
+            try {
+                acceptLoop(serverChannel);
+            } finally {
+                Files.deleteIfExists(path);
             }
         } catch (IOException e) {
-            logger.log("Client handling error: " + e.getMessage());
+            logger.log("Server error: " + e.getMessage());
         }
     }
 
     /**
-     * Processes client requests and returns appropriate responses
-     * Supported operations:
-     * - PUT key value: Store a key-value pair
-     * - GET key: Retrieve the value for a given key
-     * - DELETE key: Remove a key-value pair
+     * Deletes the socket file at path if nobody accepts connections on it any more
      *
-     * Request format: <OPERATION> <KEY> [VALUE]
-     * Response format varies by operation (see switch cases below)
+     * @throws IOException if the path holds something other than a socket, or a live one
+     */
+    private static void deleteStaleSocket(Path path) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        if (!isSocket(path, attributes)) {
+            throw new FileAlreadyExistsException(path.toString(), null, "not a socket");
+        }
+        SocketChannel probe;
+        try {
+            probe = SocketChannel.open(UnixDomainSocketAddress.of(path));
+        } catch (ConnectException e) {
+            // Refused: the server that created it is gone
+            Files.delete(path);
+            return;
+        }
+        probe.close();
+        throw new BindException("A server is listening on " + path);
+    }
+
+    private static boolean isSocket(Path path, BasicFileAttributes attributes) throws IOException {
+        try {
+            int mode = (Integer) Files.getAttribute(path, "unix:mode", LinkOption.NOFOLLOW_LINKS);
+            // S_IFMT and S_IFSOCK
+            return (mode & 0170000) == 0140000;
+        } catch (UnsupportedOperationException e) {
+            // No file type bits on this platform; a socket is neither file, directory nor link
+            return attributes.isOther();
+        }
+    }
+
+    /**
+     * Main server loop: continuously accept new client connections
+     */
+    private void acceptLoop(ServerSocketChannel serverChannel) throws IOException {
+        if (idleReaper != null) {
+            idleReaper.start();
+        }
+        while (true) {
+            // accept() blocks until a client connects
+            SocketChannel clientSocket = serverChannel.accept();
+            if (!admission.admitConnection()) {
+                reject(clientSocket);
+                continue;
+            }
+            if (keepAlive != null) {
+                try {
+                    keepAlive.apply(clientSocket);
+                } catch (IOException e) {
+                    logger.log("Failed to enable keepalive: " + e.getMessage());
+                }
+            }
+            // Handle the connected client
+            if (connections != null) {
+                connections.execute(() -> serve(clientSocket));
+            } else {
+                serve(clientSocket);
+            }
+        }
+    }
+
+    private void serve(SocketChannel clientSocket) {
+        try {
+            handleClient(clientSocket);
+        } finally {
+            admission.connectionClosed();
+        }
+    }
+
+    /**
+     * Turns away a connection over the limit with a BUSY line, so the client fails fast
+     * instead of waiting in the accept backlog
      */
-    private String processRequest(String request) {
-        // Split the request string into parts by whitespace
-        String[] parts = request.split(" ");
-        // Check if request has at least operation and key
-        if (parts.length < 2) return "ERROR Malformed request";
+    private void reject(SocketChannel clientSocket) {
+        String client = describe(clientSocket);
+        try (SocketChannel channel = clientSocket) {
+            channel.write(ByteBuffer.wrap(BUSY_LINE));
+        } catch (IOException e) {
+            // The client is gone already
+        }
+        logger.log("Connection from " + client + " refused: server busy");
+    }
 
-        String operation = parts[0];
-        String key = parts[1];
-        String value = (parts.length > 2) ? parts[2] : null;
+    /**
+     * Client address for the log: host and port for TCP
+     * A Unix domain socket client is normally unnamed, so it is shown by the server's path.
+     * Works on either kind of channel, unlike channel.socket(), which only TCP channels have.
+     */
+    static String describe(SocketChannel channel) {
+        try {
+            SocketAddress remote = channel.getRemoteAddress();
+            if (remote instanceof InetSocketAddress inet) {
+                return inet.getAddress() + ":" + inet.getPort();
+            }
+            return "unix:" + channel.getLocalAddress();
+        } catch (IOException e) {
+            return "closed";
+        }
+    }
 
+    /**
+     * Logs the admission counters periodically, but only when something was shed since last time,
+     * and the connection gauges when idle connections were reaped
+     */
+    private ScheduledExecutorService startStatsLogger() {
+        ScheduledExecutorService statsLogger = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "tcp-stats");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long[] lastShed = new long[2];
+        statsLogger.scheduleAtFixedRate(() -> {
+            long shed = admission.shedConnections() + admission.shedRequests();
+            if (shed != lastShed[0]) {
+                lastShed[0] = shed;
+                logger.log("Admission: " + admission.stats());
+            }
+            if (idleReaper != null && idleReaper.reapedConnections() != lastShed[1]) {
+                lastShed[1] = idleReaper.reapedConnections();
+                logger.log("Connections: " + idleReaper.stats());
+            }
+        }, STATS_INTERVAL_SECONDS, STATS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        return statsLogger;
+    }
 
-        // Handle different operations
+    /**
+     * Handles an individual client connection
+     * 1. Reads whatever bytes arrived into a reusable input buffer
+     * 2. Parses every complete request in place (text lines or binary frames)
+     * 3. Executes them in order, collecting the responses in the output buffer
+     * 4. Sends all collected responses with a single write once no more input is waiting
+     *    (or once they reach FLUSH_THRESHOLD)
+     * 5. Continues until client disconnects or an error occurs
+     *
+     * Pipelining: a client may send many requests without waiting for the answers.
+     * They are all answered in order, and a burst of N requests costs one write
+     * instead of N, so throughput is no longer bound by one round trip per request.
+     *
+     * Multiplexing: requests carrying a request ID are handed to the worker pool and
+     * answered as soon as they finish, possibly out of order. The connection's
+     * ResponseWriter keeps responses from interleaving mid-frame, and sends the ones
+     * that finish close together in one gathering write.
+     *
+     * With an idle timeout the connection is registered with the IdleReaper and touched
+     * on every read; when the reaper closes it the blocked read fails and the loop ends.
+     */
+    private void handleClient(SocketChannel channel) {
+        String client = describe(channel);
+        IdleReaper.Handle idle = (idleReaper != null) ? idleReaper.register(channel) : null;
         try {
-            switch (operation.toUpperCase()) {
-                case Protocol.PUT:
-                    return KVStore.put(key, value);
-                case Protocol.GET:
-                    return KVStore.get(key);
-                case Protocol.DELETE:
-                    return KVStore.delete(key);
-                default:
-                    return "ERROR Invalid operation";
+            // Only asked how many bytes are waiting; reads go through the channel
+            InputStream in = Channels.newInputStream(channel);
+            // Per-connection state, reused for every request on this connection
+            RequestParser parser = new RequestParser();
+            ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE);
+            ByteBuffer output = ByteBuffer.allocate(BUFFER_SIZE);
+            Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+            ResponseWriter writer = new ResponseWriter(channel, workers, socketWrites);
+
+            boolean open = true;
+            while (open) {
+                boolean endOfInput = channel.read(input) < 0;
+                if (idle != null) {
+                    idle.touch();
+                }
+
+                // Switch to read mode, handle every complete request, keep the partial rest
+                input.flip();
+                int result;
+                while ((result = parser.parse(input, endOfInput)) != RequestParser.NEED_MORE) {
+                    int responseStart = output.position();
+                    if (result != RequestParser.REQUEST) {
+                        output = RequestProcessor.malformed(parser, output);
+                    } else if (!admission.admitRequest()) {
+                        output = RequestProcessor.busy(parser, output);
+                    } else if (parser.hasRequestId()) {
+                        dispatch(client, writer, copyRequest(parser, input), inFlight);
+                        continue;
+                    } else {
+                        try {
+                            output = dispatcher.dispatch(client, parser, input, output);
+                        } finally {
+                            admission.requestDone();
+                        }
+                    }
+                    // Log the interaction for debugging/monitoring
+                    if (logger.isEnabled()) {
+                        logger.log("Client " + client +
+                                " | Request: " + parser.describe(input) +
+                                " | Response: " + RequestProcessor.describeResponse(parser, output, responseStart));
+                    }
+                    if (result == RequestParser.INVALID_FRAME) {
+                        // A corrupt binary frame leaves no way to find the next request
+                        open = false;
+                        break;
+                    }
+                    // Don't let a long pipeline grow the output buffer without bound
+                    if (output.position() >= FLUSH_THRESHOLD) {
+                        writer.flush(output);
+                    }
+                }
+                input.compact();
+
+                // Send the responses back to the client, unless more pipelined requests
+                // are already waiting; their answers then go out in the same write
+                if (!open || endOfInput || in.available() == 0) {
+                    writer.flush(output);
+                }
+
+                if (endOfInput) {
+                    open = false;
+                } else if (!input.hasRemaining()) {
+                    // A single request is larger than the buffer
+                    if (input.capacity() >= MAX_REQUEST_SIZE) {
+                        logger.log("Request too large from " + client);
+                        open = false;
+                    } else {
+                        input = RequestProcessor.ensureCapacity(input, input.capacity());
+                    }
+                }
+            }
+            // Let tagged requests still executing answer before the socket closes
+            inFlight.acquireUninterruptibly(MAX_IN_FLIGHT);
+            writer.flush(output);
+        } catch (IOException e) {
+            if (idle != null && idle.wasReaped()) {
+                logger.log("Client " + client + " | Closed after idle timeout");
+            } else {
+                logger.log("Client handling error: " + e.getMessage());
+            }
+        } finally {
+            if (idle != null) {
+                idle.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.log("Failed to close connection: " + e.getMessage());
             }
-        } catch (Exception e) {
-            logger.log("Error processing request: " + e.getMessage());
-            return "ERROR Internal server error";
         }
     }
 
+    /**
+     * Copies the request the parser just returned out of the input buffer,
+     * which is compacted and reused while the worker is still running
+     */
+    private static ByteBuffer copyRequest(RequestParser parser, ByteBuffer input) {
+        byte[] copy = new byte[input.position() - parser.requestStart()];
+        input.get(parser.requestStart(), copy);
+        return ByteBuffer.wrap(copy);
+    }
+
+    /**
+     * Executes a tagged request on the worker pool and queues its response for the next flush
+     * Blocks the connection's reader once MAX_IN_FLIGHT requests are pending.
+     * The request was admitted already; if it waits too long in an overloaded queue it is
+     * answered BUSY when a worker gets to it.
+     */
+    private void dispatch(String client, ResponseWriter writer, ByteBuffer request, Semaphore inFlight) {
+        inFlight.acquireUninterruptibly();
+        long enqueued = System.nanoTime();
+        workers.execute(() -> {
+            try {
+                RequestParser parser = new RequestParser();
+                parser.parse(request, true);
+                ByteBuffer output = admission.shedOnDequeue(enqueued)
+                        ? RequestProcessor.busy(parser, ByteBuffer.allocate(256))
+                        : dispatcher.dispatch(client, parser, request, ByteBuffer.allocate(256));
+                if (logger.isEnabled()) {
+                    logger.log("Client " + client +
+                            " | Request: " + parser.describe(request) +
+                            " | Response: " + RequestProcessor.describeResponse(parser, output, 0));
+                }
+                writer.send(output.flip());
+            } finally {
+                inFlight.release();
+                admission.requestDone();
+            }
+        });
+    }
 
     /**
      * Entry point of the program
-     * Usage: java TCPServer <port>
+     * Usage: java TCPServer <port> [blocking|nio [loops]|virtual [carriers]|unix <path>] [idle=<seconds>]
+     *
+     * blocking (the default) handles one connection at a time; nio spreads the connections
+     * over loops selector threads (see NioTCPServer, default: one per core); virtual gives
+     * each connection a virtual thread, run by carriers platform threads (default: one per core);
+     * unix serves the Unix domain socket at path next to the TCP port, in virtual thread mode.
+     * idle=<seconds> closes connections quiet for that long and enables TCP keepalive
+     * (KeepAlive.DEFAULT) in any mode.
+     *
+     * Pinned carriers show up with -Djdk.tracePinnedThreads=full, which prints a stack
+     * trace whenever a virtual thread blocks while pinned, or as jdk.VirtualThreadPinned
+     * events in a Flight Recorder recording (-XX:StartFlightRecording).
      */
     public static void main(String[] args) {
         // Verify command line arguments
-        if (args.length != 1) {
-            System.out.println("Usage: java TCPServer <port>");
+        long idleMillis = 0;
+        if (args.length > 1 && args[args.length - 1].startsWith("idle=")) {
+            idleMillis = 1000 * Long.parseLong(args[args.length - 1].substring("idle=".length()));
+            args = Arrays.copyOf(args, args.length - 1);
+        }
+        if (args.length < 1 || args.length > 3) {
+            System.out.println("Usage: java TCPServer <port> [blocking|nio [loops]|virtual [carriers]|unix <path>] [idle=<seconds>]");
             return;
         }
         int port = Integer.parseInt(args[0]);
-        new TCPServer(port).start();
+        String mode = (args.length > 1) ? args[1] : "blocking";
+        switch (mode) {
+            case "blocking":
+                withIdleTimeout(new TCPServer(port), idleMillis).start();
+                break;
+            case "nio":
+                int loops = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+                NioTCPServer nioServer = new NioTCPServer(port, loops);
+                if (idleMillis > 0) {
+                    nioServer.idleTimeout(idleMillis).keepAlive(KeepAlive.DEFAULT);
+                }
+                nioServer.start();
+                break;
+            case "virtual":
+                if (args.length > 2) {
+                    // Read when the first virtual thread starts, so it must be set before that
+                    System.setProperty("jdk.virtualThreadScheduler.parallelism", args[2]);
+                }
+                withIdleTimeout(new TCPServer(port, true), idleMillis).start();
+                break;
+            case "unix":
+                if (args.length < 3) {
+                    System.out.println("Missing socket path for unix mode");
+                    return;
+                }
+                TCPServer server = withIdleTimeout(new TCPServer(port, true), idleMillis);
+                Path path = Path.of(args[2]);
+                Thread unixListener = new Thread(() -> server.startUnix(path), "unix-listener");
+                unixListener.setDaemon(true);
+                unixListener.start();
+                server.start();
+                break;
+            default:
+                System.out.println("Unknown mode: " + mode + " (expected blocking, nio, virtual or unix)");
+        }
+    }
+
+    private static TCPServer withIdleTimeout(TCPServer server, long idleMillis) {
+        return (idleMillis > 0) ? server.idleTimeout(idleMillis).keepAlive(KeepAlive.DEFAULT) : server;
     }
 }
\ No newline at end of file
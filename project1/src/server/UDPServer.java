@@ -1,12 +1,26 @@
 package server;
 
+import common.BinaryProtocol;
+import common.BufferPool;
 import common.Logger;
-import common.Protocol;
-import kvstore.KVStore;
 
 import java.io.IOException;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 
@@ -16,144 +30,750 @@ import java.util.HashMap;
  *
  * Key Differences from TCP Server:
  * 1. UDP is connectionless - no need to maintain persistent connections
- * 2. Uses DatagramSocket instead of ServerSocket
- * 3. Communicates using packets (DatagramPacket) instead of streams
+ * 2. Uses DatagramChannel instead of ServerSocketChannel
+ * 3. Communicates using datagrams instead of streams
  * 4. No guarantee of delivery or order of messages
+ *
+ * The packet loop allocates nothing in the steady state: each socket receives into and
+ * sends from direct buffers taken from a BufferPool, the request is parsed in place, the
+ * response is written into the reused output buffer, and the parser's KeyCache supplies
+ * the key String of a key seen before. What is left is inherent to the request: the value
+ * a PUT stores and the retry cache entry of a tagged request. Requests are not logged
+ * one by one unless logRequests() asks for it (single-socket mode only); the log line
+ * would cost more than serving the datagram.
+ *
+ * A datagram holds either one request or, starting with BinaryProtocol.OP_BATCH,
+ * a batch of binary request frames that is answered by one batch response datagram.
+ * That response is kept to MAX_RESPONSE_SIZE: an entry whose answer would not fit any
+ * more is answered with an error instead.
+ *
+ * Responses to requests carrying a request ID are kept in a RetryCache for a while.
+ * A client whose answer got lost resends the request with the same ID and gets the
+ * cached response, so retried writes are never applied twice.
+ *
+ * Multi-socket mode: one socket drained by one thread tops out at one core. With
+ * several sockets, N DatagramChannels are bound to the same port with SO_REUSEPORT
+ * and each is drained by its own thread. The kernel hashes every flow (client address
+ * and port) to one of the sockets, so a client always talks to the same socket and
+ * its retries find their response in that socket's retry cache. Each socket keeps
+ * packet and drop counters (see stats()) and never logs single requests.
+ *
+ * All requests go through the one receive loop of their socket, so a client that
+ * floods the server delays everybody else's requests. With a RateLimiter each client
+ * (address and port) gets its own token bucket per operation type, and requests beyond
+ * it are answered THROTTLED without being executed. The check is a map lookup and a
+ * compare-and-set, and allocates nothing for a known client.
+ *
+ * Requests are executed through the server's CommandDispatcher, so interceptors (e.g.
+ * CommandMetrics) can be added with dispatcher(). The rate limit is checked after the
+ * retry cache and before the dispatcher executes the request: a retransmission answered
+ * from the cache costs no token, and a THROTTLED answer is never cached for a retry.
+ *
+ * Staged mode (staged()): by default a socket's thread does everything for a datagram,
+ * so a slow step, e.g. the logRequests() line when System.out stalls, delays every
+ * request behind it. Staged, the socket threads only receive, and decode, execute, send
+ * and log are stages with their own threads, connected by bounded queues (see Stage).
+ * Each stage reports its queue depth, wait and service time and how busy it is, so the
+ * bottleneck shows, and each can be given threads of its own.
  */
 public class UDPServer {
+    // How often the counters are logged, in multi-socket mode or with a rate limiter
+    static final long STATS_INTERVAL_SECONDS = 10;
+    // Large enough for any datagram, so a batch is never cut off
+    static final int BUFFER_SIZE = 64 * 1024;
+    // Largest UDP payload over IPv4, a batch response is kept within it
+    static final int MAX_RESPONSE_SIZE = 65_507;
+    // Room a batch response keeps for each entry not answered yet: an error frame with a request ID
+    private static final int BATCH_ENTRY_RESERVE = 32;
+    // Keys remembered per socket, see KeyCache
+    static final int KEY_CACHE_SLOTS = 4096;
+    // Staged mode: packets in the pipeline at once, and log lines waiting at most
+    static final int PIPELINE_PACKETS = 128;
+    static final int LOG_CAPACITY = PIPELINE_PACKETS / 4;
+
+    // Receive and send buffers, shared by all servers in the JVM
+    private static final BufferPool BUFFERS = new BufferPool(BUFFER_SIZE, 64);
+
     private final int port;
+    private final int socketCount;
     private final HashMap<String, String> store = new HashMap<>();
     private final Logger logger;
+    // Per-client limits, or null for none
+    private final RateLimiter rateLimiter;
+    private final CommandDispatcher dispatcher = new CommandDispatcher();
+    // Staged mode, or null when each socket's thread does everything
+    private Pipeline pipeline;
+    // Whether a single-socket server logs every request, see logRequests()
+    private boolean logRequests;
 
-    private DatagramSocket socket;
+    // One per socket, created by start()
+    private volatile SocketWorker[] workers = new SocketWorker[0];
+    // Throttled count at the last logStats(), only touched by the stats thread
+    private long lastThrottled;
 
     public UDPServer(int port) {
+        this(port, 1);
+    }
+
+    /**
+     * @param port The port to listen on
+     * @param socketCount Number of sockets (and threads) sharing the port; above 1 needs SO_REUSEPORT
+     */
+    public UDPServer(int port, int socketCount) {
+        this(port, socketCount, null);
+    }
+
+    /**
+     * @param port The port to listen on
+     * @param socketCount Number of sockets (and threads) sharing the port; above 1 needs SO_REUSEPORT
+     * @param rateLimiter Per-client limits, or null to execute every request
+     */
+    public UDPServer(int port, int socketCount, RateLimiter rateLimiter) {
+        if (socketCount < 1) {
+            throw new IllegalArgumentException("At least one socket is needed: " + socketCount);
+        }
         this.port = port;
+        this.socketCount = socketCount;
+        this.rateLimiter = rateLimiter;
         this.logger = new Logger(UDPServer.class);
     }
 
+    /** @return The dispatcher every request is executed through, to add interceptors to */
+    public CommandDispatcher dispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Switches to staged mode; must be called before start()
+     *
+     * @param decodeThreads Threads parsing datagrams
+     * @param executeThreads Threads executing requests; a client's requests always run on the same one
+     * @param sendThreads Threads sending responses
+     * @return this, to start it
+     */
+    public UDPServer staged(int decodeThreads, int executeThreads, int sendThreads) {
+        pipeline = new Pipeline(decodeThreads, executeThreads, sendThreads);
+        return this;
+    }
+
+    /**
+     * Logs every request and its response; must be called before start()
+     * Only a single-socket server does, with or without staged mode.
+     *
+     * @return this, to start it
+     */
+    public UDPServer logRequests() {
+        logRequests = true;
+        return this;
+    }
+
+    /** @return The pipeline's stages in order, for their counters; empty unless staged */
+    public List<Stage<?>> stages() {
+        return (pipeline != null) ? pipeline.stages() : List.of();
+    }
+
+    /** @return The per-client limits, for their counters; null if there are none */
+    public RateLimiter rateLimiter() {
+        return rateLimiter;
+    }
+
     /**
      * Starts the UDP server and begins listening for incoming packets
-     * 1. Creates a DatagramSocket bound to the specified port
+     * 1. Creates a DatagramChannel bound to the specified port (or several, see above)
      * 2. Continuously receives and processes UDP packets
-     * 3. Uses a buffer to store incoming packet data
+     * 3. Uses a pooled direct buffer to store incoming packet data
+     *
+     * The first socket is drained on the calling thread, any others on their own threads.
      */
 
     public void start() {
+        SocketWorker[] started = new SocketWorker[socketCount];
+        ScheduledExecutorService statsLogger = null;
         try {
-            socket = new DatagramSocket(port);
-            logger.log("Server started on port " + port);
-            byte[] buffer = new byte[1024];
+            if (socketCount == 1) {
+                started[0] = new SocketWorker(0, open(false), logRequests);
+            } else {
+                for (int i = 0; i < socketCount; i++) {
+                    started[i] = new SocketWorker(i, open(true), false);
+                }
+            }
+            workers = started;
+            logger.log("Server started on port " + port + (socketCount > 1 ? " with " + socketCount + " sockets" : "")
+                    + (pipeline != null ? " (staged)" : ""));
+            if (pipeline != null) {
+                pipeline.start();
+            }
 
-            while (true) {
-                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-                socket.receive(packet); // Blocks until data received
-                handlePacket(packet);
+            for (int i = 1; i < socketCount; i++) {
+                Thread thread = new Thread(started[i], "udp-socket-" + i);
+                thread.setDaemon(true);
+                thread.start();
+            }
+            if (socketCount > 1 || rateLimiter != null || pipeline != null) {
+                statsLogger = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread thread = new Thread(r, "udp-stats");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                statsLogger.scheduleAtFixedRate(this::logStats,
+                        STATS_INTERVAL_SECONDS, STATS_INTERVAL_SECONDS, TimeUnit.SECONDS);
             }
+            started[0].run();
         } catch (IOException e) {
             logger.log("Server error: " + e.getMessage());
         } finally {
-            if (socket != null && !socket.isClosed()) {
-                socket.close();
+            if (statsLogger != null) {
+                statsLogger.shutdownNow();
+            }
+            if (pipeline != null) {
+                pipeline.stop();
+            }
+            for (SocketWorker worker : started) {
+                if (worker != null) {
+                    worker.close();
+                }
             }
         }
     }
 
     /**
-     * Handles a single UDP packet
-     * 1. Extracts client address and port from packet
-     * 2. Converts packet data to string
-     * 3. Processes request and sends response
-     *
-     * Note: Unlike TCP, we need to explicitly track client address/port
-     * for each packet since UDP is connectionless
+     * Logs the counters in multi-socket mode; in single-socket mode only the stages' and
+     * the rate limiter's, the latter only when something was throttled
      */
-     private void handlePacket(DatagramPacket packet) throws IOException {
+    private void logStats() {
+        if (socketCount > 1) {
+            logger.log(stats());
+            return;
+        }
+        if (pipeline != null) {
+            logger.log("Stages: " + stageStats());
+        }
+        if (rateLimiter == null) {
+            return;
+        }
+        long throttled = rateLimiter.throttled();
+        if (throttled != lastThrottled) {
+            lastThrottled = throttled;
+            logger.log("Rate limits: " + rateLimiter.stats());
+        }
+    }
 
-         // get the client's address and port from the packet
-         // these are needed to send response back to the correct client
-         InetAddress clientAddress = packet.getAddress();
-         int clientPort = packet.getPort();
+    /**
+     * Opens a blocking channel on the server port
+     * @param reusePort Whether to set SO_REUSEPORT, which lets several channels bind the port
+     */
+    private DatagramChannel open(boolean reusePort) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            if (reusePort) {
+                if (!channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                    throw new IOException("SO_REUSEPORT is not supported on this platform");
+                }
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            channel.bind(new InetSocketAddress(port));
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
 
+    /** @return Datagrams received so far, per socket */
+    public long[] receivedCounts() {
+        SocketWorker[] current = workers;
+        long[] counts = new long[current.length];
+        for (int i = 0; i < current.length; i++) {
+            counts[i] = current[i].received.get();
+        }
+        return counts;
+    }
 
-         // Convert received bytes to string
-         // Note: only convert the actual data length, not the entire buffer
-         String request = new String(packet.getData(), 0, packet.getLength());
+    /** @return Responses that could not be sent, per socket */
+    public long[] droppedCounts() {
+        SocketWorker[] current = workers;
+        long[] counts = new long[current.length];
+        for (int i = 0; i < current.length; i++) {
+            counts[i] = current[i].dropped.get();
+        }
+        return counts;
+    }
 
-         //process the request(think about how to respond)
-         String response = processRequest(request);
+    /**
+     * Summarizes the per-socket counters, plus the datagrams the kernel dropped because
+     * a socket's receive buffer was full (from /proc/net/udp, Linux only)
+     */
+    public String stats() {
+        StringBuilder sb = new StringBuilder("Stats for port ").append(port).append(':');
+        long[] received = receivedCounts();
+        long[] dropped = droppedCounts();
+        for (int i = 0; i < received.length; i++) {
+            sb.append(" socket ").append(i).append(" received=").append(received[i])
+                    .append(" dropped=").append(dropped[i]).append(';');
+        }
+        List<Long> kernelDrops = kernelDrops(port);
+        if (!kernelDrops.isEmpty()) {
+            sb.append(" kernel drops per socket=").append(kernelDrops);
+        }
+        if (rateLimiter != null) {
+            sb.append(" rate limits: ").append(rateLimiter.stats());
+        }
+        if (pipeline != null) {
+            sb.append(" stages: ").append(stageStats());
+        }
+        return sb.toString();
+    }
 
-         // Convert response string to bytes for sending
-         byte[] responseData = response.getBytes();
+    /** @return Every stage's stats, in pipeline order */
+    public String stageStats() {
+        StringBuilder sb = new StringBuilder();
+        for (Stage<?> stage : stages()) {
+            sb.append(sb.length() > 0 ? "; " : "").append(stage.stats());
+        }
+        return sb.toString();
+    }
 
-         try {
-             // Create response packet addressed to the client
-             DatagramPacket responsePacket = new DatagramPacket(
-                     responseData,          // The data to send
-                     responseData.length,   // Length of the data
-                     clientAddress,         // Client's IP address
-                     clientPort            // Client's port number
-             );
+    /**
+     * Reads the drop counter of every UDP socket bound to the port from /proc/net/udp(6)
+     * The kernel does not say which line is which of our sockets, only that each is one
+     *
+     * @return One count per socket, or an empty list where /proc/net is not available
+     */
+    static List<Long> kernelDrops(int port) {
+        List<Long> drops = new ArrayList<>();
+        String localPort = String.format(Locale.ROOT, ":%04X", port);
+        for (String table : new String[]{"/proc/net/udp", "/proc/net/udp6"}) {
+            Path path = Paths.get(table);
+            if (!Files.isReadable(path)) {
+                continue;
+            }
+            try {
+                for (String line : Files.readAllLines(path, StandardCharsets.US_ASCII)) {
+                    String[] fields = line.trim().split("\\s+");
+                    // sl local_address rem_address st ... drops (the last column)
+                    if (fields.length > 2 && fields[1].endsWith(localPort)) {
+                        drops.add(Long.parseLong(fields[fields.length - 1]));
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                // Counters are best effort
+            }
+        }
+        return drops;
+    }
 
-             // Send the response packet
-             socket.send(responsePacket);
+    /**
+     * One datagram and what is needed to answer it: the request parsed in place, the
+     * response and the socket it came in on. Inline, each socket reuses a single Packet;
+     * in staged mode a fixed set of them goes round from stage to stage
+     */
+    private static final class Packet extends Stage.Task {
+        final RequestParser parser = new RequestParser();
+        // Both from BUFFERS, given back by release()
+        final ByteBuffer input = BUFFERS.acquire();
+        ByteBuffer output = BUFFERS.acquire();
+        SocketWorker worker;
+        InetSocketAddress client;
+        // Whether the datagram is a batch, and how many requests it held once executed
+        boolean batch;
+        int batchSize;
 
-             // Log the interaction
-             logger.log("Client " + clientAddress + ":" + clientPort +
-                     " | Request: " + request + " | Response: " + response);
-         } catch (IOException e) {
-             logger.log("Failed to send response: " + e.getMessage());
-         }
-     }
+        void release() {
+            BUFFERS.release(input);
+            BUFFERS.release(output);
+        }
+    }
 
     /**
-     * Process client requests - same as TCP server
-     * Supports PUT, GET, DELETE operations on key-value store
+     * Decodes a received datagram: a single request is parsed in place, a batch is only
+     * recognized, its frames are parsed as they are executed
+     *
+     * @return true if there is something to execute, false if output already holds the
+     *         malformed error to send
      */
-    private String processRequest(String request) {
-        // Split the request string into parts by whitespace
-        String[] parts = request.split(" ");
-        // Check if request has at least operation and key
-        if (parts.length < 2) return "ERROR Malformed request";
+    private static boolean decode(Packet packet) {
+        ByteBuffer input = packet.input;
+        packet.output.clear();
+        packet.batchSize = 0;
+        packet.batch = input.hasRemaining() && BinaryProtocol.isBatch(input.get(0));
+        // A datagram is complete by definition, so a text line needs no trailing newline
+        if (packet.batch || packet.parser.parseDatagram(input) == RequestParser.REQUEST) {
+            return true;
+        }
+        packet.output = RequestProcessor.malformed(packet.parser, packet.output);
+        return false;
+    }
+
+    /**
+     * Executes the decoded request or batch, leaving the response in output
+     * @param retryCache The retry cache of the thread executing it
+     */
+    private void execute(Packet packet, RetryCache retryCache) {
+        if (packet.batch) {
+            packet.batchSize = processBatch(packet, retryCache);
+        } else {
+            execute(packet, packet.parser, retryCache);
+        }
+    }
 
-        String operation = parts[0];
-        String key = parts[1];
-        String value = (parts.length > 2) ? parts[2] : null;
+    /**
+     * Executes a batch datagram: [OP_BATCH][varint count][count request frames]
+     * Every frame is answered in order into one response datagram of the same shape, with
+     * the request ID of a tagged batch. Once a frame cannot be parsed the rest of the batch
+     * cannot be found either, so it and every frame after it are answered with a malformed
+     * error. An answer that would leave the response too little room for the entries after
+     * it (BATCH_ENTRY_RESERVE each) within MAX_RESPONSE_SIZE is replaced by a too large
+     * error; writes answer with a bare status, so only reads are ever replaced.
+     *
+     * @return The number of requests answered, or 0 if the batch header was invalid
+     *         (then output holds a single malformed error frame)
+     */
+    private int processBatch(Packet packet, RetryCache retryCache) {
+        ByteBuffer input = packet.input;
+        RequestParser parser = packet.parser;
+        byte header = input.get(0);
+        input.position(1);
+        int requestId = -1;
+        int count;
+        try {
+            if ((header & BinaryProtocol.FLAG_REQUEST_ID) != 0) {
+                requestId = BinaryProtocol.readVarint(input);
+            }
+            count = BinaryProtocol.readVarint(input);
+        } catch (RuntimeException e) {
+            count = 0;
+        }
+        if (count < 1 || count > BinaryProtocol.MAX_BATCH) {
+            packet.output = RequestProcessor.malformedFrame(packet.output);
+            return 0;
+        }
+        packet.output.put(header);
+        if (requestId >= 0) {
+            BinaryProtocol.writeVarint(packet.output, requestId);
+        }
+        BinaryProtocol.writeVarint(packet.output, count);
+        boolean intact = true;
+        for (int i = 0; i < count; i++) {
+            intact = intact && input.hasRemaining()
+                    && BinaryProtocol.isBinary(input.get(input.position()))
+                    && parser.parse(input, true) == RequestParser.REQUEST;
+            if (intact) {
+                int start = packet.output.position();
+                execute(packet, parser, retryCache);
+                if (packet.output.position() + (count - 1 - i) * BATCH_ENTRY_RESERVE > MAX_RESPONSE_SIZE) {
+                    packet.output.position(start);
+                    packet.output = RequestProcessor.tooLarge(parser, packet.output);
+                }
+            } else {
+                packet.output = RequestProcessor.malformedFrame(packet.output);
+            }
+        }
+        return count;
+    }
 
+    /**
+     * Executes the parsed request through the dispatcher and appends its response to output
+     * A tagged request seen before is not executed again: it gets the response it got the
+     * first time, straight from the retry cache, whatever its client's rate limit. Any
+     * other request over the limit is answered THROTTLED instead; every entry of a batch
+     * counts, and only requests that are executed use up tokens.
+     */
+    private void execute(Packet packet, RequestParser parser, RetryCache retryCache) {
+        InetSocketAddress client = packet.client;
+        long now = System.nanoTime();
+        if (parser.hasRequestId()) {
+            byte[] cached = retryCache.get(client.getAddress(), client.getPort(), parser.requestId(), now);
+            if (cached != null) {
+                packet.output = RequestProcessor.ensureCapacity(packet.output, cached.length);
+                packet.output.put(cached);
+                if (packet.worker.verbose && logger.isEnabled()) {
+                    logger.log("Client " + client.getAddress() + ":" + client.getPort() +
+                            " | Retransmitted request #" + parser.requestId() + " answered from cache" +
+                            " (" + retryCache.hits() + " so far)");
+                }
+                return;
+            }
+        }
+        if (rateLimiter != null && !rateLimiter.tryAcquire(client, parser.opcode(), now)) {
+            packet.output = RequestProcessor.throttled(parser, packet.output);
+            return;
+        }
+        if (!parser.hasRequestId()) {
+            packet.output = dispatcher.dispatch(client, parser, packet.input, packet.output);
+            return;
+        }
+        InetAddress clientAddress = client.getAddress();
+        int clientPort = client.getPort();
+        ByteBuffer output = packet.output;
+        int start = output.position();
+        output = dispatcher.dispatch(client, parser, packet.input, output);
+        byte[] response = new byte[output.position() - start];
+        output.get(start, response);
+        retryCache.put(clientAddress, clientPort, parser.requestId(), response, now);
+        packet.output = output;
+    }
 
-        // Handle different operations
+    /**
+     * Sends the response straight from the output buffer, back to the socket the request
+     * came in on; output keeps its content for logRequest()
+     *
+     * @return false if it could not be sent
+     */
+    private boolean send(Packet packet) {
+        ByteBuffer output = packet.output;
+        int length = output.position();
+        output.flip();
         try {
-            switch (operation.toUpperCase()) {
-                case Protocol.PUT:
-                    return KVStore.put(key, value);
-                case Protocol.GET:
-                    return KVStore.get(key);
-                case Protocol.DELETE:
-                    return KVStore.delete(key);
-                default:
-                    return "ERROR Invalid operation";
+            packet.worker.channel.send(output, packet.client);
+            return true;
+        } catch (IOException e) {
+            packet.worker.dropped.incrementAndGet();
+            logger.log("Failed to send response: " + e.getMessage());
+            return false;
+        } finally {
+            output.position(length);
+        }
+    }
+
+    /**
+     * Logs the interaction
+     */
+    private void logRequest(Packet packet) {
+        InetSocketAddress client = packet.client;
+        if (packet.batchSize > 0) {
+            logger.log("Client " + client.getAddress() + ":" + client.getPort() +
+                    " | Request: [batch of " + packet.batchSize + "]" +
+                    " | Response: [batch of " + packet.batchSize + "]");
+        } else {
+            logger.log("Client " + client.getAddress() + ":" + client.getPort() +
+                    " | Request: " + packet.parser.describe(packet.input) +
+                    " | Response: " + RequestProcessor.describeResponse(packet.parser, packet.output, 0));
+        }
+    }
+
+    /**
+     * One socket and everything needed to drain it
+     * Inline, one Packet is reused for every datagram: each socket has a single receiving
+     * thread, so one parser, one receive buffer and one response buffer are enough. In
+     * staged mode the socket's thread only receives, into packets from the pipeline
+     */
+    private final class SocketWorker implements Runnable {
+        private final int index;
+        private final DatagramChannel channel;
+        // Per-request log lines, only in single-socket mode with logRequests()
+        private final boolean verbose;
+        private final Packet packet = new Packet();
+        // Per socket: the kernel keeps sending a client's datagrams to the same socket
+        private final RetryCache retryCache = new RetryCache();
+        private final AtomicLong received = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+
+        SocketWorker(int index, DatagramChannel channel, boolean verbose) {
+            this.index = index;
+            this.channel = channel;
+            this.verbose = verbose;
+            packet.worker = this;
+            packet.parser.useKeyCache(KEY_CACHE_SLOTS);
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (pipeline != null) {
+                    receiveInto(pipeline);
+                    return;
+                }
+                while (true) {
+                    packet.input.clear();
+                    // Blocks until data received; the channel reuses the sender address
+                    // object while the same client keeps sending
+                    packet.client = (InetSocketAddress) channel.receive(packet.input);
+                    received.incrementAndGet();
+                    packet.input.flip();
+                    handlePacket();
+                }
+            } catch (IOException e) {
+                logger.log("Server error on socket " + index + ": " + e.getMessage());
+            }
+        }
+
+        /**
+         * The staged receive loop: takes a free packet (waiting while all are in the
+         * pipeline), receives into it and hands it to the decode stage
+         */
+        private void receiveInto(Pipeline pipeline) throws IOException {
+            try {
+                while (true) {
+                    Packet next = pipeline.free.take();
+                    next.worker = this;
+                    next.input.clear();
+                    next.client = (InetSocketAddress) channel.receive(next.input);
+                    received.incrementAndGet();
+                    next.input.flip();
+                    pipeline.decode.put(next);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.log("Failed to close socket " + index + ": " + e.getMessage());
+            }
+            packet.release();
+        }
+
+        /**
+         * Handles a single UDP packet
+         * 1. Parses the request in place in the receive buffer (text line or binary frame)
+         * 2. Processes request and sends response
+         * 3. Logs the interaction
+         *
+         * Note: Unlike TCP, we need to explicitly track client address/port
+         * for each packet since UDP is connectionless
+         */
+        private void handlePacket() {
+            if (decode(packet)) {
+                execute(packet, retryCache);
+            }
+            if (send(packet) && verbose && logger.isEnabled()) {
+                logRequest(packet);
             }
-        } catch (Exception e) {
-            logger.log("Processing error: " + e.getMessage());
-            return "ERROR Internal server error";
         }
     }
 
+    /**
+     * Staged mode: each socket's thread only receives, and decoding, execution, sending and
+     * logging are stages with their own threads and queues (see Stage)
+     *
+     * A fixed set of packets goes round: the receive loops take free ones, the last stage
+     * gives them back, so memory is bounded and a full pipeline pushes back on the receive
+     * loops (the socket buffers then hold or drop new datagrams). The execute stage is keyed
+     * by client, so a client's requests run one at a time on one thread, which keeps that
+     * thread's retry cache in charge of the client's retries like a socket's is inline.
+     * Logging only gets what its queue holds; when it falls behind, lines are dropped and
+     * counted instead of delaying requests. Packets do not use a KeyCache, so the key
+     * String is allocated per request.
+     */
+    private final class Pipeline {
+        final ArrayBlockingQueue<Packet> free = new ArrayBlockingQueue<>(PIPELINE_PACKETS);
+        final Stage<Packet> decode;
+        final Stage<Packet> execute;
+        final Stage<Packet> send;
+        final Stage<Packet> log;
+        // One per execute thread
+        final RetryCache[] retryCaches;
+
+        Pipeline(int decodeThreads, int executeThreads, int sendThreads) {
+            for (int i = 0; i < PIPELINE_PACKETS; i++) {
+                free.add(new Packet());
+            }
+            retryCaches = new RetryCache[executeThreads];
+            for (int i = 0; i < executeThreads; i++) {
+                retryCaches[i] = new RetryCache();
+            }
+            // Built back to front, each stage hands its packets to the next one; a stage
+            // whose handler throws returns the packet to free, unanswered
+            log = new Stage<>("log", 1, LOG_CAPACITY, (packet, thread) -> {
+                logRequest(packet);
+                free.add(packet);
+            }, free::add);
+            send = new Stage<>("send", sendThreads, PIPELINE_PACKETS, (packet, thread) -> {
+                if (!(UDPServer.this.send(packet) && packet.worker.verbose && logger.isEnabled() && log.offer(packet))) {
+                    free.add(packet);
+                }
+            }, free::add);
+            execute = new Stage<>("execute", executeThreads, PIPELINE_PACKETS, (packet, thread) -> {
+                UDPServer.this.execute(packet, retryCaches[thread]);
+                forward(send, packet, packet.client.hashCode());
+            }, free::add);
+            decode = new Stage<>("decode", decodeThreads, PIPELINE_PACKETS, (packet, thread) -> {
+                if (UDPServer.decode(packet)) {
+                    forward(execute, packet, packet.client.hashCode());
+                } else {
+                    forward(send, packet, packet.client.hashCode());
+                }
+            }, free::add);
+        }
+
+        /**
+         * Queues the packet for the next stage, keyed by client so that a client's responses
+         * also leave in order; there are never more packets than a queue holds, so this only
+         * waits if the stage is being stopped
+         */
+        private void forward(Stage<Packet> stage, Packet packet, int key) {
+            try {
+                stage.put(packet, key);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        List<Stage<?>> stages() {
+            return List.of(decode, execute, send, log);
+        }
+
+        void start() {
+            for (Stage<?> stage : stages()) {
+                stage.start();
+            }
+        }
+
+        void stop() {
+            for (Stage<?> stage : stages()) {
+                stage.stop();
+            }
+            Packet packet;
+            while ((packet = free.poll()) != null) {
+                packet.release();
+            }
+        }
+    }
 
     /**
      * Entry point of the program
-     * Usage: java UDPServer <port>
+     * Usage: java UDPServer <port> [sockets] [rate [burst]]
+     *        java UDPServer <port> staged [decodeThreads executeThreads sendThreads]
+     *
+     * With sockets above 1 that many SO_REUSEPORT sockets share the port,
+     * e.g. one per core: java UDPServer 8081 8
+     * With a rate each client may send that many requests per second of each operation
+     * type, in bursts of up to burst requests (default: one second's worth).
+     * Staged runs one socket through decode, execute, send and log stages (default: one
+     * thread each), e.g. java UDPServer 8081 staged 1 4 1
+     * -Dkvstore.logRequests=true logs every request of a single-socket server.
      */
     public static void main(String[] args) {
-        if (args.length != 1) {
-            System.out.println("Usage: java UDPServer <port>");
+        if (args.length < 1 || args.length > 5 || (args.length > 4 && !"staged".equals(args[1]))) {
+            System.out.println("Usage: java UDPServer <port> [sockets] [rate [burst]]");
+            System.out.println("       java UDPServer <port> staged [decodeThreads executeThreads sendThreads]");
             return;
         }
         int port = Integer.parseInt(args[0]);
-        new UDPServer(port).start();
+        UDPServer server;
+        if (args.length > 1 && "staged".equals(args[1])) {
+            int decodeThreads = (args.length > 2) ? Integer.parseInt(args[2]) : 1;
+            int executeThreads = (args.length > 3) ? Integer.parseInt(args[3]) : 1;
+            int sendThreads = (args.length > 4) ? Integer.parseInt(args[4]) : 1;
+            server = new UDPServer(port).staged(decodeThreads, executeThreads, sendThreads);
+        } else {
+            int sockets = (args.length > 1) ? Integer.parseInt(args[1]) : 1;
+            RateLimiter rateLimiter = null;
+            if (args.length > 2) {
+                double rate = Double.parseDouble(args[2]);
+                int burst = (args.length > 3) ? Integer.parseInt(args[3]) : (int) Math.max(1, Math.ceil(rate));
+                rateLimiter = new RateLimiter(rate, burst);
+            }
+            server = new UDPServer(port, sockets, rateLimiter);
+        }
+        if (Boolean.getBoolean("kvstore.logRequests")) {
+            server.logRequests();
+        }
+        server.start();
     }
 
 
 }
-
-
@@ -0,0 +1,175 @@
+package test;
+
+import common.Logger;
+import common.Protocol;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Many-connections benchmark
+ * Opens a crowd of idle connections to a TCP server, then lets a crowd of active
+ * connections send PUT/GET requests for a fixed time and reports how many of them
+ * got served and the total throughput
+ *
+ * Run it once per server mode, e.g. against
+ *   java server.TCPServer 8080           (blocking, one connection at a time)
+ *   java server.TCPServer 8081 nio       (selector)
+ * The blocking server serves the first connection until it disconnects, so behind
+ * an idle one nobody gets an answer; the point is how the other modes compare.
+ */
+public class ConnectionBenchmark {
+    // Connect and per-read timeout; a server that does not answer in time counts as not serving
+    private static final int TIMEOUT_MILLIS = 2000;
+    private static final int CONNECT_THREADS = 200;
+
+    private final Logger logger;
+    private final String host;
+    private final int port;
+
+    public ConnectionBenchmark(String host, int port) {
+        this.logger = new Logger(ConnectionBenchmark.class);
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * @param idle Connections that are opened and then just kept open
+     * @param active Connections that send requests, one thread each
+     * @param seconds How long the active connections run
+     * @return Requests per second over all active connections
+     */
+    public double run(int idle, int active, int seconds) throws InterruptedException {
+        // Connected in parallel: a server that stops accepting makes every connect wait for its timeout
+        List<Socket> idleSockets = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger idleFailed = new AtomicInteger();
+        ExecutorService connectors = Executors.newFixedThreadPool(CONNECT_THREADS);
+        for (int i = 0; i < idle; i++) {
+            connectors.execute(() -> {
+                try {
+                    idleSockets.add(connect());
+                } catch (IOException e) {
+                    idleFailed.incrementAndGet();
+                }
+            });
+        }
+        connectors.shutdown();
+        connectors.awaitTermination(1, TimeUnit.HOURS);
+        logger.log("Idle connections open: " + idleSockets.size() + " (failed: " + idleFailed.get() + ")");
+
+        AtomicLong requests = new AtomicLong();
+        AtomicInteger served = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        CountDownLatch ready = new CountDownLatch(active);
+        CountDownLatch go = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(active);
+        long[] deadline = new long[1];
+
+        for (int i = 0; i < active; i++) {
+            final int client = i;
+            Thread thread = new Thread(() -> {
+                boolean connected = false;
+                try (Socket socket = connect()) {
+                    OutputStream out = socket.getOutputStream();
+                    BufferedReader in = new BufferedReader(
+                            new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                    byte[] put = (Protocol.createRequest(Protocol.PUT, "conn" + client, "value") + "\n")
+                            .getBytes(StandardCharsets.UTF_8);
+                    byte[] get = (Protocol.createRequest(Protocol.GET, "conn" + client, null) + "\n")
+                            .getBytes(StandardCharsets.UTF_8);
+                    connected = true;
+                    ready.countDown();
+                    go.await();
+                    long count = 0;
+                    while (System.nanoTime() < deadline[0]) {
+                        out.write(count % 2 == 0 ? put : get);
+                        out.flush();
+                        if (in.readLine() == null) {
+                            throw new IOException("Connection closed by server");
+                        }
+                        count++;
+                    }
+                    requests.addAndGet(count);
+                    if (count > 0) {
+                        served.incrementAndGet();
+                    }
+                } catch (IOException e) {
+                    // Refused, timed out connecting, or connected but never answered
+                    failed.incrementAndGet();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    if (!connected) {
+                        ready.countDown();
+                    }
+                    done.countDown();
+                }
+            }, "bench-client-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        ready.await();
+        long start = System.nanoTime();
+        deadline[0] = start + seconds * 1_000_000_000L;
+        go.countDown();
+        done.await();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        logger.log(String.format("Active connections served: %d of %d (failed: %d)", served.get(), active, failed.get()));
+        logger.log(String.format("Requests: %d in %.1fs = %.0f req/s", requests.get(), elapsed, requests.get() / elapsed));
+
+        for (Socket socket : idleSockets) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // closing anyway
+            }
+        }
+        return requests.get() / elapsed;
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), TIMEOUT_MILLIS);
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(TIMEOUT_MILLIS);
+            return socket;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 2 || args.length > 5) {
+            System.out.println("Usage: java test.ConnectionBenchmark <host> <port> [idle] [active] [seconds]");
+            return;
+        }
+
+        String host = args[0];
+        int port = Integer.parseInt(args[1]);
+
+        // Default: 1000 idle and 1000 active connections for 10 seconds
+        int idle = (args.length > 2) ? Integer.parseInt(args[2]) : 1000;
+        int active = (args.length > 3) ? Integer.parseInt(args[3]) : 1000;
+        int seconds = (args.length > 4) ? Integer.parseInt(args[4]) : 10;
+
+        new ConnectionBenchmark(host, port).run(idle, active, seconds);
+    }
+}
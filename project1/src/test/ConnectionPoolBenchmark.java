@@ -0,0 +1,132 @@
+package test;
+
+import client.TCPClient;
+import common.Logger;
+import common.Protocol;
+import server.TCPServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Throughput benchmark: TCPClient with a connection per request against a pooled TCPClient
+ * Starts a TCPServer in virtual thread mode in this JVM (it serves every connection at
+ * once, which a pool needs), then has several threads share one client and send GETs
+ * through it for a fixed time: first with a new connection per request, then with
+ * connections from a pool of one per thread.
+ *
+ * Server and client log every request, so standard output is discarded while the
+ * workloads run; both ways pay the same for it.
+ */
+public class ConnectionPoolBenchmark {
+    private static final int PORT = 19900;
+
+    private final Logger logger;
+
+    public ConnectionPoolBenchmark() {
+        this.logger = new Logger(ConnectionPoolBenchmark.class);
+    }
+
+    /**
+     * @param threads Threads sending GETs through the shared client
+     * @param seconds Duration of each run
+     */
+    public void run(int threads, int seconds) throws Exception {
+        Thread serverThread = new Thread(new TCPServer(PORT, true)::start, "server-" + PORT);
+        serverThread.setDaemon(true);
+        serverThread.start();
+        Thread.sleep(500);
+
+        PrintStream console = System.out;
+        StringBuilder report = new StringBuilder();
+        String stats;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try (TCPClient perRequest = new TCPClient("localhost", PORT);
+             TCPClient pooled = new TCPClient("localhost", PORT).pooled(threads, threads)) {
+            perRequest.sendBinaryRequest(Protocol.PUT, "poolKey", "poolValue".getBytes(StandardCharsets.UTF_8));
+            // Warm-up
+            measure(perRequest, threads, 1);
+            measure(pooled, threads, 1);
+
+            report.append(summary("connect per request", measure(perRequest, threads, seconds), seconds));
+            report.append(summary("pooled", measure(pooled, threads, seconds), seconds));
+            stats = pooled.pool().stats();
+        } finally {
+            System.setOut(console);
+        }
+        logger.log(String.format("GETs from %d threads through one TCPClient:%s", threads, report));
+        logger.log("  pool: " + stats);
+    }
+
+    /**
+     * @return The time each GET took, in nanoseconds, over all threads
+     */
+    private static long[] measure(TCPClient client, int threads, int seconds) throws InterruptedException {
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        long[][] latencies = new long[threads][];
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int worker = t;
+            Thread thread = new Thread(() -> latencies[worker] = gets(client, deadline), "client-" + t);
+            thread.start();
+            workers.add(thread);
+        }
+        long[] all = new long[0];
+        for (int t = 0; t < threads; t++) {
+            workers.get(t).join();
+            int offset = all.length;
+            all = Arrays.copyOf(all, offset + latencies[t].length);
+            System.arraycopy(latencies[t], 0, all, offset, latencies[t].length);
+        }
+        Arrays.sort(all);
+        return all;
+    }
+
+    private static long[] gets(TCPClient client, long deadline) {
+        long[] latencies = new long[1024];
+        int count = 0;
+        try {
+            while (System.nanoTime() < deadline) {
+                long start = System.nanoTime();
+                client.sendBinaryRequest(Protocol.GET, "poolKey", null);
+                if (count == latencies.length) {
+                    latencies = Arrays.copyOf(latencies, 2 * count);
+                }
+                latencies[count++] = System.nanoTime() - start;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return Arrays.copyOf(latencies, count);
+    }
+
+    private static String summary(String name, long[] sorted, int seconds) {
+        return String.format("%n  %-20s %8.0f ops/s, p50 %7.1f us, p99 %7.1f us",
+                name, sorted.length / (double) seconds, percentile(sorted, 0.50), percentile(sorted, 0.99));
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * fraction))] / 1000.0;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 2) {
+            System.out.println("Usage: java test.ConnectionPoolBenchmark [threads] [seconds]");
+            return;
+        }
+
+        // Default: 4 threads, 3 seconds per run
+        int threads = (args.length > 0) ? Integer.parseInt(args[0]) : 4;
+        int seconds = (args.length > 1) ? Integer.parseInt(args[1]) : 3;
+
+        new ConnectionPoolBenchmark().run(threads, seconds);
+    }
+}
@@ -0,0 +1,135 @@
+package test;
+
+import common.Logger;
+import server.IdleReaper;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cost of idle reaping with many connections
+ * Registers connections (stand-ins that only count being closed, so no file descriptors
+ * are needed) with an IdleReaper and drives its timer wheel tick by tick. A tenth of the
+ * connections are active, each touched every ACTIVE_EVERY ticks; the rest go quiet and
+ * should be reaped once the timeout has passed.
+ *
+ * Reports the cost of register and touch, the time each tick took and the heap per
+ * connection, next to the obvious alternative: scanning every connection's last
+ * activity time on every tick.
+ */
+public class IdleReaperBenchmark {
+    private static final long TIMEOUT_MILLIS = 2000;
+    private static final long TICK_MILLIS = 20;
+    // One connection in this many is active, and touched once in this many ticks
+    private static final int ACTIVE_EVERY = 10;
+
+    private final Logger logger;
+
+    public IdleReaperBenchmark() {
+        this.logger = new Logger(IdleReaperBenchmark.class);
+    }
+
+    /**
+     * @param connections Connections registered
+     * @param seconds How long the wheel is driven
+     */
+    public void run(int connections, int seconds) throws InterruptedException {
+        IdleReaper reaper = new IdleReaper(TIMEOUT_MILLIS, TICK_MILLIS, IdleReaper.DEFAULT_WHEEL_SIZE);
+        AtomicLong closed = new AtomicLong();
+        IdleReaper.Handle[] handles = new IdleReaper.Handle[connections];
+
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        for (int i = 0; i < connections; i++) {
+            handles[i] = reaper.register(closed::incrementAndGet);
+        }
+        double registerNanos = (System.nanoTime() - start) / (double) connections;
+        double bytesPerConnection = (usedHeap() - heapBefore) / (double) connections;
+
+        int ticks = (int) (seconds * 1000 / TICK_MILLIS);
+        long[] tickNanos = new long[ticks];
+        long[] scanNanos = new long[ticks];
+        long touchTotal = 0;
+        long touches = 0;
+        // The full scan's state: last activity per connection
+        long[] lastActive = new long[connections];
+        Arrays.fill(lastActive, System.nanoTime());
+        long scanned = 0;
+        for (int t = 0; t < ticks; t++) {
+            Thread.sleep(TICK_MILLIS);
+
+            // Indices t % ACTIVE_EVERY in every block of ACTIVE_EVERY^2: over ACTIVE_EVERY
+            // ticks, the first ACTIVE_EVERY of each block are touched once each
+            long touchStart = System.nanoTime();
+            for (int i = t % ACTIVE_EVERY; i < connections; i += ACTIVE_EVERY * ACTIVE_EVERY) {
+                handles[i].touch();
+                touches++;
+            }
+            touchTotal += System.nanoTime() - touchStart;
+
+            long tickStart = System.nanoTime();
+            reaper.tick();
+            tickNanos[t] = System.nanoTime() - tickStart;
+
+            long scanStart = System.nanoTime();
+            long timeout = TIMEOUT_MILLIS * 1_000_000;
+            for (int i = 0; i < connections; i++) {
+                if (scanStart - lastActive[i] >= timeout) {
+                    scanned++;
+                }
+            }
+            scanNanos[t] = System.nanoTime() - scanStart;
+        }
+
+        logger.log(String.format("%d connections, timeout %d ms, tick %d ms, %d ticks:",
+                connections, TIMEOUT_MILLIS, TICK_MILLIS, ticks));
+        logger.log(String.format("  register %.0f ns, touch %.1f ns, %.0f bytes per connection",
+                registerNanos, touchTotal / (double) Math.max(1, touches), bytesPerConnection));
+        logger.log(String.format("  timer wheel tick: p50 %8.1f us, mean %8.1f us, max %8.1f us",
+                median(tickNanos) / 1000, mean(tickNanos) / 1000, max(tickNanos) / 1000.0));
+        logger.log(String.format("  full scan tick:   p50 %8.1f us, mean %8.1f us, max %8.1f us (%d expired sightings)",
+                median(scanNanos) / 1000, mean(scanNanos) / 1000, max(scanNanos) / 1000.0, scanned));
+        logger.log("  " + reaper.stats() + ", closed " + closed.get());
+    }
+
+    private static double mean(long[] values) {
+        double sum = 0;
+        for (long value : values) {
+            sum += value;
+        }
+        return sum / values.length;
+    }
+
+    private static double median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static long max(long[] values) {
+        long max = 0;
+        for (long value : values) {
+            max = Math.max(max, value);
+        }
+        return max;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length > 2) {
+            System.out.println("Usage: java test.IdleReaperBenchmark [connections] [seconds]");
+            return;
+        }
+
+        // Default: 100,000 connections, driven for 5 seconds
+        int connections = (args.length > 0) ? Integer.parseInt(args[0]) : 100_000;
+        int seconds = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+
+        new IdleReaperBenchmark().run(connections, seconds);
+    }
+}
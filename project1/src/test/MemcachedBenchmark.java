@@ -0,0 +1,142 @@
+package test;
+
+import common.Logger;
+import common.Protocol;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Memcached vs native text protocol benchmark
+ * Both a TCPServer and a MemcachedServer must be running.
+ *
+ * Two workloads, each over one pipelined connection per protocol:
+ * 1. SET/GET mix: every key is written, then read back
+ * 2. Batched reads: batchSize keys per round trip, one multi-key "get" for memcached
+ *    against batchSize pipelined GET lines for the native protocol
+ */
+public class MemcachedBenchmark {
+    private static final int NUM_KEYS = 1000;
+
+    private final Logger logger;
+    private final String host;
+
+    public MemcachedBenchmark(String host) {
+        this.logger = new Logger(MemcachedBenchmark.class);
+        this.host = host;
+    }
+
+    public void run(int nativePort, int memcachedPort, int numRequests, int batchSize) throws IOException {
+        double nativeRate = measureMix(nativePort, false, numRequests, batchSize);
+        double memcachedRate = measureMix(memcachedPort, true, numRequests, batchSize);
+        logger.log(String.format("set/get mix: native %10.0f ops/s | memcached %10.0f ops/s", nativeRate, memcachedRate));
+
+        nativeRate = measureReads(nativePort, false, numRequests, batchSize);
+        memcachedRate = measureReads(memcachedPort, true, numRequests, batchSize);
+        logger.log(String.format("reads, %d keys per batch: native %10.0f keys/s | memcached %10.0f keys/s",
+                batchSize, nativeRate, memcachedRate));
+    }
+
+    /**
+     * Writes then reads numRequests / 2 keys, batchSize requests per round trip
+     */
+    private double measureMix(int port, boolean memcached, int numRequests, int batchSize) throws IOException {
+        try (Socket socket = connect(port)) {
+            OutputStream out = socket.getOutputStream();
+            BufferedReader in = reader(socket);
+            long start = System.nanoTime();
+            for (int sent = 0; sent < numRequests; sent += batchSize) {
+                int windowEnd = Math.min(sent + batchSize, numRequests);
+                StringBuilder batch = new StringBuilder();
+                for (int i = sent; i < windowEnd; i++) {
+                    String key = "benchKey" + (i % NUM_KEYS);
+                    boolean set = i < numRequests / 2;
+                    if (memcached) {
+                        batch.append(set ? "set " + key + " 0 0 10\r\nbenchValue\r\n" : "get " + key + "\r\n");
+                    } else {
+                        batch.append(set ? Protocol.createRequest(Protocol.PUT, key, "benchValue")
+                                : Protocol.createRequest(Protocol.GET, key, null)).append('\n');
+                    }
+                }
+                out.write(batch.toString().getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                for (int i = sent; i < windowEnd; i++) {
+                    // A memcached hit is VALUE line, data line and END
+                    int lines = (memcached && i >= numRequests / 2) ? 3 : 1;
+                    readLines(in, lines);
+                }
+            }
+            return numRequests / ((System.nanoTime() - start) / 1e9);
+        }
+    }
+
+    /**
+     * Reads numRequests keys, batchSize keys per round trip
+     */
+    private double measureReads(int port, boolean memcached, int numRequests, int batchSize) throws IOException {
+        try (Socket socket = connect(port)) {
+            OutputStream out = socket.getOutputStream();
+            BufferedReader in = reader(socket);
+            long start = System.nanoTime();
+            for (int sent = 0; sent < numRequests; sent += batchSize) {
+                int windowEnd = Math.min(sent + batchSize, numRequests);
+                StringBuilder batch = new StringBuilder(memcached ? "get" : "");
+                for (int i = sent; i < windowEnd; i++) {
+                    String key = "benchKey" + (i % NUM_KEYS);
+                    if (memcached) {
+                        batch.append(' ').append(key);
+                    } else {
+                        batch.append(Protocol.createRequest(Protocol.GET, key, null)).append('\n');
+                    }
+                }
+                if (memcached) {
+                    batch.append("\r\n");
+                }
+                out.write(batch.toString().getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                // memcached: two lines per key plus END, native: one line per key
+                readLines(in, memcached ? 2 * (windowEnd - sent) + 1 : windowEnd - sent);
+            }
+            return numRequests / ((System.nanoTime() - start) / 1e9);
+        }
+    }
+
+    private Socket connect(int port) throws IOException {
+        Socket socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        return socket;
+    }
+
+    private static BufferedReader reader(Socket socket) throws IOException {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    private static void readLines(BufferedReader in, int lines) throws IOException {
+        for (int l = 0; l < lines; l++) {
+            if (in.readLine() == null) {
+                throw new IOException("Connection closed by server");
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3 || args.length > 5) {
+            System.out.println("Usage: java test.MemcachedBenchmark <host> <nativePort> <memcachedPort> [numRequests] [batchSize]");
+            return;
+        }
+
+        String host = args[0];
+        int nativePort = Integer.parseInt(args[1]);
+        int memcachedPort = Integer.parseInt(args[2]);
+
+        // Default: 20000 requests, 32 per round trip
+        int numRequests = (args.length > 3) ? Integer.parseInt(args[3]) : 20000;
+        int batchSize = (args.length > 4) ? Integer.parseInt(args[4]) : 32;
+
+        new MemcachedBenchmark(host).run(nativePort, memcachedPort, numRequests, batchSize);
+    }
+}
@@ -0,0 +1,168 @@
+package test;
+
+import common.Logger;
+import common.Protocol;
+import kvstore.KVStore;
+import server.CommandDispatcher;
+import server.CommandMetrics;
+import server.RequestParser;
+import server.RequestProcessor;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.LongSupplier;
+
+/**
+ * Micro benchmark for the request path of the socket servers
+ * Compares the original String based processRequest (line String, split, toUpperCase)
+ * with RequestParser + RequestProcessor working in place on a reused ByteBuffer, and
+ * the same through a CommandDispatcher, bare and with a CommandMetrics interceptor
+ *
+ * For every variant it reports the time and the bytes allocated per request,
+ * measured with the JVM's per-thread allocation counter after a warm-up phase.
+ * Network I/O is left out on purpose, only parsing and execution are measured.
+ */
+public class ParserBenchmark {
+    private final Logger logger;
+    private final int numKeys;
+
+    // Request mix: mostly GETs, some PUTs and DELETEs, like a read heavy cache
+    private final String[] requests;
+
+    public ParserBenchmark(int numKeys) {
+        this.logger = new Logger(ParserBenchmark.class);
+        this.numKeys = numKeys;
+        this.requests = new String[numKeys * 10];
+        for (int i = 0; i < requests.length; i++) {
+            String key = "key" + (i % numKeys);
+            if (i % 10 == 8) {
+                requests[i] = "PUT " + key + " value" + i;
+            } else if (i % 10 == 9) {
+                requests[i] = "delete " + key;
+            } else {
+                requests[i] = "get " + key;
+            }
+        }
+    }
+
+    /**
+     * Runs both variants and logs the results
+     * @param iterations Number of requests measured per variant
+     */
+    public void run(int iterations) {
+        for (int i = 0; i < numKeys; i++) {
+            KVStore.put("key" + i, "value" + i);
+        }
+
+        // Pre-encode the requests once, the servers receive bytes anyway
+        byte[][] encoded = new byte[requests.length][];
+        for (int i = 0; i < requests.length; i++) {
+            encoded[i] = (requests[i] + "\n").getBytes(StandardCharsets.UTF_8);
+        }
+
+        CommandDispatcher dispatcher = new CommandDispatcher();
+        CommandMetrics metrics = new CommandMetrics();
+        CommandDispatcher measured = new CommandDispatcher().addInterceptor(metrics);
+
+        // Warm-up so all variants are JIT compiled before measuring
+        runLegacy(encoded, iterations);
+        runParser(encoded, iterations, null);
+        runParser(encoded, iterations, dispatcher);
+        runParser(encoded, iterations, measured);
+
+        report("String split processRequest", iterations, () -> runLegacy(encoded, iterations));
+        report("ByteBuffer RequestParser", iterations, () -> runParser(encoded, iterations, null));
+        report("CommandDispatcher", iterations, () -> runParser(encoded, iterations, dispatcher));
+        report("+ CommandMetrics", iterations, () -> runParser(encoded, iterations, measured));
+        logger.log(metrics.stats());
+    }
+
+    private void report(String name, int iterations, LongSupplier variant) {
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        long checksum = variant.getAsLong();
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBytes() - allocatedBefore;
+
+        logger.log(String.format("%-28s %8.1f ns/op %8.1f bytes/op (checksum %d)",
+                name, (double) elapsed / iterations, (double) allocated / iterations, checksum));
+    }
+
+    /**
+     * The request path as it was: decode the line, split it, upper-case the operation
+     */
+    private long runLegacy(byte[][] encoded, int iterations) {
+        long checksum = 0;
+        for (int i = 0; i < iterations; i++) {
+            byte[] bytes = encoded[i % encoded.length];
+            String request = new String(bytes, 0, bytes.length - 1, StandardCharsets.UTF_8);
+            String response = legacyProcessRequest(request);
+            checksum += response.getBytes(StandardCharsets.UTF_8).length;
+        }
+        return checksum;
+    }
+
+    /**
+     * @param dispatcher Executes the requests, or null for RequestProcessor.process
+     */
+    private long runParser(byte[][] encoded, int iterations, CommandDispatcher dispatcher) {
+        RequestParser parser = new RequestParser();
+        ByteBuffer input = ByteBuffer.allocate(256);
+        ByteBuffer output = ByteBuffer.allocate(256);
+        long checksum = 0;
+        for (int i = 0; i < iterations; i++) {
+            input.clear();
+            input.put(encoded[i % encoded.length]).flip();
+            output.clear();
+            if (parser.parse(input, false) == RequestParser.REQUEST) {
+                output = (dispatcher == null)
+                        ? RequestProcessor.process(parser, input, output)
+                        : dispatcher.dispatch(null, parser, input, output);
+            }
+            checksum += output.position() - 1; // without the '\n' the legacy path does not add
+        }
+        return checksum;
+    }
+
+    /**
+     * Copy of the original TCPServer/UDPServer processRequest, kept as the baseline
+     */
+    private static String legacyProcessRequest(String request) {
+        String[] parts = request.split(" ");
+        if (parts.length < 2) return "ERROR Malformed request";
+
+        String operation = parts[0];
+        String key = parts[1];
+        String value = (parts.length > 2) ? parts[2] : null;
+
+        switch (operation.toUpperCase()) {
+            case Protocol.PUT:
+                return KVStore.put(key, value);
+            case Protocol.GET:
+                return KVStore.get(key);
+            case Protocol.DELETE:
+                return KVStore.delete(key);
+            default:
+                return "ERROR Invalid operation";
+        }
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getCurrentThreadAllocatedBytes();
+    }
+
+    public static void main(String[] args) {
+        if (args.length > 2) {
+            System.out.println("Usage: java test.ParserBenchmark [iterations] [numKeys]");
+            return;
+        }
+
+        // Default: 5 million requests over 1000 keys
+        int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 5_000_000;
+        int numKeys = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+
+        new ParserBenchmark(numKeys).run(iterations);
+    }
+}
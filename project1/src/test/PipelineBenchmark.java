@@ -0,0 +1,61 @@
+package test;
+
+import client.TCPClient;
+import common.Logger;
+import common.Protocol;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pipelining benchmark for the TCP server
+ * Sends the same batch of GET requests at increasing pipeline depths and reports
+ * the throughput of each. With depth 1 every request waits a full round trip,
+ * so on a high latency link throughput should grow roughly with the depth.
+ */
+public class PipelineBenchmark {
+    private final Logger logger;
+    private final TCPClient client;
+
+    public PipelineBenchmark(String host, int port) {
+        this.logger = new Logger(PipelineBenchmark.class);
+        this.client = new TCPClient(host, port);
+    }
+
+    /**
+     * Runs the batch once per depth (doubling from 1 up to maxDepth)
+     * @param numRequests Number of requests per run
+     * @param maxDepth Largest pipeline depth to try
+     */
+    public void run(int numRequests, int maxDepth) throws IOException {
+        client.sendRequest(Protocol.PUT, "pipelineKey", "pipelineValue");
+        List<String> requests = new ArrayList<>(numRequests);
+        for (int i = 0; i < numRequests; i++) {
+            requests.add(Protocol.createRequest(Protocol.GET, "pipelineKey", null));
+        }
+
+        for (int depth = 1; depth <= maxDepth; depth *= 2) {
+            long start = System.nanoTime();
+            client.sendPipelined(requests, depth);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            logger.log(String.format("depth %4d: %10.0f requests per second", depth, numRequests / seconds));
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 4) {
+            System.out.println("Usage: java test.PipelineBenchmark <host> <port> [numRequests] [maxDepth]");
+            return;
+        }
+
+        String host = args[0];
+        int port = Integer.parseInt(args[1]);
+
+        // Default: 20000 requests, depths 1..256
+        int numRequests = (args.length > 2) ? Integer.parseInt(args[2]) : 20000;
+        int maxDepth = (args.length > 3) ? Integer.parseInt(args[3]) : 256;
+
+        new PipelineBenchmark(host, port).run(numRequests, maxDepth);
+    }
+}
@@ -0,0 +1,196 @@
+package test;
+
+import common.BinaryProtocol;
+import common.Logger;
+import common.Protocol;
+import kvstore.KVStore;
+import server.RateLimiter;
+import server.UDPServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Noisy neighbour benchmark for UDPServer's per-client rate limits
+ * Starts two single-socket UDPServers in this JVM, one without and one with a
+ * RateLimiter, and runs the same mix against each:
+ * - one greedy client sending full-page SCANs as fast as it can without waiting
+ * - a few polite clients, each sending one GET at a time
+ * and reports the polite clients' latency and lost requests, and what the greedy
+ * client got through.
+ *
+ * The limiter allows every client a few SCANs a second, so the greedy client's
+ * surplus costs the receive loop a THROTTLED answer instead of a 1000-key page.
+ * Single-socket UDPServer logs every request, so standard output is discarded
+ * while the clients run.
+ */
+public class RateLimitBenchmark {
+    private static final int PORT = 19700;
+    // A request without an answer in this time counts as lost
+    private static final int TIMEOUT_MILLIS = 200;
+    // Keys in the store, so that a SCAN page is a full one
+    private static final int KEYS = 5000;
+    // What the limited server allows each client
+    private static final double SCANS_PER_SECOND = 5;
+    private static final double REQUESTS_PER_SECOND = 10_000;
+
+    private final Logger logger;
+
+    public RateLimitBenchmark() {
+        this.logger = new Logger(RateLimitBenchmark.class);
+    }
+
+    /**
+     * @param politeClients Clients sending one GET at a time
+     * @param seconds Duration of each run
+     */
+    public void run(int politeClients, int seconds) throws Exception {
+        for (int i = 0; i < KEYS; i++) {
+            KVStore.put("rateKey" + i, "value" + i);
+        }
+        RateLimiter limiter = new RateLimiter(REQUESTS_PER_SECOND, (int) REQUESTS_PER_SECOND)
+                .limit(BinaryProtocol.OP_SCAN, SCANS_PER_SECOND, (int) SCANS_PER_SECOND);
+
+        PrintStream console = System.out;
+        StringBuilder report = new StringBuilder();
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            report.append(measure("no limit", PORT, null, politeClients, seconds));
+            report.append(measure("rate limited", PORT + 1, limiter, politeClients, seconds));
+        } finally {
+            System.setOut(console);
+        }
+        logger.log("Polite GET clients next to a SCAN flood:" + report);
+        logger.log("Rate limits: " + limiter.stats());
+    }
+
+    private String measure(String name, int port, RateLimiter limiter, int politeClients, int seconds) throws Exception {
+        UDPServer server = new UDPServer(port, 1, limiter);
+        Thread serverThread = new Thread(server::start, "server-" + port);
+        serverThread.setDaemon(true);
+        serverThread.start();
+        Thread.sleep(500);
+
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        AtomicLong scansAnswered = new AtomicLong();
+        Thread greedy = new Thread(() -> flood(port, deadline, scansAnswered), "greedy");
+        greedy.start();
+
+        long[][] latencies = new long[politeClients][];
+        AtomicLong lost = new AtomicLong();
+        List<Thread> polite = new ArrayList<>();
+        for (int i = 0; i < politeClients; i++) {
+            int client = i;
+            Thread thread = new Thread(() -> latencies[client] = politeGets(port, deadline, lost), "polite-" + i);
+            thread.start();
+            polite.add(thread);
+        }
+        greedy.join();
+        long[] all = new long[0];
+        for (int i = 0; i < politeClients; i++) {
+            polite.get(i).join();
+            int offset = all.length;
+            all = Arrays.copyOf(all, offset + latencies[i].length);
+            System.arraycopy(latencies[i], 0, all, offset, latencies[i].length);
+        }
+        Arrays.sort(all);
+        return String.format("%n  %-13s polite: %8.0f req/s, p50 %7.1f us, p99 %8.1f us, %5d lost;"
+                        + " greedy: %6d SCAN pages",
+                name, all.length / (double) seconds, percentile(all, 0.50), percentile(all, 0.99),
+                lost.get(), scansAnswered.get());
+    }
+
+    /**
+     * Sends SCANs without waiting for answers, and counts the full pages that come back
+     */
+    private static void flood(int port, long deadline, AtomicLong scansAnswered) {
+        byte[] scan = Protocol.createScanRequest(0, KVStore.MAX_SCAN_COUNT).getBytes(StandardCharsets.UTF_8);
+        try (DatagramSocket socket = new DatagramSocket()) {
+            InetAddress address = InetAddress.getByName("localhost");
+            DatagramPacket request = new DatagramPacket(scan, scan.length, address, port);
+            Thread reader = new Thread(() -> {
+                byte[] buffer = new byte[64 * 1024];
+                DatagramPacket response = new DatagramPacket(buffer, buffer.length);
+                try {
+                    while (true) {
+                        socket.receive(response);
+                        if (response.getLength() > Protocol.THROTTLED.length()) {
+                            scansAnswered.incrementAndGet();
+                        }
+                    }
+                } catch (IOException e) {
+                    // Socket closed at the end of the run
+                }
+            });
+            reader.setDaemon(true);
+            reader.start();
+            while (System.nanoTime() < deadline) {
+                socket.send(request);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return The time each answered GET took, in nanoseconds
+     */
+    private static long[] politeGets(int port, long deadline, AtomicLong lost) {
+        long[] latencies = new long[1024];
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.setSoTimeout(TIMEOUT_MILLIS);
+            InetAddress address = InetAddress.getByName("localhost");
+            byte[] get = Protocol.createRequest(Protocol.GET, "rateKey1", null).getBytes(StandardCharsets.UTF_8);
+            DatagramPacket request = new DatagramPacket(get, get.length, address, port);
+            byte[] buffer = new byte[1024];
+            DatagramPacket response = new DatagramPacket(buffer, buffer.length);
+            int count = 0;
+            while (System.nanoTime() < deadline) {
+                long start = System.nanoTime();
+                socket.send(request);
+                try {
+                    socket.receive(response);
+                    if (count == latencies.length) {
+                        latencies = Arrays.copyOf(latencies, 2 * count);
+                    }
+                    latencies[count++] = System.nanoTime() - start;
+                } catch (SocketTimeoutException e) {
+                    lost.incrementAndGet();
+                }
+            }
+            return Arrays.copyOf(latencies, count);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * fraction))] / 1000.0;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 2) {
+            System.out.println("Usage: java test.RateLimitBenchmark [politeClients] [seconds]");
+            return;
+        }
+
+        // Default: 4 polite clients, 5 seconds per run
+        int politeClients = (args.length > 0) ? Integer.parseInt(args[0]) : 4;
+        int seconds = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+
+        new RateLimitBenchmark().run(politeClients, seconds);
+    }
+}
@@ -0,0 +1,71 @@
+package test;
+
+import common.Logger;
+import server.NioTCPServer;
+import server.TCPServer;
+
+/**
+ * Multi-reactor scaling benchmark
+ * Starts NioTCPServer in this JVM with 1, 2, 4, ... maxLoops event loops and drives
+ * each with the same number of active connections (see ConnectionBenchmark), then does
+ * the same for TCPServer in its blocking and virtual thread modes as the baseline.
+ *
+ * The loops can only scale as far as there are cores left over by the load generating
+ * threads, which run on the same machine. To see the curve flatten at a given core
+ * count, restrict the whole JVM, e.g. taskset -c 0-7 java ...
+ */
+public class ReactorScalingBenchmark {
+    // Each server gets its own port, since servers cannot be stopped
+    private static final int BASE_PORT = 19100;
+
+    private final Logger logger;
+
+    public ReactorScalingBenchmark() {
+        this.logger = new Logger(ReactorScalingBenchmark.class);
+    }
+
+    /**
+     * @param maxLoops Largest number of event loops to try
+     * @param connections Active connections per run
+     * @param seconds Duration of each run
+     */
+    public void run(int maxLoops, int connections, int seconds) throws InterruptedException {
+        StringBuilder report = new StringBuilder();
+        for (int loops = 1; loops <= maxLoops; loops *= 2) {
+            int loopCount = loops;
+            int port = BASE_PORT + loops;
+            double rate = measure(port, () -> new NioTCPServer(port, loopCount).start(), connections, seconds);
+            report.append(String.format("%n  nio %2d loop(s): %10.0f req/s", loops, rate));
+        }
+        int virtualPort = BASE_PORT + 1000;
+        double virtualRate = measure(virtualPort, () -> new TCPServer(virtualPort, true).start(), connections, seconds);
+        report.append(String.format("%n  TCPServer virtual: %10.0f req/s", virtualRate));
+        int blockingPort = BASE_PORT + 1001;
+        double blockingRate = measure(blockingPort, () -> new TCPServer(blockingPort).start(), connections, seconds);
+        report.append(String.format("%n  TCPServer blocking: %10.0f req/s", blockingRate));
+        logger.log("Scaling with " + connections + " active connections on "
+                + Runtime.getRuntime().availableProcessors() + " processor(s):" + report);
+    }
+
+    private double measure(int port, Runnable server, int connections, int seconds) throws InterruptedException {
+        Thread thread = new Thread(server, "server-" + port);
+        thread.setDaemon(true);
+        thread.start();
+        Thread.sleep(500);
+        return new ConnectionBenchmark("localhost", port).run(0, connections, seconds);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length > 3) {
+            System.out.println("Usage: java test.ReactorScalingBenchmark [maxLoops] [connections] [seconds]");
+            return;
+        }
+
+        // Default: 1 to 32 loops, 256 connections, 5 seconds per run
+        int maxLoops = (args.length > 0) ? Integer.parseInt(args[0]) : 32;
+        int connections = (args.length > 1) ? Integer.parseInt(args[1]) : 256;
+        int seconds = (args.length > 2) ? Integer.parseInt(args[2]) : 5;
+
+        new ReactorScalingBenchmark().run(maxLoops, connections, seconds);
+    }
+}
@@ -0,0 +1,109 @@
+package test;
+
+import common.Logger;
+import common.Protocol;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * RESP vs native text protocol benchmark
+ * Runs the same SET/GET workload against a TCPServer and a RespServer (both must be
+ * running) over one pipelined connection each and reports the throughput of both.
+ * The servers share the same store code, so the difference is the protocol cost.
+ *
+ * For a second opinion the RESP port can also be driven by redis-benchmark, e.g.
+ *   redis-benchmark -p 6379 -t set,get,incr,mset -P 16
+ */
+public class RespBenchmark {
+    private final Logger logger;
+    private final String host;
+
+    public RespBenchmark(String host) {
+        this.logger = new Logger(RespBenchmark.class);
+        this.host = host;
+    }
+
+    /**
+     * Runs the workload on both servers, once per pipeline depth (doubling from 1)
+     * @param nativePort Port of the TCPServer
+     * @param respPort Port of the RespServer
+     * @param numRequests Number of requests per run (half SET, half GET)
+     * @param maxDepth Largest pipeline depth to try
+     */
+    public void run(int nativePort, int respPort, int numRequests, int maxDepth) throws IOException {
+        for (int depth = 1; depth <= maxDepth; depth *= 2) {
+            double nativeRate = measure(nativePort, false, numRequests, depth);
+            double respRate = measure(respPort, true, numRequests, depth);
+            logger.log(String.format("depth %4d: native %10.0f req/s | RESP %10.0f req/s", depth, nativeRate, respRate));
+        }
+    }
+
+    private double measure(int port, boolean resp, int numRequests, int depth) throws IOException {
+        try (Socket socket = new Socket(host, port)) {
+            socket.setTcpNoDelay(true);
+            OutputStream out = socket.getOutputStream();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+
+            long start = System.nanoTime();
+            int sent = 0;
+            while (sent < numRequests) {
+                // Send a window of requests with one write, then read their replies
+                int windowEnd = Math.min(sent + depth, numRequests);
+                StringBuilder batch = new StringBuilder();
+                for (int i = sent; i < windowEnd; i++) {
+                    String key = "benchKey" + (i / 2 % 1000);
+                    boolean set = (i % 2 == 0);
+                    if (resp) {
+                        batch.append(set ? respCommand("SET", key, "benchValue") : respCommand("GET", key));
+                    } else {
+                        batch.append(set ? Protocol.createRequest(Protocol.PUT, key, "benchValue")
+                                : Protocol.createRequest(Protocol.GET, key, null)).append('\n');
+                    }
+                }
+                out.write(batch.toString().getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                for (int i = sent; i < windowEnd; i++) {
+                    // A RESP bulk string reply is a length line plus the data line
+                    int lines = (resp && i % 2 == 1) ? 2 : 1;
+                    for (int l = 0; l < lines; l++) {
+                        if (in.readLine() == null) {
+                            throw new IOException("Connection closed by server");
+                        }
+                    }
+                }
+                sent = windowEnd;
+            }
+            return numRequests / ((System.nanoTime() - start) / 1e9);
+        }
+    }
+
+    private static String respCommand(String... args) {
+        StringBuilder sb = new StringBuilder("*").append(args.length).append("\r\n");
+        for (String arg : args) {
+            sb.append('$').append(arg.length()).append("\r\n").append(arg).append("\r\n");
+        }
+        return sb.toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3 || args.length > 5) {
+            System.out.println("Usage: java test.RespBenchmark <host> <nativePort> <respPort> [numRequests] [maxDepth]");
+            return;
+        }
+
+        String host = args[0];
+        int nativePort = Integer.parseInt(args[1]);
+        int respPort = Integer.parseInt(args[2]);
+
+        // Default: 20000 requests, depths 1..64
+        int numRequests = (args.length > 3) ? Integer.parseInt(args[3]) : 20000;
+        int maxDepth = (args.length > 4) ? Integer.parseInt(args[4]) : 64;
+
+        new RespBenchmark(host).run(nativePort, respPort, numRequests, maxDepth);
+    }
+}
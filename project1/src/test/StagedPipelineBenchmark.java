@@ -0,0 +1,179 @@
+package test;
+
+import common.Logger;
+import common.Protocol;
+import kvstore.KVStore;
+import server.Stage;
+import server.UDPServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Slow-log benchmark for UDPServer's staged mode
+ * Starts two single-socket UDPServers in this JVM, one inline and one staged, both
+ * logging every request (logRequests()), with System.out replaced by a stream that stalls on every line, like a terminal or pipe
+ * that cannot keep up. Clients each send one GET at a time; the benchmark reports
+ * their throughput, latency and lost requests, and the staged server's stage stats.
+ *
+ * Inline, the socket's thread writes the log line before it receives the next
+ * datagram, so every stall is added to the requests waiting behind it. Staged, the
+ * log stage falls behind on its own and drops the lines its queue cannot hold.
+ */
+public class StagedPipelineBenchmark {
+    private static final int PORT = 19800;
+    // A request without an answer in this time counts as lost
+    private static final int TIMEOUT_MILLIS = 200;
+    private static final int KEYS = 1000;
+
+    private final Logger logger;
+
+    public StagedPipelineBenchmark() {
+        this.logger = new Logger(StagedPipelineBenchmark.class);
+    }
+
+    /**
+     * @param clients Clients sending one GET at a time
+     * @param seconds Duration of each run
+     * @param stallMicros Time the log stream stalls per line
+     */
+    public void run(int clients, int seconds, int stallMicros) throws Exception {
+        for (int i = 0; i < KEYS; i++) {
+            KVStore.put("stagedKey" + i, "value" + i);
+        }
+        UDPServer staged = new UDPServer(PORT + 1).staged(1, 1, 1).logRequests();
+
+        PrintStream console = System.out;
+        StringBuilder report = new StringBuilder();
+        System.setOut(new PrintStream(new StallingStream(stallMicros * 1000L), true));
+        try {
+            report.append(measure("inline", PORT, new UDPServer(PORT).logRequests(), clients, seconds));
+            report.append(measure("staged", PORT + 1, staged, clients, seconds));
+        } finally {
+            System.setOut(console);
+        }
+        logger.log(String.format("GET clients with a log stream stalling %d us per line:%s", stallMicros, report));
+        for (Stage<?> stage : staged.stages()) {
+            logger.log("  " + stage.stats());
+        }
+    }
+
+    private String measure(String name, int port, UDPServer server, int clients, int seconds) throws Exception {
+        Thread serverThread = new Thread(server::start, "server-" + port);
+        serverThread.setDaemon(true);
+        serverThread.start();
+        Thread.sleep(500);
+
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        long[][] latencies = new long[clients][];
+        AtomicLong lost = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            int client = i;
+            Thread thread = new Thread(() -> latencies[client] = gets(port, client, deadline, lost), "client-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+        long[] all = new long[0];
+        for (int i = 0; i < clients; i++) {
+            threads.get(i).join();
+            int offset = all.length;
+            all = Arrays.copyOf(all, offset + latencies[i].length);
+            System.arraycopy(latencies[i], 0, all, offset, latencies[i].length);
+        }
+        Arrays.sort(all);
+        return String.format("%n  %-7s %8.0f req/s, p50 %8.1f us, p99 %8.1f us, %5d lost",
+                name, all.length / (double) seconds, percentile(all, 0.50), percentile(all, 0.99), lost.get());
+    }
+
+    /**
+     * @return The time each answered GET took, in nanoseconds
+     */
+    private static long[] gets(int port, int client, long deadline, AtomicLong lost) {
+        long[] latencies = new long[1024];
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.setSoTimeout(TIMEOUT_MILLIS);
+            InetAddress address = InetAddress.getByName("localhost");
+            byte[] buffer = new byte[1024];
+            DatagramPacket response = new DatagramPacket(buffer, buffer.length);
+            int count = 0;
+            for (int i = client; System.nanoTime() < deadline; i++) {
+                byte[] get = Protocol.createRequest(Protocol.GET, "stagedKey" + (i % KEYS), null)
+                        .getBytes(StandardCharsets.UTF_8);
+                long start = System.nanoTime();
+                socket.send(new DatagramPacket(get, get.length, address, port));
+                try {
+                    socket.receive(response);
+                    if (count == latencies.length) {
+                        latencies = Arrays.copyOf(latencies, 2 * count);
+                    }
+                    latencies[count++] = System.nanoTime() - start;
+                } catch (SocketTimeoutException e) {
+                    lost.incrementAndGet();
+                }
+            }
+            return Arrays.copyOf(latencies, count);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Discards what is written, stalling at the end of every line
+     */
+    private static final class StallingStream extends OutputStream {
+        private final long stallNanos;
+
+        StallingStream(long stallNanos) {
+            this.stallNanos = stallNanos;
+        }
+
+        @Override
+        public void write(int b) {
+            if (b == '\n') {
+                LockSupport.parkNanos(stallNanos);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                if (b[i] == '\n') {
+                    LockSupport.parkNanos(stallNanos);
+                }
+            }
+        }
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * fraction))] / 1000.0;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 3) {
+            System.out.println("Usage: java test.StagedPipelineBenchmark [clients] [seconds] [stallMicros]");
+            return;
+        }
+
+        // Default: 8 clients, 5 seconds per run, log lines stalling 200 us each
+        int clients = (args.length > 0) ? Integer.parseInt(args[0]) : 8;
+        int seconds = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+        int stallMicros = (args.length > 2) ? Integer.parseInt(args[2]) : 200;
+
+        new StagedPipelineBenchmark().run(clients, seconds, stallMicros);
+    }
+}
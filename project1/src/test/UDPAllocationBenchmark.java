@@ -0,0 +1,163 @@
+package test;
+
+import common.BinaryProtocol;
+import common.Logger;
+import server.UDPServer;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Allocation benchmark for the UDPServer packet loop
+ * Starts a UDPServer in this JVM and sends it a warm-up round, then the measured
+ * requests one at a time. For each request mix it reports the bytes the server's
+ * receiving threads allocated per packet, read from the JVM's per-thread allocation
+ * counters, so the client side of the benchmark is not counted.
+ *
+ * By default the server runs as java UDPServer <port> starts it, with one socket and
+ * no per-request log lines; sockets runs it in multi-socket mode instead.
+ *
+ * The steady-state GET loop should allocate nothing. PUT has to copy the value it
+ * stores, and a tagged request stores its response in the retry cache.
+ *
+ * Needs JDK 21 like the rest of the tree: the threads are identified by Thread.threadId().
+ */
+public class UDPAllocationBenchmark {
+    private static final int PORT = 19400;
+    private static final int TIMEOUT_MILLIS = 2000;
+
+    private final Logger logger;
+    private final int numKeys;
+    private final int sockets;
+    private final InetAddress address;
+    private final byte[] receiveData = new byte[64 * 1024];
+    private final DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
+
+    public UDPAllocationBenchmark(int numKeys, int sockets) throws IOException {
+        this.logger = new Logger(UDPAllocationBenchmark.class);
+        this.numKeys = numKeys;
+        this.sockets = sockets;
+        this.address = InetAddress.getByName("localhost");
+    }
+
+    /**
+     * @param requests Number of requests measured per mix
+     * @param clients Number of client sockets the last mix rotates through
+     */
+    public void run(int requests, int clients) throws Exception {
+        Thread serverThread = new Thread(() -> new UDPServer(PORT, sockets).start(), "udp-alloc-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+        Thread.sleep(500);
+        // The first socket is served on the thread calling start(), the others on "udp-socket-i"
+        Thread[] serverThreads = new Thread[sockets];
+        serverThreads[0] = serverThread;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("udp-socket-")) {
+                serverThreads[Integer.parseInt(thread.getName().substring("udp-socket-".length()))] = thread;
+            }
+        }
+
+        byte[][] textGets = new byte[numKeys][];
+        byte[][] binaryGets = new byte[numKeys][];
+        byte[][] puts = new byte[numKeys][];
+        byte[][] taggedGets = new byte[numKeys][];
+        for (int i = 0; i < numKeys; i++) {
+            textGets[i] = ascii("GET allocKey" + i);
+            binaryGets[i] = BinaryProtocol.encodeRequest(BinaryProtocol.OP_GET, "allocKey" + i, null);
+            puts[i] = ascii("PUT allocKey" + i + " value" + i);
+            taggedGets[i] = ascii("#" + i + " GET allocKey" + i);
+        }
+
+        try (DatagramSocket socket = newSocket()) {
+            DatagramSocket[] single = {socket};
+            DatagramSocket[] many = new DatagramSocket[clients];
+            for (int i = 0; i < clients; i++) {
+                many[i] = newSocket();
+            }
+            try {
+                // Warm-up: fills the store and gets the packet loop JIT compiled
+                send(serverThreads, single, puts, numKeys);
+                send(serverThreads, single, textGets, requests);
+                send(serverThreads, single, binaryGets, requests);
+
+                StringBuilder report = new StringBuilder();
+                report.append(measure("text GET", serverThreads, single, textGets, requests));
+                report.append(measure("binary GET", serverThreads, single, binaryGets, requests));
+                report.append(measure("text GET, " + clients + " clients", serverThreads, many, textGets, requests));
+                report.append(measure("text PUT", serverThreads, single, puts, requests));
+                report.append(measure("tagged text GET", serverThreads, single, taggedGets, requests));
+                logger.log("Server allocation per packet:" + report);
+            } finally {
+                for (DatagramSocket client : many) {
+                    if (client != null) {
+                        client.close();
+                    }
+                }
+            }
+        }
+    }
+
+    private String measure(String name, Thread[] serverThreads, DatagramSocket[] sockets, byte[][] mix, int requests)
+            throws IOException {
+        long start = System.nanoTime();
+        long allocated = send(serverThreads, sockets, mix, requests);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return String.format("%n  %-24s %8.1f bytes/packet %8.0f packets/s",
+                name, (double) allocated / requests, requests / seconds);
+    }
+
+    /**
+     * Sends the requests one at a time, rotating over the mix and the client sockets
+     * @return Bytes the server threads allocated meanwhile
+     */
+    private long send(Thread[] serverThreads, DatagramSocket[] sockets, byte[][] mix, int requests) throws IOException {
+        long before = allocatedBytes(serverThreads);
+        for (int i = 0; i < requests; i++) {
+            DatagramSocket socket = sockets[i % sockets.length];
+            byte[] request = mix[i % mix.length];
+            socket.send(new DatagramPacket(request, request.length, address, PORT));
+            receivePacket.setLength(receiveData.length);
+            socket.receive(receivePacket);
+        }
+        return allocatedBytes(serverThreads) - before;
+    }
+
+    private static DatagramSocket newSocket() throws IOException {
+        DatagramSocket socket = new DatagramSocket();
+        socket.setSoTimeout(TIMEOUT_MILLIS);
+        return socket;
+    }
+
+    private static long allocatedBytes(Thread[] threads) {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (Thread thread : threads) {
+            total += bean.getThreadAllocatedBytes(thread.threadId());
+        }
+        return total;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 4) {
+            System.out.println("Usage: java test.UDPAllocationBenchmark [requests] [numKeys] [clients] [sockets]");
+            return;
+        }
+
+        // Default: 200,000 requests per mix over 1000 keys, 16 clients in the last mix, one socket
+        int requests = (args.length > 0) ? Integer.parseInt(args[0]) : 200_000;
+        int numKeys = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+        int clients = (args.length > 2) ? Integer.parseInt(args[2]) : 16;
+        int sockets = (args.length > 3) ? Integer.parseInt(args[3]) : 1;
+
+        new UDPAllocationBenchmark(numKeys, sockets).run(requests, clients);
+    }
+}
@@ -0,0 +1,115 @@
+package test;
+
+import client.UDPClient;
+import common.Logger;
+import common.Protocol;
+import server.UDPServer;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+/**
+ * Allocation benchmark for the UDPClient GET loop
+ * Starts a UDPServer in this JVM, stores the keys, then reads them back one at a time
+ * through sendRequest() and through get(). For each it reports the bytes the calling
+ * thread allocated per GET, read from the JVM's per-thread allocation counter, so the
+ * server side of the benchmark is not counted.
+ *
+ * sendRequest() logs every request and answer, so standard output is discarded while
+ * the loops run; what it allocates for the log lines is part of what it costs.
+ * get() should allocate nothing once warmed up.
+ *
+ * Needs JDK 21 like the rest of the tree: the thread is identified by Thread.threadId().
+ */
+public class UDPClientAllocationBenchmark {
+    private static final int PORT = 20000;
+
+    private final Logger logger;
+    private final String[] keys;
+
+    public UDPClientAllocationBenchmark(int numKeys) {
+        this.logger = new Logger(UDPClientAllocationBenchmark.class);
+        this.keys = new String[numKeys];
+        for (int i = 0; i < numKeys; i++) {
+            keys[i] = "clientKey" + i;
+        }
+    }
+
+    /**
+     * @param requests Number of GETs measured per loop
+     */
+    public void run(int requests) throws Exception {
+        Thread serverThread = new Thread(() -> new UDPServer(PORT, 2).start(), "udp-client-alloc-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+        Thread.sleep(500);
+
+        PrintStream console = System.out;
+        StringBuilder report = new StringBuilder();
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try (UDPClient client = new UDPClient("localhost", PORT)) {
+            ByteBuffer value = ByteBuffer.allocate(1024);
+            for (int i = 0; i < keys.length; i++) {
+                client.sendRequest(Protocol.PUT, keys[i], "value" + i);
+            }
+            // Warm-up: gets both loops JIT compiled
+            sendRequests(client, requests);
+            gets(client, value, requests);
+
+            report.append(measure("sendRequest GET", requests, () -> sendRequests(client, requests)));
+            report.append(measure("get into buffer", requests, () -> gets(client, value, requests)));
+        } finally {
+            System.setOut(console);
+        }
+        logger.log("Client allocation per GET:" + report);
+    }
+
+    private interface Loop {
+        void run() throws Exception;
+    }
+
+    private static String measure(String name, int requests, Loop loop) throws Exception {
+        long before = allocatedBytes();
+        long start = System.nanoTime();
+        loop.run();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long allocated = allocatedBytes() - before;
+        return String.format("%n  %-20s %8.1f bytes/GET %8.0f GETs/s",
+                name, (double) allocated / requests, requests / seconds);
+    }
+
+    private void sendRequests(UDPClient client, int requests) {
+        for (int i = 0; i < requests; i++) {
+            client.sendRequest(Protocol.GET, keys[i % keys.length], null);
+        }
+    }
+
+    private void gets(UDPClient client, ByteBuffer value, int requests) throws Exception {
+        for (int i = 0; i < requests; i++) {
+            value.clear();
+            if (client.get(keys[i % keys.length], value) < 0) {
+                throw new IllegalStateException("Missing " + keys[i % keys.length]);
+            }
+        }
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().threadId());
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 2) {
+            System.out.println("Usage: java test.UDPClientAllocationBenchmark [requests] [numKeys]");
+            return;
+        }
+
+        // Default: 100,000 GETs per loop over 1000 keys
+        int requests = (args.length > 0) ? Integer.parseInt(args[0]) : 100_000;
+        int numKeys = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+
+        new UDPClientAllocationBenchmark(numKeys).run(requests);
+    }
+}
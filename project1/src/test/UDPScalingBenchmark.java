@@ -0,0 +1,115 @@
+package test;
+
+import common.Logger;
+import server.UDPServer;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Multi-socket UDP scaling benchmark
+ * Starts UDPServer in this JVM with 1, 2, 4, ... maxSockets SO_REUSEPORT sockets and
+ * drives each with the same number of clients, every client on its own socket (and so
+ * its own flow) sending GET requests one at a time. Reports the throughput, the lost
+ * requests and how the kernel spread the datagrams over the server sockets.
+ *
+ * Clients and server share the machine, so as with ReactorScalingBenchmark the curve
+ * flattens once the cores are busy; restrict the JVM with taskset to pick a core count.
+ */
+public class UDPScalingBenchmark {
+    // Each server gets its own port, since servers cannot be stopped
+    private static final int BASE_PORT = 19300;
+    // A request without an answer in this time counts as lost
+    private static final int TIMEOUT_MILLIS = 200;
+
+    private final Logger logger;
+
+    public UDPScalingBenchmark() {
+        this.logger = new Logger(UDPScalingBenchmark.class);
+    }
+
+    /**
+     * @param maxSockets Largest number of server sockets to try
+     * @param clients Number of client threads
+     * @param seconds Duration of each run
+     */
+    public void run(int maxSockets, int clients, int seconds) throws Exception {
+        StringBuilder report = new StringBuilder();
+        for (int sockets = 1; sockets <= maxSockets; sockets *= 2) {
+            int port = BASE_PORT + sockets;
+            UDPServer server = new UDPServer(port, sockets);
+            Thread thread = new Thread(server::start, "server-" + port);
+            thread.setDaemon(true);
+            thread.start();
+            Thread.sleep(500);
+
+            long[] result = measure(port, clients, seconds);
+            report.append(String.format("%n  %2d socket(s): %10.0f req/s, %d lost, per socket %s",
+                    sockets, result[0] / (double) seconds, result[1], Arrays.toString(server.receivedCounts())));
+        }
+        logger.log("Scaling with " + clients + " clients on "
+                + Runtime.getRuntime().availableProcessors() + " processor(s):" + report);
+    }
+
+    /**
+     * @return Answered and lost requests
+     */
+    private long[] measure(int port, int clients, int seconds) throws Exception {
+        InetAddress address = InetAddress.getByName("localhost");
+        AtomicLong answered = new AtomicLong();
+        AtomicLong lost = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(clients);
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+
+        for (int i = 0; i < clients; i++) {
+            byte[] request = ("GET scaleKey" + i).getBytes(StandardCharsets.UTF_8);
+            Thread thread = new Thread(() -> {
+                try (DatagramSocket socket = new DatagramSocket()) {
+                    socket.setSoTimeout(TIMEOUT_MILLIS);
+                    DatagramPacket sendPacket = new DatagramPacket(request, request.length, address, port);
+                    byte[] receiveData = new byte[1024];
+                    DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
+                    while (System.nanoTime() < deadline) {
+                        socket.send(sendPacket);
+                        try {
+                            receivePacket.setLength(receiveData.length);
+                            socket.receive(receivePacket);
+                            answered.incrementAndGet();
+                        } catch (SocketTimeoutException e) {
+                            lost.incrementAndGet();
+                        }
+                    }
+                } catch (IOException e) {
+                    logger.log("Client error: " + e.getMessage());
+                } finally {
+                    done.countDown();
+                }
+            }, "bench-client-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+        return new long[]{answered.get(), lost.get()};
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 3) {
+            System.out.println("Usage: java test.UDPScalingBenchmark [maxSockets] [clients] [seconds]");
+            return;
+        }
+
+        // Default: 1 to 8 sockets, 64 clients, 5 seconds per run
+        int maxSockets = (args.length > 0) ? Integer.parseInt(args[0]) : 8;
+        int clients = (args.length > 1) ? Integer.parseInt(args[1]) : 64;
+        int seconds = (args.length > 2) ? Integer.parseInt(args[2]) : 5;
+
+        new UDPScalingBenchmark().run(maxSockets, clients, seconds);
+    }
+}
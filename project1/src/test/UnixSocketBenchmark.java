@@ -0,0 +1,156 @@
+package test;
+
+import common.Logger;
+import common.Protocol;
+import server.TCPServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Latency benchmark: loopback TCP against a Unix domain socket
+ * Starts one TCPServer in this JVM listening on both, then times single GET round trips
+ * (send one request, wait for its answer) over each transport, with the same client
+ * code on both, for:
+ * - requests on a connection that stays open
+ * - a new connection per request, as TCPClient.sendRequest does
+ *
+ * TCPServer logs every request, and those lines would drown the report, so standard
+ * output is discarded while the workloads run. The logging still costs the server the
+ * same few microseconds per request on both transports.
+ */
+public class UnixSocketBenchmark {
+    private static final int PORT = 19600;
+
+    private final Logger logger;
+
+    public UnixSocketBenchmark() {
+        this.logger = new Logger(UnixSocketBenchmark.class);
+    }
+
+    /**
+     * @param requests Round trips timed per workload and transport
+     */
+    public void run(int requests) throws Exception {
+        Path path = Files.createTempDirectory("kvstore").resolve("kvstore.sock");
+        TCPServer server = new TCPServer(PORT, true);
+        Thread tcpListener = new Thread(server::start, "server-" + PORT);
+        tcpListener.setDaemon(true);
+        tcpListener.start();
+        Thread unixListener = new Thread(() -> server.startUnix(path), "server-unix");
+        unixListener.setDaemon(true);
+        unixListener.start();
+        Thread.sleep(500);
+
+        SocketAddress tcp = new InetSocketAddress("localhost", PORT);
+        SocketAddress unix = UnixDomainSocketAddress.of(path);
+        byte[] request = (Protocol.createRequest(Protocol.GET, "latencyKey", null) + "\n").getBytes(StandardCharsets.UTF_8);
+
+        PrintStream console = System.out;
+        StringBuilder report = new StringBuilder();
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            // Warm-up
+            persistent(tcp, request, requests);
+            persistent(unix, request, requests);
+            perConnection(tcp, request, requests / 10);
+            perConnection(unix, request, requests / 10);
+
+            report.append(summary("open connection, TCP", persistent(tcp, request, requests)));
+            report.append(summary("open connection, Unix", persistent(unix, request, requests)));
+            report.append(summary("connect per request, TCP", perConnection(tcp, request, requests / 10)));
+            report.append(summary("connect per request, Unix", perConnection(unix, request, requests / 10)));
+        } finally {
+            System.setOut(console);
+        }
+        logger.log("Round trip latency:" + report);
+    }
+
+    private static SocketChannel connect(SocketAddress address) throws IOException {
+        SocketChannel channel = SocketChannel.open(address);
+        if (address instanceof InetSocketAddress) {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        }
+        return channel;
+    }
+
+    /**
+     * @return The time each round trip took, in nanoseconds
+     */
+    private static long[] persistent(SocketAddress address, byte[] request, int requests) throws IOException {
+        long[] latencies = new long[requests];
+        ByteBuffer response = ByteBuffer.allocate(256);
+        try (SocketChannel channel = connect(address)) {
+            for (int i = 0; i < requests; i++) {
+                long start = System.nanoTime();
+                roundTrip(channel, request, response);
+                latencies[i] = System.nanoTime() - start;
+            }
+        }
+        return latencies;
+    }
+
+    private static long[] perConnection(SocketAddress address, byte[] request, int requests) throws IOException {
+        long[] latencies = new long[requests];
+        ByteBuffer response = ByteBuffer.allocate(256);
+        for (int i = 0; i < requests; i++) {
+            long start = System.nanoTime();
+            try (SocketChannel channel = connect(address)) {
+                roundTrip(channel, request, response);
+            }
+            latencies[i] = System.nanoTime() - start;
+        }
+        return latencies;
+    }
+
+    /**
+     * Writes one request and reads until the end of its response line
+     */
+    private static void roundTrip(SocketChannel channel, byte[] request, ByteBuffer response) throws IOException {
+        channel.write(ByteBuffer.wrap(request));
+        response.clear();
+        do {
+            if (channel.read(response) < 0) {
+                throw new IOException("Connection closed by server");
+            }
+        } while (response.get(response.position() - 1) != '\n');
+    }
+
+    private static String summary(String name, long[] latencies) {
+        Arrays.sort(latencies);
+        long total = 0;
+        for (long latency : latencies) {
+            total += latency;
+        }
+        double mean = total / 1000.0 / latencies.length;
+        return String.format("%n  %-26s mean %7.1f us  p50 %7.1f us  p99 %7.1f us  p99.9 %7.1f us",
+                name, mean, percentile(latencies, 0.50), percentile(latencies, 0.99), percentile(latencies, 0.999));
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * fraction))] / 1000.0;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 1) {
+            System.out.println("Usage: java test.UnixSocketBenchmark [requests]");
+            return;
+        }
+
+        // Default: 50000 round trips on an open connection, a tenth of that with a connection each
+        int requests = (args.length > 0) ? Integer.parseInt(args[0]) : 50000;
+
+        new UnixSocketBenchmark().run(requests);
+    }
+}
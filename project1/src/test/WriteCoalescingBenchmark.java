@@ -0,0 +1,153 @@
+package test;
+
+import client.MultiplexedTCPClient;
+import client.TCPClient;
+import common.Logger;
+import common.Protocol;
+import server.TCPServer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Response coalescing benchmark for TCPServer
+ * Starts TCPServer in this JVM and reports how many requests each socket write (one
+ * write system call) carried, using the server's socketWrites() counter, for:
+ * - pipelined untagged requests (TCPClient.sendPipelined)
+ * - tagged requests sent in one burst on a raw connection
+ * - tagged requests from several threads sharing a MultiplexedTCPClient
+ *
+ * TCPServer logs every request, and those lines would drown the report, so standard
+ * output is discarded while the workloads run.
+ */
+public class WriteCoalescingBenchmark {
+    private static final int PORT = 19500;
+
+    private final Logger logger;
+    private TCPServer server;
+
+    public WriteCoalescingBenchmark() {
+        this.logger = new Logger(WriteCoalescingBenchmark.class);
+    }
+
+    /**
+     * @param requests Requests per workload
+     * @param threads Threads sharing the multiplexed connection
+     */
+    public void run(int requests, int threads) throws Exception {
+        server = new TCPServer(PORT, true);
+        Thread serverThread = new Thread(server::start, "server-" + PORT);
+        serverThread.setDaemon(true);
+        serverThread.start();
+        Thread.sleep(500);
+
+        PrintStream console = System.out;
+        StringBuilder report = new StringBuilder();
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            new TCPClient("localhost", PORT).sendRequest(Protocol.PUT, "coalesceKey", "value");
+            // Warm-up
+            pipelined(requests);
+            taggedBurst(requests);
+            multiplexed(requests, threads);
+
+            report.append(measure("pipelined, depth 64", () -> pipelined(requests), requests));
+            report.append(measure("tagged burst", () -> taggedBurst(requests), requests));
+            report.append(measure("tagged, " + threads + " threads", () -> multiplexed(requests, threads), requests));
+        } finally {
+            System.setOut(console);
+        }
+        logger.log("Requests per socket write:" + report);
+    }
+
+    private interface Workload {
+        void run() throws Exception;
+    }
+
+    private String measure(String name, Workload workload, int requests) throws Exception {
+        long before = server.socketWrites();
+        long start = System.nanoTime();
+        workload.run();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long writes = server.socketWrites() - before;
+        return String.format("%n  %-22s %8d writes %8.1f requests/write %9.0f req/s",
+                name, writes, (double) requests / writes, requests / seconds);
+    }
+
+    private void pipelined(int requests) throws IOException {
+        List<String> batch = new ArrayList<>(requests);
+        for (int i = 0; i < requests; i++) {
+            batch.add(Protocol.createRequest(Protocol.GET, "coalesceKey", null));
+        }
+        new TCPClient("localhost", PORT).sendPipelined(batch, 64);
+    }
+
+    /**
+     * Writes all tagged requests at once, then reads the answers
+     */
+    private void taggedBurst(int requests) throws IOException {
+        StringBuilder burst = new StringBuilder();
+        for (int i = 0; i < requests; i++) {
+            burst.append(Protocol.withRequestId(i, Protocol.createRequest(Protocol.GET, "coalesceKey", null))).append('\n');
+        }
+        try (Socket socket = new Socket("localhost", PORT)) {
+            Thread writer = new Thread(() -> {
+                try {
+                    socket.getOutputStream().write(burst.toString().getBytes(StandardCharsets.UTF_8));
+                } catch (IOException e) {
+                    // The reads below fail too
+                }
+            });
+            writer.start();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            for (int i = 0; i < requests; i++) {
+                if (in.readLine() == null) {
+                    throw new IOException("Connection closed after " + i + " responses");
+                }
+            }
+        }
+    }
+
+    /**
+     * Threads sharing one connection, each waiting for its answer before the next request
+     */
+    private void multiplexed(int requests, int threads) throws Exception {
+        try (MultiplexedTCPClient client = new MultiplexedTCPClient("localhost", PORT)) {
+            List<Thread> senders = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                Thread sender = new Thread(() -> {
+                    for (int i = 0; i < requests / threads; i++) {
+                        CompletableFuture<String> response = client.send(Protocol.GET, "coalesceKey", null);
+                        response.join();
+                    }
+                });
+                sender.start();
+                senders.add(sender);
+            }
+            for (Thread sender : senders) {
+                sender.join();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 2) {
+            System.out.println("Usage: java test.WriteCoalescingBenchmark [requests] [threads]");
+            return;
+        }
+
+        // Default: 20000 requests per workload, 16 threads on the multiplexed connection
+        int requests = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+        int threads = (args.length > 1) ? Integer.parseInt(args[1]) : 16;
+
+        new WriteCoalescingBenchmark().run(requests, threads);
+    }
+}
@@ -0,0 +1,117 @@
+import org.junit.Test;
+import common.BinaryProtocol;
+import server.AdmissionControl;
+import server.TCPServer;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Test suite for AdmissionControl and the BUSY answers of TCPServer
+ */
+public class AdmissionControlTest {
+  private static final int TEST_PORT = 8895;
+
+  /**
+   * Test that requests beyond the in-flight limit are refused until one is done
+   */
+  @Test
+  public void testInFlightLimit() {
+    AdmissionControl admission = new AdmissionControl(10, 2, 5, 100);
+    assertTrue(admission.admitRequest());
+    assertTrue(admission.admitRequest());
+    assertFalse(admission.admitRequest());
+    admission.requestDone();
+    assertTrue(admission.admitRequest());
+    assertEquals(1, admission.shedInFlight());
+    assertEquals(1, admission.shedRequests());
+  }
+
+  /**
+   * Test that the connection limit holds until a connection is closed
+   */
+  @Test
+  public void testConnectionLimit() {
+    AdmissionControl admission = new AdmissionControl(1, 10, 5, 100);
+    assertTrue(admission.admitConnection());
+    assertFalse(admission.admitConnection());
+    admission.connectionClosed();
+    assertTrue(admission.admitConnection());
+    assertEquals(1, admission.shedConnections());
+  }
+
+  /**
+   * Test CoDel: a standing queue delay sheds the requests that waited too long,
+   * and a queue that drains again stops the shedding
+   */
+  @Test
+  public void testQueueDelayShedding() throws InterruptedException {
+    AdmissionControl admission = new AdmissionControl(10, 10, 1, 20);
+    long slow = 50_000_000L;
+    // Nothing is shed during the interval that finds out about the overload
+    assertFalse(admission.shedOnDequeue(System.nanoTime() - slow));
+    Thread.sleep(30);
+    assertTrue(admission.shedOnDequeue(System.nanoTime() - slow));
+    // A request that did not wait is never shed
+    assertFalse(admission.shedOnDequeue(System.nanoTime()));
+    // That fast request ends the overload once its interval is over
+    Thread.sleep(30);
+    assertFalse(admission.shedOnDequeue(System.nanoTime() - slow));
+    assertEquals(1, admission.shedQueueDelay());
+  }
+
+  /**
+   * Test a TCPServer with room for two connections: a third one gets BUSY and is closed,
+   * and once one closes a new connection is served again
+   */
+  @Test
+  public void testServerRefusesConnections() throws Exception {
+    AdmissionControl admission = new AdmissionControl(2, 16, 5, 100);
+    ExecutorService serverExecutor = Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r);
+      thread.setDaemon(true);
+      return thread;
+    });
+    serverExecutor.submit(() -> new TCPServer(TEST_PORT, true, admission).start());
+    Thread.sleep(1000);
+
+    try (Socket first = connect(); Socket second = connect()) {
+      assertEquals("PUT_OK", exchange(first, "PUT admitted yes"));
+      assertEquals("GET_RESULT yes", exchange(second, "GET admitted"));
+      try (Socket third = connect()) {
+        BufferedReader in = reader(third);
+        assertEquals("BUSY", in.readLine());
+        assertNull(in.readLine());
+      }
+      assertEquals(1, admission.shedConnections());
+    }
+    // The server gives the slots back once it sees the connections close
+    Thread.sleep(200);
+    try (Socket again = connect()) {
+      OutputStream out = again.getOutputStream();
+      out.write(BinaryProtocol.encodeRequest(BinaryProtocol.OP_GET, "admitted", null));
+      out.flush();
+      assertEquals(BinaryProtocol.STATUS_OK, BinaryProtocol.readResponse(again.getInputStream()).getStatus());
+    }
+  }
+
+  private static Socket connect() throws IOException {
+    Socket socket = new Socket("localhost", TEST_PORT);
+    socket.setSoTimeout(5000);
+    return socket;
+  }
+
+  private static BufferedReader reader(Socket socket) throws IOException {
+    return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+  }
+
+  private static String exchange(Socket socket, String request) throws IOException {
+    socket.getOutputStream().write((request + "\n").getBytes(StandardCharsets.UTF_8));
+    return reader(socket).readLine();
+  }
+}
@@ -0,0 +1,217 @@
+import client.TCPClient;
+import client.UDPClient;
+import common.Protocol;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import server.AdmissionControl;
+import server.TCPServer;
+import server.UDPServer;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Test suite for the CompletableFuture APIs of TCPClient and UDPClient
+ * Every test sends from the test thread only, with many requests in flight at once
+ */
+public class AsyncClientTest {
+  private static final int TCP_PORT = 8901;
+  private static final int UDP_PORT = 8902;
+  private static final int MOCK_PORT = 8903;
+  private static final int REQUESTS = 200;
+
+  /**
+   * Starts a TCPServer in virtual thread mode and a UDPServer
+   * The TCPServer's queue delay target is loose enough that a burst of tagged requests
+   * on a slow machine is not answered BUSY
+   */
+  @BeforeClass
+  public static void startServers() throws Exception {
+    TCPServer tcpServer = new TCPServer(TCP_PORT, true, new AdmissionControl(
+        AdmissionControl.DEFAULT_MAX_CONNECTIONS, AdmissionControl.DEFAULT_MAX_IN_FLIGHT, 1000, 1000));
+    for (Runnable server : new Runnable[]{tcpServer::start, new UDPServer(UDP_PORT)::start}) {
+      Thread thread = new Thread(server);
+      thread.setDaemon(true);
+      thread.start();
+    }
+    Thread.sleep(1000);
+  }
+
+  /**
+   * Test many TCP requests in flight on one connection, each answered to its own future
+   */
+  @Test
+  public void testTcpRequestsInFlight() throws Exception {
+    try (TCPClient client = new TCPClient("localhost", TCP_PORT)) {
+      List<CompletableFuture<String>> puts = new ArrayList<>();
+      for (int i = 0; i < REQUESTS; i++) {
+        puts.add(client.sendAsync(Protocol.PUT, "asyncTcp" + i, "value" + i));
+      }
+      CompletableFuture.allOf(puts.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+      for (CompletableFuture<String> put : puts) {
+        assertEquals("PUT_OK", put.get());
+      }
+
+      List<CompletableFuture<String>> gets = new ArrayList<>();
+      for (int i = 0; i < REQUESTS; i++) {
+        gets.add(client.sendAsync(Protocol.GET, "asyncTcp" + i, null));
+      }
+      for (int i = 0; i < REQUESTS; i++) {
+        assertEquals("GET_RESULT value" + i, gets.get(i).get(10, TimeUnit.SECONDS));
+      }
+    }
+  }
+
+  /**
+   * Test composing a fan-out read without blocking in between
+   */
+  @Test
+  public void testTcpFanOut() throws Exception {
+    try (TCPClient client = new TCPClient("localhost", TCP_PORT)) {
+      CompletableFuture<String> combined = client.sendAsync(Protocol.PUT, "fanA", "1")
+          .thenCombine(client.sendAsync(Protocol.PUT, "fanB", "2"), (a, b) -> a + b)
+          .thenCompose(ignored -> client.sendAsync(Protocol.GET, "fanA", null)
+              .thenCombine(client.sendAsync(Protocol.GET, "fanB", null), (a, b) -> a + " / " + b));
+      assertEquals("GET_RESULT 1 / GET_RESULT 2", combined.get(10, TimeUnit.SECONDS));
+    }
+  }
+
+  /**
+   * Test that a connection failure fails the future, and closing the client fails the
+   * requests still waiting
+   */
+  @Test
+  public void testTcpFailures() throws Exception {
+    try (TCPClient client = new TCPClient("localhost", MOCK_PORT)) {
+      try {
+        client.sendAsync(Protocol.GET, "nobody", null).get(10, TimeUnit.SECONDS);
+        fail("Expected the connection to be refused");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof IOException);
+      }
+    }
+
+    // A server that accepts, then never answers
+    try (ServerSocket silent = new ServerSocket(MOCK_PORT)) {
+      TCPClient client = new TCPClient("localhost", MOCK_PORT);
+      CompletableFuture<String> future = client.sendAsync(Protocol.GET, "silentKey", null);
+      // Held open until the client gave up on it
+      Socket accepted = silent.accept();
+      try {
+        assertFalse(future.isDone());
+        client.close();
+        try {
+          future.get(10, TimeUnit.SECONDS);
+          fail("Expected the request to fail on close");
+        } catch (ExecutionException e) {
+          assertEquals("Client is closed", e.getCause().getMessage());
+        }
+      } finally {
+        accepted.close();
+      }
+    }
+  }
+
+  /**
+   * Test that an untagged error fails the oldest request still waiting, and that a
+   * request left unanswered fails with a timeout instead of waiting forever
+   */
+  @Test
+  public void testTcpUntaggedErrorAndTimeout() throws Exception {
+    try (ServerSocket mock = new ServerSocket(MOCK_PORT);
+         TCPClient client = new TCPClient("localhost", MOCK_PORT).asyncTimeout(1000)) {
+      CompletableFuture<String> first = client.sendAsync(Protocol.GET, "firstKey", null);
+      CompletableFuture<String> second = client.sendAsync(Protocol.GET, "secondKey", null);
+      try (Socket accepted = mock.accept()) {
+        BufferedReader in = new BufferedReader(new InputStreamReader(accepted.getInputStream(), StandardCharsets.UTF_8));
+        assertEquals(0, Protocol.parseRequestId(in.readLine()));
+        assertEquals(1, Protocol.parseRequestId(in.readLine()));
+        accepted.getOutputStream().write("ERROR Invalid request\n".getBytes(StandardCharsets.UTF_8));
+        try {
+          first.get(10, TimeUnit.SECONDS);
+          fail("Expected the untagged error to fail the oldest request");
+        } catch (ExecutionException e) {
+          assertEquals("Server could not read a request: ERROR Invalid request", e.getCause().getMessage());
+        }
+        assertFalse(second.isDone());
+
+        try {
+          second.get(10, TimeUnit.SECONDS);
+          fail("Expected a timeout");
+        } catch (ExecutionException e) {
+          assertTrue(e.getCause() instanceof TimeoutException);
+        }
+      }
+    }
+  }
+
+  /**
+   * Test many UDP requests in flight on one channel
+   */
+  @Test
+  public void testUdpRequestsInFlight() throws Exception {
+    try (UDPClient client = new UDPClient("localhost", UDP_PORT)) {
+      List<CompletableFuture<String>> puts = new ArrayList<>();
+      for (int i = 0; i < REQUESTS; i++) {
+        puts.add(client.sendAsync(Protocol.PUT, "asyncUdp" + i, "value" + i));
+      }
+      CompletableFuture.allOf(puts.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+
+      List<CompletableFuture<String>> gets = new ArrayList<>();
+      for (int i = 0; i < REQUESTS; i++) {
+        gets.add(client.sendAsync(Protocol.GET, "asyncUdp" + i, null));
+      }
+      for (int i = 0; i < REQUESTS; i++) {
+        assertEquals("GET_RESULT value" + i, gets.get(i).get(10, TimeUnit.SECONDS));
+      }
+    }
+  }
+
+  /**
+   * Test that an unanswered UDP request is resent, with the same request ID, and fails
+   * with a timeout once every attempt went unanswered
+   */
+  @Test
+  public void testUdpRetransmission() throws Exception {
+    try (DatagramSocket mock = new DatagramSocket(MOCK_PORT);
+         UDPClient client = new UDPClient("localhost", MOCK_PORT)) {
+      mock.setSoTimeout(5000);
+      CompletableFuture<String> answered = client.sendAsync(Protocol.GET, "lossyKey", null);
+      byte[] buffer = new byte[1024];
+      DatagramPacket first = new DatagramPacket(buffer, buffer.length);
+      mock.receive(first);
+      String request = new String(first.getData(), 0, first.getLength(), StandardCharsets.UTF_8);
+      // Dropped; answer the resent copy
+      DatagramPacket second = new DatagramPacket(new byte[1024], 1024);
+      mock.receive(second);
+      assertEquals(request, new String(second.getData(), 0, second.getLength(), StandardCharsets.UTF_8));
+      byte[] response = Protocol.withRequestId(Protocol.parseRequestId(request), "GET_RESULT late")
+          .getBytes(StandardCharsets.UTF_8);
+      mock.send(new DatagramPacket(response, response.length, second.getSocketAddress()));
+      assertEquals("GET_RESULT late", answered.get(5, TimeUnit.SECONDS));
+
+      CompletableFuture<String> unanswered = client.sendAsync(Protocol.GET, "lostKey", null);
+      try {
+        unanswered.get(10, TimeUnit.SECONDS);
+        fail("Expected a timeout");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof SocketTimeoutException);
+      }
+    }
+  }
+}
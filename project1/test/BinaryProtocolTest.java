@@ -0,0 +1,128 @@
+import common.BinaryProtocol;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Test suite for BinaryProtocol class
+ * Verifies varint coding, frame layout and protocol detection
+ */
+public class BinaryProtocolTest {
+
+  /**
+   * Test varint round trips at the byte-length boundaries
+   */
+  @Test
+  public void testVarintRoundTrip() throws IOException {
+    int[] values = {0, 1, 127, 128, 16383, 16384, 2097151, 2097152, Integer.MAX_VALUE};
+    for (int value : values) {
+      ByteBuffer buffer = ByteBuffer.allocate(5);
+      BinaryProtocol.writeVarint(buffer, value);
+      assertEquals(BinaryProtocol.varintSize(value), buffer.position());
+      buffer.flip();
+      assertEquals(value, BinaryProtocol.readVarint(buffer));
+
+      ByteArrayOutputStream stream = new ByteArrayOutputStream();
+      BinaryProtocol.writeVarint(stream, value);
+      assertEquals(value, BinaryProtocol.readVarint(new ByteArrayInputStream(stream.toByteArray())));
+    }
+  }
+
+  /**
+   * Test request frame layout
+   * Verifies opcode, lengths and raw bytes are laid out as documented
+   */
+  @Test
+  public void testEncodeRequest() {
+    byte[] value = "a value\nwith spaces".getBytes(StandardCharsets.UTF_8);
+    byte[] frame = BinaryProtocol.encodeRequest(BinaryProtocol.OP_PUT, "key", value);
+
+    ByteBuffer buffer = ByteBuffer.wrap(frame);
+    assertEquals(BinaryProtocol.OP_PUT, buffer.get());
+    assertArrayEquals("key".getBytes(StandardCharsets.UTF_8), BinaryProtocol.readField(buffer));
+    assertArrayEquals(value, BinaryProtocol.readField(buffer));
+    assertFalse(buffer.hasRemaining());
+
+    // GET carries an empty value field
+    frame = BinaryProtocol.encodeRequest(BinaryProtocol.OP_GET, "key", null);
+    assertEquals(1 + 1 + 3 + 1, frame.length);
+  }
+
+  /**
+   * Test response frame round trip
+   */
+  @Test
+  public void testResponseRoundTrip() throws IOException {
+    byte[] payload = {0, 1, 2, (byte) 0xFF};
+    ByteBuffer buffer = ByteBuffer.allocate(BinaryProtocol.encodedResponseSize(payload));
+    BinaryProtocol.writeResponse(buffer, BinaryProtocol.STATUS_OK, payload);
+    assertFalse(buffer.hasRemaining());
+
+    BinaryProtocol.Response response = BinaryProtocol.readResponse(new ByteArrayInputStream(buffer.array()));
+    assertTrue(response.isOk());
+    assertArrayEquals(payload, response.getPayload());
+
+    BinaryProtocol.Response notFound = new BinaryProtocol.Response(BinaryProtocol.STATUS_NOT_FOUND, new byte[0]);
+    assertEquals("GET_ERROR", notFound.toText(BinaryProtocol.OP_GET));
+  }
+
+  /**
+   * Test protocol detection and opcode mapping
+   */
+  @Test
+  public void testDetection() {
+    assertTrue(BinaryProtocol.isBinary(BinaryProtocol.OP_GET));
+    assertTrue(BinaryProtocol.isBinary(BinaryProtocol.OP_GET & 0xFF));
+    assertFalse(BinaryProtocol.isBinary('G'));
+    assertFalse(BinaryProtocol.isBinary('p'));
+
+    assertEquals(BinaryProtocol.OP_PUT, BinaryProtocol.opcodeFor("put"));
+    assertEquals(BinaryProtocol.OP_SCAN, BinaryProtocol.opcodeFor("SCAN"));
+    assertEquals(0, BinaryProtocol.opcodeFor("INVALID"));
+  }
+
+  /**
+   * Test tagging a frame and a batch, and reading the ID back from the responses
+   */
+  @Test
+  public void testRequestIds() throws IOException {
+    byte[] frame = BinaryProtocol.encodeRequest(BinaryProtocol.OP_GET, "key", null);
+    assertArrayEquals(BinaryProtocol.encodeRequest(BinaryProtocol.OP_GET, 300, "key", null),
+        BinaryProtocol.withRequestId(frame, 300));
+
+    byte[] batch = BinaryProtocol.encodeBatch(300, List.of(frame, frame));
+    assertTrue(BinaryProtocol.isBatch(batch[0]));
+    assertTrue(BinaryProtocol.isBatch(BinaryProtocol.OP_BATCH));
+    assertFalse(BinaryProtocol.isBatch(frame[0]));
+    assertEquals(300, BinaryProtocol.responseId(ByteBuffer.wrap(batch)));
+
+    // A tagged batch response reads like an untagged one
+    ByteBuffer response = ByteBuffer.allocate(16);
+    response.put(batch[0]).put(batch[1]).put(batch[2]).put((byte) 1);
+    BinaryProtocol.writeResponse(response, BinaryProtocol.STATUS_NOT_FOUND, null);
+    assertEquals(BinaryProtocol.STATUS_NOT_FOUND, BinaryProtocol.readBatchResponse(
+        new ByteArrayInputStream(response.array(), 0, response.position())).get(0).getStatus());
+
+    assertEquals(-1, BinaryProtocol.responseId(ByteBuffer.wrap(new byte[]{BinaryProtocol.STATUS_OK, 0})));
+    assertEquals(-1, BinaryProtocol.responseId(ByteBuffer.allocate(0)));
+    // 'H' has FLAG_REQUEST_ID set, but a text line is no tagged response
+    assertEquals(-1, BinaryProtocol.responseId(ByteBuffer.wrap("HELLO_OK 1".getBytes(StandardCharsets.US_ASCII))));
+    assertTrue(BinaryProtocol.isUntaggedError(BinaryProtocol.STATUS_ERROR));
+    assertFalse(BinaryProtocol.isUntaggedError(BinaryProtocol.STATUS_OK));
+  }
+
+  /**
+   * Test truncated input is reported instead of returning garbage
+   */
+  @Test(expected = IOException.class)
+  public void testTruncatedField() throws IOException {
+    // Length says 10 bytes but only 2 follow
+    BinaryProtocol.readField(new ByteArrayInputStream(new byte[]{10, 'a', 'b'}));
+  }
+}
@@ -0,0 +1,151 @@
+import common.BinaryProtocol;
+import org.junit.Before;
+import org.junit.Test;
+import server.CommandDispatcher;
+import server.CommandMetrics;
+import server.RateLimiter;
+import server.RequestParser;
+import server.RequestProcessor;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test suite for CommandDispatcher and its interceptors
+ * Verifies the handler table, the order interceptors run in and error handling,
+ * without a server
+ */
+public class CommandDispatcherTest {
+  private CommandDispatcher dispatcher;
+  private RequestParser parser;
+
+  @Before
+  public void setUp() {
+    dispatcher = new CommandDispatcher();
+    parser = new RequestParser();
+  }
+
+  /**
+   * Helper that parses one request, dispatches it as the given client and returns the response bytes
+   */
+  private byte[] dispatch(Object client, byte[] request) {
+    ByteBuffer input = ByteBuffer.wrap(request);
+    assertEquals(RequestParser.REQUEST, parser.parse(input, true));
+    ByteBuffer output = dispatcher.dispatch(client, parser, input, ByteBuffer.allocate(16));
+    byte[] response = new byte[output.position()];
+    System.arraycopy(output.array(), 0, response, 0, response.length);
+    return response;
+  }
+
+  private String dispatch(String request) {
+    return new String(dispatch("client", request.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Test that the handler table executes every operation like RequestProcessor.process
+   */
+  @Test
+  public void testHandlerTable() {
+    assertEquals("PUT_OK\n", dispatch("PUT dispatchKey dispatchValue\n"));
+    assertEquals("GET_RESULT dispatchValue\n", dispatch("GET dispatchKey\n"));
+    assertEquals("DELETE_OK\n", dispatch("DELETE dispatchKey\n"));
+    assertEquals("GET_ERROR\n", dispatch("GET dispatchKey\n"));
+    assertEquals("ERROR Invalid operation\n", dispatch("GOT dispatchKey\n"));
+  }
+
+  /**
+   * Test that a binary opcode sharing its low bits with a known one is still invalid
+   */
+  @Test
+  public void testUnknownBinaryOpcode() throws Exception {
+    byte[] request = BinaryProtocol.encodeRequest((byte) 0x85, "dispatchKey", null);
+    BinaryProtocol.Response response = BinaryProtocol.readResponse(
+            new ByteArrayInputStream(dispatch("client", request)));
+    assertEquals(BinaryProtocol.STATUS_ERROR, response.getStatus());
+  }
+
+  /**
+   * Test that interceptors run in the order they were added, around the handler
+   */
+  @Test
+  public void testInterceptorOrder() {
+    List<String> calls = new ArrayList<>();
+    dispatcher.addInterceptor((client, request, in, out, next) -> {
+      calls.add("first " + client);
+      ByteBuffer response = next.proceed(client, request, in, out);
+      calls.add("first done");
+      return response;
+    }).addInterceptor((client, request, in, out, next) -> {
+      calls.add("second " + client);
+      return next.proceed(client, request, in, out);
+    });
+
+    assertEquals("PUT_OK\n", dispatch("PUT orderKey value\n"));
+    assertEquals(List.of("first client", "second client", "first done"), calls);
+  }
+
+  /**
+   * Test that an interceptor can answer a request itself, without the handler running
+   */
+  @Test
+  public void testShortCircuit() {
+    dispatcher.addInterceptor((client, request, in, out, next) -> RequestProcessor.throttled(request, out));
+
+    assertEquals("THROTTLED\n", dispatch("PUT shortKey value\n"));
+    dispatcher = new CommandDispatcher();
+    assertEquals("GET_ERROR\n", dispatch("GET shortKey\n"));
+  }
+
+  /**
+   * Test RateLimiter as an interceptor: buckets are per client, and THROTTLED requests do not run
+   */
+  @Test
+  public void testRateLimiterInterceptor() {
+    dispatcher.addInterceptor(new RateLimiter(0.1, 1));
+
+    assertEquals("PUT_OK\n", dispatch("PUT limitKey first\n"));
+    assertEquals("THROTTLED\n", dispatch("PUT limitKey second\n"));
+    assertEquals("PUT_OK\n", new String(dispatch("other client",
+            "PUT otherKey value\n".getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8));
+    assertEquals("GET_RESULT first\n", new String(dispatch("other client",
+            "GET limitKey\n".getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Test that an exception in the chain becomes an error response instead of escaping
+   */
+  @Test
+  public void testInterceptorFailure() {
+    dispatcher.addInterceptor((client, request, in, out, next) -> {
+      throw new IllegalStateException("broken interceptor");
+    });
+
+    assertEquals("ERROR Internal server error\n", dispatch("GET failKey\n"));
+  }
+
+  /**
+   * Test that CommandMetrics counts requests per operation, unknown ones included
+   */
+  @Test
+  public void testCommandMetrics() {
+    CommandMetrics metrics = new CommandMetrics();
+    dispatcher.addInterceptor(metrics);
+
+    dispatch("PUT metricsKey value\n");
+    dispatch("GET metricsKey\n");
+    dispatch("GET metricsKey\n");
+    dispatch("GOT metricsKey\n");
+
+    assertEquals(1, metrics.count(BinaryProtocol.OP_PUT));
+    assertEquals(2, metrics.count(BinaryProtocol.OP_GET));
+    assertEquals(0, metrics.count(BinaryProtocol.OP_SCAN));
+    assertEquals(1, metrics.count(RequestParser.OP_UNKNOWN));
+    assertTrue(metrics.maxMicros(BinaryProtocol.OP_GET) >= metrics.meanMicros(BinaryProtocol.OP_GET));
+    assertTrue(metrics.stats().contains("GET n=2"));
+  }
+}
@@ -0,0 +1,219 @@
+import client.ConnectionPool;
+import client.TCPClient;
+import common.BinaryProtocol;
+import common.Protocol;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import server.NioTCPServer;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test suite for ConnectionPool and pooled TCPClients
+ * Runs against a NioTCPServer, which serves pooled connections concurrently and closes
+ * connections idle for IDLE_TIMEOUT_MILLIS
+ */
+public class ConnectionPoolTest {
+  private static final int TEST_PORT = 8900;
+  private static final long IDLE_TIMEOUT_MILLIS = 500;
+
+  @BeforeClass
+  public static void startServer() throws InterruptedException {
+    Thread thread = new Thread(() -> new NioTCPServer(TEST_PORT, 2).idleTimeout(IDLE_TIMEOUT_MILLIS).start());
+    thread.setDaemon(true);
+    thread.start();
+    Thread.sleep(1000);
+  }
+
+  private static byte[] bytes(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Test that sequential requests share one connection
+   */
+  @Test
+  public void testReusesConnection() throws IOException {
+    try (TCPClient client = new TCPClient("localhost", TEST_PORT).pooled(0, 4)) {
+      client.sendBinaryRequest(Protocol.PUT, "poolKey", bytes("poolValue"));
+      for (int i = 0; i < 20; i++) {
+        BinaryProtocol.Response response = client.sendBinaryRequest(Protocol.GET, "poolKey", null);
+        assertEquals("poolValue", new String(response.getPayload(), StandardCharsets.UTF_8));
+      }
+      List<String> responses = client.sendPipelined(
+          Arrays.asList("GET poolKey", "DELETE poolKey", "GET poolKey"), 4);
+      assertEquals(Arrays.asList("GET_RESULT poolValue", "DELETE_OK", "GET_ERROR"), responses);
+
+      ConnectionPool pool = client.pool();
+      assertEquals(1, pool.createdConnections());
+      // 20 GETs, the HELLO sendPipelined negotiates, the pipeline
+      assertEquals(22, pool.reusedConnections());
+      assertEquals(1, pool.idleConnections());
+    }
+  }
+
+  /**
+   * Test that minSize connections are opened up front, and no more than maxSize
+   * under concurrent use
+   */
+  @Test
+  public void testSizeBounds() throws Exception {
+    try (TCPClient client = new TCPClient("localhost", TEST_PORT).pooled(2, 3)) {
+      ConnectionPool pool = client.pool();
+      assertEquals(2, pool.openConnections());
+      assertEquals(2, pool.idleConnections());
+
+      ExecutorService executor = Executors.newFixedThreadPool(8);
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        futures.add(executor.submit(() -> {
+          for (int i = 0; i < 25; i++) {
+            assertTrue(client.sendBinaryRequest(Protocol.PUT, "boundKey", bytes("v")).isOk());
+            assertTrue(pool.openConnections() <= 3);
+          }
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get(30, TimeUnit.SECONDS);
+      }
+      executor.shutdown();
+      assertTrue(pool.createdConnections() <= 3);
+      assertEquals(0, pool.brokenConnections());
+    }
+  }
+
+  /**
+   * Test that waiting borrowers get connections in arrival order, and give up after
+   * the checkout timeout
+   */
+  @Test
+  public void testFairCheckoutAndTimeout() throws Exception {
+    try (ConnectionPool pool = new ConnectionPool("localhost", TEST_PORT, 0, 1, 30_000, 2_000)) {
+      ConnectionPool.Connection held = pool.borrow();
+      List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+      List<Thread> waiters = new ArrayList<>();
+      for (int i = 0; i < 3; i++) {
+        int waiter = i;
+        CountDownLatch started = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+          started.countDown();
+          try {
+            ConnectionPool.Connection connection = pool.borrow();
+            order.add(waiter);
+            pool.release(connection);
+          } catch (IOException e) {
+            order.add(-1);
+          }
+        });
+        thread.start();
+        started.await();
+        // Let it queue up on the pool before the next one arrives
+        Thread.sleep(100);
+        waiters.add(thread);
+      }
+      pool.release(held);
+      for (Thread thread : waiters) {
+        thread.join(5000);
+      }
+      assertEquals(Arrays.asList(0, 1, 2), order);
+      assertEquals(3, pool.waitedCheckouts());
+      assertEquals(1, pool.createdConnections());
+    }
+
+    try (ConnectionPool pool = new ConnectionPool("localhost", TEST_PORT, 0, 1, 30_000, 100)) {
+      ConnectionPool.Connection held = pool.borrow();
+      long start = System.nanoTime();
+      try {
+        pool.borrow();
+        fail("Expected the checkout to time out");
+      } catch (IOException e) {
+        assertTrue(e.getMessage().contains("free within 100ms"));
+      }
+      assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+      pool.release(held);
+    }
+  }
+
+  /**
+   * Test that connections above minSize are closed once idle for maxIdleMillis
+   */
+  @Test
+  public void testEvictsIdleConnections() throws Exception {
+    try (ConnectionPool pool = new ConnectionPool("localhost", TEST_PORT, 1, 4, 200, 1_000)) {
+      List<ConnectionPool.Connection> borrowed = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        borrowed.add(pool.borrow());
+      }
+      for (ConnectionPool.Connection connection : borrowed) {
+        pool.release(connection);
+      }
+      assertEquals(4, pool.openConnections());
+
+      Thread.sleep(700);
+      assertEquals(1, pool.openConnections());
+      assertEquals(1, pool.idleConnections());
+      assertEquals(3, pool.evictedConnections());
+    }
+  }
+
+  /**
+   * Test that a request still succeeds after the server closed the pooled connection
+   * for being idle, whether the health check or the retry notices it
+   */
+  @Test
+  public void testSurvivesServerClose() throws Exception {
+    try (TCPClient client = new TCPClient("localhost", TEST_PORT).pooled(0, 1)) {
+      client.sendBinaryRequest(Protocol.PUT, "staleKey", bytes("fresh"));
+
+      // Reaped by the server, but not old enough for the pool's health check
+      Thread.sleep(IDLE_TIMEOUT_MILLIS + 300);
+      BinaryProtocol.Response response = client.sendBinaryRequest(Protocol.GET, "staleKey", null);
+      assertEquals("fresh", new String(response.getPayload(), StandardCharsets.UTF_8));
+
+      // Old enough to be checked before it is lent out
+      Thread.sleep(ConnectionPool.VALIDATE_AFTER_MILLIS + 300);
+      response = client.sendBinaryRequest(Protocol.GET, "staleKey", null);
+      assertEquals("fresh", new String(response.getPayload(), StandardCharsets.UTF_8));
+
+      ConnectionPool pool = client.pool();
+      assertEquals(3, pool.createdConnections());
+      assertEquals(2, pool.brokenConnections());
+    }
+  }
+
+  /**
+   * Test that a write failing on a connection the server closed is not sent again:
+   * the server could have executed it before it died
+   */
+  @Test
+  public void testWriteNotRetried() throws Exception {
+    try (TCPClient client = new TCPClient("localhost", TEST_PORT).pooled(0, 1)) {
+      client.sendBinaryRequest(Protocol.PUT, "unretriedKey", bytes("first"));
+
+      // Reaped by the server, but not old enough for the pool's health check
+      Thread.sleep(IDLE_TIMEOUT_MILLIS + 300);
+      try {
+        client.sendBinaryRequest(Protocol.PUT, "unretriedKey", bytes("second"));
+        fail("Expected the PUT to fail instead of being retried");
+      } catch (IOException e) {
+        // The caller decides whether to send it again
+      }
+      BinaryProtocol.Response response = client.sendBinaryRequest(Protocol.GET, "unretriedKey", null);
+      assertEquals("first", new String(response.getPayload(), StandardCharsets.UTF_8));
+      assertEquals(2, client.pool().createdConnections());
+    }
+  }
+}
@@ -0,0 +1,232 @@
+import jdk.net.ExtendedSocketOptions;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import server.IdleReaper;
+import server.KeepAlive;
+import server.NioTCPServer;
+import server.TCPServer;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test suite for IdleReaper and KeepAlive, on their own and in TCPServer and NioTCPServer
+ * The unit tests drive the wheel with tick() instead of its thread
+ */
+public class IdleReaperTest {
+  private static final int TCP_PORT = 8898;
+  private static final int NIO_PORT = 8899;
+  private static final long TIMEOUT_MILLIS = 300;
+  private static TCPServer tcpServer;
+  private static NioTCPServer nioServer;
+
+  /**
+   * Starts a blocking TCPServer and a NioTCPServer with a short idle timeout
+   */
+  @BeforeClass
+  public static void startServers() throws InterruptedException {
+    tcpServer = new TCPServer(TCP_PORT).idleTimeout(TIMEOUT_MILLIS).keepAlive(KeepAlive.DEFAULT);
+    nioServer = new NioTCPServer(NIO_PORT, 1).idleTimeout(TIMEOUT_MILLIS);
+    for (Runnable server : new Runnable[]{tcpServer::start, nioServer::start}) {
+      Thread thread = new Thread(server);
+      thread.setDaemon(true);
+      thread.start();
+    }
+    Thread.sleep(1000);
+  }
+
+  /**
+   * Test that a quiet connection is closed once its timeout passed, and not before
+   */
+  @Test
+  public void testReapsIdleConnection() throws Exception {
+    IdleReaper reaper = new IdleReaper(100, 10, 64);
+    AtomicInteger closed = new AtomicInteger();
+    IdleReaper.Handle handle = reaper.register(closed::incrementAndGet);
+
+    Thread.sleep(50);
+    reaper.tick();
+    assertEquals(0, closed.get());
+    assertEquals(1, reaper.openConnections());
+
+    Thread.sleep(100);
+    reaper.tick();
+    assertEquals(1, closed.get());
+    assertTrue(handle.wasReaped());
+    assertEquals(0, reaper.openConnections());
+    assertEquals(1, reaper.reapedConnections());
+  }
+
+  /**
+   * Test that activity keeps a connection open for longer than the timeout
+   */
+  @Test
+  public void testTouchKeepsConnectionOpen() throws Exception {
+    IdleReaper reaper = new IdleReaper(100, 10, 64);
+    AtomicInteger closed = new AtomicInteger();
+    IdleReaper.Handle handle = reaper.register(closed::incrementAndGet);
+
+    for (int i = 0; i < 15; i++) {
+      Thread.sleep(20);
+      reaper.tick();
+      handle.touch();
+    }
+    assertEquals(0, closed.get());
+
+    Thread.sleep(150);
+    reaper.tick();
+    assertEquals(1, closed.get());
+  }
+
+  /**
+   * Test that a cancelled connection is never closed by the reaper
+   */
+  @Test
+  public void testCancel() throws Exception {
+    IdleReaper reaper = new IdleReaper(50, 10, 64);
+    AtomicInteger closed = new AtomicInteger();
+    reaper.register(closed::incrementAndGet).cancel();
+    assertEquals(0, reaper.openConnections());
+
+    Thread.sleep(100);
+    reaper.tick();
+    assertEquals(0, closed.get());
+    assertEquals(0, reaper.reapedConnections());
+  }
+
+  /**
+   * Test that a connection cancelled from several threads at once, while the reaper
+   * closes it, is counted as closed exactly once
+   */
+  @Test
+  public void testConcurrentCancel() throws Exception {
+    IdleReaper reaper = new IdleReaper(10, 10, 64);
+    int connections = 200;
+    IdleReaper.Handle[] handles = new IdleReaper.Handle[connections];
+    for (int i = 0; i < connections; i++) {
+      handles[i] = reaper.register(() -> { });
+    }
+    Thread.sleep(30);
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread(() -> {
+        for (IdleReaper.Handle handle : handles) {
+          handle.cancel();
+        }
+      });
+      threads[t].start();
+    }
+    reaper.tick();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(0, reaper.openConnections());
+  }
+
+  /**
+   * Test a timeout longer than one turn of the wheel
+   */
+  @Test
+  public void testTimeoutBeyondOneTurn() throws Exception {
+    IdleReaper reaper = new IdleReaper(100, 10, 4);
+    AtomicInteger closed = new AtomicInteger();
+    reaper.register(closed::incrementAndGet);
+
+    for (int i = 0; i < 6; i++) {
+      Thread.sleep(10);
+      reaper.tick();
+    }
+    assertEquals(0, closed.get());
+
+    Thread.sleep(100);
+    reaper.tick();
+    assertEquals(1, closed.get());
+  }
+
+  /**
+   * Test the idle gauge: only connections quiet for a while count
+   */
+  @Test
+  public void testIdleGauge() throws Exception {
+    IdleReaper reaper = new IdleReaper(5000, 10, 64);
+    reaper.register(() -> { });
+    IdleReaper.Handle active = reaper.register(() -> { });
+
+    Thread.sleep(IdleReaper.IDLE_GAUGE_MILLIS + 100);
+    reaper.tick();
+    active.touch();
+    assertEquals(2, reaper.openConnections());
+    assertEquals(1, reaper.idleConnections());
+    assertTrue(reaper.stats().startsWith("open=2 idle=1 reaped=0"));
+  }
+
+  /**
+   * Test that the blocking TCPServer closes an idle connection, which lets the
+   * connection queued behind it be served
+   */
+  @Test
+  public void testTcpServerReapsIdleClient() throws Exception {
+    long reapedBefore = tcpServer.idleReaper().reapedConnections();
+    try (Socket idle = new Socket("localhost", TCP_PORT);
+         Socket waiting = new Socket("localhost", TCP_PORT)) {
+      idle.setSoTimeout(5000);
+      waiting.setSoTimeout(5000);
+      PrintWriter out = new PrintWriter(waiting.getOutputStream(), true);
+      out.println("PUT idleKey idleValue");
+      BufferedReader in = new BufferedReader(new InputStreamReader(waiting.getInputStream()));
+      assertEquals("PUT_OK", in.readLine());
+      assertEquals(-1, idle.getInputStream().read());
+    }
+    assertTrue(tcpServer.idleReaper().reapedConnections() > reapedBefore);
+  }
+
+  /**
+   * Test that NioTCPServer closes an idle connection but keeps an active one
+   */
+  @Test
+  public void testNioServerReapsIdleClient() throws Exception {
+    try (Socket idle = new Socket("localhost", NIO_PORT);
+         Socket active = new Socket("localhost", NIO_PORT)) {
+      idle.setSoTimeout(5000);
+      active.setSoTimeout(5000);
+      PrintWriter out = new PrintWriter(active.getOutputStream(), true);
+      BufferedReader in = new BufferedReader(new InputStreamReader(active.getInputStream()));
+      long end = System.currentTimeMillis() + 3 * TIMEOUT_MILLIS;
+      while (System.currentTimeMillis() < end) {
+        out.println("GET nioIdleKey");
+        assertEquals("GET_ERROR", in.readLine());
+        Thread.sleep(TIMEOUT_MILLIS / 5);
+      }
+      InputStream idleIn = idle.getInputStream();
+      assertEquals(-1, idleIn.read());
+      out.println("GET nioIdleKey");
+      assertEquals("GET_ERROR", in.readLine());
+    }
+    assertTrue(nioServer.idleReaper().reapedConnections() >= 1);
+  }
+
+  /**
+   * Test that KeepAlive enables keepalive with its timings where the platform has them
+   */
+  @Test
+  public void testKeepAliveOptions() throws Exception {
+    try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", NIO_PORT))) {
+      new KeepAlive(30, 5, 3).apply(channel);
+      assertTrue(channel.getOption(StandardSocketOptions.SO_KEEPALIVE));
+      if (channel.supportedOptions().contains(ExtendedSocketOptions.TCP_KEEPIDLE)) {
+        assertEquals(30, (int) channel.getOption(ExtendedSocketOptions.TCP_KEEPIDLE));
+        assertEquals(5, (int) channel.getOption(ExtendedSocketOptions.TCP_KEEPINTERVAL));
+        assertEquals(3, (int) channel.getOption(ExtendedSocketOptions.TCP_KEEPCOUNT));
+      }
+    }
+  }
+}
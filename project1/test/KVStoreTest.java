@@ -3,10 +3,13 @@ import org.junit.Test;
 import org.junit.Before;
 import static org.junit.Assert.*;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Test suite for KVStore class
@@ -209,4 +212,146 @@ public class KVStoreTest {
     assertEquals("GET_RESULT " + value, KVStore.get(key));
     assertEquals("DELETE_OK", KVStore.delete(key));
   }
-}
\ No newline at end of file
+
+  /**
+   * Test SCAN walk over the whole keyspace
+   * Verifies every key is returned exactly once across pages
+   */
+  @Test
+  public void testScanFullWalk() {
+    int numKeys = 500;
+    for (int i = 0; i < numKeys; i++) {
+      KVStore.put("scanKey" + i, "value" + i);
+    }
+
+    Map<String, Integer> seen = new HashMap<>();
+    long cursor = 0;
+    int pages = 0;
+    do {
+      cursor = KVStore.scan(cursor, 37, key -> seen.merge(key, 1, Integer::sum));
+      pages++;
+    } while (cursor != 0);
+
+    assertTrue("Walk should take several pages", pages > 1);
+    for (int i = 0; i < numKeys; i++) {
+      assertEquals(Integer.valueOf(1), seen.get("scanKey" + i));
+      KVStore.delete("scanKey" + i);
+    }
+
+    // Response string form used by the servers
+    KVStore.put("scanSingle", "v");
+    assertTrue(KVStore.scan(0, KVStore.MAX_SCAN_COUNT).contains(" scanSingle"));
+    assertTrue(KVStore.scan(0, 1).startsWith("SCAN_RESULT "));
+    KVStore.delete("scanSingle");
+  }
+
+  /**
+   * Test SCAN while other threads insert and delete keys
+   * Verifies keys present for the whole walk are still returned exactly once
+   */
+  @Test
+  public void testScanWithConcurrentInserts() throws InterruptedException {
+    int numKeys = 1000;
+    for (int i = 0; i < numKeys; i++) {
+      KVStore.put("stableKey" + i, "value" + i);
+    }
+
+    AtomicBoolean running = new AtomicBoolean(true);
+    Thread writer = new Thread(() -> {
+      int i = 0;
+      while (running.get()) {
+        KVStore.put("churnKey" + i, "value");
+        KVStore.delete("churnKey" + (i - 100));
+        i++;
+      }
+    });
+    writer.start();
+
+    Map<String, Integer> seen = new HashMap<>();
+    long cursor = 0;
+    do {
+      cursor = KVStore.scan(cursor, 10, key -> seen.merge(key, 1, Integer::sum));
+    } while (cursor != 0);
+
+    running.set(false);
+    writer.join();
+
+    for (int i = 0; i < numKeys; i++) {
+      assertEquals(Integer.valueOf(1), seen.get("stableKey" + i));
+      KVStore.delete("stableKey" + i);
+    }
+  }
+
+  /**
+   * Test SCAN argument validation
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testScanInvalidCursor() {
+    KVStore.scan(-1, 10);
+  }
+
+  /**
+   * Test atomic increment
+   * Verifies missing keys start at 0, concurrent increments are not lost
+   * and non-numeric values are rejected unchanged
+   */
+  @Test
+  public void testIncrement() throws InterruptedException {
+    KVStore.delete("counter");
+    assertEquals(5, KVStore.increment("counter", 5));
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread(() -> {
+        for (int i = 0; i < 1000; i++) {
+          KVStore.increment("counter", 1);
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals("GET_RESULT 4005", KVStore.get("counter"));
+
+    KVStore.put("notNumber", "abc");
+    try {
+      KVStore.increment("notNumber", 1);
+      fail("Expected NumberFormatException");
+    } catch (NumberFormatException e) {
+      assertEquals("GET_RESULT abc", KVStore.get("notNumber"));
+    }
+  }
+
+  /**
+   * Test conditional stores used by the memcached front end
+   * Verifies add/replace preconditions and that a CAS token goes stale on any write,
+   * even one that writes the old value back
+   */
+  @Test
+  public void testConditionalStores() {
+    KVStore.delete("casKey");
+    assertFalse(KVStore.replace("casKey", "a".getBytes()));
+    assertTrue(KVStore.putIfAbsent("casKey", "a".getBytes()));
+    assertFalse(KVStore.putIfAbsent("casKey", "b".getBytes()));
+
+    long token = KVStore.getVersioned("casKey").version();
+    assertEquals(KVStore.CAS_STORED, KVStore.compareAndSwap("casKey", token, "c".getBytes()));
+    assertEquals(KVStore.CAS_EXISTS, KVStore.compareAndSwap("casKey", token, "d".getBytes()));
+    assertEquals("GET_RESULT c", KVStore.get("casKey"));
+    assertEquals(KVStore.CAS_NOT_FOUND, KVStore.compareAndSwap("missingCasKey", token, "e".getBytes()));
+
+    // A -> B -> A, and a set of the same bytes, both invalidate the token
+    token = KVStore.getVersioned("casKey").version();
+    KVStore.put("casKey", "x");
+    KVStore.put("casKey", "c");
+    assertEquals(KVStore.CAS_EXISTS, KVStore.compareAndSwap("casKey", token, "y".getBytes()));
+    token = KVStore.getVersioned("casKey").version();
+    KVStore.put("casKey", "c");
+    assertEquals(KVStore.CAS_EXISTS, KVStore.compareAndSwap("casKey", token, "y".getBytes()));
+    // So does deleting and storing the key again
+    token = KVStore.getVersioned("casKey").version();
+    KVStore.delete("casKey");
+    KVStore.put("casKey", "c");
+    assertEquals(KVStore.CAS_EXISTS, KVStore.compareAndSwap("casKey", token, "y".getBytes()));
+  }
+}
@@ -184,4 +184,23 @@ public class LoggerTest {
     assertTrue("Log should contain entire long message",
             output.contains(longMessage));
   }
-}
\ No newline at end of file
+
+  /**
+   * Test turning logging off
+   * Verifies that nothing is printed while disabled, and logging resumes after
+   */
+  @Test
+  public void testDisabled() {
+    Logger.setEnabled(false);
+    try {
+      assertFalse(logger.isEnabled());
+      logger.log("Hidden message");
+      assertEquals("", outputStream.toString());
+    } finally {
+      Logger.setEnabled(true);
+    }
+    assertTrue(logger.isEnabled());
+    logger.log("Visible message");
+    assertTrue(outputStream.toString().contains("Visible message"));
+  }
+}
@@ -0,0 +1,116 @@
+import org.junit.BeforeClass;
+import org.junit.Test;
+import server.MemcachedServer;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Test suite for MemcachedServer
+ * Talks the memcached text protocol over raw sockets
+ */
+public class MemcachedServerTest {
+  private static final int TEST_PORT = 11291;
+
+  /**
+   * Starts one server for all tests; like TCPServer it has no stop method
+   */
+  @BeforeClass
+  public static void startServer() throws InterruptedException {
+    ExecutorService serverExecutor = Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r);
+      thread.setDaemon(true);
+      return thread;
+    });
+    serverExecutor.submit(() -> new MemcachedServer(TEST_PORT).start());
+    Thread.sleep(1000);
+  }
+
+  /**
+   * Helper that sends raw commands and reads the given number of reply lines
+   */
+  private static String[] send(String request, int replyLines) throws IOException {
+    try (Socket socket = new Socket("localhost", TEST_PORT)) {
+      socket.getOutputStream().write(request.getBytes(StandardCharsets.UTF_8));
+      socket.getOutputStream().flush();
+      BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+      String[] lines = new String[replyLines];
+      for (int i = 0; i < replyLines; i++) {
+        lines[i] = in.readLine();
+      }
+      return lines;
+    }
+  }
+
+  /**
+   * Test set and single/multi-key get
+   */
+  @Test
+  public void testSetGet() throws IOException {
+    assertArrayEquals(new String[]{"STORED", "STORED"},
+            send("set mc1 0 0 5\r\nhello\r\nset mc2 0 0 11\r\nhello world\r\n", 2));
+    assertArrayEquals(new String[]{"VALUE mc1 0 5", "hello", "VALUE mc2 0 11", "hello world", "END"},
+            send("get mc1 mcMissing mc2\r\n", 5));
+    assertArrayEquals(new String[]{"END"}, send("get mcMissing\r\n", 1));
+  }
+
+  /**
+   * Test add, replace and delete
+   */
+  @Test
+  public void testConditionalStores() throws IOException {
+    send("delete mcAdd\r\n", 1);
+    assertArrayEquals(new String[]{"STORED", "NOT_STORED", "STORED", "DELETED", "NOT_STORED", "NOT_FOUND"},
+            send("add mcAdd 0 0 1\r\na\r\nadd mcAdd 0 0 1\r\nb\r\nreplace mcAdd 0 0 1\r\nc\r\n"
+                    + "delete mcAdd\r\nreplace mcAdd 0 0 1\r\nd\r\ndelete mcAdd\r\n", 6));
+  }
+
+  /**
+   * Test gets and cas
+   * Verifies a cas with a stale token is rejected with EXISTS, also after a set of
+   * the same bytes
+   */
+  @Test
+  public void testCas() throws IOException {
+    send("set mcCas 0 0 3\r\none\r\n", 1);
+    String[] gets = send("gets mcCas\r\n", 3);
+    String token = gets[0].substring(gets[0].lastIndexOf(' ') + 1);
+    assertEquals("VALUE mcCas 0 3 " + token, gets[0]);
+    assertArrayEquals(new String[]{"STORED", "EXISTS", "NOT_FOUND"},
+            send("cas mcCas 0 0 3 " + token + "\r\ntwo\r\ncas mcCas 0 0 5 " + token + "\r\nthree\r\n"
+                    + "cas mcCasMissing 0 0 1 1\r\nx\r\n", 3));
+
+    gets = send("gets mcCas\r\n", 3);
+    token = gets[0].substring(gets[0].lastIndexOf(' ') + 1);
+    assertArrayEquals(new String[]{"STORED", "EXISTS"},
+            send("set mcCas 0 0 3\r\ntwo\r\ncas mcCas 0 0 3 " + token + "\r\nsix\r\n", 2));
+  }
+
+  /**
+   * Test incr and decr, including non-numeric values and the floor at 0
+   */
+  @Test
+  public void testIncrDecr() throws IOException {
+    assertArrayEquals(new String[]{"STORED", "15", "5", "0", "NOT_FOUND"},
+            send("set mcNum 0 0 2\r\n10\r\nincr mcNum 5\r\ndecr mcNum 10\r\ndecr mcNum 100\r\nincr mcNone 1\r\n", 5));
+    assertArrayEquals(new String[]{"STORED", "CLIENT_ERROR cannot increment or decrement non-numeric value"},
+            send("set mcText 0 0 3\r\nabc\r\nincr mcText 1\r\n", 2));
+  }
+
+  /**
+   * Test noreply and errors
+   * Verifies noreply commands are silent and the connection goes on after an unknown command
+   */
+  @Test
+  public void testNoreplyAndErrors() throws IOException {
+    assertArrayEquals(new String[]{"VALUE mcQuiet 0 2", "ok", "END"},
+            send("set mcQuiet 0 0 2 noreply\r\nok\r\nget mcQuiet\r\n", 3));
+    assertArrayEquals(new String[]{"ERROR", "END"}, send("bogus\r\nget mcMissing\r\n", 2));
+    assertArrayEquals(new String[]{"CLIENT_ERROR bad data chunk", null}, send("set mcBad 0 0 2\r\nabc\r\n", 2));
+  }
+}
@@ -0,0 +1,92 @@
+import org.junit.BeforeClass;
+import org.junit.Test;
+import server.UDPServer;
+
+import static org.junit.Assert.*;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Test suite for UDPServer with several SO_REUSEPORT sockets on one port
+ */
+public class MultiSocketUDPServerTest {
+  private static final int TEST_PORT = 9997;
+  private static final int SOCKETS = 4;
+  private static UDPServer server;
+
+  /**
+   * Starts one server for all tests; UDPServer has no stop method
+   */
+  @BeforeClass
+  public static void startServer() throws InterruptedException {
+    server = new UDPServer(TEST_PORT, SOCKETS);
+    ExecutorService serverExecutor = Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r);
+      thread.setDaemon(true);
+      return thread;
+    });
+    serverExecutor.submit(server::start);
+    Thread.sleep(1000);
+  }
+
+  private static String exchange(DatagramSocket socket, String request) throws Exception {
+    byte[] data = request.getBytes(StandardCharsets.UTF_8);
+    socket.send(new DatagramPacket(data, data.length, InetAddress.getByName("localhost"), TEST_PORT));
+    byte[] receiveData = new byte[1024];
+    DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
+    socket.receive(receivePacket);
+    return new String(receivePacket.getData(), 0, receivePacket.getLength(), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Test that clients spread over the sockets all get answers and share one store
+   */
+  @Test
+  public void testClientsShareStore() throws Exception {
+    int clients = 32;
+    long before = sum(server.receivedCounts());
+    for (int i = 0; i < clients; i++) {
+      try (DatagramSocket socket = new DatagramSocket()) {
+        socket.setSoTimeout(2000);
+        assertEquals("PUT_OK", exchange(socket, "PUT shared" + i + " value" + i));
+      }
+    }
+    // Other source ports, so most reads land on another socket than the write
+    for (int i = 0; i < clients; i++) {
+      try (DatagramSocket socket = new DatagramSocket()) {
+        socket.setSoTimeout(2000);
+        assertEquals("GET_RESULT value" + i, exchange(socket, "GET shared" + i));
+      }
+    }
+    assertEquals(2 * clients, sum(server.receivedCounts()) - before);
+  }
+
+  /**
+   * Test the per-socket counters
+   */
+  @Test
+  public void testStats() throws Exception {
+    try (DatagramSocket socket = new DatagramSocket()) {
+      socket.setSoTimeout(2000);
+      exchange(socket, "GET statsKey");
+    }
+    assertEquals(SOCKETS, server.receivedCounts().length);
+    assertEquals(SOCKETS, server.droppedCounts().length);
+    assertTrue(sum(server.receivedCounts()) >= 1);
+    assertEquals(0, sum(server.droppedCounts()));
+    assertTrue(server.stats().contains("socket " + (SOCKETS - 1) + " received="));
+  }
+
+  private static long sum(long[] counts) {
+    long total = 0;
+    for (long count : counts) {
+      total += count;
+    }
+    return total;
+  }
+}
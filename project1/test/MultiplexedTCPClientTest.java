@@ -0,0 +1,121 @@
+import client.MultiplexedTCPClient;
+import common.Protocol;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import server.TCPServer;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Test suite for MultiplexedTCPClient: binary framing, untagged errors and timeouts
+ */
+public class MultiplexedTCPClientTest {
+  private static final int TEST_PORT = 8906;
+  private static final int MOCK_PORT = 8907;
+
+  @BeforeClass
+  public static void startServer() throws InterruptedException {
+    Thread thread = new Thread(new TCPServer(TEST_PORT)::start);
+    thread.setDaemon(true);
+    thread.start();
+    Thread.sleep(1000);
+  }
+
+  /**
+   * Test tagged binary frames, answered to their own futures in text form
+   */
+  @Test
+  public void testBinaryRequestIds() throws Exception {
+    try (MultiplexedTCPClient client = new MultiplexedTCPClient("localhost", TEST_PORT, true)) {
+      List<CompletableFuture<String>> puts = new ArrayList<>();
+      for (int i = 0; i < 50; i++) {
+        puts.add(client.send("put", "binMuxKey" + i, "value" + i));
+      }
+      for (CompletableFuture<String> put : puts) {
+        assertEquals("PUT_OK", put.get(5, TimeUnit.SECONDS));
+      }
+      List<CompletableFuture<String>> gets = new ArrayList<>();
+      for (int i = 0; i < 50; i++) {
+        gets.add(client.send(Protocol.GET, "binMuxKey" + i, null));
+      }
+      for (int i = 0; i < 50; i++) {
+        assertEquals("GET_RESULT value" + i, gets.get(i).get(5, TimeUnit.SECONDS));
+      }
+      assertEquals("GET_ERROR", client.send(Protocol.GET, "binMuxMissing", null).get(5, TimeUnit.SECONDS));
+
+      try {
+        client.send(Protocol.HELLO, "2", null).get(5, TimeUnit.SECONDS);
+        fail("Expected HELLO to have no binary form");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof IllegalArgumentException);
+      }
+      assertEquals(0, client.pendingCount());
+    }
+  }
+
+  /**
+   * Test that an untagged error fails the oldest waiting request, not none of them
+   */
+  @Test
+  public void testUntaggedError() throws Exception {
+    try (ServerSocket mock = new ServerSocket(MOCK_PORT);
+         MultiplexedTCPClient client = new MultiplexedTCPClient("localhost", MOCK_PORT)) {
+      CompletableFuture<String> first = client.send(Protocol.GET, "firstKey", null);
+      CompletableFuture<String> second = client.send(Protocol.GET, "secondKey", null);
+      try (Socket accepted = mock.accept()) {
+        BufferedReader in = new BufferedReader(new InputStreamReader(accepted.getInputStream(), StandardCharsets.UTF_8));
+        in.readLine();
+        String secondRequest = in.readLine();
+        OutputStream out = accepted.getOutputStream();
+        out.write("ERROR Malformed request\n".getBytes(StandardCharsets.UTF_8));
+        try {
+          first.get(5, TimeUnit.SECONDS);
+          fail("Expected the untagged error to fail the first request");
+        } catch (ExecutionException e) {
+          assertTrue(e.getCause() instanceof IOException);
+          assertTrue(e.getCause().getMessage().contains("ERROR Malformed request"));
+        }
+        assertFalse(second.isDone());
+
+        out.write((Protocol.withRequestId(Protocol.parseRequestId(secondRequest), "GET_ERROR") + "\n")
+            .getBytes(StandardCharsets.UTF_8));
+        assertEquals("GET_ERROR", second.get(5, TimeUnit.SECONDS));
+      }
+    }
+  }
+
+  /**
+   * Test that a request nobody answers fails after the timeout and is forgotten
+   */
+  @Test
+  public void testTimeout() throws Exception {
+    try (ServerSocket mock = new ServerSocket(MOCK_PORT);
+         MultiplexedTCPClient client = new MultiplexedTCPClient("localhost", MOCK_PORT).timeout(200)) {
+      CompletableFuture<String> future = client.send(Protocol.GET, "silentKey", null);
+      Socket accepted = mock.accept();
+      try {
+        future.get(5, TimeUnit.SECONDS);
+        fail("Expected a timeout");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof TimeoutException);
+      } finally {
+        accepted.close();
+      }
+      assertEquals(0, client.pendingCount());
+    }
+  }
+}
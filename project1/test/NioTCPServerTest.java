@@ -0,0 +1,164 @@
+import org.junit.BeforeClass;
+import org.junit.Test;
+import common.BinaryProtocol;
+import server.NioTCPServer;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Test suite for NioTCPServer
+ * Same protocol as TCPServer, so these focus on what the event loops add:
+ * many connections at once spread over several loops, pipelining across reads
+ * and backpressure
+ */
+public class NioTCPServerTest {
+  private static final int TEST_PORT = 8893;
+
+  /**
+   * Starts one server for all tests; like TCPServer it has no stop method
+   */
+  @BeforeClass
+  public static void startServer() throws InterruptedException {
+    ExecutorService serverExecutor = Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r);
+      thread.setDaemon(true);
+      return thread;
+    });
+    serverExecutor.submit(() -> new NioTCPServer(TEST_PORT, 4).start());
+    Thread.sleep(1000);
+  }
+
+  private static Socket connect() throws IOException {
+    Socket socket = new Socket("localhost", TEST_PORT);
+    socket.setSoTimeout(5000);
+    return socket;
+  }
+
+  private static BufferedReader reader(Socket socket) throws IOException {
+    return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Test basic text requests
+   */
+  @Test
+  public void testTextRequests() throws IOException {
+    try (Socket socket = connect()) {
+      PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+      BufferedReader in = reader(socket);
+      out.println("PUT nioKey nio value");
+      assertEquals("PUT_OK", in.readLine());
+      out.println("GET nioKey");
+      assertEquals("GET_RESULT nio value", in.readLine());
+      out.println("DELETE nioKey");
+      assertEquals("DELETE_OK", in.readLine());
+      out.println("GET nioKey");
+      assertEquals("GET_ERROR", in.readLine());
+    }
+  }
+
+  /**
+   * Test that an idle connection does not keep other clients waiting
+   */
+  @Test
+  public void testManyConnections() throws IOException {
+    List<Socket> sockets = new ArrayList<>();
+    try {
+      for (int i = 0; i < 200; i++) {
+        sockets.add(connect());
+      }
+      // Answer on the last connection while all the others stay silent
+      Socket last = sockets.get(sockets.size() - 1);
+      last.getOutputStream().write("PUT crowdKey 1\nGET crowdKey\n".getBytes(StandardCharsets.UTF_8));
+      BufferedReader in = reader(last);
+      assertEquals("PUT_OK", in.readLine());
+      assertEquals("GET_RESULT 1", in.readLine());
+      // Neighbouring connections land on other loops and still share the store
+      for (int i = 0; i < 8; i++) {
+        Socket socket = sockets.get(i);
+        socket.getOutputStream().write("GET crowdKey\n".getBytes(StandardCharsets.UTF_8));
+        assertEquals("GET_RESULT 1", reader(socket).readLine());
+      }
+    } finally {
+      for (Socket socket : sockets) {
+        socket.close();
+      }
+    }
+  }
+
+  /**
+   * Test a request split across reads, and a binary frame on the same connection
+   */
+  @Test
+  public void testPartialAndBinary() throws Exception {
+    try (Socket socket = connect()) {
+      OutputStream out = socket.getOutputStream();
+      out.write("PUT split".getBytes(StandardCharsets.UTF_8));
+      out.flush();
+      Thread.sleep(100);
+      out.write("Key value\n".getBytes(StandardCharsets.UTF_8));
+      out.write(BinaryProtocol.encodeRequest(BinaryProtocol.OP_GET, "splitKey", null));
+      out.flush();
+      InputStream in = socket.getInputStream();
+      byte[] expected = "PUT_OK\n".getBytes(StandardCharsets.UTF_8);
+      byte[] line = new byte[expected.length];
+      new DataInputStream(in).readFully(line);
+      assertArrayEquals(expected, line);
+      BinaryProtocol.Response response = BinaryProtocol.readResponse(in);
+      assertEquals(BinaryProtocol.STATUS_OK, response.getStatus());
+      assertArrayEquals("value".getBytes(StandardCharsets.UTF_8), response.getPayload());
+    }
+  }
+
+  /**
+   * Test a long pipeline sent before any response is read
+   * The server must hold back (not drop) responses the client is not reading yet
+   */
+  @Test
+  public void testPipelineBackpressure() throws IOException {
+    int count = 20000;
+    try (Socket socket = connect()) {
+      StringBuilder batch = new StringBuilder();
+      for (int i = 0; i < count; i++) {
+        batch.append("PUT pipe").append(i).append(" value").append(i).append('\n');
+      }
+      Thread writer = new Thread(() -> {
+        try {
+          socket.getOutputStream().write(batch.toString().getBytes(StandardCharsets.UTF_8));
+          socket.getOutputStream().flush();
+        } catch (IOException e) {
+          // reported by the reads below
+        }
+      });
+      writer.start();
+      BufferedReader in = reader(socket);
+      for (int i = 0; i < count; i++) {
+        assertEquals("PUT_OK", in.readLine());
+      }
+    }
+  }
+
+  /**
+   * Test that a corrupt binary frame closes the connection after the error response
+   */
+  @Test
+  public void testInvalidFrame() throws IOException {
+    try (Socket socket = connect()) {
+      OutputStream out = socket.getOutputStream();
+      // Key length varint that never ends
+      out.write(new byte[]{BinaryProtocol.OP_GET, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF});
+      out.flush();
+      InputStream in = socket.getInputStream();
+      assertEquals(BinaryProtocol.STATUS_ERROR, BinaryProtocol.readResponse(in).getStatus());
+      assertEquals(-1, in.read());
+    }
+  }
+}
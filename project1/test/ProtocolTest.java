@@ -1,3 +1,4 @@
+import common.Capabilities;
 import common.Protocol;
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -57,6 +58,30 @@ public class ProtocolTest {
     assertEquals("DELETE key!@#", request);
   }
 
+  /**
+   * Test createScanRequest method
+   * Verifies proper formatting of SCAN requests
+   */
+  @Test
+  public void testCreateScanRequest() {
+    assertEquals("SCAN 0 100", Protocol.createScanRequest(0, 100));
+    assertEquals("SCAN 4294967295 1", Protocol.createScanRequest(4294967295L, 1));
+  }
+
+  /**
+   * Test request ID helpers
+   * Verifies tagging requests and reading/removing the ID of a response
+   */
+  @Test
+  public void testRequestId() {
+    assertEquals("#42 GET name", Protocol.withRequestId(42, "GET name"));
+    assertEquals(42, Protocol.parseRequestId("#42 GET_RESULT John"));
+    assertEquals("GET_RESULT John", Protocol.stripRequestId("#42 GET_RESULT John"));
+    assertEquals(-1, Protocol.parseRequestId("GET_RESULT John"));
+    assertEquals("GET_RESULT John", Protocol.stripRequestId("GET_RESULT John"));
+    assertEquals(-1, Protocol.parseRequestId("#x PUT_OK"));
+  }
+
   /**
    * Test parseResponse method for GET responses
    * Verifies proper parsing of GET responses
@@ -156,4 +181,23 @@ public class ProtocolTest {
     assertEquals(2, parts.length);
     assertEquals("GET_RESULT", parts[1].trim());
   }
-}
\ No newline at end of file
+
+  /**
+   * Test HELLO capability parsing and negotiation
+   * Verifies the lower limits win, binary needs both ends and old servers fall back to text
+   */
+  @Test
+  public void testHelloNegotiation() {
+    Capabilities server = new Capabilities(2, true, 256, new String[]{"none"}, 16);
+    Capabilities client = Capabilities.parse("2 binary=1 pipeline=64 compression=deflate,none batch=32 future=1");
+    Capabilities agreed = server.negotiate(client);
+    assertEquals("2 binary=1 pipeline=64 compression=none batch=16", agreed.encode());
+    assertFalse(server.negotiate(Capabilities.parse("2 pipeline=8")).isBinary());
+
+    assertEquals("HELLO 2 binary=1 pipeline=64 compression=none batch=16",
+            Protocol.createHelloRequest(Capabilities.parse(agreed.encode().replace("deflate,", ""))));
+    assertEquals(64, Protocol.parseHelloResponse("HELLO_OK " + agreed.encode()).getPipelineDepth());
+    assertSame(Capabilities.TEXT_ONLY, Protocol.parseHelloResponse("ERROR Invalid operation"));
+    assertSame(Capabilities.TEXT_ONLY, Protocol.parseHelloResponse(null));
+  }
+}
@@ -0,0 +1,172 @@
+import org.junit.BeforeClass;
+import org.junit.Test;
+import common.BinaryProtocol;
+import common.Protocol;
+import server.RateLimiter;
+import server.UDPServer;
+
+import static org.junit.Assert.*;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Test suite for RateLimiter and the THROTTLED answers of UDPServer
+ */
+public class RateLimiterTest {
+  private static final int TEST_PORT = 9996;
+  private static final long SECOND = 1_000_000_000L;
+
+  /**
+   * Starts one rate-limited server for the UDP tests; UDPServer has no stop method
+   * GETs are limited per client to 5 in a burst, refilled at 1 per second
+   */
+  @BeforeClass
+  public static void startServer() throws InterruptedException {
+    UDPServer server = new UDPServer(TEST_PORT, 1, new RateLimiter(1000, 1000).limit(BinaryProtocol.OP_GET, 1, 5));
+    ExecutorService serverExecutor = Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r);
+      thread.setDaemon(true);
+      return thread;
+    });
+    serverExecutor.submit(server::start);
+    Thread.sleep(1000);
+  }
+
+  /**
+   * Test that a burst is allowed, the request after it is not, and time refills the bucket
+   */
+  @Test
+  public void testBurstAndRefill() {
+    RateLimiter limiter = new RateLimiter(10, 3);
+    long now = 0;
+    for (int i = 0; i < 3; i++) {
+      assertTrue(limiter.tryAcquire("client", BinaryProtocol.OP_GET, now));
+    }
+    assertFalse(limiter.tryAcquire("client", BinaryProtocol.OP_GET, now));
+    // One interval (1/10 s) later there is one token again, and only one
+    now += SECOND / 10;
+    assertTrue(limiter.tryAcquire("client", BinaryProtocol.OP_GET, now));
+    assertFalse(limiter.tryAcquire("client", BinaryProtocol.OP_GET, now));
+    // After a long pause the bucket is full, but never fuller than burst
+    now += 10 * SECOND;
+    for (int i = 0; i < 3; i++) {
+      assertTrue(limiter.tryAcquire("client", BinaryProtocol.OP_GET, now));
+    }
+    assertFalse(limiter.tryAcquire("client", BinaryProtocol.OP_GET, now));
+    assertEquals(7, limiter.allowed());
+    assertEquals(3, limiter.throttled());
+    assertEquals(3, limiter.throttled(BinaryProtocol.OP_GET));
+  }
+
+  /**
+   * Test that clients and operation types have buckets of their own, with their own limits
+   */
+  @Test
+  public void testPerClientAndOperation() {
+    RateLimiter limiter = new RateLimiter(100, 2).limit(BinaryProtocol.OP_SCAN, 1, 1);
+    long now = 0;
+    assertTrue(limiter.tryAcquire("a", BinaryProtocol.OP_SCAN, now));
+    assertFalse(limiter.tryAcquire("a", BinaryProtocol.OP_SCAN, now));
+    // a's GETs and b's SCANs are not affected by a's SCANs
+    assertTrue(limiter.tryAcquire("a", BinaryProtocol.OP_GET, now));
+    assertTrue(limiter.tryAcquire("a", BinaryProtocol.OP_GET, now));
+    assertFalse(limiter.tryAcquire("a", BinaryProtocol.OP_GET, now));
+    assertTrue(limiter.tryAcquire("b", BinaryProtocol.OP_SCAN, now));
+    assertEquals(1, limiter.throttled(BinaryProtocol.OP_SCAN));
+    assertEquals(0, limiter.throttled(BinaryProtocol.OP_PUT));
+    assertEquals(2, limiter.clientCount());
+    assertTrue(limiter.stats().contains("top throttled: a=2"));
+  }
+
+  /**
+   * Test that clients whose buckets are full again are dropped once the table grows
+   */
+  @Test
+  public void testIdleClientsSwept() {
+    RateLimiter limiter = new RateLimiter(1000, 10);
+    // The table is swept at 1024 clients, then again once it has doubled
+    for (int i = 0; i < 2048; i++) {
+      limiter.tryAcquire("client" + i, BinaryProtocol.OP_PUT, 0);
+    }
+    assertEquals(2048, limiter.clientCount());
+    // A second later every bucket has refilled, so the next new client's sweep drops them all
+    limiter.tryAcquire("late", BinaryProtocol.OP_PUT, SECOND);
+    assertEquals(1, limiter.clientCount());
+  }
+
+  /**
+   * Test that bad limits are refused
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidLimit() {
+    new RateLimiter(0, 1);
+  }
+
+  private static String exchange(DatagramSocket socket, byte[] data) throws Exception {
+    socket.send(new DatagramPacket(data, data.length, InetAddress.getByName("localhost"), TEST_PORT));
+    byte[] receiveData = new byte[1024];
+    DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
+    socket.receive(receivePacket);
+    return new String(receivePacket.getData(), 0, receivePacket.getLength(), StandardCharsets.UTF_8);
+  }
+
+  private static String exchange(DatagramSocket socket, String request) throws Exception {
+    return exchange(socket, request.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Test that a client over its GET limit is answered THROTTLED, while its PUTs and
+   * other clients' GETs still go through
+   */
+  @Test
+  public void testUdpThrottling() throws Exception {
+    try (DatagramSocket greedy = new DatagramSocket(); DatagramSocket polite = new DatagramSocket()) {
+      greedy.setSoTimeout(2000);
+      polite.setSoTimeout(2000);
+      assertEquals("PUT_OK", exchange(greedy, "PUT limitedKey value"));
+      int throttled = 0;
+      for (int i = 0; i < 10; i++) {
+        String response = exchange(greedy, "GET limitedKey");
+        if (response.equals(Protocol.THROTTLED)) {
+          throttled++;
+        } else {
+          assertEquals("GET_RESULT value", response);
+        }
+      }
+      assertEquals(5, throttled);
+      assertEquals("PUT_OK", exchange(greedy, "PUT limitedKey other"));
+      assertEquals("GET_RESULT other", exchange(polite, "GET limitedKey"));
+      // Tagged and binary requests are answered in their own framing
+      assertEquals("#7 " + Protocol.THROTTLED, exchange(greedy, "#7 GET limitedKey"));
+      byte[] response = exchange(greedy, BinaryProtocol.encodeRequest(BinaryProtocol.OP_GET, "limitedKey", null))
+          .getBytes(StandardCharsets.ISO_8859_1);
+      assertEquals(BinaryProtocol.STATUS_THROTTLED, response[0]);
+    }
+  }
+
+  /**
+   * Test that retransmissions answered from the retry cache use up no tokens, and are
+   * answered even when the client is over its limit
+   */
+  @Test
+  public void testRetransmissionNotThrottled() throws Exception {
+    try (DatagramSocket client = new DatagramSocket()) {
+      client.setSoTimeout(2000);
+      assertEquals("PUT_OK", exchange(client, "PUT retriedKey value"));
+      for (int i = 0; i < 5; i++) {
+        assertEquals("#100 GET_RESULT value", exchange(client, "#100 GET retriedKey"));
+      }
+      // The retransmissions left 4 of the 5 tokens
+      for (int i = 0; i < 4; i++) {
+        assertEquals("GET_RESULT value", exchange(client, "GET retriedKey"));
+      }
+      assertEquals(Protocol.THROTTLED, exchange(client, "GET retriedKey"));
+      assertEquals("#100 GET_RESULT value", exchange(client, "#100 GET retriedKey"));
+    }
+  }
+}
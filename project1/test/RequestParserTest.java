@@ -0,0 +1,165 @@
+import common.BinaryProtocol;
+import org.junit.Before;
+import org.junit.Test;
+import server.RequestParser;
+import server.RequestProcessor;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Test suite for RequestParser and RequestProcessor
+ * Verifies in-place parsing of text and binary requests and the responses written for them
+ */
+public class RequestParserTest {
+  private RequestParser parser;
+
+  @Before
+  public void setUp() {
+    parser = new RequestParser();
+  }
+
+  private static ByteBuffer buffer(String text) {
+    return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String slice(ByteBuffer buffer, int start, int end) {
+    return new String(buffer.array(), start, end - start, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Helper that parses one request and returns the text response written for it
+   */
+  private String execute(String request) {
+    ByteBuffer input = buffer(request);
+    ByteBuffer output = ByteBuffer.allocate(16);
+    int result = parser.parse(input, true);
+    output = (result == RequestParser.REQUEST)
+            ? RequestProcessor.process(parser, input, output)
+            : RequestProcessor.malformed(parser, output);
+    return new String(output.array(), 0, output.position(), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Test text request slices
+   * Verifies opcode, key and value positions without creating Strings
+   */
+  @Test
+  public void testTextRequest() {
+    ByteBuffer input = buffer("PUT myKey my value\n");
+    assertEquals(RequestParser.REQUEST, parser.parse(input, false));
+    assertEquals(BinaryProtocol.OP_PUT, parser.opcode());
+    assertFalse(parser.isBinary());
+    assertTrue(parser.isLineTerminated());
+    assertEquals("myKey", slice(input, parser.keyStart(), parser.keyEnd()));
+    assertEquals("my value", slice(input, parser.valueStart(), parser.valueEnd()));
+    assertFalse(input.hasRemaining());
+  }
+
+  /**
+   * Test case-insensitive operation matching
+   */
+  @Test
+  public void testCaseInsensitiveOperations() {
+    assertEquals(RequestParser.REQUEST, parser.parse(buffer("get k\n"), false));
+    assertEquals(BinaryProtocol.OP_GET, parser.opcode());
+    assertEquals(RequestParser.REQUEST, parser.parse(buffer("DeLeTe k\n"), false));
+    assertEquals(BinaryProtocol.OP_DELETE, parser.opcode());
+    assertEquals(RequestParser.REQUEST, parser.parse(buffer("scan 0 10\n"), false));
+    assertEquals(BinaryProtocol.OP_SCAN, parser.opcode());
+    assertEquals(RequestParser.REQUEST, parser.parse(buffer("GOT k\n"), false));
+    assertEquals(RequestParser.OP_UNKNOWN, parser.opcode());
+  }
+
+  /**
+   * Test partial input
+   * Verifies nothing is consumed until the request is complete
+   */
+  @Test
+  public void testPartialRequests() {
+    ByteBuffer input = buffer("GET par");
+    assertEquals(RequestParser.NEED_MORE, parser.parse(input, false));
+    assertEquals(0, input.position());
+
+    byte[] frame = BinaryProtocol.encodeRequest(BinaryProtocol.OP_PUT, "key", new byte[100]);
+    input = ByteBuffer.wrap(frame, 0, frame.length - 1);
+    assertEquals(RequestParser.NEED_MORE, parser.parse(input, false));
+    assertEquals(0, input.position());
+  }
+
+  /**
+   * Test several requests in one buffer, mixing both framings
+   */
+  @Test
+  public void testMultipleRequests() {
+    byte[] text = "GET a\r\nDELETE b\n".getBytes(StandardCharsets.UTF_8);
+    byte[] frame = BinaryProtocol.encodeRequest(BinaryProtocol.OP_PUT, "c", new byte[]{1, 2});
+    ByteBuffer input = ByteBuffer.allocate(text.length + frame.length);
+    input.put(text).put(frame).flip();
+
+    assertEquals(RequestParser.REQUEST, parser.parse(input, false));
+    assertEquals("a", slice(input, parser.keyStart(), parser.keyEnd()));
+    assertEquals(RequestParser.REQUEST, parser.parse(input, false));
+    assertEquals(BinaryProtocol.OP_DELETE, parser.opcode());
+    assertEquals(RequestParser.REQUEST, parser.parse(input, false));
+    assertTrue(parser.isBinary());
+    assertEquals(2, parser.valueEnd() - parser.valueStart());
+    assertEquals(RequestParser.NEED_MORE, parser.parse(input, false));
+  }
+
+  /**
+   * Test malformed input
+   */
+  @Test
+  public void testMalformedRequests() {
+    assertEquals(RequestParser.MALFORMED, parser.parse(buffer("PUT\n"), false));
+    assertEquals(RequestParser.MALFORMED, parser.parseDatagram(buffer("")));
+    // Key length varint that never ends
+    ByteBuffer corrupt = ByteBuffer.wrap(new byte[]{BinaryProtocol.OP_GET, (byte) 0xFF, (byte) 0xFF,
+            (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0});
+    assertEquals(RequestParser.INVALID_FRAME, parser.parse(corrupt, false));
+  }
+
+  /**
+   * Test responses written by RequestProcessor match the text protocol
+   */
+  @Test
+  public void testProcessorResponses() {
+    assertEquals("PUT_OK\n", execute("PUT parserKey a b c\n"));
+    assertEquals("GET_RESULT a b c\n", execute("GET parserKey\n"));
+    assertEquals("GET_RESULT a b c", execute("GET parserKey"));
+    assertEquals("DELETE_OK", execute("DELETE parserKey"));
+    assertEquals("GET_ERROR", execute("GET parserKey"));
+    assertEquals("ERROR Invalid operation", execute("INVALID_OP key value"));
+    assertEquals("ERROR Malformed request", execute("PUT"));
+    assertTrue(execute("SCAN 0 5").startsWith("SCAN_RESULT "));
+    assertEquals("SCAN_ERROR Invalid cursor or count", execute("SCAN x"));
+  }
+
+  /**
+   * Test request IDs in both framings
+   * Verifies the ID is parsed and repeated on the response
+   */
+  @Test
+  public void testRequestId() {
+    assertEquals("#7 PUT_OK\n", execute("#7 PUT idKey idValue\n"));
+    assertEquals(7, parser.requestId());
+    assertEquals("#2147483647 GET_RESULT idValue", execute("#2147483647 GET idKey"));
+    assertEquals("GET_RESULT idValue", execute("GET idKey"));
+    assertFalse(parser.hasRequestId());
+    assertEquals("ERROR Malformed request", execute("#abc GET idKey"));
+    assertEquals("ERROR Malformed request", execute("#2147483648 GET idKey"));
+
+    ByteBuffer input = ByteBuffer.wrap(BinaryProtocol.encodeRequest(BinaryProtocol.OP_GET, 300, "idKey", null));
+    assertEquals(RequestParser.REQUEST, parser.parse(input, false));
+    assertEquals(BinaryProtocol.OP_GET, parser.opcode());
+    assertEquals(300, parser.requestId());
+    ByteBuffer output = RequestProcessor.process(parser, input, ByteBuffer.allocate(4));
+    output.flip();
+    assertEquals(BinaryProtocol.STATUS_OK | BinaryProtocol.FLAG_REQUEST_ID, output.get());
+    assertEquals(300, BinaryProtocol.readVarint(output));
+    assertEquals("idValue", new String(BinaryProtocol.readField(output), StandardCharsets.UTF_8));
+  }
+}
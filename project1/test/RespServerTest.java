@@ -0,0 +1,148 @@
+import org.junit.BeforeClass;
+import org.junit.Test;
+import kvstore.LocalBackend;
+import server.RespServer;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Test suite for RespServer
+ * Talks raw RESP2 to the server, the way redis-cli and Redis client libraries do
+ */
+public class RespServerTest {
+  private static final int TEST_PORT = 6390;
+
+  /**
+   * Starts one server for all tests; like TCPServer it has no stop method
+   */
+  @BeforeClass
+  public static void startServer() throws InterruptedException {
+    ExecutorService serverExecutor = Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r);
+      thread.setDaemon(true);
+      return thread;
+    });
+    serverExecutor.submit(() -> new RespServer(TEST_PORT, new LocalBackend()).start());
+    Thread.sleep(1000);
+  }
+
+  /**
+   * Helper that encodes a command as a RESP array of bulk strings
+   */
+  private static String command(String... args) {
+    StringBuilder sb = new StringBuilder("*").append(args.length).append("\r\n");
+    for (String arg : args) {
+      sb.append('$').append(arg.getBytes(StandardCharsets.UTF_8).length).append("\r\n").append(arg).append("\r\n");
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Helper that sends raw bytes and reads the given number of reply lines
+   */
+  private static String[] send(String request, int replyLines) throws IOException {
+    try (Socket socket = new Socket("localhost", TEST_PORT)) {
+      socket.getOutputStream().write(request.getBytes(StandardCharsets.UTF_8));
+      socket.getOutputStream().flush();
+      BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+      String[] lines = new String[replyLines];
+      for (int i = 0; i < replyLines; i++) {
+        lines[i] = in.readLine();
+      }
+      return lines;
+    }
+  }
+
+  /**
+   * Test PING, with and without a message, in array and inline form
+   */
+  @Test
+  public void testPing() throws IOException {
+    assertArrayEquals(new String[]{"+PONG"}, send(command("PING"), 1));
+    assertArrayEquals(new String[]{"$5", "hello"}, send(command("ping", "hello"), 2));
+    assertArrayEquals(new String[]{"+PONG"}, send("PING\r\n", 1));
+  }
+
+  /**
+   * Test SET and GET, including values with spaces and CRLF-free binary-safe lengths
+   */
+  @Test
+  public void testSetGet() throws IOException {
+    assertArrayEquals(new String[]{"+OK", "$11", "hello world"},
+            send(command("SET", "respKey", "hello world") + command("GET", "respKey"), 3));
+    assertArrayEquals(new String[]{"$-1"}, send(command("GET", "respMissing"), 1));
+    assertArrayEquals(new String[]{"-ERR syntax error"}, send(command("SET", "respKey", "v", "EX", "10"), 1));
+  }
+
+  /**
+   * Test MSET, MGET and multi-key DEL
+   */
+  @Test
+  public void testMultiKey() throws IOException {
+    assertArrayEquals(new String[]{"+OK"}, send(command("MSET", "m1", "a", "m2", "b"), 1));
+    assertArrayEquals(new String[]{"*3", "$1", "a", "$1", "b", "$-1"},
+            send(command("MGET", "m1", "m2", "m3"), 6));
+    assertArrayEquals(new String[]{":2"}, send(command("DEL", "m1", "m2", "m3"), 1));
+    assertArrayEquals(new String[]{"-ERR wrong number of arguments for 'mset' command"},
+            send(command("MSET", "m1"), 1));
+  }
+
+  /**
+   * Test INCR on new, existing and non-numeric keys
+   */
+  @Test
+  public void testIncr() throws IOException {
+    send(command("DEL", "counter"), 1);
+    assertArrayEquals(new String[]{":1", ":2", "$1", "2"},
+            send(command("INCR", "counter") + command("INCR", "counter") + command("GET", "counter"), 4));
+    send(command("SET", "notNumber", "abc"), 1);
+    assertArrayEquals(new String[]{"-ERR value is not an integer or out of range"},
+            send(command("INCR", "notNumber"), 1));
+  }
+
+  /**
+   * Test pipelined commands split across writes
+   * Verifies a command cut in the middle is completed by the next write
+   */
+  @Test
+  public void testPipelining() throws IOException {
+    StringBuilder batch = new StringBuilder();
+    for (int i = 0; i < 200; i++) {
+      batch.append(command("SET", "pipe" + i, "v" + i));
+    }
+    for (int i = 0; i < 200; i++) {
+      batch.append(command("GET", "pipe" + i));
+    }
+    byte[] bytes = batch.toString().getBytes(StandardCharsets.UTF_8);
+    try (Socket socket = new Socket("localhost", TEST_PORT)) {
+      OutputStream out = socket.getOutputStream();
+      out.write(bytes, 0, bytes.length / 2 + 3);
+      out.flush();
+      out.write(bytes, bytes.length / 2 + 3, bytes.length - bytes.length / 2 - 3);
+      out.flush();
+      BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+      for (int i = 0; i < 200; i++) {
+        assertEquals("+OK", in.readLine());
+      }
+      for (int i = 0; i < 200; i++) {
+        assertEquals("$" + ("v" + i).length(), in.readLine());
+        assertEquals("v" + i, in.readLine());
+      }
+    }
+  }
+
+  /**
+   * Test unknown commands and protocol errors
+   */
+  @Test
+  public void testErrors() throws IOException {
+    assertArrayEquals(new String[]{"-ERR unknown command 'FLUSHALL'"}, send(command("FLUSHALL"), 1));
+    assertArrayEquals(new String[]{"-Protocol error: expected '$', got 'x'", null}, send("*1\r\nx\r\n", 2));
+  }
+}
@@ -0,0 +1,189 @@
+import common.BinaryProtocol;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import server.Stage;
+import server.UDPServer;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test suite for UDPServer in staged mode: decode, execute, send and log stages
+ */
+public class StagedUDPServerTest {
+  private static final int TEST_PORT = 8897;
+  private static UDPServer server;
+
+  /**
+   * Starts one server for all tests; UDPServer has no stop method
+   */
+  @BeforeClass
+  public static void startServer() throws InterruptedException {
+    server = new UDPServer(TEST_PORT).staged(1, 2, 1);
+    ExecutorService serverExecutor = Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r);
+      thread.setDaemon(true);
+      return thread;
+    });
+    serverExecutor.submit(server::start);
+    Thread.sleep(1000);
+  }
+
+  private static byte[] exchange(DatagramSocket socket, byte[] data) throws Exception {
+    socket.send(new DatagramPacket(data, data.length, InetAddress.getByName("localhost"), TEST_PORT));
+    byte[] receiveData = new byte[64 * 1024];
+    DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
+    socket.receive(receivePacket);
+    byte[] response = new byte[receivePacket.getLength()];
+    System.arraycopy(receiveData, 0, response, 0, response.length);
+    return response;
+  }
+
+  private static String exchange(DatagramSocket socket, String request) throws Exception {
+    return new String(exchange(socket, request.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8);
+  }
+
+  private static DatagramSocket client() throws Exception {
+    DatagramSocket socket = new DatagramSocket();
+    socket.setSoTimeout(2000);
+    return socket;
+  }
+
+  /**
+   * Test that every operation and a malformed request are answered as inline
+   */
+  @Test
+  public void testOperations() throws Exception {
+    try (DatagramSocket socket = client()) {
+      assertEquals("PUT_OK", exchange(socket, "PUT stagedKey stagedValue"));
+      assertEquals("GET_RESULT stagedValue", exchange(socket, "GET stagedKey"));
+      assertEquals("DELETE_OK", exchange(socket, "DELETE stagedKey"));
+      assertEquals("GET_ERROR", exchange(socket, "GET stagedKey"));
+      assertEquals("ERROR Malformed request", exchange(socket, "GET"));
+    }
+  }
+
+  /**
+   * Test that a batch datagram goes through the stages as one packet
+   */
+  @Test
+  public void testBatch() throws Exception {
+    List<byte[]> frames = new ArrayList<>();
+    frames.add(BinaryProtocol.encodeRequest(BinaryProtocol.OP_PUT, "stagedBatch", "batchValue".getBytes(StandardCharsets.UTF_8)));
+    frames.add(BinaryProtocol.encodeRequest(BinaryProtocol.OP_GET, "stagedBatch", null));
+    try (DatagramSocket socket = client()) {
+      byte[] response = exchange(socket, BinaryProtocol.encodeBatch(frames));
+      List<BinaryProtocol.Response> responses = BinaryProtocol.readBatchResponse(new ByteArrayInputStream(response));
+      assertEquals(2, responses.size());
+      assertTrue(responses.get(0).isOk());
+      assertEquals("batchValue", new String(responses.get(1).getPayload(), StandardCharsets.UTF_8));
+    }
+  }
+
+  /**
+   * Test that a retransmitted tagged request is answered from the execute thread's retry cache
+   */
+  @Test
+  public void testRetransmissionNotExecutedTwice() throws Exception {
+    try (DatagramSocket socket = client()) {
+      assertEquals("#7 PUT_OK", exchange(socket, "#7 PUT stagedRetry first"));
+      assertEquals("#8 PUT_OK", exchange(socket, "#8 PUT stagedRetry second"));
+      assertEquals("#7 PUT_OK", exchange(socket, "#7 PUT stagedRetry first"));
+      assertEquals("GET_RESULT second", exchange(socket, "GET stagedRetry"));
+    }
+  }
+
+  /**
+   * Test concurrent clients, spread over both execute threads
+   */
+  @Test
+  public void testConcurrentClients() throws Exception {
+    int clients = 16;
+    int requests = 50;
+    ExecutorService executor = Executors.newFixedThreadPool(clients);
+    List<Future<Integer>> results = new ArrayList<>();
+    for (int c = 0; c < clients; c++) {
+      int client = c;
+      results.add(executor.submit(() -> {
+        int answered = 0;
+        try (DatagramSocket socket = client()) {
+          for (int i = 0; i < requests; i++) {
+            String key = "staged" + client + "_" + i;
+            if (exchange(socket, "PUT " + key + " v" + i).equals("PUT_OK")
+                    && exchange(socket, "GET " + key).equals("GET_RESULT v" + i)) {
+              answered++;
+            }
+          }
+        }
+        return answered;
+      }));
+    }
+    for (Future<Integer> result : results) {
+      assertEquals(requests, (int) result.get());
+    }
+    executor.shutdown();
+  }
+
+  /**
+   * Test the per-stage counters
+   */
+  @Test
+  public void testStageStats() throws Exception {
+    try (DatagramSocket socket = client()) {
+      exchange(socket, "GET statsKey");
+    }
+    // A stage counts a task once its handler returned, which can be after the response arrived
+    Thread.sleep(100);
+    List<Stage<?>> stages = server.stages();
+    assertEquals(4, stages.size());
+    assertEquals("decode", stages.get(0).name());
+    assertEquals("execute", stages.get(1).name());
+    assertEquals("send", stages.get(2).name());
+    assertEquals("log", stages.get(3).name());
+    for (Stage<?> stage : stages.subList(0, 3)) {
+      assertTrue(stage.name(), stage.processed() >= 1);
+      assertTrue(stage.name(), stage.maxQueueDepth() >= 1);
+    }
+    assertTrue(server.stageStats().contains("execute: threads=2"));
+    assertTrue(server.stats().contains("stages: decode:"));
+  }
+
+  /**
+   * Test that a task the handler throws on goes to the failure callback, so a pool
+   * the tasks come from does not run dry
+   */
+  @Test
+  public void testHandlerFailure() throws Exception {
+    ArrayBlockingQueue<Stage.Task> pool = new ArrayBlockingQueue<>(4);
+    for (int i = 0; i < 4; i++) {
+      pool.add(new Stage.Task() { });
+    }
+    Stage<Stage.Task> stage = new Stage<>("failing", 1, 4, (task, thread) -> {
+      throw new IllegalStateException("handler bug");
+    }, pool::add);
+    stage.start();
+    try {
+      // Many more tasks than the pool holds: each one has to come back
+      for (int i = 0; i < 100; i++) {
+        Stage.Task task = pool.poll(5, TimeUnit.SECONDS);
+        assertNotNull("Task " + i + " was not returned", task);
+        stage.put(task);
+      }
+    } finally {
+      stage.stop();
+    }
+    assertTrue(stage.stats().contains("failed="));
+  }
+}
@@ -1,12 +1,19 @@
 import org.junit.Before;
 import org.junit.After;
 import org.junit.Test;
+import client.MultiplexedTCPClient;
+import client.TCPClient;
+import common.BinaryProtocol;
+import common.Capabilities;
+import common.Protocol;
 import server.TCPServer;
 
 import static org.junit.Assert.*;
 
 import java.io.*;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.*;
 
 /**
@@ -219,4 +226,131 @@ public class TCPServerTest {
     response = sendRequest("GET " + key);
     assertEquals("GET_ERROR Key not found", response);
   }
-}
\ No newline at end of file
+
+  /**
+   * Test values containing spaces over the text protocol
+   */
+  @Test
+  public void testValueWithSpaces() throws IOException {
+    assertEquals("PUT_OK", sendRequest("PUT spaceKey a value with spaces"));
+    assertEquals("GET_RESULT a value with spaces", sendRequest("GET spaceKey"));
+  }
+
+  /**
+   * Test binary protocol on the same port
+   * Verifies the server detects binary framing and round-trips arbitrary bytes
+   */
+  @Test
+  public void testBinaryProtocol() throws IOException {
+    byte[] value = {0, '\n', ' ', (byte) 0xFF, 'x'};
+    try (Socket socket = new Socket("localhost", TEST_PORT)) {
+      OutputStream out = socket.getOutputStream();
+      InputStream in = new BufferedInputStream(socket.getInputStream());
+
+      out.write(BinaryProtocol.encodeRequest(BinaryProtocol.OP_PUT, "binaryKey", value));
+      assertTrue(BinaryProtocol.readResponse(in).isOk());
+
+      // Several frames on one connection
+      out.write(BinaryProtocol.encodeRequest(BinaryProtocol.OP_GET, "binaryKey", null));
+      BinaryProtocol.Response response = BinaryProtocol.readResponse(in);
+      assertTrue(response.isOk());
+      assertArrayEquals(value, response.getPayload());
+
+      out.write(BinaryProtocol.encodeRequest(BinaryProtocol.OP_DELETE, "binaryKey", null));
+      assertTrue(BinaryProtocol.readResponse(in).isOk());
+
+      out.write(BinaryProtocol.encodeRequest(BinaryProtocol.OP_GET, "binaryKey", null));
+      assertEquals(BinaryProtocol.STATUS_NOT_FOUND, BinaryProtocol.readResponse(in).getStatus());
+    }
+  }
+
+  /**
+   * Test pipelined requests on one connection
+   * Verifies all requests sent in a single write are answered in order
+   */
+  @Test
+  public void testPipelining() throws IOException {
+    StringBuilder batch = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      batch.append("PUT pipeKey").append(i).append(" value").append(i).append('\n');
+      batch.append("GET pipeKey").append(i).append('\n');
+    }
+    try (
+            Socket socket = new Socket("localhost", TEST_PORT);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))
+    ) {
+      socket.getOutputStream().write(batch.toString().getBytes());
+      socket.getOutputStream().flush();
+      for (int i = 0; i < 100; i++) {
+        assertEquals("PUT_OK", in.readLine());
+        assertEquals("GET_RESULT value" + i, in.readLine());
+      }
+    }
+
+    // Same through the client API, with a window smaller than the request count
+    List<String> requests = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      requests.add(Protocol.createRequest(Protocol.GET, "pipeKey" + i, null));
+    }
+    List<String> responses = new TCPClient("localhost", TEST_PORT).sendPipelined(requests, 8);
+    assertEquals(50, responses.size());
+    for (int i = 0; i < 50; i++) {
+      assertEquals("GET_RESULT value" + i, responses.get(i));
+    }
+  }
+
+  /**
+   * Test multiplexed requests with request IDs
+   * Verifies every tagged request is answered once with its own ID, in any order
+   */
+  @Test
+  public void testRequestIds() throws Exception {
+    try (MultiplexedTCPClient client = new MultiplexedTCPClient("localhost", TEST_PORT)) {
+      List<CompletableFuture<String>> puts = new ArrayList<>();
+      for (int i = 0; i < 100; i++) {
+        puts.add(client.send(Protocol.PUT, "muxKey" + i, "value" + i));
+      }
+      for (CompletableFuture<String> put : puts) {
+        assertEquals("PUT_OK", put.get(5, TimeUnit.SECONDS));
+      }
+      List<CompletableFuture<String>> gets = new ArrayList<>();
+      for (int i = 0; i < 100; i++) {
+        gets.add(client.send(Protocol.GET, "muxKey" + i, null));
+      }
+      for (int i = 0; i < 100; i++) {
+        assertEquals("GET_RESULT value" + i, gets.get(i).get(5, TimeUnit.SECONDS));
+      }
+      assertEquals(0, client.pendingCount());
+    }
+
+    // Binary frames carry the ID after the opcode
+    try (Socket socket = new Socket("localhost", TEST_PORT)) {
+      OutputStream out = socket.getOutputStream();
+      InputStream in = new BufferedInputStream(socket.getInputStream());
+      out.write(BinaryProtocol.encodeRequest(BinaryProtocol.OP_GET, 1000, "muxKey1", null));
+      BinaryProtocol.Response response = BinaryProtocol.readResponse(in);
+      assertEquals(1000, response.getRequestId());
+      assertArrayEquals("value1".getBytes(), response.getPayload());
+    }
+  }
+
+  /**
+   * Test the HELLO handshake
+   * Verifies the server answers with the common capabilities and the client then uses binary framing
+   */
+  @Test
+  public void testHello() throws IOException {
+    assertEquals("HELLO_OK 2 binary=1 pipeline=8 compression=none batch=4",
+            sendRequest("HELLO 2 binary=1 pipeline=8 compression=none batch=4"));
+    assertEquals("HELLO_OK 1 binary=0 pipeline=1 compression=none batch=1", sendRequest("HELLO 1"));
+    assertEquals("ERROR Malformed request", sendRequest("HELLO x"));
+
+    TCPClient client = new TCPClient("localhost", TEST_PORT);
+    assertTrue(client.negotiate().isBinary());
+    assertEquals(Capabilities.VERSION, client.negotiate().getVersion());
+
+    // Operations are case-insensitive, on the binary path too
+    client.sendRequest("put", "lowerCaseKey", "lowerCaseValue");
+    assertEquals("GET_RESULT lowerCaseValue", sendRequest("GET lowerCaseKey"));
+  }
+}
@@ -0,0 +1,182 @@
+import client.UDPClient;
+import common.BinaryProtocol;
+import common.Protocol;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import server.UDPServer;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.UnknownHostException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Test suite for UDPClient.get(), the allocation-free read into a caller's buffer
+ */
+public class UDPClientFastPathTest {
+  private static final int TEST_PORT = 8904;
+  private static final int MOCK_PORT = 8905;
+
+  @BeforeClass
+  public static void startServer() throws InterruptedException {
+    Thread thread = new Thread(new UDPServer(TEST_PORT)::start);
+    thread.setDaemon(true);
+    thread.start();
+    Thread.sleep(1000);
+  }
+
+  private static String text(ByteBuffer buffer, int length) {
+    return new String(buffer.array(), 0, length, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Test reading values, missing keys and values too large for the buffer
+   */
+  @Test
+  public void testGet() throws Exception {
+    try (UDPClient client = new UDPClient("localhost", TEST_PORT)) {
+      client.sendRequest(Protocol.PUT, "fastKey", "fastValue");
+      client.sendRequest(Protocol.PUT, "fastKëy", "välue");
+      client.sendRequest("put", "fastLowerKey", "lower");
+      ByteBuffer value = ByteBuffer.allocate(64);
+
+      int length = client.get("fastKey", value);
+      assertEquals("fastValue", text(value, length));
+      assertEquals(length, value.position());
+
+      value.clear();
+      length = client.get("fastKëy", value);
+      assertEquals("välue", text(value, length));
+
+      value.clear();
+      assertEquals("lower", text(value, client.get("fastLowerKey", value)));
+
+      value.clear();
+      assertEquals(-1, client.get("missingKey", value));
+      assertEquals(0, value.position());
+
+      try {
+        client.get("fastKey", ByteBuffer.allocate(4));
+        fail("Expected the value not to fit");
+      } catch (BufferOverflowException e) {
+        // The client stays usable
+      }
+      value.clear();
+      assertEquals("fastValue", text(value, client.get("fastKey", value)));
+    }
+  }
+
+  /**
+   * Test the text protocol against a server that does not speak HELLO
+   */
+  @Test
+  public void testGetText() throws Exception {
+    try (DatagramSocket mock = new DatagramSocket(MOCK_PORT);
+         UDPClient client = new UDPClient("localhost", MOCK_PORT)) {
+      mock.setSoTimeout(5000);
+      Thread server = new Thread(() -> {
+        try {
+          for (int i = 0; i < 3; i++) {
+            DatagramPacket packet = new DatagramPacket(new byte[1024], 1024);
+            mock.receive(packet);
+            String request = new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8);
+            String response = request.startsWith(Protocol.HELLO) ? "ERROR Invalid operation"
+                : request.equals("GET textKey") ? "GET_RESULT text value" : Protocol.GET_ERROR;
+            byte[] data = response.getBytes(StandardCharsets.UTF_8);
+            mock.send(new DatagramPacket(data, data.length, packet.getSocketAddress()));
+          }
+        } catch (Exception e) {
+          // The test fails on its own
+        }
+      });
+      server.start();
+
+      ByteBuffer value = ByteBuffer.allocate(64);
+      assertEquals("text value", text(value, client.get("textKey", value)));
+      value.clear();
+      assertEquals(-1, client.get("otherKey", value));
+      server.join(5000);
+    }
+  }
+
+  /**
+   * Test that a tagged GET skips untagged answers other than errors: a late duplicate
+   * HELLO_OK, whose 'H' reads like a tagged binary header, and a stray untagged frame
+   */
+  @Test
+  public void testUntaggedAnswersSkipped() throws Exception {
+    try (DatagramSocket mock = new DatagramSocket(MOCK_PORT);
+         UDPClient client = new UDPClient("localhost", MOCK_PORT)) {
+      mock.setSoTimeout(5000);
+      byte[] hello = ("HELLO_OK " + UDPClient.CLIENT_CAPABILITIES.encode()).getBytes(StandardCharsets.US_ASCII);
+      Thread server = new Thread(() -> {
+        try {
+          DatagramPacket packet = new DatagramPacket(new byte[1024], 1024);
+          mock.receive(packet);
+          reply(mock, packet, hello);
+
+          packet.setLength(1024);
+          mock.receive(packet);
+          int id = BinaryProtocol.readVarint(ByteBuffer.wrap(packet.getData(), 1, packet.getLength() - 1));
+          reply(mock, packet, hello);
+          reply(mock, packet, response(-1, BinaryProtocol.STATUS_OK, "stale"));
+          reply(mock, packet, response(id, BinaryProtocol.STATUS_OK, "fresh"));
+
+          packet.setLength(1024);
+          mock.receive(packet);
+          reply(mock, packet, response(-1, BinaryProtocol.STATUS_ERROR, "Malformed request"));
+        } catch (Exception e) {
+          // The test fails on its own
+        }
+      });
+      server.start();
+
+      ByteBuffer value = ByteBuffer.allocate(64);
+      assertEquals("fresh", text(value, client.get("untaggedKey", value)));
+      try {
+        client.get("unreadableKey", ByteBuffer.allocate(64));
+        fail("Expected the untagged error");
+      } catch (IOException e) {
+        assertEquals("GET failed: ERROR Malformed request", e.getMessage());
+      }
+      server.join(5000);
+    }
+  }
+
+  private static void reply(DatagramSocket socket, DatagramPacket request, byte[] data) throws IOException {
+    socket.send(new DatagramPacket(data, data.length, request.getSocketAddress()));
+  }
+
+  /**
+   * @return A binary response frame, tagged unless requestId is -1
+   */
+  private static byte[] response(int requestId, byte status, String payload) {
+    ByteBuffer out = ByteBuffer.allocate(64);
+    byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+    if (requestId < 0) {
+      BinaryProtocol.writeResponse(out, status, bytes);
+    } else {
+      out.put((byte) (status | BinaryProtocol.FLAG_REQUEST_ID));
+      BinaryProtocol.writeVarint(out, requestId);
+      BinaryProtocol.writeVarint(out, bytes.length);
+      out.put(bytes);
+    }
+    return Arrays.copyOf(out.array(), out.position());
+  }
+
+  /**
+   * Test that a server name that does not resolve fails the request instead of timing out
+   */
+  @Test(expected = UnknownHostException.class)
+  public void testUnknownHost() throws Exception {
+    try (UDPClient client = new UDPClient("non-existent-host", TEST_PORT)) {
+      client.get("anyKey", ByteBuffer.allocate(64));
+    }
+  }
+}
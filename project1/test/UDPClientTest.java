@@ -1,4 +1,5 @@
 import client.UDPClient;
+import common.Capabilities;
 import common.Protocol;
 import org.junit.Before;
 import org.junit.After;
@@ -15,6 +16,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class UDPClientTest {
   private static final int TEST_PORT = 9090;
@@ -23,6 +25,9 @@ public class UDPClientTest {
   private DatagramSocket mockServer;
   private ExecutorService serverExecutor;
   private volatile boolean serverRunning;
+  // Requests the mock server receives, and how many more it should drop unanswered
+  private final AtomicInteger received = new AtomicInteger();
+  private volatile int dropRequests;
 
   @Before
   public void setUp() throws SocketException {
@@ -66,6 +71,11 @@ public class UDPClientTest {
 
     // Wait for client request
     mockServer.receive(receivePacket);
+    received.incrementAndGet();
+    if (dropRequests > 0) {
+      dropRequests--;
+      return;
+    }
 
     // Get client's address and port
     InetAddress clientAddress = receivePacket.getAddress();
@@ -182,4 +192,45 @@ public class UDPClientTest {
       client.sendRequest(Protocol.PUT, "rapidKey" + i, "rapidValue" + i);
     }
   }
-}
\ No newline at end of file
+
+  /**
+   * Test HELLO against a server that does not know it
+   * Verifies the client falls back to the text protocol
+   */
+  @Test
+  public void testHelloFallback() {
+    assertSame(Capabilities.TEXT_ONLY, client.negotiate());
+  }
+
+  /**
+   * Test a HELLO that got no answer at all
+   * Verifies the client uses text for now, without taking that as the server's answer
+   * and without sending HELLO again right away
+   */
+  @Test
+  public void testUnansweredHello() {
+    dropRequests = UDPClient.MAX_ATTEMPTS;
+    assertSame(Capabilities.TEXT_ONLY, client.negotiate());
+    assertEquals(UDPClient.MAX_ATTEMPTS, received.get());
+    assertSame(Capabilities.TEXT_ONLY, client.negotiate());
+    assertEquals(UDPClient.MAX_ATTEMPTS, received.get());
+  }
+
+  /**
+   * Test retransmission against a server that lost the request
+   * Reads are resent even to a text-only server, writes are not (it has no retry cache)
+   */
+  @Test
+  public void testRetry() {
+    client.negotiate();
+    received.set(0);
+    dropRequests = 1;
+    client.sendRequest(Protocol.GET, "retryKey", null);
+    assertEquals(2, received.get());
+
+    received.set(0);
+    dropRequests = 1;
+    client.sendRequest(Protocol.DELETE, "retryKey", null);
+    assertEquals(1, received.get());
+  }
+}
@@ -1,13 +1,21 @@
 import org.junit.Before;
 import org.junit.After;
 import org.junit.Test;
+import client.BatchingUDPClient;
+import common.BinaryProtocol;
+import common.Protocol;
 import server.UDPServer;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.*;
 
 /**
@@ -257,4 +265,279 @@ public class UDPServerTest {
     response = sendRequest("GET " + key);
     assertEquals("GET_ERROR Key not found", response);
   }
-}
\ No newline at end of file
+
+  /**
+   * Test binary protocol datagrams on the same port
+   */
+  @Test
+  public void testBinaryProtocol() throws Exception {
+    byte[] value = {'a', ' ', 'b', 0, (byte) 0x80};
+    InetAddress serverAddress = InetAddress.getByName("localhost");
+    byte[] receiveData = new byte[1024];
+
+    byte[] frame = BinaryProtocol.encodeRequest(BinaryProtocol.OP_PUT, "udpBinaryKey", value);
+    clientSocket.send(new DatagramPacket(frame, frame.length, serverAddress, TEST_PORT));
+    DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
+    clientSocket.receive(receivePacket);
+    assertEquals(BinaryProtocol.STATUS_OK, receivePacket.getData()[0]);
+
+    frame = BinaryProtocol.encodeRequest(BinaryProtocol.OP_GET, "udpBinaryKey", null);
+    clientSocket.send(new DatagramPacket(frame, frame.length, serverAddress, TEST_PORT));
+    receivePacket = new DatagramPacket(receiveData, receiveData.length);
+    clientSocket.receive(receivePacket);
+    ByteBuffer response = ByteBuffer.wrap(receivePacket.getData(), 0, receivePacket.getLength());
+    assertEquals(BinaryProtocol.STATUS_OK, response.get());
+    assertArrayEquals(value, BinaryProtocol.readField(response));
+  }
+
+  /**
+   * Test a batch datagram: one response per frame, in order, and a corrupt
+   * frame answered with an error without losing the frames before it
+   */
+  @Test
+  public void testBatch() throws Exception {
+    List<byte[]> frames = new ArrayList<>();
+    frames.add(BinaryProtocol.encodeRequest(BinaryProtocol.OP_PUT, "batchKey", "v1".getBytes()));
+    frames.add(BinaryProtocol.encodeRequest(BinaryProtocol.OP_GET, "batchKey", null));
+    frames.add(BinaryProtocol.encodeRequest(BinaryProtocol.OP_DELETE, "batchKey", null));
+    frames.add(BinaryProtocol.encodeRequest(BinaryProtocol.OP_GET, "batchKey", null));
+    // Text is not allowed inside a batch
+    frames.add("GET batchKey".getBytes());
+    byte[] batch = BinaryProtocol.encodeBatch(frames);
+    clientSocket.send(new DatagramPacket(batch, batch.length, InetAddress.getByName("localhost"), TEST_PORT));
+
+    byte[] receiveData = new byte[64 * 1024];
+    DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
+    clientSocket.receive(receivePacket);
+    List<BinaryProtocol.Response> responses = BinaryProtocol.readBatchResponse(
+            new ByteArrayInputStream(receivePacket.getData(), 0, receivePacket.getLength()));
+    assertEquals(5, responses.size());
+    assertEquals("PUT_OK", responses.get(0).toText(BinaryProtocol.OP_PUT));
+    assertEquals("GET_RESULT v1", responses.get(1).toText(BinaryProtocol.OP_GET));
+    assertEquals("DELETE_OK", responses.get(2).toText(BinaryProtocol.OP_DELETE));
+    assertEquals(BinaryProtocol.STATUS_NOT_FOUND, responses.get(3).getStatus());
+    assertEquals(BinaryProtocol.STATUS_ERROR, responses.get(4).getStatus());
+  }
+
+  /**
+   * Test a tagged batch whose answers do not all fit one datagram: the header echoes
+   * the request ID and the entry that would overflow is answered with an error
+   */
+  @Test
+  public void testBatchResponseLimit() throws Exception {
+    InetAddress serverAddress = InetAddress.getByName("localhost");
+    byte[] receiveData = new byte[64 * 1024];
+    byte[] value = new byte[30_000];
+    Arrays.fill(value, (byte) 'x');
+    byte[] put = BinaryProtocol.encodeRequest(BinaryProtocol.OP_PUT, "bigBatchKey", value);
+    clientSocket.send(new DatagramPacket(put, put.length, serverAddress, TEST_PORT));
+    clientSocket.receive(new DatagramPacket(receiveData, receiveData.length));
+
+    List<byte[]> frames = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      frames.add(BinaryProtocol.encodeRequest(BinaryProtocol.OP_GET, "bigBatchKey", null));
+    }
+    byte[] batch = BinaryProtocol.encodeBatch(4242, frames);
+    clientSocket.send(new DatagramPacket(batch, batch.length, serverAddress, TEST_PORT));
+    DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
+    clientSocket.receive(receivePacket);
+
+    assertTrue(receivePacket.getLength() <= 65_507);
+    assertEquals(4242, BinaryProtocol.responseId(ByteBuffer.wrap(receiveData, 0, receivePacket.getLength())));
+    List<BinaryProtocol.Response> responses = BinaryProtocol.readBatchResponse(
+            new ByteArrayInputStream(receiveData, 0, receivePacket.getLength()));
+    assertEquals(3, responses.size());
+    assertArrayEquals(value, responses.get(0).getPayload());
+    assertArrayEquals(value, responses.get(1).getPayload());
+    assertEquals(BinaryProtocol.STATUS_ERROR, responses.get(2).getStatus());
+    assertEquals("Response too large", new String(responses.get(2).getPayload(), "UTF-8"));
+  }
+
+  /**
+   * Test that the coalescing client skips answers tagged for another datagram, e.g. a
+   * late one to a batch that timed out, instead of completing its operations with them
+   */
+  @Test
+  public void testBatchingClientSkipsLateAnswers() throws Exception {
+    try (DatagramSocket mock = new DatagramSocket()) {
+      mock.setSoTimeout(5000);
+      Thread server = new Thread(() -> {
+        try {
+          byte[] receiveData = new byte[2048];
+          DatagramPacket packet = new DatagramPacket(receiveData, receiveData.length);
+          mock.receive(packet);
+          reply(mock, packet, ("HELLO_OK " + BatchingUDPClient.CLIENT_CAPABILITIES.encode()).getBytes("UTF-8"));
+
+          // A single operation: a stale answer first, then the one for its ID
+          packet.setLength(receiveData.length);
+          mock.receive(packet);
+          int id = requestId(packet);
+          reply(mock, packet, taggedResponse(id + 100, "stale"));
+          reply(mock, packet, taggedResponse(id, "fresh"));
+
+          // A batch of two: a stale batch answer first
+          packet.setLength(receiveData.length);
+          mock.receive(packet);
+          id = requestId(packet);
+          reply(mock, packet, batchResponse(id + 100, "stale"));
+          reply(mock, packet, batchResponse(id, "fresh"));
+        } catch (Exception e) {
+          // The test fails on its own
+        }
+      });
+      server.start();
+
+      // Batches are only sent by flush()
+      try (BatchingUDPClient client = new BatchingUDPClient("localhost", mock.getLocalPort(), 60_000_000)) {
+        CompletableFuture<String> single = client.send(Protocol.GET, "lateKey", null);
+        client.flush();
+        assertEquals("GET_RESULT fresh", single.get(5, TimeUnit.SECONDS));
+
+        CompletableFuture<String> first = client.send(Protocol.GET, "lateKey1", null);
+        CompletableFuture<String> second = client.send(Protocol.GET, "lateKey2", null);
+        client.flush();
+        assertEquals("GET_RESULT fresh", first.get(5, TimeUnit.SECONDS));
+        assertEquals("GET_RESULT fresh", second.get(5, TimeUnit.SECONDS));
+      }
+      server.join(5000);
+    }
+  }
+
+  /**
+   * Test that the batching client skips untagged answers other than errors, such as a
+   * late duplicate HELLO_OK, while it waits for a tagged one, and takes an untagged error
+   */
+  @Test
+  public void testBatchingClientSkipsUntaggedAnswers() throws Exception {
+    try (DatagramSocket mock = new DatagramSocket()) {
+      mock.setSoTimeout(5000);
+      byte[] hello = ("HELLO_OK " + BatchingUDPClient.CLIENT_CAPABILITIES.encode()).getBytes("UTF-8");
+      Thread server = new Thread(() -> {
+        try {
+          byte[] receiveData = new byte[2048];
+          DatagramPacket packet = new DatagramPacket(receiveData, receiveData.length);
+          mock.receive(packet);
+          reply(mock, packet, hello);
+
+          packet.setLength(receiveData.length);
+          mock.receive(packet);
+          int id = requestId(packet);
+          reply(mock, packet, hello);
+          reply(mock, packet, untaggedResponse(BinaryProtocol.STATUS_OK, "stale"));
+          reply(mock, packet, taggedResponse(id, "fresh"));
+
+          packet.setLength(receiveData.length);
+          mock.receive(packet);
+          reply(mock, packet, untaggedResponse(BinaryProtocol.STATUS_ERROR, "Malformed request"));
+        } catch (Exception e) {
+          // The test fails on its own
+        }
+      });
+      server.start();
+
+      try (BatchingUDPClient client = new BatchingUDPClient("localhost", mock.getLocalPort(), 60_000_000)) {
+        CompletableFuture<String> answered = client.send(Protocol.GET, "untaggedKey", null);
+        client.flush();
+        assertEquals("GET_RESULT fresh", answered.get(5, TimeUnit.SECONDS));
+
+        CompletableFuture<String> unreadable = client.send(Protocol.GET, "unreadableKey", null);
+        client.flush();
+        assertEquals("ERROR Malformed request", unreadable.get(5, TimeUnit.SECONDS));
+      }
+      server.join(5000);
+    }
+  }
+
+  /**
+   * @return The request ID of a tagged binary request or batch
+   */
+  private static int requestId(DatagramPacket request) {
+    return BinaryProtocol.readVarint(ByteBuffer.wrap(request.getData(), 1, request.getLength() - 1));
+  }
+
+  private static byte[] untaggedResponse(byte status, String payload) {
+    ByteBuffer out = ByteBuffer.allocate(64);
+    BinaryProtocol.writeResponse(out, status, payload.getBytes());
+    return Arrays.copyOf(out.array(), out.position());
+  }
+
+  private static void reply(DatagramSocket socket, DatagramPacket request, byte[] data) throws Exception {
+    socket.send(new DatagramPacket(data, data.length, request.getSocketAddress()));
+  }
+
+  private static byte[] taggedResponse(int requestId, String value) {
+    ByteBuffer out = ByteBuffer.allocate(64);
+    out.put((byte) (BinaryProtocol.STATUS_OK | BinaryProtocol.FLAG_REQUEST_ID));
+    BinaryProtocol.writeVarint(out, requestId);
+    BinaryProtocol.writeVarint(out, value.length());
+    out.put(value.getBytes());
+    return Arrays.copyOf(out.array(), out.position());
+  }
+
+  private static byte[] batchResponse(int requestId, String value) {
+    ByteBuffer out = ByteBuffer.allocate(64);
+    out.put((byte) (BinaryProtocol.OP_BATCH | BinaryProtocol.FLAG_REQUEST_ID));
+    BinaryProtocol.writeVarint(out, requestId);
+    BinaryProtocol.writeVarint(out, 2);
+    for (int i = 0; i < 2; i++) {
+      BinaryProtocol.writeResponse(out, BinaryProtocol.STATUS_OK, value.getBytes());
+    }
+    return Arrays.copyOf(out.array(), out.position());
+  }
+
+  /**
+   * Test the coalescing client: a burst of operations arrives answered and in order
+   */
+  @Test
+  public void testBatchingClient() throws Exception {
+    try (BatchingUDPClient client = new BatchingUDPClient("localhost", TEST_PORT, 5000)) {
+      assertEquals(BinaryProtocol.MAX_BATCH, client.getNegotiated().getMaxBatch());
+      List<CompletableFuture<String>> puts = new ArrayList<>();
+      for (int i = 0; i < 100; i++) {
+        puts.add(client.send(Protocol.PUT, "coalesced" + i, "value" + i));
+      }
+      List<CompletableFuture<String>> gets = new ArrayList<>();
+      for (int i = 0; i < 100; i++) {
+        gets.add(client.send(Protocol.GET, "coalesced" + i, null));
+      }
+      client.flush();
+      for (int i = 0; i < 100; i++) {
+        assertEquals("PUT_OK", puts.get(i).get(5, TimeUnit.SECONDS));
+        assertEquals("GET_RESULT value" + i, gets.get(i).get(5, TimeUnit.SECONDS));
+      }
+    }
+  }
+
+  /**
+   * Test that a resent tagged request is answered from the retry cache instead
+   * of being executed twice, while the same ID from another client is a new request
+   */
+  @Test
+  public void testRetryCache() throws Exception {
+    InetAddress serverAddress = InetAddress.getByName("localhost");
+    byte[] receiveData = new byte[1024];
+    byte[] put = BinaryProtocol.encodeRequest(BinaryProtocol.OP_PUT, 7000, "retryKey", "v".getBytes());
+    byte[] delete = BinaryProtocol.encodeRequest(BinaryProtocol.OP_DELETE, 7001, "retryKey", null);
+
+    clientSocket.send(new DatagramPacket(put, put.length, serverAddress, TEST_PORT));
+    clientSocket.receive(new DatagramPacket(receiveData, receiveData.length));
+    for (int attempt = 0; attempt < 2; attempt++) {
+      clientSocket.send(new DatagramPacket(delete, delete.length, serverAddress, TEST_PORT));
+      DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
+      clientSocket.receive(receivePacket);
+      BinaryProtocol.Response response = BinaryProtocol.readResponse(
+              new ByteArrayInputStream(receivePacket.getData(), 0, receivePacket.getLength()));
+      assertEquals(7001, response.getRequestId());
+      assertEquals("DELETE_OK", response.toText(BinaryProtocol.OP_DELETE));
+    }
+
+    try (DatagramSocket otherClient = new DatagramSocket()) {
+      otherClient.setSoTimeout(2000);
+      otherClient.send(new DatagramPacket(delete, delete.length, serverAddress, TEST_PORT));
+      DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
+      otherClient.receive(receivePacket);
+      assertEquals(BinaryProtocol.STATUS_NOT_FOUND,
+              receivePacket.getData()[0] & ~BinaryProtocol.FLAG_REQUEST_ID);
+    }
+  }
+}
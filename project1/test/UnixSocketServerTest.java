@@ -0,0 +1,134 @@
+import org.junit.BeforeClass;
+import org.junit.Test;
+import client.UnixSocketClient;
+import common.Protocol;
+import server.TCPServer;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.net.Socket;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Test suite for TCPServer's Unix domain socket listener and UnixSocketClient
+ * The request handling is the code TCPServerTest covers; these check the transport
+ * and that both listeners share one store
+ */
+public class UnixSocketServerTest {
+  private static final int TEST_PORT = 8896;
+  private static Path socketPath;
+
+  /**
+   * Starts one server on a TCP port and a socket file; TCPServer has no stop method
+   * A stale socket file at the path must not keep the listener from starting
+   */
+  @BeforeClass
+  public static void startServer() throws Exception {
+    socketPath = Files.createTempDirectory("kvstore-test").resolve("kvstore.sock");
+    // Closing a listener leaves its socket file behind, as a crashed server would
+    ServerSocketChannel stale = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+    stale.bind(UnixDomainSocketAddress.of(socketPath));
+    stale.close();
+    TCPServer server = new TCPServer(TEST_PORT, true);
+    ExecutorService serverExecutor = Executors.newFixedThreadPool(2, r -> {
+      Thread thread = new Thread(r);
+      thread.setDaemon(true);
+      return thread;
+    });
+    serverExecutor.submit(server::start);
+    serverExecutor.submit(() -> server.startUnix(socketPath));
+    Thread.sleep(1000);
+  }
+
+  /**
+   * Test basic operations over the Unix socket
+   */
+  @Test
+  public void testBasicOperations() throws IOException {
+    try (UnixSocketClient client = new UnixSocketClient(socketPath)) {
+      assertEquals("PUT_OK", client.send(Protocol.PUT, "unixKey", "unix value"));
+      assertEquals("GET_RESULT unix value", client.send(Protocol.GET, "unixKey", null));
+      assertEquals("DELETE_OK", client.send(Protocol.DELETE, "unixKey", null));
+      assertEquals("GET_ERROR", client.send(Protocol.GET, "unixKey", null));
+    }
+  }
+
+  /**
+   * Test that a value written over TCP is read over the Unix socket and back
+   */
+  @Test
+  public void testSharedStore() throws IOException {
+    try (Socket socket = new Socket("localhost", TEST_PORT);
+         UnixSocketClient client = new UnixSocketClient(socketPath)) {
+      socket.setSoTimeout(5000);
+      PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+      BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+      out.println("PUT sharedKey from tcp");
+      assertEquals("PUT_OK", in.readLine());
+      assertEquals("GET_RESULT from tcp", client.send(Protocol.GET, "sharedKey", null));
+      assertEquals("PUT_OK", client.send(Protocol.PUT, "sharedKey", "from unix"));
+      out.println("GET sharedKey");
+      assertEquals("GET_RESULT from unix", in.readLine());
+    }
+  }
+
+  /**
+   * Test pipelined requests over the Unix socket
+   */
+  @Test
+  public void testPipelined() throws IOException {
+    List<String> requests = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      requests.add(Protocol.createRequest(Protocol.PUT, "unixPipe" + i, "v" + i));
+      requests.add(Protocol.createRequest(Protocol.GET, "unixPipe" + i, null));
+    }
+    try (UnixSocketClient client = new UnixSocketClient(socketPath)) {
+      List<String> responses = client.sendPipelined(requests, 64);
+      assertEquals(requests.size(), responses.size());
+      for (int i = 0; i < 500; i++) {
+        assertEquals("PUT_OK", responses.get(2 * i));
+        assertEquals("GET_RESULT v" + i, responses.get(2 * i + 1));
+      }
+    }
+  }
+
+  /**
+   * Test that a regular file at the path is neither deleted nor replaced
+   */
+  @Test(timeout = 5000)
+  public void testRegularFileKept() throws IOException {
+    Path file = socketPath.resolveSibling("regular.sock");
+    Files.write(file, "data".getBytes(StandardCharsets.UTF_8));
+    new TCPServer(TEST_PORT, true).startUnix(file);
+    assertEquals("data", new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Test that a second listener does not take over the socket of a running one
+   */
+  @Test(timeout = 5000)
+  public void testLiveSocketKept() throws IOException {
+    new TCPServer(TEST_PORT, true).startUnix(socketPath);
+    try (UnixSocketClient client = new UnixSocketClient(socketPath)) {
+      assertEquals("PUT_OK", client.send(Protocol.PUT, "liveKey", "still served"));
+    }
+  }
+
+  /**
+   * Test that connecting to a path nobody listens on fails
+   */
+  @Test(expected = IOException.class)
+  public void testNoListener() throws IOException {
+    new UnixSocketClient(socketPath.resolveSibling("missing.sock")).close();
+  }
+}
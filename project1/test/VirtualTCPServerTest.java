@@ -0,0 +1,124 @@
+import org.junit.BeforeClass;
+import org.junit.Test;
+import server.TCPServer;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Test suite for TCPServer in virtual thread mode
+ * The request handling is the blocking code TCPServerTest covers; these check that
+ * connections no longer wait for each other
+ */
+public class VirtualTCPServerTest {
+  private static final int TEST_PORT = 8894;
+
+  /**
+   * Starts one server for all tests; TCPServer has no stop method
+   */
+  @BeforeClass
+  public static void startServer() throws InterruptedException {
+    ExecutorService serverExecutor = Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r);
+      thread.setDaemon(true);
+      return thread;
+    });
+    serverExecutor.submit(() -> new TCPServer(TEST_PORT, true).start());
+    Thread.sleep(1000);
+  }
+
+  private static Socket connect() throws IOException {
+    Socket socket = new Socket("localhost", TEST_PORT);
+    socket.setSoTimeout(5000);
+    return socket;
+  }
+
+  /**
+   * Test that a client sitting idle does not keep the next one waiting
+   */
+  @Test
+  public void testIdleConnectionDoesNotBlock() throws IOException {
+    // Connected first and never used
+    Socket idle = connect();
+    try (Socket active = connect()) {
+      PrintWriter out = new PrintWriter(active.getOutputStream(), true);
+      BufferedReader in = new BufferedReader(new InputStreamReader(active.getInputStream(), StandardCharsets.UTF_8));
+      out.println("PUT virtualKey virtual value");
+      assertEquals("PUT_OK", in.readLine());
+      out.println("GET virtualKey");
+      assertEquals("GET_RESULT virtual value", in.readLine());
+    } finally {
+      idle.close();
+    }
+  }
+
+  /**
+   * Test many connections open at once, each doing its own PUT/GET sequence
+   */
+  @Test
+  public void testConcurrentConnections() throws Exception {
+    int clients = 200;
+    List<Socket> sockets = new ArrayList<>();
+    ExecutorService executor = Executors.newFixedThreadPool(clients);
+    try {
+      for (int i = 0; i < clients; i++) {
+        sockets.add(connect());
+      }
+      List<Future<String>> results = new ArrayList<>();
+      for (int i = 0; i < clients; i++) {
+        Socket socket = sockets.get(i);
+        String key = "vt" + i;
+        results.add(executor.submit(() -> {
+          PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+          BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+          out.println("PUT " + key + " " + key);
+          in.readLine();
+          out.println("GET " + key);
+          return in.readLine();
+        }));
+      }
+      for (int i = 0; i < clients; i++) {
+        assertEquals("GET_RESULT vt" + i, results.get(i).get());
+      }
+    } finally {
+      executor.shutdownNow();
+      for (Socket socket : sockets) {
+        socket.close();
+      }
+    }
+  }
+
+  /**
+   * Test tagged requests, which run on their own virtual threads
+   */
+  @Test
+  public void testTaggedRequests() throws IOException {
+    try (Socket socket = connect()) {
+      OutputStream out = socket.getOutputStream();
+      BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+      StringBuilder batch = new StringBuilder();
+      for (int i = 0; i < 50; i++) {
+        batch.append('#').append(i).append(" PUT tagged").append(i).append(" v\n");
+      }
+      out.write(batch.toString().getBytes(StandardCharsets.UTF_8));
+      out.flush();
+      Set<String> responses = new HashSet<>();
+      for (int i = 0; i < 50; i++) {
+        responses.add(in.readLine());
+      }
+      for (int i = 0; i < 50; i++) {
+        assertTrue(responses.contains("#" + i + " PUT_OK"));
+      }
+    }
+  }
+}
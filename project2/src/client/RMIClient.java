@@ -10,6 +10,7 @@ import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
 /**
  * RMI Client Implementation
@@ -101,6 +102,37 @@ public class RMIClient {
     }
   }
 
+  /**
+   * Walks the whole keyspace with SCAN, one page at a time
+   * Only the current page is held in memory, however large the store is
+   * @param count Number of keys requested per page
+   * @param keys Receives every key of the walk
+   * @return Number of keys visited
+   */
+  public int scanAll(int count, Consumer<String> keys) {
+    int visited = 0;
+    long cursor = 0;
+    try {
+      do {
+        String response = remoteService.scan(cursor, count);
+        if (!response.startsWith(Protocol.SCAN_RESULT)) {
+          logger.log("SCAN error: " + response);
+          break;
+        }
+        // SCAN_RESULT nextCursor key1 key2 ...
+        String[] parts = response.split(" ");
+        cursor = Long.parseLong(parts[1]);
+        for (int i = 2; i < parts.length; i++) {
+          keys.accept(parts[i]);
+          visited++;
+        }
+      } while (cursor != 0);
+    } catch (Exception e) {
+      logger.log("SCAN error: " + e.getMessage());
+    }
+    return visited;
+  }
+
   /**
    * Populates the store with test data
    * @param count Number of test entries to create
@@ -34,5 +34,14 @@ public interface KVStoreRMI extends Remote{
    */
   String delete(String key) throws RemoteException;
 
+  /**
+   * Return the next page of a cursor walk over the whole keyspace
+   * @param cursor 0 to start a walk, otherwise the cursor from the previous call
+   * @param count Number of keys wanted in this page
+   * @return "SCAN_RESULT nextCursor key1 key2 ...", nextCursor is 0 once the walk is done
+   * @throws RemoteException if a remote error occurs
+   */
+  String scan(long cursor, int count) throws RemoteException;
+
 
 }
@@ -15,6 +15,7 @@ public class Protocol {
   public static final String PUT = "PUT";       // Store a key-value pair
   public static final String GET = "GET";       // Retrieve a value by key
   public static final String DELETE = "DELETE"; // Remove a key-value pair
+  public static final String SCAN = "SCAN";     // Walk the keyspace page by page
 
   // Server response types for PUT operations
   public static final String PUT_OK = "PUT_OK";         // Successful storage
@@ -28,6 +29,15 @@ public class Protocol {
   public static final String DELETE_OK = "DELETE_OK";       // Successful deletion
   public static final String DELETE_ERROR = "DELETE_ERROR"; // Failed to delete/key not found
 
+  // Server response types for SCAN operations
+  public static final String SCAN_RESULT = "SCAN_RESULT"; // Next cursor followed by a page of keys
+  public static final String SCAN_ERROR = "SCAN_ERROR";   // Invalid cursor
+
+  // Any operation: the server is overloaded and did not execute it, retry later
+  public static final String BUSY = "BUSY";
+  // Any operation: this client is over its rate limit and the call was not executed
+  public static final String THROTTLED = "THROTTLED";
+
   /**
    * Creates a properly formatted request string based on the operation type
    *
@@ -1,16 +1,29 @@
 package kvstore;
 
+import java.util.Arrays;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 /**
  * Thread-safe Key-Value Store Implementation
  * Uses ConcurrentHashMap to ensure thread safety for concurrent operations
  */
 public class KVStore {
+  // Default and maximum number of keys returned by one SCAN call
+  public static final int DEFAULT_SCAN_COUNT = 10;
+  public static final int MAX_SCAN_COUNT = 1000;
+
   // Using ConcurrentHashMap instead of HashMap for thread safety
   private static final Map<String, String> store = new ConcurrentHashMap<>();
 
+  // SCAN index: unsigned key hash -> keys with that hash
+  // A SCAN cursor is a position in this skip list, which never rehashes, so cursors
+  // stay valid across concurrent inserts and deletes. Keys with the same hash share
+  // a ConcurrentHashMap bin, so the compute() calls below serialize each index entry
+  private static final ConcurrentNavigableMap<Long, String[]> scanIndex = new ConcurrentSkipListMap<>();
+
   /**
    * Stores a key-value pair in the store
    * Thread-safe operation guaranteed by ConcurrentHashMap
@@ -20,7 +33,12 @@ public class KVStore {
    * @return "PUT_OK" to indicate successful storage
    */
   public static String put(String key, String value) {
-    store.put(key,value);
+    store.compute(key, (k, old) -> {
+      if (old == null) {
+        scanIndex.merge(scanPosition(k), new String[]{k}, KVStore::appendKeys);
+      }
+      return value;
+    });
     return "PUT_OK";
   }
 
@@ -37,7 +55,46 @@ public class KVStore {
    * @return "DELETE_OK" if key was found and removed, "DELETE_ERROR" if key not found
    */
   public static String delete(String key) {
-    return store.remove(key) != null ? "DELETE_OK" : "DELETE_ERROR";
+    boolean[] removed = new boolean[1];
+    store.computeIfPresent(key, (k, old) -> {
+      scanIndex.computeIfPresent(scanPosition(k), (position, keys) -> removeKey(keys, k));
+      removed[0] = true;
+      return null;
+    });
+    return removed[0] ? "DELETE_OK" : "DELETE_ERROR";
+  }
+
+  /**
+   * Returns the next page of a SCAN walk over the whole keyspace
+   * The cursor is the unsigned hash position where the walk resumes, so no state is kept
+   * between calls and a key present for the whole walk is returned exactly once
+   *
+   * @param cursor 0 to start a walk, otherwise the cursor from the previous call
+   * @param count Number of keys wanted (a hint, clamped to 1..MAX_SCAN_COUNT)
+   * @return "SCAN_RESULT nextCursor key1 key2 ...", nextCursor is 0 once the walk is done,
+   *         or "SCAN_ERROR" for a cursor outside 0..2^32-1
+   */
+  public static String scan(long cursor, int count) {
+    if (cursor < 0 || cursor > 0xFFFFFFFFL) {
+      return "SCAN_ERROR";
+    }
+    int limit = count <= 0 ? DEFAULT_SCAN_COUNT : Math.min(count, MAX_SCAN_COUNT);
+
+    StringBuilder keys = new StringBuilder();
+    int returned = 0;
+    long next = 0;
+    for (Map.Entry<Long, String[]> entry : scanIndex.tailMap(cursor).entrySet()) {
+      if (returned >= limit) {
+        next = entry.getKey();
+        break;
+      }
+      // Keys sharing a hash always go out in the same page
+      for (String key : entry.getValue()) {
+        keys.append(' ').append(key);
+        returned++;
+      }
+    }
+    return "SCAN_RESULT " + next + keys;
   }
 
   /**
@@ -53,6 +110,32 @@ public class KVStore {
    */
   public static void clear() {
     store.clear();
+    scanIndex.clear();
+  }
+
+  private static long scanPosition(String key) {
+    return Integer.toUnsignedLong(key.hashCode());
+  }
+
+  // Copy-on-write helpers for scan index entries (almost always a single key)
+  private static String[] appendKeys(String[] keys, String[] added) {
+    String[] merged = Arrays.copyOf(keys, keys.length + added.length);
+    System.arraycopy(added, 0, merged, keys.length, added.length);
+    return merged;
+  }
+
+  private static String[] removeKey(String[] keys, String key) {
+    String[] remaining = new String[keys.length - 1];
+    int i = 0;
+    for (String k : keys) {
+      if (!k.equals(key)) {
+        if (i == remaining.length) {
+          return keys; // key was not indexed, nothing to remove
+        }
+        remaining[i++] = k;
+      }
+    }
+    return remaining.length == 0 ? null : remaining;
   }
 
 }
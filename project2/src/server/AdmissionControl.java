@@ -0,0 +1,157 @@
+package server;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission control for the RMI server: how many connections and calls it takes on,
+ * and when it sheds load instead of queueing it
+ *
+ * Executors.newFixedThreadPool queues submitted calls without bound, so in a traffic spike
+ * every call waits behind all the others and latency climbs to seconds before anything
+ * fails. Answering the calls the pool cannot get to soon with BUSY costs the client one
+ * fast round trip and tells it to retry later, while the admitted calls stay fast.
+ *
+ * Three checks, each with its own shed counter:
+ * 1. Connections: at most maxConnections open at once; RMI gives no way to answer on a
+ *    connection it has not read a call from yet, so one more is closed right away.
+ * 2. In-flight calls: at most maxInFlight queued or executing.
+ * 3. Queue delay (CoDel): how long a call waited before a pool thread took it.
+ *    A queue that is merely busy drains now and then, so some call gets through quickly.
+ *    When even the fastest call of a whole interval waited longer than the target, the
+ *    queue is standing: until that changes, calls that waited more than twice the target
+ *    are answered BUSY when they reach the front instead of being executed.
+ *
+ * Thread safe.
+ */
+public class AdmissionControl {
+  public static final int DEFAULT_MAX_CONNECTIONS = 1000;
+  public static final int DEFAULT_MAX_IN_FLIGHT = 256;
+  // CoDel's usual numbers: a queue delay above 5ms that lasts for 100ms means overload
+  public static final long DEFAULT_TARGET_DELAY_MILLIS = 5;
+  public static final long DEFAULT_INTERVAL_MILLIS = 100;
+
+  private final int maxConnections;
+  private final int maxInFlight;
+  private final Semaphore connections;
+  private final Semaphore inFlight;
+  private final long targetNanos;
+  private final long intervalNanos;
+
+  // CoDel state, guarded by this
+  private long intervalEnd = System.nanoTime();
+  private long minDelay = Long.MAX_VALUE;
+  private boolean overloaded;
+
+  private final AtomicLong shedConnections = new AtomicLong();
+  private final AtomicLong shedInFlight = new AtomicLong();
+  private final AtomicLong shedQueueDelay = new AtomicLong();
+
+  public AdmissionControl() {
+    this(DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_IN_FLIGHT, DEFAULT_TARGET_DELAY_MILLIS, DEFAULT_INTERVAL_MILLIS);
+  }
+
+  /**
+   * @param maxConnections Most connections open at once
+   * @param maxInFlight Most calls queued or executing
+   * @param targetDelayMillis Queue delay the server aims to stay below
+   * @param intervalMillis How long the delay must stay above the target to count as overload
+   */
+  public AdmissionControl(int maxConnections, int maxInFlight, long targetDelayMillis, long intervalMillis) {
+    if (maxConnections < 1 || maxInFlight < 1 || targetDelayMillis < 0 || intervalMillis < 1) {
+      throw new IllegalArgumentException("Invalid admission limits");
+    }
+    this.maxConnections = maxConnections;
+    this.maxInFlight = maxInFlight;
+    this.connections = new Semaphore(maxConnections);
+    this.inFlight = new Semaphore(maxInFlight);
+    this.targetNanos = TimeUnit.MILLISECONDS.toNanos(targetDelayMillis);
+    this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+  }
+
+  /**
+   * @return true if the connection may be served; it must then be given back with connectionClosed()
+   */
+  public boolean admitConnection() {
+    if (connections.tryAcquire()) {
+      return true;
+    }
+    shedConnections.incrementAndGet();
+    return false;
+  }
+
+  public void connectionClosed() {
+    connections.release();
+  }
+
+  /**
+   * @return true if the call may be queued; it must then be given back with requestDone()
+   */
+  public boolean admitRequest() {
+    if (inFlight.tryAcquire()) {
+      return true;
+    }
+    shedInFlight.incrementAndGet();
+    return false;
+  }
+
+  public void requestDone() {
+    inFlight.release();
+  }
+
+  /**
+   * Called when a pool thread takes a queued call
+   *
+   * @param enqueued System.nanoTime() when the call was queued
+   * @return true if the call is to be answered BUSY instead of executed
+   */
+  public boolean shedOnDequeue(long enqueued) {
+    long now = System.nanoTime();
+    long delay = now - enqueued;
+    boolean shed;
+    synchronized (this) {
+      if (now - intervalEnd >= 0) {
+        // One interval over: overloaded if not a single call got through in time
+        // (no calls at all, as at the start, is no overload)
+        overloaded = minDelay != Long.MAX_VALUE && minDelay > targetNanos;
+        minDelay = delay;
+        intervalEnd = now + intervalNanos;
+      } else if (delay < minDelay) {
+        minDelay = delay;
+      }
+      shed = overloaded && delay > 2 * targetNanos;
+    }
+    if (shed) {
+      shedQueueDelay.incrementAndGet();
+    }
+    return shed;
+  }
+
+  /** @return Connections closed because maxConnections were open */
+  public long shedConnections() {
+    return shedConnections.get();
+  }
+
+  /** @return Calls answered BUSY because maxInFlight were queued or executing */
+  public long shedInFlight() {
+    return shedInFlight.get();
+  }
+
+  /** @return Calls answered BUSY for waiting too long in an overloaded queue */
+  public long shedQueueDelay() {
+    return shedQueueDelay.get();
+  }
+
+  /** @return Calls answered BUSY for either reason */
+  public long shedRequests() {
+    return shedInFlight.get() + shedQueueDelay.get();
+  }
+
+  public String stats() {
+    return "connections=" + (maxConnections - connections.availablePermits()) + "/" + maxConnections
+        + " inFlight=" + (maxInFlight - inFlight.availablePermits()) + "/" + maxInFlight
+        + " shed: connections=" + shedConnections() + " inFlight=" + shedInFlight()
+        + " queueDelay=" + shedQueueDelay();
+  }
+}
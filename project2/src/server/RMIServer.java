@@ -2,93 +2,231 @@ package server;
 
 import common.KVStoreRMI;
 import common.Logger;
+import common.Protocol;
 import kvstore.KVStore;
 
-import java.util.concurrent.ExecutorService;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.rmi.server.RemoteServer;
+import java.rmi.server.ServerNotActiveException;
+import java.rmi.server.RMIServerSocketFactory;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Multi-threaded RMI Server Implementation
  * This server uses Java RMI for remote method invocation and a thread pool
  * to handle concurrent client requests
+ *
+ * Admission control (see AdmissionControl) keeps a spike from queueing calls without
+ * bound: a call beyond the in-flight limit, or one that waited too long in the queue of
+ * an overloaded pool, returns BUSY without touching the store, and connections beyond
+ * the limit are closed as they are accepted. Shed counts are logged every
+ * STATS_INTERVAL_SECONDS while the server is shedding.
+ *
+ * With a RateLimiter each client host also gets its own token bucket per operation, so
+ * one client calling in a tight loop cannot fill the pool: its calls beyond the limit
+ * return THROTTLED before they are queued.
  */
 public class RMIServer implements KVStoreRMI  {
+  // How often the admission counters are logged, if anything was shed meanwhile
+  static final long STATS_INTERVAL_SECONDS = 10;
+
   private final Logger logger;
   private final ExecutorService threadPool;
   private final int numThreads;
+  private final AdmissionControl admission;
+  // Per-client limits, or null for none
+  private final RateLimiter rateLimiter;
+  private final ScheduledExecutorService statsLogger;
 
   /**
    * Constructor creates a thread pool with the specified number of threads
    * @param numThreads number of threads in the poolnumThreads 指定线程池大小，即服务器可以同时处理多少个客户端请求。
    */
   public RMIServer(int numThreads) {
+    this(numThreads, new AdmissionControl());
+  }
+
+  /**
+   * @param numThreads number of threads in the pool
+   * @param admission connection and call limits
+   */
+  public RMIServer(int numThreads, AdmissionControl admission) {
+    this(numThreads, admission, null);
+  }
+
+  /**
+   * @param numThreads number of threads in the pool
+   * @param admission connection and call limits
+   * @param rateLimiter per-client limits, or null to admit every client's calls
+   */
+  public RMIServer(int numThreads, AdmissionControl admission, RateLimiter rateLimiter) {
     this.logger = new Logger(RMIServer.class);
     this.numThreads = numThreads;
+    this.admission = admission;
+    this.rateLimiter = rateLimiter;
     this.threadPool = Executors.newFixedThreadPool(numThreads);
+    this.statsLogger = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "rmi-stats");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long[] lastShed = new long[2];
+    statsLogger.scheduleAtFixedRate(() -> {
+      long shed = admission.shedConnections() + admission.shedRequests();
+      if (shed != lastShed[0]) {
+        lastShed[0] = shed;
+        logger.log("Admission: " + admission.stats());
+      }
+      if (rateLimiter != null && rateLimiter.throttled() != lastShed[1]) {
+        lastShed[1] = rateLimiter.throttled();
+        logger.log("Rate limits: " + rateLimiter.stats());
+      }
+    }, STATS_INTERVAL_SECONDS, STATS_INTERVAL_SECONDS, TimeUnit.SECONDS);
     logger.log("Server initialized with " + numThreads + " threads");
   }
 
+  /** @return the admission control, for its shed counters */
+  public AdmissionControl admission() {
+    return admission;
+  }
+
+  /** @return the per-client limits, for their counters; null if there are none */
+  public RateLimiter rateLimiter() {
+    return rateLimiter;
+  }
+
   /**
-   * Put operation - executes in a worker thread from the thread pool
+   * Runs an operation on the thread pool and waits for its result
+   * Returns THROTTLED without queueing it when the calling client is over its rate limit,
+   * BUSY when maxInFlight calls are pending, and BUSY without running it when it waited
+   * too long in an overloaded queue
    */
-
-  public String put(String key, String value) throws RemoteException {
+  private String execute(String operation, Callable<String> task) throws RemoteException {
+    if (rateLimiter != null && !rateLimiter.tryAcquire(clientHost(), operation, System.nanoTime())) {
+      return Protocol.THROTTLED;
+    }
+    if (!admission.admitRequest()) {
+      return Protocol.BUSY;
+    }
+    long enqueued = System.nanoTime();
     try {
-      Future<String> future = threadPool.submit(() -> {
-        logger.log("PUT operation: key=" + key + ", value=" + value);
-        return KVStore.put(key, value);
-      });
+      Future<String> future = threadPool.submit(() -> admission.shedOnDequeue(enqueued) ? Protocol.BUSY : task.call());
       return future.get(); // Wait for the task to complete
     } catch (Exception e) {
-      logger.log("Error in PUT operation: " + e.getMessage());
-      throw new RemoteException("Error in PUT operation", e);
+      logger.log("Error in " + operation + " operation: " + e.getMessage());
+      throw new RemoteException("Error in " + operation + " operation", e);
+    } finally {
+      admission.requestDone();
     }
   }
 
   /**
-   * Get operation - executes in a worker thread from the thread pool
+   * @return the host of the client whose call this RMI thread is serving
    */
-  public String get(String key) throws RemoteException {
+  private static String clientHost() {
     try {
-      Future<String> future = threadPool.submit(() -> {
-        logger.log("Get operation: key=" + key);
-        return KVStore.get(key);
-      });
-      return future.get();
-
-    } catch (Exception e) {
-      Logger.log("Error in GET operation: " + e.getMessage());
-      throw new RemoteException("Error in GET operation", e);
+      return RemoteServer.getClientHost();
+    } catch (ServerNotActiveException e) {
+      // Called directly, not through RMI
+      return "local";
     }
   }
 
+  /**
+   * Put operation - executes in a worker thread from the thread pool
+   */
+
+  public String put(String key, String value) throws RemoteException {
+    return execute("PUT", () -> {
+      logger.log("PUT operation: key=" + key + ", value=" + value);
+      return KVStore.put(key, value);
+    });
+  }
+
+  /**
+   * Get operation - executes in a worker thread from the thread pool
+   */
+  public String get(String key) throws RemoteException {
+    return execute("GET", () -> {
+      logger.log("Get operation: key=" + key);
+      return KVStore.get(key);
+    });
+  }
+
   /**
    * Delete operation - executes in a worker thread from the thread pool
    */
   public String delete(String key) throws RemoteException {
-    try {
-      Future<String> future = threadPool.submit(() -> {
-        logger.log("DELETE operation : key=" + key);
-        return KVStore.delete(key);
-      });
-      return future.get(); // Wait for the task to complete
+    return execute("DELETE", () -> {
+      logger.log("DELETE operation : key=" + key);
+      return KVStore.delete(key);
+    });
+  }
 
-    } catch (Exception e) {
-      Logger.log("Error in DELETE operation: " + e.getMessage());
-      throw new RemoteException("Error in DELETE operation", e);
+  /**
+   * Scan operation - executes in a worker thread from the thread pool
+   * Only one page is built per call, so walking a huge store never blocks other requests for long
+   */
+  public String scan(long cursor, int count) throws RemoteException {
+    return execute("SCAN", () -> {
+      logger.log("SCAN operation: cursor=" + cursor + ", count=" + count);
+      return KVStore.scan(cursor, count);
+    });
+  }
+
+  /**
+   * Server sockets for the exported object that close connections beyond maxConnections
+   * right after accepting them, and give the slot back when an admitted one closes
+   */
+  private final class AdmittingSocketFactory implements RMIServerSocketFactory {
+    @Override
+    public ServerSocket createServerSocket(int port) throws IOException {
+      return new ServerSocket(port) {
+        @Override
+        public Socket accept() throws IOException {
+          while (true) {
+            AdmittedSocket socket = new AdmittedSocket();
+            implAccept(socket);
+            if (admission.admitConnection()) {
+              socket.admitted = true;
+              return socket;
+            }
+            socket.close();
+            logger.log("Connection from " + socket.getInetAddress() + " refused: server busy");
+          }
+        }
+      };
+    }
+  }
+
+  private final class AdmittedSocket extends Socket {
+    private volatile boolean admitted;
+
+    @Override
+    public synchronized void close() throws IOException {
+      if (admitted) {
+        admitted = false;
+        admission.connectionClosed();
+      }
+      super.close();
     }
   }
 
   public  void start(int port) {
     try {
       //build a remote object
-      KVStoreRMI stub = (KVStoreRMI) UnicastRemoteObject.exportObject(this, 0);
+      KVStoreRMI stub = (KVStoreRMI) UnicastRemoteObject.exportObject(this, 0, null, new AdmittingSocketFactory());
       // Create or get the registry at the specified port
       Registry registry = LocateRegistry.createRegistry(port);
 
@@ -110,20 +248,30 @@ public class RMIServer implements KVStoreRMI  {
      */
     public void shutdown() {
       threadPool.shutdown();
-      logger.log("Server shutting down");
+      statsLogger.shutdownNow();
+      logger.log("Server shutting down (admission: " + admission.stats()
+          + (rateLimiter != null ? "; rate limits: " + rateLimiter.stats() : "") + ")");
     }
 
     public static void main(String[] args) {
-      if (args.length < 1 || args.length > 2) {
-        System.out.println("Usage: java RMIServer <port>[numThreads]");
+      if (args.length < 1 || args.length > 4) {
+        System.out.println("Usage: java RMIServer <port>[numThreads] [rate [burst]]");
         return;
       }
       int port =Integer.parseInt(args[0]);
 
       //default is 10 RMI threadpool
-      int numThreads = (args.length == 2) ? Integer.parseInt(args[1]) : 10;
+      int numThreads = (args.length >= 2) ? Integer.parseInt(args[1]) : 10;
+
+      // Calls per second each client host may make per operation; bursts default to one second's worth
+      RateLimiter rateLimiter = null;
+      if (args.length >= 3) {
+        double rate = Double.parseDouble(args[2]);
+        int burst = (args.length == 4) ? Integer.parseInt(args[3]) : (int) Math.max(1, Math.ceil(rate));
+        rateLimiter = new RateLimiter(rate, burst);
+      }
 
-      RMIServer server = new RMIServer(numThreads);
+      RMIServer server = new RMIServer(numThreads, new AdmissionControl(), rateLimiter);
       server.start(port);
 
       // 添加一个关闭钩子，确保服务器正确关闭
@@ -0,0 +1,212 @@
+package server;
+
+import common.Protocol;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-client rate limits for the RMI server: a token bucket for every client and operation
+ *
+ * Admission control protects the pool as a whole, but a single client calling as fast as
+ * it can still takes most of the pool's threads, and everyone else's calls wait behind
+ * its calls. With a rate limit each client gets at most rate calls per second of each
+ * operation, plus bursts of up to burst calls; calls beyond that return THROTTLED right
+ * away, without being queued.
+ *
+ * Each bucket is a single long, the time at which it will be full again (GCRA, which
+ * behaves exactly like a token bucket). Taking a token moves that time on by one interval
+ * (1 / rate) and is refused if it would end up more than burst intervals ahead of now.
+ * Time passing is the refill, so there is no timer and no lock: an update is a single
+ * compare-and-set.
+ *
+ * RMI only tells the server a caller's host, so all clients on one host share a bucket.
+ * A client whose buckets are full again is no different from a new one, so such clients
+ * are dropped whenever the table has doubled since the last sweep.
+ *
+ * The limits are set before the server starts; everything else is thread safe.
+ */
+public class RateLimiter {
+  private static final String[] OPERATIONS = {Protocol.PUT, Protocol.GET, Protocol.DELETE, Protocol.SCAN};
+  // The table is not swept while it is smaller than this
+  private static final int MIN_SWEEP_SIZE = 1024;
+  // Clients listed by stats()
+  private static final int TOP_CLIENTS = 3;
+
+  // Per operation: nanoseconds one call uses up, and how far ahead of now a bucket may get
+  private final long[] intervalNanos = new long[OPERATIONS.length];
+  private final long[] burstNanos = new long[OPERATIONS.length];
+
+  private final Map<String, Client> clients = new ConcurrentHashMap<>();
+  private volatile int sweepSize = MIN_SWEEP_SIZE;
+
+  private final LongAdder allowed = new LongAdder();
+  private final LongAdder[] throttled = new LongAdder[OPERATIONS.length];
+
+  /**
+   * One client's buckets: the time each will be full again, per operation
+   */
+  private static final class Client {
+    final AtomicLongArray full = new AtomicLongArray(OPERATIONS.length);
+    final LongAdder throttled = new LongAdder();
+
+    Client(long now) {
+      for (int i = 0; i < OPERATIONS.length; i++) {
+        full.set(i, now);
+      }
+    }
+  }
+
+  /**
+   * Every operation gets the same limit
+   *
+   * @param callsPerSecond sustained rate allowed per client and operation
+   * @param burst calls a client may make at once after being quiet
+   */
+  public RateLimiter(double callsPerSecond, int burst) {
+    for (int i = 0; i < OPERATIONS.length; i++) {
+      throttled[i] = new LongAdder();
+      set(i, callsPerSecond, burst);
+    }
+  }
+
+  /**
+   * Sets the limit for one operation, e.g. a lower one for SCAN
+   *
+   * @param operation PUT, GET, DELETE or SCAN
+   * @param callsPerSecond sustained rate allowed per client
+   * @param burst calls a client may make at once after being quiet
+   * @return this, so limits can be chained
+   */
+  public RateLimiter limit(String operation, double callsPerSecond, int burst) {
+    set(slot(operation), callsPerSecond, burst);
+    return this;
+  }
+
+  private void set(int slot, double callsPerSecond, int burst) {
+    if (!(callsPerSecond > 0) || burst < 1) {
+      throw new IllegalArgumentException("Invalid rate limit: " + callsPerSecond + "/s, burst " + burst);
+    }
+    long interval = Math.max(1, (long) (1_000_000_000L / callsPerSecond));
+    intervalNanos[slot] = interval;
+    burstNanos[slot] = interval * burst;
+  }
+
+  private static int slot(String operation) {
+    for (int i = 0; i < OPERATIONS.length; i++) {
+      if (OPERATIONS[i].equals(operation)) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException("Unknown operation: " + operation);
+  }
+
+  /**
+   * Takes a token from the client's bucket for the operation
+   *
+   * @param client the caller's host
+   * @param operation PUT, GET, DELETE or SCAN
+   * @param now System.nanoTime()
+   * @return true if the call may be executed, false if it must return THROTTLED
+   */
+  public boolean tryAcquire(String client, String operation, long now) {
+    Client state = clients.get(client);
+    if (state == null) {
+      state = register(client, now);
+    }
+    int slot = slot(operation);
+    long interval = intervalNanos[slot];
+    long limit = now + burstNanos[slot];
+    while (true) {
+      long full = state.full.get(slot);
+      long next = Math.max(full, now) + interval;
+      if (next > limit) {
+        state.throttled.increment();
+        throttled[slot].increment();
+        return false;
+      }
+      if (state.full.compareAndSet(slot, full, next)) {
+        allowed.increment();
+        return true;
+      }
+    }
+  }
+
+  private Client register(String client, long now) {
+    if (clients.size() >= sweepSize) {
+      sweep(now);
+    }
+    return clients.computeIfAbsent(client, c -> new Client(now));
+  }
+
+  /**
+   * Drops clients whose buckets are all full again; they would start over with a new one anyway
+   */
+  private void sweep(long now) {
+    clients.values().removeIf(state -> {
+      for (int i = 0; i < OPERATIONS.length; i++) {
+        if (state.full.get(i) > now) {
+          return false;
+        }
+      }
+      return true;
+    });
+    sweepSize = Math.max(MIN_SWEEP_SIZE, 2 * clients.size());
+  }
+
+  /** @return calls allowed so far */
+  public long allowed() {
+    return allowed.sum();
+  }
+
+  /** @return calls throttled so far, over all operations */
+  public long throttled() {
+    long total = 0;
+    for (LongAdder count : throttled) {
+      total += count.sum();
+    }
+    return total;
+  }
+
+  /** @return calls of one operation throttled so far */
+  public long throttled(String operation) {
+    return throttled[slot(operation)].sum();
+  }
+
+  /** @return clients currently tracked */
+  public int clientCount() {
+    return clients.size();
+  }
+
+  /**
+   * Summarizes the counters, with the throttled calls per operation and the clients
+   * throttled most (among those still tracked)
+   */
+  public String stats() {
+    StringBuilder sb = new StringBuilder()
+        .append("allowed=").append(allowed())
+        .append(" throttled=").append(throttled()).append(" (");
+    for (int i = 0; i < OPERATIONS.length; i++) {
+      sb.append(i > 0 ? " " : "").append(OPERATIONS[i]).append('=').append(throttled[i].sum());
+    }
+    sb.append(") clients=").append(clientCount());
+    List<Map.Entry<String, Client>> top = new ArrayList<>();
+    for (Map.Entry<String, Client> entry : clients.entrySet()) {
+      if (entry.getValue().throttled.sum() > 0) {
+        top.add(entry);
+      }
+    }
+    if (!top.isEmpty()) {
+      top.sort((a, b) -> Long.compare(b.getValue().throttled.sum(), a.getValue().throttled.sum()));
+      sb.append(" top throttled:");
+      for (Map.Entry<String, Client> entry : top.subList(0, Math.min(TOP_CLIENTS, top.size()))) {
+        sb.append(' ').append(entry.getKey()).append('=').append(entry.getValue().throttled.sum());
+      }
+    }
+    return sb.toString();
+  }
+}
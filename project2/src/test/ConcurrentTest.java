@@ -2,6 +2,7 @@ package test;
 
 import client.RMIClient;
 import common.Logger;
+import common.Protocol;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -45,6 +46,10 @@ public class ConcurrentTest {
     CountDownLatch latch = new CountDownLatch(numClients);
     AtomicInteger successCount = new AtomicInteger(0);
     AtomicInteger failureCount = new AtomicInteger(0);
+    // Operations the server's admission control turned away, a subset of the failures
+    AtomicInteger busyCount = new AtomicInteger(0);
+    // Operations over the server's per-client rate limit, also a subset of the failures
+    AtomicInteger throttledCount = new AtomicInteger(0);
 
     long startTime = System.currentTimeMillis();
 
@@ -67,7 +72,7 @@ public class ConcurrentTest {
                 if (putResult.equals("PUT_OK")) {
                   successCount.incrementAndGet();
                 } else {
-                  failureCount.incrementAndGet();
+                  countFailure(putResult, failureCount, busyCount, throttledCount);
                 }
 
                 // GET operation
@@ -75,7 +80,7 @@ public class ConcurrentTest {
                 if (getResult.startsWith("GET_RESULT")) {
                   successCount.incrementAndGet();
                 } else {
-                  failureCount.incrementAndGet();
+                  countFailure(getResult, failureCount, busyCount, throttledCount);
                 }
 
                 // DELETE operation
@@ -83,7 +88,7 @@ public class ConcurrentTest {
                 if (deleteResult.equals("DELETE_OK")) {
                   successCount.incrementAndGet();
                 } else {
-                  failureCount.incrementAndGet();
+                  countFailure(deleteResult, failureCount, busyCount, throttledCount);
                 }
               } catch (Exception e) {
                 failureCount.incrementAndGet();
@@ -114,7 +119,8 @@ public class ConcurrentTest {
       logger.log("Concurrent test " + (completed ? "completed" : "timed out"));
       logger.log("Total duration: " + duration + "ms");
       logger.log("Successful operations: " + successCount.get());
-      logger.log("Failed operations: " + failureCount.get());
+      logger.log("Failed operations: " + failureCount.get() + " (BUSY: " + busyCount.get()
+          + ", THROTTLED: " + throttledCount.get() + ")");
 
       // Calculate operations per second
       double opsPerSecond = (successCount.get() + failureCount.get()) / (duration / 1000.0);
@@ -126,6 +132,16 @@ public class ConcurrentTest {
     executor.shutdown();
   }
 
+  private static void countFailure(String result, AtomicInteger failureCount, AtomicInteger busyCount,
+                                   AtomicInteger throttledCount) {
+    failureCount.incrementAndGet();
+    if (result.equals(Protocol.BUSY)) {
+      busyCount.incrementAndGet();
+    } else if (result.equals(Protocol.THROTTLED)) {
+      throttledCount.incrementAndGet();
+    }
+  }
+
   public static void main(String[] args) {
     if (args.length < 2 || args.length > 4) {
       System.out.println("Usage: java ConcurrentTest <host> <port> [numClients] [opsPerClient]");